@@ -1,15 +1,40 @@
 package com.fileservice.client;
 
 import com.filesync.storage.v1.grpc.*;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import net.devh.boot.grpc.client.inject.GrpcClient;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Клиент StorageService. У каждого вызова свой дедлайн (deadline); вызов из обработчика gRPC
+ * наследует контекст входящего запроса - берется меньший из дедлайнов, отмена запроса клиентом
+ * отменяет и исходящий вызов
+ */
 @Service
 public class StorageServiceClient {
 
     @GrpcClient("storage-service")
     private StorageServiceGrpc.StorageServiceBlockingStub storageServiceStub;
 
+    @GrpcClient("storage-service")
+    private StorageServiceGrpc.StorageServiceFutureStub storageServiceFutureStub;
+
+    @Value("${file-service.clients.storage.deadline:10s}")
+    private Duration deadline;
+
     public void confirmUpload(String fileId, int version, String hash) {
         ConfirmUploadRequest request = ConfirmUploadRequest.newBuilder()
                 .setFileId(fileId)
@@ -18,7 +43,7 @@ public class StorageServiceClient {
                 .build();
 
         try {
-            storageServiceStub.confirmUpload(request);
+            stub().confirmUpload(request);
         } catch (Exception e) {
             throw new RuntimeException("Failed to confirm upload with storage service", e);
         }
@@ -31,27 +56,55 @@ public class StorageServiceClient {
                 .build();
 
         try {
-            storageServiceStub.copyFile(request);
+            stub().copyFile(request);
         } catch (Exception e) {
             throw new RuntimeException("Failed to call copy file on storage service", e);
         }
     }
 
-    public void deleteFile(String fileId, Integer version) {
+    /**
+     * Удаление версии (или всех версий, если version = null)
+     *
+     * @param retainedPaths пути, на которые остались ссылки в content_blobs: их объекты не удаляются
+     */
+    public void deleteFile(String fileId, Integer version, Collection<String> retainedPaths) {
         DeleteFileRequest.Builder builder = DeleteFileRequest.newBuilder()
-                .setFileId(fileId);
+                .setFileId(fileId)
+                .addAllRetainedStoragePaths(retainedPaths);
 
         if (version != null) {
             builder.setVersion(version);
         }
 
         try {
-            storageServiceStub.deleteFile(builder.build());
+            stub().deleteFile(builder.build());
         } catch (Exception e) {
             throw new RuntimeException("Failed to delete file on storage service", e);
         }
     }
 
+    /**
+     * Пакетное удаление файлов (все версии)
+     *
+     * @param retainedPaths пути, на которые остались ссылки в content_blobs: их объекты не удаляются
+     * @return ID файлов, удаленных из хранилища; остальные можно повторить позже
+     */
+    public Set<UUID> deleteFiles(Collection<UUID> fileIds, Collection<String> retainedPaths) {
+        DeleteFilesRequest request = DeleteFilesRequest.newBuilder()
+                .addAllFileIds(fileIds.stream().map(UUID::toString).toList())
+                .addAllRetainedStoragePaths(retainedPaths)
+                .build();
+
+        try {
+            DeleteFilesResponse response = stub().deleteFiles(request);
+            return response.getDeletedFileIdsList().stream()
+                    .map(UUID::fromString)
+                    .collect(Collectors.toSet());
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to delete files on storage service", e);
+        }
+    }
+
     public String getUploadUrl(String fileId, String fileName, long fileSize, String mimeType, int version) {
         UploadUrlRequest request = UploadUrlRequest.newBuilder()
                 .setFileId(fileId)
@@ -61,14 +114,58 @@ public class StorageServiceClient {
                 .setVersion(version)
                 .build();
         try {
-            UrlResponse response = storageServiceStub.getUploadUrl(request);
+            UrlResponse response = stub().getUploadUrl(request);
             return response.getUrl();
         } catch (Exception e) {
             throw new RuntimeException("Failed to get upload url from storage service", e);
         }
     }
 
+    /**
+     * Асинхронный запрос Upload URL: вызывающий продолжает работу (запись в БД) параллельно с RPC.
+     * Отмена future отменяет RPC
+     */
+    public CompletableFuture<String> getUploadUrlAsync(String fileId, String fileName, long fileSize,
+            String mimeType, int version) {
+        UploadUrlRequest request = UploadUrlRequest.newBuilder()
+                .setFileId(fileId)
+                .setFileName(fileName)
+                .setFileSize(fileSize)
+                .setMimeType(mimeType)
+                .setVersion(version)
+                .build();
+        ListenableFuture<String> call = Futures.transform(futureStub().getUploadUrl(request), UrlResponse::getUrl,
+                MoreExecutors.directExecutor());
+        return toCompletableFuture(call, "Failed to get upload url from storage service");
+    }
+
+    /**
+     * Upload URL для пачки файлов одним вызовом (ID файла -> URL)
+     */
+    public CompletableFuture<Map<UUID, String>> getUploadUrlsAsync(Collection<UploadTarget> files) {
+        UploadUrlsRequest.Builder request = UploadUrlsRequest.newBuilder();
+        files.forEach(file -> request.addFiles(UploadUrlRequest.newBuilder()
+                .setFileId(file.fileId().toString())
+                .setFileName(file.fileName())
+                .setFileSize(file.fileSize())
+                .setMimeType(file.mimeType())
+                .setVersion(file.version())
+                .build()));
+        ListenableFuture<Map<UUID, String>> call = Futures.transform(futureStub().getUploadUrls(request.build()),
+                response -> response.getUrlsMap().entrySet().stream()
+                        .collect(Collectors.toMap(entry -> UUID.fromString(entry.getKey()), Map.Entry::getValue)),
+                MoreExecutors.directExecutor());
+        return toCompletableFuture(call, "Failed to get upload urls from storage service");
+    }
+
     public String getDownloadUrl(String fileId, Integer version) {
+        return getPresignedDownloadUrl(fileId, version).url();
+    }
+
+    /**
+     * URL скачивания вместе со сроком действия (expires_in в секундах, 0 - не указан)
+     */
+    public PresignedUrl getPresignedDownloadUrl(String fileId, Integer version) {
         DownloadUrlRequest.Builder builder = DownloadUrlRequest.newBuilder()
                 .setFileId(fileId);
 
@@ -77,13 +174,27 @@ public class StorageServiceClient {
         }
 
         try {
-            UrlResponse response = storageServiceStub.getDownloadUrl(builder.build());
-            return response.getUrl();
+            UrlResponse response = stub().getDownloadUrl(builder.build());
+            return new PresignedUrl(response.getUrl(), response.getExpiresIn());
         } catch (Exception e) {
             throw new RuntimeException("Failed to get download url from storage service", e);
         }
     }
 
+    /**
+     * Асинхронный вариант getPresignedDownloadUrl: ожидающий ответа поток ничего не держит
+     */
+    public CompletableFuture<PresignedUrl> getPresignedDownloadUrlAsync(String fileId, int version) {
+        DownloadUrlRequest request = DownloadUrlRequest.newBuilder()
+                .setFileId(fileId)
+                .setVersion(version)
+                .build();
+        ListenableFuture<PresignedUrl> call = Futures.transform(futureStub().getDownloadUrl(request),
+                response -> new PresignedUrl(response.getUrl(), response.getExpiresIn()),
+                MoreExecutors.directExecutor());
+        return toCompletableFuture(call, "Failed to get download url from storage service");
+    }
+
     public void saveVersionMetadata(String fileId, int version, String storagePath, long size) {
         SaveVersionMetadataRequest request = SaveVersionMetadataRequest.newBuilder()
                 .setFileId(fileId)
@@ -93,9 +204,96 @@ public class StorageServiceClient {
                 .build();
 
         try {
-            storageServiceStub.saveVersionMetadata(request);
+            stub().saveVersionMetadata(request);
         } catch (Exception e) {
             throw new RuntimeException("Failed to save version metadata to storage service", e);
         }
     }
+
+    /**
+     * Presigned URL фрагментов содержимого. PUT URL подписан вместе с заголовком
+     * x-amz-checksum-sha256: клиент обязан передать в нем SHA-256 фрагмента (base64)
+     *
+     * @param namespace пространство имен фрагментов ('' - общее)
+     * @param method    PUT - загрузка, GET - скачивание
+     * @return хеш фрагмента -> URL
+     */
+    public Map<String, String> getChunkUrls(String namespace, Collection<String> chunkHashes, String method) {
+        ChunkUrlsRequest request = ChunkUrlsRequest.newBuilder()
+                .setNamespace(namespace)
+                .addAllChunkHashes(chunkHashes)
+                .setMethod(method)
+                .build();
+
+        try {
+            return stub().getChunkUrls(request).getUrlsMap();
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to get chunk urls from storage service", e);
+        }
+    }
+
+    /**
+     * @return хеш фрагмента -> размер для фрагментов, которые есть в хранилище и чья сохраненная
+     *         контрольная сумма SHA-256 совпадает с хешем
+     */
+    public Map<String, Long> statChunks(String namespace, Collection<String> chunkHashes) {
+        StatChunksRequest request = StatChunksRequest.newBuilder()
+                .setNamespace(namespace)
+                .addAllChunkHashes(chunkHashes)
+                .build();
+
+        try {
+            return stub().statChunks(request).getSizesMap();
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to stat chunks on storage service", e);
+        }
+    }
+
+    public void deleteChunks(String namespace, Collection<String> chunkHashes) {
+        DeleteChunksRequest request = DeleteChunksRequest.newBuilder()
+                .setNamespace(namespace)
+                .addAllChunkHashes(chunkHashes)
+                .build();
+
+        try {
+            stub().deleteChunks(request);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to delete chunks on storage service", e);
+        }
+    }
+
+    private StorageServiceGrpc.StorageServiceBlockingStub stub() {
+        return storageServiceStub.withDeadlineAfter(deadline.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private StorageServiceGrpc.StorageServiceFutureStub futureStub() {
+        return storageServiceFutureStub.withDeadlineAfter(deadline.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private static <T> CompletableFuture<T> toCompletableFuture(ListenableFuture<T> call, String errorMessage) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Futures.addCallback(call, new FutureCallback<>() {
+            @Override
+            public void onSuccess(T result) {
+                future.complete(result);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                future.completeExceptionally(new RuntimeException(errorMessage, t));
+            }
+        }, MoreExecutors.directExecutor());
+        future.whenComplete((result, error) -> {
+            if (future.isCancelled()) {
+                call.cancel(true);
+            }
+        });
+        return future;
+    }
+
+    public record PresignedUrl(String url, long expiresInSeconds) {
+    }
+
+    public record UploadTarget(UUID fileId, String fileName, long fileSize, String mimeType, int version) {
+    }
 }
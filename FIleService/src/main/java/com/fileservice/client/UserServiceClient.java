@@ -1,24 +1,46 @@
 package com.fileservice.client;
 
+import com.filesync.user.grpc.AcquireStorageLeaseRequest;
 import com.filesync.user.grpc.CheckQuotaRequest;
+import com.filesync.user.grpc.GetUsersByIdsRequest;
+import com.filesync.user.grpc.GetUsersByIdsResponse;
 import com.filesync.user.grpc.QuotaResponse;
+import com.filesync.user.grpc.ReportStorageUsageRequest;
+import com.filesync.user.grpc.StorageLeaseResponse;
+import com.filesync.user.grpc.StorageUsageDelta;
 import com.filesync.user.grpc.UpdateStorageUsedRequest;
 import com.filesync.user.grpc.UserServiceGrpc;
+import com.filesync.user.grpc.UserSummary;
 import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
 import lombok.extern.slf4j.Slf4j;
 import net.devh.boot.grpc.client.inject.GrpcClient;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 @Service
 @Slf4j
 public class UserServiceClient {
 
+    /**
+     * Ограничение UserService на число id в одном GetUsersByIds
+     */
+    private static final int USERS_BATCH_SIZE = 1000;
+
     @GrpcClient("user-service")
     private UserServiceGrpc.UserServiceBlockingStub userServiceStub;
 
+    @Value("${file-service.clients.user.deadline:5s}")
+    private Duration deadline;
+
     public boolean checkQuota(UUID userId, long size) {
         CheckQuotaRequest request = CheckQuotaRequest.newBuilder()
                 .setUserId(userId.toString())
@@ -27,7 +49,7 @@ public class UserServiceClient {
 
         try {
             log.debug("Checking quota for user {} with file size {}", userId, size);
-            QuotaResponse response = userServiceStub.checkQuota(request);
+            QuotaResponse response = stub().checkQuota(request);
             boolean hasSpace = response.getHasSpace();
             log.debug("Quota check result for user {}: hasSpace={}, available={}, used={}, total={}",
                     userId, hasSpace, response.getAvailableSpace(), response.getStorageUsed(),
@@ -58,7 +80,7 @@ public class UserServiceClient {
                 .build();
 
         try {
-            userServiceStub.updateStorageUsed(request);
+            stub().updateStorageUsed(request);
         } catch (Exception e) {
             // This ideally should be retried or sent to a DLQ/Kafka if sync call fails.
             // But required is gRPC client.
@@ -66,6 +88,50 @@ public class UserServiceClient {
         }
     }
 
+    /**
+     * Запрос (или продление) аренды квоты для экземпляра FileService.
+     * minBytes = 0 - только продление срока без обязательного прироста
+     */
+    public StorageLeaseResponse acquireStorageLease(UUID userId, String holderId, long minBytes,
+            long requestedBytes, int ttlSeconds) {
+        AcquireStorageLeaseRequest request = AcquireStorageLeaseRequest.newBuilder()
+                .setUserId(userId.toString())
+                .setHolderId(holderId)
+                .setMinBytes(minBytes)
+                .setRequestedBytes(requestedBytes)
+                .setTtlSeconds(ttlSeconds)
+                .build();
+
+        try {
+            return stub().acquireStorageLease(request);
+        } catch (StatusRuntimeException e) {
+            Status status = e.getStatus();
+            String errorMessage = status.getDescription() != null ? status.getDescription() : status.getCode().name();
+            log.error("gRPC error acquiring storage lease for user {}: {} - {}", userId, status.getCode(), errorMessage);
+
+            if (status.getCode() == Status.Code.UNAVAILABLE || status.getCode() == Status.Code.DEADLINE_EXCEEDED) {
+                throw new RuntimeException("User service is unavailable. Please try again later.", e);
+            }
+            throw new RuntimeException("Failed to acquire storage lease: " + errorMessage, e);
+        }
+    }
+
+    /**
+     * Пакетная отправка накопленных изменений занятого места
+     */
+    public void reportStorageUsage(String holderId, List<StorageUsageDelta> deltas) {
+        ReportStorageUsageRequest request = ReportStorageUsageRequest.newBuilder()
+                .setHolderId(holderId)
+                .addAllDeltas(deltas)
+                .build();
+
+        try {
+            stub().reportStorageUsage(request);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to report storage usage", e);
+        }
+    }
+
     /**
      * Get user information (email and name) by user ID
      * Returns null if user not found
@@ -76,7 +142,7 @@ public class UserServiceClient {
                 .build();
 
         try {
-            com.filesync.user.grpc.UserResponse response = userServiceStub.getUser(request);
+            com.filesync.user.grpc.UserResponse response = stub().getUser(request);
             return new UserInfo(response.getEmail(), response.getName());
         } catch (StatusRuntimeException e) {
             if (e.getStatus().getCode() == Status.Code.NOT_FOUND) {
@@ -91,6 +157,40 @@ public class UserServiceClient {
         }
     }
 
+    /**
+     * Краткие профили набора пользователей (по одному вызову на каждые USERS_BATCH_SIZE id).
+     * Ненайденные пользователи в результат не попадают
+     */
+    public Map<UUID, UserInfo> getUsersByIds(Collection<? extends UUID> userIds) {
+        Map<UUID, UserInfo> result = new HashMap<>();
+        List<String> ids = userIds.stream().distinct().map(UUID::toString).toList();
+
+        for (int from = 0; from < ids.size(); from += USERS_BATCH_SIZE) {
+            List<String> chunk = ids.subList(from, Math.min(from + USERS_BATCH_SIZE, ids.size()));
+            try {
+                GetUsersByIdsResponse response = stub().getUsersByIds(GetUsersByIdsRequest.newBuilder()
+                        .addAllIds(chunk)
+                        .build());
+                for (UserSummary user : response.getUsersList()) {
+                    result.put(UUID.fromString(user.getId()), new UserInfo(user.getEmail(), user.getName()));
+                }
+            } catch (StatusRuntimeException e) {
+                Status status = e.getStatus();
+                String errorMessage = status.getDescription() != null ? status.getDescription() : status.getCode().name();
+                log.error("gRPC error getting {} users: {} - {}", chunk.size(), status.getCode(), errorMessage);
+                throw new RuntimeException("Failed to get users: " + errorMessage, e);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Дедлайн на каждый вызов: медленный UserService не держит поток обработчика дольше deadline
+     */
+    private UserServiceGrpc.UserServiceBlockingStub stub() {
+        return userServiceStub.withDeadlineAfter(deadline.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
     /**
      * Simple DTO for user information
      */
@@ -0,0 +1,53 @@
+package com.fileservice.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Исполнитель: виртуальный поток на задачу, одновременно выполняется не больше maxConcurrent задач.
+ * Лимит держит число обработчиков, конкурирующих за соединения Hikari, около размера пула:
+ * лишние задачи ждут разрешения, а не connection-timeout пула.
+ * execute не блокирует вызывающего (транспортный поток gRPC) - ожидание разрешения идет
+ * в уже созданном виртуальном потоке
+ */
+public class BoundedVirtualThreadExecutor implements Executor, AutoCloseable {
+
+    private final ExecutorService delegate;
+    private final Semaphore permits;
+
+    public BoundedVirtualThreadExecutor(String name, int maxConcurrent, MeterRegistry meterRegistry) {
+        this.delegate = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory());
+        this.permits = new Semaphore(maxConcurrent, true);
+
+        Gauge.builder("file.executor.active", permits, p -> maxConcurrent - p.availablePermits())
+                .description("Tasks holding a concurrency permit")
+                .tag("executor", name)
+                .register(meterRegistry);
+        Gauge.builder("file.executor.waiting", permits, Semaphore::getQueueLength)
+                .description("Tasks waiting for a concurrency permit")
+                .tag("executor", name)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        delegate.execute(() -> {
+            permits.acquireUninterruptibly();
+            try {
+                task.run();
+            } finally {
+                permits.release();
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
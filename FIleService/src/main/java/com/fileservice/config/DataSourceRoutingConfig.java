@@ -0,0 +1,76 @@
+package com.fileservice.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.flyway.FlywayDataSource;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Источники данных с read-репликами: primary (пул spring.datasource.hikari, миграции Flyway)
+ * и по пулу на каждую реплику. JPA и JdbcTemplate получают соединения через ReplicaRoutingDataSource.
+ * Без file-service.datasource.routing.enabled используется стандартный источник Spring Boot
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "file-service.datasource.routing", name = "enabled", havingValue = "true")
+public class DataSourceRoutingConfig {
+
+    @Bean
+    @FlywayDataSource
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    /**
+     * Пулы реплик наследуют учетные данные и таймауты primary; метрики пулов -
+     * hikaricp.* с тегом pool (FileServiceHikariPool-replica-N)
+     */
+    @Bean
+    public ReplicaRoutingDataSource routingDataSource(HikariDataSource primaryDataSource,
+            DataSourceProperties properties,
+            MeterRegistry meterRegistry,
+            @Value("${file-service.datasource.routing.replica-urls:}") List<String> replicaUrls,
+            @Value("${file-service.datasource.routing.replica-pool-size:30}") int replicaPoolSize,
+            @Value("${file-service.datasource.routing.max-lag:5s}") Duration maxLag,
+            @Value("${file-service.datasource.routing.lag-check-interval-ms:1000}") long lagCheckIntervalMillis) {
+        List<HikariDataSource> replicas = new ArrayList<>();
+        for (String url : replicaUrls) {
+            if (url.isBlank()) {
+                continue;
+            }
+            HikariDataSource replica = properties.initializeDataSourceBuilder()
+                    .type(HikariDataSource.class)
+                    .url(url.trim())
+                    .build();
+            replica.setPoolName(primaryDataSource.getPoolName() + "-replica-" + (replicas.size() + 1));
+            replica.setMaximumPoolSize(replicaPoolSize);
+            replica.setMinimumIdle(Math.min(primaryDataSource.getMinimumIdle(), replicaPoolSize));
+            replica.setConnectionTimeout(primaryDataSource.getConnectionTimeout());
+            replica.setIdleTimeout(primaryDataSource.getIdleTimeout());
+            replica.setMaxLifetime(primaryDataSource.getMaxLifetime());
+            replica.setReadOnly(true);
+            replica.setMetricRegistry(meterRegistry);
+            replicas.add(replica);
+        }
+        return new ReplicaRoutingDataSource(primaryDataSource, replicas, maxLag, lagCheckIntervalMillis,
+                meterRegistry);
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(ReplicaRoutingDataSource routingDataSource) {
+        return new LazyConnectionDataSourceProxy(routingDataSource);
+    }
+}
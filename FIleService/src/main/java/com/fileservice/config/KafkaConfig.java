@@ -1,6 +1,7 @@
 package com.fileservice.config;
 
 import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.serialization.StringSerializer;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
@@ -8,8 +9,12 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.kafka.core.DefaultKafkaProducerFactory;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.listener.DeadLetterPublishingRecoverer;
+import org.springframework.kafka.listener.DefaultErrorHandler;
 import org.springframework.kafka.support.serializer.JsonSerializer;
+import org.springframework.util.backoff.FixedBackOff;
 
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -19,19 +24,61 @@ public class KafkaConfig {
     @Value("${spring.kafka.bootstrap-servers:localhost:9092}")
     private String bootstrapServers;
 
+    /**
+     * Продюсер OutboxRelay: сообщения уже сериализованы в outbox, отправляются строкой.
+     * Linger и сжатие позволяют собирать пачку outbox в крупные батчи Kafka;
+     * идемпотентность сохраняет порядок при повторах
+     */
     @Bean
-    public ProducerFactory<String, Object> producerFactory() {
+    public ProducerFactory<String, String> outboxProducerFactory(
+            @Value("${file-service.outbox.linger-ms:20}") int lingerMs,
+            @Value("${file-service.outbox.producer-batch-bytes:262144}") int batchBytes,
+            @Value("${file-service.outbox.compression:lz4}") String compression) {
         Map<String, Object> configProps = new HashMap<>();
         configProps.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
         configProps.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
-        configProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, JsonSerializer.class);
-        // Ensure we can handle generic Object payloads
-        configProps.put(JsonSerializer.TYPE_MAPPINGS, "event:com.fileservice.event.FileEvent");
+        configProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        configProps.put(ProducerConfig.ACKS_CONFIG, "all");
+        configProps.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
+        configProps.put(ProducerConfig.LINGER_MS_CONFIG, lingerMs);
+        configProps.put(ProducerConfig.BATCH_SIZE_CONFIG, batchBytes);
+        configProps.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, compression);
         return new DefaultKafkaProducerFactory<>(configProps);
     }
 
     @Bean
-    public KafkaTemplate<String, Object> kafkaTemplate() {
-        return new KafkaTemplate<>(producerFactory());
+    public KafkaTemplate<String, String> outboxKafkaTemplate(
+            ProducerFactory<String, String> outboxProducerFactory) {
+        return new KafkaTemplate<>(outboxProducerFactory);
+    }
+
+    /**
+     * Продюсер записей, не обработанных слушателями: значение - уже десериализованное событие,
+     * публикуется обратно в JSON без заголовков типа
+     */
+    @Bean
+    public KafkaTemplate<Object, Object> deadLetterKafkaTemplate() {
+        Map<String, Object> configProps = new HashMap<>();
+        configProps.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        configProps.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        configProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, JsonSerializer.class);
+        configProps.put(JsonSerializer.ADD_TYPE_INFO_HEADERS, false);
+        configProps.put(ProducerConfig.ACKS_CONFIG, "all");
+        return new KafkaTemplate<>(new DefaultKafkaProducerFactory<>(configProps));
+    }
+
+    /**
+     * Обработчик ошибок слушателей (Spring Boot подключает его к фабрике контейнеров).
+     * Запись повторяется retry.attempts раз с паузой retry.interval, затем публикуется в {topic}.dlt
+     * и пропускается. Пакетный слушатель указывает сбойную запись через BatchListenerFailedException,
+     * поэтому в DLT уходит только она, а не вся пачка
+     */
+    @Bean
+    public DefaultErrorHandler kafkaErrorHandler(KafkaTemplate<Object, Object> deadLetterKafkaTemplate,
+            @Value("${file-service.kafka.retry.interval:1s}") Duration retryInterval,
+            @Value("${file-service.kafka.retry.attempts:3}") long retryAttempts) {
+        DeadLetterPublishingRecoverer recoverer = new DeadLetterPublishingRecoverer(deadLetterKafkaTemplate,
+                (record, exception) -> new TopicPartition(record.topic() + ".dlt", -1));
+        return new DefaultErrorHandler(recoverer, new FixedBackOff(retryInterval.toMillis(), retryAttempts));
     }
 }
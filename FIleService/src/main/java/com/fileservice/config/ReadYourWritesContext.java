@@ -0,0 +1,84 @@
+package com.fileservice.config;
+
+import java.util.UUID;
+
+/**
+ * Пользователь, от имени которого выполняется текущий запрос, и метка его последней записи.
+ * По ним ReplicaRoutingDataSource отмечает записи пользователя и не отправляет
+ * его чтения на реплики, которые еще не догнали эти записи.
+ * Метка приходит от клиента (записи через другие экземпляры FileService) и обновляется
+ * после коммита записи в этом запросе, чтобы клиент вернул ее в следующих запросах
+ */
+public final class ReadYourWritesContext {
+
+    private static final ThreadLocal<Session> CURRENT = new ThreadLocal<>();
+
+    private ReadYourWritesContext() {
+    }
+
+    public static Session current() {
+        return CURRENT.get();
+    }
+
+    public static UUID currentUser() {
+        Session session = CURRENT.get();
+        return session != null ? session.userId() : null;
+    }
+
+    /**
+     * Выполнение действия в сессии запроса (null - без привязки)
+     */
+    public static void runAs(Session session, Runnable action) {
+        Session previous = CURRENT.get();
+        CURRENT.set(session);
+        try {
+            action.run();
+        } finally {
+            if (previous != null) {
+                CURRENT.set(previous);
+            } else {
+                CURRENT.remove();
+            }
+        }
+    }
+
+    /**
+     * Состояние одного запроса
+     */
+    public static final class Session {
+
+        private final UUID userId;
+        private final long clientLastWriteAt;
+        private volatile long committedWriteAt;
+
+        /**
+         * @param clientLastWriteAt метка последней записи из метаданных запроса (epoch ms), 0 - нет
+         */
+        public Session(UUID userId, long clientLastWriteAt) {
+            this.userId = userId;
+            this.clientLastWriteAt = clientLastWriteAt;
+        }
+
+        public UUID userId() {
+            return userId;
+        }
+
+        /**
+         * Последняя известная запись пользователя: из метаданных или закоммиченная в этом запросе; 0 - нет
+         */
+        public long lastWriteAt() {
+            return Math.max(clientLastWriteAt, committedWriteAt);
+        }
+
+        /**
+         * Время коммита записи в этом запросе; 0 - запрос ничего не записал
+         */
+        public long committedWriteAt() {
+            return committedWriteAt;
+        }
+
+        void recordWrite(long committedAt) {
+            committedWriteAt = committedAt;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.fileservice.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * Маршрутизация соединений: readOnly-транзакции - на реплики, остальное - на primary.
+ * Реплика выбирается по кругу среди тех, чье отставание не больше max-lag и меньше времени,
+ * прошедшего с последней записи текущего пользователя (read-your-writes). Последняя запись берется
+ * из локального кэша и из метки запроса (x-last-write-at), поэтому учитываются и записи,
+ * прошедшие через другие экземпляры FileService.
+ * Если подходящей реплики нет, чтение идет на primary.
+ * Соединение запрашивается при первом запросе транзакции (LazyConnectionDataSourceProxy),
+ * когда признак readOnly уже известен
+ */
+@Slf4j
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource implements AutoCloseable {
+
+    static final String PRIMARY = "primary";
+
+    private static final String LAG_QUERY = "SELECT CAST(CASE WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() "
+            + "THEN 0 ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000, 0) END "
+            + "AS BIGINT)";
+
+    private final List<Replica> replicas;
+    private final long maxLagMillis;
+    private final long lagCheckIntervalMillis;
+    private final AtomicInteger nextReplica = new AtomicInteger();
+
+    /**
+     * Время последнего коммита записи пользователя. Записи старше max-lag не влияют на выбор
+     * (у подходящих реплик отставание меньше), поэтому хранятся не дольше max-lag
+     */
+    private final Cache<UUID, Long> lastWrites;
+
+    private final Map<String, Counter> routeCounters = new HashMap<>();
+    private final Counter fallbackCounter;
+
+    public ReplicaRoutingDataSource(DataSource primary, List<HikariDataSource> replicaPools, Duration maxLag,
+            long lagCheckIntervalMillis, MeterRegistry meterRegistry) {
+        this.replicas = IntStream.range(0, replicaPools.size())
+                .mapToObj(i -> new Replica("replica-" + (i + 1), replicaPools.get(i)))
+                .toList();
+        this.maxLagMillis = maxLag.toMillis();
+        this.lagCheckIntervalMillis = lagCheckIntervalMillis;
+        this.lastWrites = Caffeine.newBuilder()
+                .expireAfterWrite(maxLag)
+                .build();
+
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(PRIMARY, primary);
+        replicas.forEach(replica -> targets.put(replica.key, replica.dataSource));
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+
+        targets.keySet().forEach(key -> routeCounters.put((String) key, Counter.builder("file.datasource.routes")
+                .description("Connections routed to a datasource")
+                .tag("route", (String) key)
+                .register(meterRegistry)));
+        this.fallbackCounter = Counter.builder("file.datasource.replica.fallbacks")
+                .description("Read-only transactions sent to primary because no replica was fresh enough")
+                .register(meterRegistry);
+        replicas.forEach(replica -> Gauge.builder("file.datasource.replica.lag", replica, r -> r.lagMillis)
+                .description("Replication lag of a read replica, ms")
+                .tag("route", replica.key)
+                .baseUnit("milliseconds")
+                .register(meterRegistry));
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            trackWrite();
+            return route(PRIMARY);
+        }
+        if (replicas.isEmpty()) {
+            return route(PRIMARY);
+        }
+
+        Long lastWrite = lastWriteOf(ReadYourWritesContext.current());
+        long sinceWrite = lastWrite != null ? System.currentTimeMillis() - lastWrite : Long.MAX_VALUE;
+
+        int start = Math.floorMod(nextReplica.getAndIncrement(), replicas.size());
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get((start + i) % replicas.size());
+            long lag = replica.lagMillis;
+            // Отставание могло вырасти с последней проверки - запас в один интервал проверки
+            if (lag <= maxLagMillis && (lastWrite == null || lag + lagCheckIntervalMillis < sinceWrite)) {
+                return route(replica.key);
+            }
+        }
+        fallbackCounter.increment();
+        return route(PRIMARY);
+    }
+
+    /**
+     * Замер отставания реплик. Недоступная реплика исключается до следующего успешного замера
+     */
+    @Scheduled(fixedDelayString = "${file-service.datasource.routing.lag-check-interval-ms:1000}")
+    public void checkReplicaLag() {
+        for (Replica replica : replicas) {
+            try (Connection connection = replica.dataSource.getConnection();
+                    Statement statement = connection.createStatement();
+                    ResultSet rs = statement.executeQuery(LAG_QUERY)) {
+                rs.next();
+                replica.lagMillis = rs.getLong(1);
+            } catch (Exception e) {
+                if (replica.lagMillis != Long.MAX_VALUE) {
+                    log.warn("Read replica {} excluded from routing: {}", replica.key, e.getMessage());
+                }
+                replica.lagMillis = Long.MAX_VALUE;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        replicas.forEach(replica -> replica.dataSource.close());
+    }
+
+    /**
+     * Последняя запись пользователя сессии (локальная или из метки запроса); null - неизвестна
+     */
+    private Long lastWriteOf(ReadYourWritesContext.Session session) {
+        if (session == null) {
+            return null;
+        }
+        Long local = session.userId() != null ? lastWrites.getIfPresent(session.userId()) : null;
+        long lastWrite = Math.max(local != null ? local : 0L, session.lastWriteAt());
+        return lastWrite > 0 ? lastWrite : null;
+    }
+
+    /**
+     * После коммита пишущей транзакции чтения пользователя на время отставания реплик идут на primary.
+     * Время коммита попадает и в сессию запроса - клиент получит его в ответе как метку
+     */
+    private void trackWrite() {
+        ReadYourWritesContext.Session session = ReadYourWritesContext.current();
+        if (session == null || !TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                long committedAt = System.currentTimeMillis();
+                session.recordWrite(committedAt);
+                if (session.userId() != null) {
+                    lastWrites.put(session.userId(), committedAt);
+                }
+            }
+        });
+    }
+
+    private String route(String key) {
+        routeCounters.get(key).increment();
+        return key;
+    }
+
+    private static final class Replica {
+
+        private final String key;
+        private final HikariDataSource dataSource;
+
+        /**
+         * Отставание по последнему замеру; до первого замера реплика не используется
+         */
+        private volatile long lagMillis = Long.MAX_VALUE;
+
+        private Replica(String key, HikariDataSource dataSource) {
+            this.key = key;
+            this.dataSource = dataSource;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.fileservice.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import net.devh.boot.grpc.client.channelfactory.GrpcChannelConfigurer;
+import net.devh.boot.grpc.server.serverfactory.GrpcServerConfigurer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Режим виртуальных потоков (spring.threads.virtual.enabled=true).
+ * Spring Boot сам переводит на виртуальные потоки контейнеры Kafka-слушателей, @Scheduled
+ * и applicationTaskExecutor; здесь - обработчики gRPC-сервера (с лимитом одновременных
+ * обработчиков под пул соединений БД) и callback'и gRPC-клиентов.
+ * Лимиты всех исполнителей, работающих с БД, в сумме не превышают пул Hikari (50):
+ * <ul>
+ *   <li>gRPC-обработчики - max-concurrent-handlers (35);</li>
+ *   <li>@Scheduled - spring.task.scheduling.simple.concurrency-limit (4) и еще одно соединение
+ *       OutboxRelay под сессионную advisory-блокировку (5);</li>
+ *   <li>applicationTaskExecutor - spring.task.execution.simple.concurrency-limit (3);</li>
+ *   <li>Kafka - по потоку на контейнер слушателя (concurrency 1, три слушателя - 3);</li>
+ *   <li>задачи EmptyTrash - собственный пул file-service.empty-trash.parallelism (4).</li>
+ * </ul>
+ * 35 + 5 + 3 + 3 + 4 = 50. Пулы удаления объектов (storage-parallelism) к БД не обращаются
+ */
+@Configuration
+@ConditionalOnThreading(Threading.VIRTUAL)
+public class VirtualThreadConfig {
+
+    /**
+     * Исполнители - не бины: бин типа Executor отключил бы applicationTaskExecutor Spring Boot
+     */
+    private final BoundedVirtualThreadExecutor serverExecutor;
+
+    /**
+     * Без лимита: callback'и клиентов короткие, а ограничение могло бы задержать ответ,
+     * которого ждет обработчик, уже держащий разрешение
+     */
+    private final ExecutorService clientExecutor =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("grpc-client-", 0).factory());
+
+    public VirtualThreadConfig(MeterRegistry meterRegistry,
+            @Value("${file-service.virtual-threads.max-concurrent-handlers:35}") int maxConcurrentHandlers) {
+        this.serverExecutor = new BoundedVirtualThreadExecutor("grpc-server", maxConcurrentHandlers, meterRegistry);
+    }
+
+    @Bean
+    public GrpcServerConfigurer virtualThreadServerConfigurer() {
+        return serverBuilder -> serverBuilder.executor(serverExecutor);
+    }
+
+    @Bean
+    public GrpcChannelConfigurer virtualThreadChannelConfigurer() {
+        return (channelBuilder, name) -> channelBuilder.executor(clientExecutor);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        serverExecutor.close();
+        clientExecutor.close();
+    }
+}
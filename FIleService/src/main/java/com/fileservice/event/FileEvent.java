@@ -21,4 +21,5 @@ public class FileEvent {
     private Object payload; // Flexible payload (could be file metadata, version info, etc.)
     private int version; // Event schema version
     private java.util.Map<String, String> metadata; // Extra metadata
+    private java.util.List<UUID> recipientIds; // Получатели fan-out события (file.share_fanout)
 }
@@ -1,12 +1,25 @@
 package com.fileservice.grpc;
 
+import com.fileservice.client.UserServiceClient.UserInfo;
+import com.fileservice.model.EmptyTrashJob;
+import com.fileservice.model.FileListing;
 import com.fileservice.model.FilePermission;
+import com.fileservice.model.FolderAggregate;
 import com.fileservice.model.FileShare;
 import com.fileservice.model.FileVersion;
 import com.fileservice.model.SharePermission;
+import com.fileservice.service.BatchFileItem;
+import com.fileservice.service.ChangeJournalService;
+import com.fileservice.service.ChangeSet;
+import com.fileservice.service.ChunkedVersionService;
+import com.fileservice.service.EmptyTrashJobService;
+import com.fileservice.service.FileSearchCriteria;
 import com.fileservice.service.FileService;
+import com.fileservice.service.IdempotencyService;
+import com.fileservice.service.IdempotencyService.IdempotencyKeyException;
 import com.fileservice.service.PermissionService;
 import com.fileservice.service.ShareService;
+import com.fileservice.service.UserInfoCache;
 import com.fileservice.service.VersionService;
 import io.grpc.Status;
 import io.grpc.stub.StreamObserver;
@@ -17,8 +30,14 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
 
+import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
 
 @GrpcService
@@ -30,32 +49,42 @@ public class FileGrpcService extends FileServiceGrpc.FileServiceImplBase {
     private final VersionService versionService;
     private final ShareService shareService;
     private final PermissionService permissionService;
-    private final com.fileservice.client.UserServiceClient userServiceClient;
+    private final UserInfoCache userInfoCache;
+    private final EmptyTrashJobService emptyTrashJobService;
+    private final ChunkedVersionService chunkedVersionService;
+    private final ChangeJournalService changeJournalService;
+    private final IdempotencyService idempotencyService;
 
     private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 500;
 
     @Override
     public void createFile(CreateFileRequest request, StreamObserver<FileMetadata> responseObserver) {
         try {
-            com.fileservice.model.File file = new com.fileservice.model.File();
-            file.setName(request.getName());
-            file.setPath(request.getPath());
-            file.setUserId(UUID.fromString(request.getUserId()));
-            file.setSize(request.getSize());
-            file.setMimeType(request.getMimeType());
-            file.setHash(request.getHash());
-            file.setIsFolder(request.getIsFolder());
-
-            if (request.hasParentFolderId() && !request.getParentFolderId().isEmpty()) {
-                com.fileservice.model.File parent = new com.fileservice.model.File();
-                parent.setId(UUID.fromString(request.getParentFolderId()));
-                file.setParentFolder(parent);
-            }
+            UUID userId = UUID.fromString(request.getUserId());
+            FileMetadata response = idempotencyService.execute("CreateFile", userId, request.getIdempotencyKey(),
+                    request, FileMetadata.parser(), () -> {
+                        com.fileservice.model.File file = new com.fileservice.model.File();
+                        file.setName(request.getName());
+                        file.setPath(request.getPath());
+                        file.setUserId(userId);
+                        file.setSize(request.getSize());
+                        file.setMimeType(request.getMimeType());
+                        file.setHash(request.getHash());
+                        file.setIsFolder(request.getIsFolder());
+
+                        if (request.hasParentFolderId() && !request.getParentFolderId().isEmpty()) {
+                            com.fileservice.model.File parent = new com.fileservice.model.File();
+                            parent.setId(UUID.fromString(request.getParentFolderId()));
+                            file.setParentFolder(parent);
+                        }
 
-            com.fileservice.model.File createdFile = fileService.createFile(file);
-            responseObserver.onNext(mapToFileMetadata(createdFile));
+                        return mapToFileMetadata(fileService.createFile(file));
+                    }, this::withFreshUploadUrl);
+            responseObserver.onNext(response);
             responseObserver.onCompleted();
-        } catch (IllegalArgumentException e) {
+        } catch (IllegalArgumentException | IdempotencyKeyException e) {
             responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
         } catch (Exception e) {
             log.error("Error creating file", e);
@@ -63,6 +92,71 @@ public class FileGrpcService extends FileServiceGrpc.FileServiceImplBase {
         }
     }
 
+    @Override
+    public void batchCreateFiles(BatchCreateFilesRequest request, StreamObserver<BatchFilesResponse> responseObserver) {
+        try {
+            UUID userId = UUID.fromString(request.getUserId());
+
+            java.util.List<BatchFileItem> items = request.getItemsList().stream()
+                    .map(item -> new BatchFileItem(
+                            item.getName(),
+                            item.getPath(),
+                            item.getSize(),
+                            item.getMimeType(),
+                            item.getHash(),
+                            item.getIsFolder(),
+                            item.hasParentFolderId() && !item.getParentFolderId().isEmpty()
+                                    ? UUID.fromString(item.getParentFolderId())
+                                    : null,
+                            item.hasParentIndex() ? item.getParentIndex() : null))
+                    .toList();
+
+            java.util.List<com.fileservice.model.File> created = fileService.batchCreateFiles(userId, items);
+
+            BatchFilesResponse.Builder responseBuilder = BatchFilesResponse.newBuilder();
+            created.forEach(file -> responseBuilder.addFiles(mapToFileMetadata(file)));
+
+            responseObserver.onNext(responseBuilder.build());
+            responseObserver.onCompleted();
+        } catch (IllegalArgumentException e) {
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
+        } catch (Exception e) {
+            log.error("Error batch creating files", e);
+            responseObserver.onError(Status.INTERNAL.withDescription("Internal server error").asRuntimeException());
+        }
+    }
+
+    @Override
+    public void batchGetFiles(BatchGetFilesRequest request, StreamObserver<BatchFilesResponse> responseObserver) {
+        try {
+            UUID userId = UUID.fromString(request.getUserId());
+            java.util.Set<UUID> fileIds = new java.util.LinkedHashSet<>();
+            request.getFileIdsList().forEach(id -> fileIds.add(UUID.fromString(id)));
+
+            java.util.Map<UUID, com.fileservice.model.File> found = new java.util.HashMap<>();
+            fileService.batchGetFiles(userId, fileIds).forEach(file -> found.put(file.getId(), file));
+
+            // Ответ в порядке запроса, отсутствующие ID - отдельным списком
+            BatchFilesResponse.Builder responseBuilder = BatchFilesResponse.newBuilder();
+            fileIds.forEach(id -> {
+                com.fileservice.model.File file = found.get(id);
+                if (file != null) {
+                    responseBuilder.addFiles(mapToFileMetadata(file));
+                } else {
+                    responseBuilder.addMissingIds(id.toString());
+                }
+            });
+
+            responseObserver.onNext(responseBuilder.build());
+            responseObserver.onCompleted();
+        } catch (IllegalArgumentException e) {
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
+        } catch (Exception e) {
+            log.error("Error batch getting files", e);
+            responseObserver.onError(Status.INTERNAL.withDescription("Internal server error").asRuntimeException());
+        }
+    }
+
     @Override
     public void getFile(GetFileRequest request, StreamObserver<FileMetadata> responseObserver) {
         try {
@@ -124,9 +218,14 @@ public class FileGrpcService extends FileServiceGrpc.FileServiceImplBase {
             // Other fields like mimeType logic could be added effectively if needed, proto
             // supports optional
 
-            com.fileservice.model.File updatedFile = fileService.updateFile(fileId, userId, updates);
-            responseObserver.onNext(mapToFileMetadata(updatedFile));
+            FileMetadata response = idempotencyService.execute("UpdateFile", userId, request.getIdempotencyKey(),
+                    request, FileMetadata.parser(),
+                    () -> mapToFileMetadata(fileService.updateFile(fileId, userId, updates)),
+                    this::withFreshUploadUrl);
+            responseObserver.onNext(response);
             responseObserver.onCompleted();
+        } catch (IdempotencyKeyException e) {
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
         } catch (IllegalArgumentException e) {
             responseObserver.onError(Status.NOT_FOUND.withDescription(e.getMessage()).asRuntimeException());
         } catch (Exception e) {
@@ -163,6 +262,23 @@ public class FileGrpcService extends FileServiceGrpc.FileServiceImplBase {
     public void listTrash(ListTrashRequest request, StreamObserver<FileListResponse> responseObserver) {
         try {
             UUID userId = UUID.fromString(request.getUserId());
+
+            if (request.hasCursor()) {
+                int limit = pageLimit(request.getLimit());
+                Window<com.fileservice.model.File> window = fileService.listTrash(userId,
+                        KeysetCursor.decode(request.getCursor()), limit);
+
+                FileListResponse.Builder responseBuilder = windowResponse(window);
+                window.forEach(file -> responseBuilder.addFiles(mapToFileMetadata(file)));
+                if (request.getIncludeTotal()) {
+                    responseBuilder.setTotal((int) fileService.countTrash(userId));
+                }
+
+                responseObserver.onNext(responseBuilder.build());
+                responseObserver.onCompleted();
+                return;
+            }
+
             int page = request.getOffset() / request.getLimit();
             Pageable pageable = PageRequest.of(page, request.getLimit(), Sort.by("updatedAt").descending());
 
@@ -175,6 +291,8 @@ public class FileGrpcService extends FileServiceGrpc.FileServiceImplBase {
 
             responseObserver.onNext(responseBuilder.build());
             responseObserver.onCompleted();
+        } catch (IllegalArgumentException e) {
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
         } catch (Exception e) {
             log.error("Error listing trash", e);
             responseObserver.onError(Status.INTERNAL.withDescription("Internal server error").asRuntimeException());
@@ -202,12 +320,12 @@ public class FileGrpcService extends FileServiceGrpc.FileServiceImplBase {
     }
 
     @Override
-    public void emptyTrash(EmptyTrashRequest request, StreamObserver<com.google.protobuf.Empty> responseObserver) {
+    public void emptyTrash(EmptyTrashRequest request, StreamObserver<EmptyTrashJobResponse> responseObserver) {
         try {
             UUID userId = UUID.fromString(request.getUserId());
-            fileService.emptyTrash(userId);
+            EmptyTrashJob job = emptyTrashJobService.start(userId);
 
-            responseObserver.onNext(com.google.protobuf.Empty.newBuilder().build());
+            responseObserver.onNext(mapToEmptyTrashJobResponse(job));
             responseObserver.onCompleted();
         } catch (Exception e) {
             log.error("Error emptying trash", e);
@@ -215,31 +333,74 @@ public class FileGrpcService extends FileServiceGrpc.FileServiceImplBase {
         }
     }
 
+    @Override
+    public void getEmptyTrashJob(GetEmptyTrashJobRequest request,
+            StreamObserver<EmptyTrashJobResponse> responseObserver) {
+        try {
+            EmptyTrashJob job = emptyTrashJobService.getJob(UUID.fromString(request.getJobId()),
+                    UUID.fromString(request.getUserId()));
+
+            responseObserver.onNext(mapToEmptyTrashJobResponse(job));
+            responseObserver.onCompleted();
+        } catch (IllegalArgumentException e) {
+            responseObserver.onError(Status.NOT_FOUND.withDescription(e.getMessage()).asRuntimeException());
+        } catch (Exception e) {
+            log.error("Error getting empty trash job", e);
+            responseObserver.onError(Status.INTERNAL.withDescription("Internal server error").asRuntimeException());
+        }
+    }
+
     @Override
     public void listFiles(ListFilesRequest request, StreamObserver<FileListResponse> responseObserver) {
         try {
             UUID userId = UUID.fromString(request.getUserId());
-            int page = request.getOffset() / request.getLimit();
-            Pageable pageable = PageRequest.of(page, request.getLimit(), Sort.by("name"));
-
             UUID parentId = request.hasParentFolderId() && !request.getParentFolderId().isEmpty()
                     ? UUID.fromString(request.getParentFolderId())
                     : null;
+            boolean search = request.hasSearchQuery() && !request.getSearchQuery().isEmpty();
 
-            Page<com.fileservice.model.File> result;
-            if (request.hasSearchQuery() && !request.getSearchQuery().isEmpty()) {
-                result = fileService.searchFiles(userId, request.getSearchQuery(), pageable);
-            } else {
-                result = fileService.listFiles(userId, parentId, pageable);
+            if (request.hasCursor() && !search) {
+                int limit = pageLimit(request.getLimit());
+                Window<FileListing> window = fileService.listFiles(userId, parentId,
+                        KeysetCursor.decode(request.getCursor()), limit);
+
+                FileListResponse.Builder responseBuilder = windowResponse(window);
+                window.forEach(row -> addListing(responseBuilder, row));
+                if (request.getIncludeTotal()) {
+                    responseBuilder.setTotal((int) fileService.countFiles(userId, parentId));
+                }
+
+                responseObserver.onNext(responseBuilder.build());
+                responseObserver.onCompleted();
+                return;
             }
 
-            FileListResponse.Builder responseBuilder = FileListResponse.newBuilder()
-                    .setTotal((int) result.getTotalElements());
+            int page = request.getOffset() / request.getLimit();
+            Pageable pageable = PageRequest.of(page, request.getLimit(), Sort.by("name"));
 
-            result.getContent().forEach(file -> responseBuilder.addFiles(mapToFileMetadata(file)));
+            FileListResponse.Builder responseBuilder = FileListResponse.newBuilder();
+            if (search) {
+                FileSearchCriteria criteria = new FileSearchCriteria(
+                        request.getSearchQuery(),
+                        request.hasMimeType() ? request.getMimeType() : null,
+                        request.hasModifiedAfter() ? LocalDateTime.parse(request.getModifiedAfter(), DATE_FORMATTER)
+                                : null,
+                        request.hasModifiedBefore()
+                                ? LocalDateTime.parse(request.getModifiedBefore(), DATE_FORMATTER)
+                                : null);
+                Page<com.fileservice.model.File> result = fileService.searchFiles(userId, criteria, pageable);
+                responseBuilder.setTotal((int) result.getTotalElements());
+                result.getContent().forEach(file -> responseBuilder.addFiles(mapToFileMetadata(file)));
+            } else {
+                Page<FileListing> result = fileService.listFiles(userId, parentId, pageable);
+                responseBuilder.setTotal((int) result.getTotalElements());
+                result.getContent().forEach(row -> addListing(responseBuilder, row));
+            }
 
             responseObserver.onNext(responseBuilder.build());
             responseObserver.onCompleted();
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
         } catch (Exception e) {
             log.error("Error listing files", e);
             responseObserver.onError(Status.INTERNAL.withDescription("Internal server error").asRuntimeException());
@@ -263,12 +424,14 @@ public class FileGrpcService extends FileServiceGrpc.FileServiceImplBase {
                 return;
             }
 
-            FileShare share = shareService.shareFile(fileId, ownerId, targetUserId, permission, null); // null expiry =
-                                                                                                       // default
+            ShareResponse response = idempotencyService.execute("ShareFile", ownerId, request.getIdempotencyKey(),
+                    request, ShareResponse.parser(),
+                    // null expiry = default
+                    () -> mapToShareResponse(shareService.shareFile(fileId, ownerId, targetUserId, permission, null)));
 
-            responseObserver.onNext(mapToShareResponse(share));
+            responseObserver.onNext(response);
             responseObserver.onCompleted();
-        } catch (IllegalArgumentException | IllegalStateException e) {
+        } catch (IllegalArgumentException | IllegalStateException | IdempotencyKeyException e) {
             responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
         } catch (Exception e) {
             log.error("Error sharing file", e);
@@ -345,6 +508,136 @@ public class FileGrpcService extends FileServiceGrpc.FileServiceImplBase {
         }
     }
 
+    @Override
+    public void negotiateChunkedUpload(ChunkedUploadRequest request,
+            StreamObserver<ChunkedUploadResponse> responseObserver) {
+        try {
+            UUID fileId = UUID.fromString(request.getFileId());
+            UUID userId = UUID.fromString(request.getUserId());
+
+            // Same rule as content updates in updateFile
+            if (!permissionService.hasWriteAccess(fileId, userId) && !permissionService.hasReadAccess(fileId, userId)) {
+                responseObserver
+                        .onError(Status.PERMISSION_DENIED.withDescription("Access denied").asRuntimeException());
+                return;
+            }
+
+            ChunkedVersionService.Negotiation negotiation = chunkedVersionService.negotiate(fileId, userId,
+                    request.getSize(), mapToChunkRefs(request));
+            responseObserver.onNext(ChunkedUploadResponse.newBuilder()
+                    .addAllMissingHashes(negotiation.missingHashes())
+                    .putAllUploadUrls(negotiation.uploadUrls())
+                    .setMissingBytes(negotiation.missingBytes())
+                    .setTotalChunks(negotiation.totalChunks())
+                    .build());
+            responseObserver.onCompleted();
+        } catch (IllegalArgumentException e) {
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
+        } catch (Exception e) {
+            log.error("Error negotiating chunked upload", e);
+            responseObserver.onError(Status.INTERNAL.withDescription("Internal server error").asRuntimeException());
+        }
+    }
+
+    @Override
+    public void commitChunkedVersion(ChunkedUploadRequest request, StreamObserver<FileMetadata> responseObserver) {
+        try {
+            UUID fileId = UUID.fromString(request.getFileId());
+            UUID userId = UUID.fromString(request.getUserId());
+
+            if (!permissionService.hasWriteAccess(fileId, userId) && !permissionService.hasReadAccess(fileId, userId)) {
+                responseObserver
+                        .onError(Status.PERMISSION_DENIED.withDescription("Access denied").asRuntimeException());
+                return;
+            }
+
+            com.fileservice.model.File file = chunkedVersionService.commit(fileId, userId, request.getHash(),
+                    request.getSize(), mapToChunkRefs(request));
+            responseObserver.onNext(mapToFileMetadata(file));
+            responseObserver.onCompleted();
+        } catch (IllegalArgumentException e) {
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
+        } catch (Exception e) {
+            log.error("Error committing chunked version", e);
+            responseObserver.onError(Status.INTERNAL.withDescription("Internal server error").asRuntimeException());
+        }
+    }
+
+    @Override
+    public void getChunkManifest(GetChunkManifestRequest request,
+            StreamObserver<ChunkManifestResponse> responseObserver) {
+        try {
+            UUID fileId = UUID.fromString(request.getFileId());
+            UUID userId = UUID.fromString(request.getUserId());
+
+            if (!permissionService.hasReadAccess(fileId, userId)) {
+                responseObserver
+                        .onError(Status.PERMISSION_DENIED.withDescription("Access denied").asRuntimeException());
+                return;
+            }
+
+            ChunkedVersionService.Manifest manifest = chunkedVersionService.getManifest(fileId,
+                    request.hasVersion() ? request.getVersion() : null);
+            ChunkManifestResponse.Builder builder = ChunkManifestResponse.newBuilder()
+                    .setFileId(manifest.fileId().toString())
+                    .setVersion(manifest.version())
+                    .setSize(manifest.size())
+                    .setHash(manifest.hash() != null ? manifest.hash() : "");
+            manifest.chunks().forEach(chunk -> builder.addChunks(ChunkManifestEntry.newBuilder()
+                    .setHash(chunk.getChunkHash())
+                    .setSize(chunk.getSize())
+                    .setOffset(chunk.getChunkOffset())
+                    .setDownloadUrl(manifest.downloadUrl(chunk))
+                    .build()));
+
+            responseObserver.onNext(builder.build());
+            responseObserver.onCompleted();
+        } catch (IllegalArgumentException e) {
+            responseObserver.onError(Status.NOT_FOUND.withDescription(e.getMessage()).asRuntimeException());
+        } catch (Exception e) {
+            log.error("Error getting chunk manifest", e);
+            responseObserver.onError(Status.INTERNAL.withDescription("Internal server error").asRuntimeException());
+        }
+    }
+
+    @Override
+    public void getChangesSince(GetChangesSinceRequest request, StreamObserver<ChangesResponse> responseObserver) {
+        try {
+            UUID userId = UUID.fromString(request.getUserId());
+            if (request.getCursor() < 0) {
+                throw new IllegalArgumentException("Cursor must not be negative");
+            }
+
+            ChangeSet changeSet = changeJournalService.getChangesSince(userId, request.getCursor(),
+                    pageLimit(request.getLimit()));
+
+            ChangesResponse.Builder responseBuilder = ChangesResponse.newBuilder()
+                    .setCursor(changeSet.cursor())
+                    .setHasMore(changeSet.hasMore())
+                    .setResetRequired(changeSet.resetRequired());
+            changeSet.changes().forEach(entry -> {
+                FileChange.Builder change = FileChange.newBuilder()
+                        .setSeq(entry.getSeq())
+                        .setFileId(entry.getFileId().toString())
+                        .setChangeType(entry.getChangeType().name())
+                        .setChangedAt(entry.getCreatedAt().format(DATE_FORMATTER));
+                com.fileservice.model.File file = changeSet.files().get(entry.getFileId());
+                if (file != null) {
+                    change.setFile(mapToFileMetadata(file));
+                }
+                responseBuilder.addChanges(change.build());
+            });
+
+            responseObserver.onNext(responseBuilder.build());
+            responseObserver.onCompleted();
+        } catch (IllegalArgumentException e) {
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
+        } catch (Exception e) {
+            log.error("Error getting changes", e);
+            responseObserver.onError(Status.INTERNAL.withDescription("Internal server error").asRuntimeException());
+        }
+    }
+
     @Override
     public void moveFile(MoveFileRequest request, StreamObserver<FileMetadata> responseObserver) {
         try {
@@ -419,10 +712,39 @@ public class FileGrpcService extends FileServiceGrpc.FileServiceImplBase {
 
     // --- Mappers ---
 
+    private int pageLimit(int requested) {
+        return requested <= 0 ? DEFAULT_PAGE_SIZE : Math.min(requested, MAX_PAGE_SIZE);
+    }
+
+    /**
+     * Заготовка ответа keyset-страницы: курсор следующей страницы и has_more
+     */
+    private FileListResponse.Builder windowResponse(Window<?> window) {
+        FileListResponse.Builder builder = FileListResponse.newBuilder()
+                .setHasMore(window.hasNext());
+        if (window.hasNext() && !window.isEmpty()) {
+            builder.setNextCursor(KeysetCursor.encode(window.positionAt(window.size() - 1)));
+        }
+        return builder;
+    }
+
     private FileMetadata mapToFileMetadata(com.fileservice.model.File file) {
         return mapToFileMetadata(file, null, null, null, null);
     }
 
+    /**
+     * Повтор идемпотентного запроса: сохраненный upload URL мог истечь - выдается новый
+     */
+    private FileMetadata withFreshUploadUrl(FileMetadata replayed) {
+        if (replayed.getUploadUrl().isEmpty()) {
+            return replayed;
+        }
+        return replayed.toBuilder()
+                .setUploadUrl(fileService.reissueUploadUrl(UUID.fromString(replayed.getId()), replayed.getVersion())
+                        .orElse(""))
+                .build();
+    }
+
     private FileMetadata mapToFileMetadata(com.fileservice.model.File file, String ownerEmail, String ownerName,
             String shareId, String permission) {
         FileMetadata.Builder builder = FileMetadata.newBuilder()
@@ -434,6 +756,7 @@ public class FileGrpcService extends FileServiceGrpc.FileServiceImplBase {
                 .setHash(file.getHash() != null ? file.getHash() : "")
                 .setIsFolder(file.isFolder())
                 .setVersion(file.getVersion())
+                .setIsChunked(file.isChunked())
                 .setCreatedBy(file.getUserId().toString()); // Assuming owner is createdBy, though field says
                                                             // 'created_by' in proto
 
@@ -471,11 +794,57 @@ public class FileGrpcService extends FileServiceGrpc.FileServiceImplBase {
 
         if (permission != null && !permission.isEmpty()) {
             builder.setPermission(permission);
+        } else if (file.getEffectivePermission() != null) {
+            builder.setPermission(file.getEffectivePermission().name());
+        }
+
+        if (file.getFolderAggregate() != null) {
+            builder.setFolderStats(mapToFolderStats(file.getFolderAggregate()));
         }
 
         return builder.build();
     }
 
+    private FolderStats mapToFolderStats(FolderAggregate aggregate) {
+        FolderStats.Builder builder = FolderStats.newBuilder()
+                .setTotalSize(aggregate.getTotalSize())
+                .setFileCount(aggregate.getFileCount())
+                .setFolderCount(aggregate.getFolderCount());
+        if (aggregate.getLastModifiedAt() != null) {
+            builder.setLastModifiedAt(aggregate.getLastModifiedAt().format(DATE_FORMATTER));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Строка листинга сразу в builder ответа (без промежуточной сущности)
+     */
+    private void addListing(FileListResponse.Builder responseBuilder, FileListing row) {
+        FileMetadata.Builder builder = responseBuilder.addFilesBuilder()
+                .setId(row.id().toString())
+                .setName(row.name())
+                .setPath(row.path())
+                .setSize(row.size())
+                .setMimeType(row.mimeType() != null ? row.mimeType() : "")
+                .setHash(row.hash() != null ? row.hash() : "")
+                .setIsFolder(Boolean.TRUE.equals(row.isFolder()))
+                .setVersion(row.version())
+                .setIsChunked(Boolean.TRUE.equals(row.isChunked()))
+                .setCreatedBy(row.userId().toString());
+        if (row.createdAt() != null) {
+            builder.setCreatedAt(row.createdAt().format(DATE_FORMATTER));
+        }
+        if (row.updatedAt() != null) {
+            builder.setUpdatedAt(row.updatedAt().format(DATE_FORMATTER));
+        }
+        if (row.effectivePermission() != null) {
+            builder.setPermission(row.effectivePermission().name());
+        }
+        if (row.aggregate() != null) {
+            builder.setFolderStats(mapToFolderStats(row.aggregate()));
+        }
+    }
+
     private ShareResponse mapToShareResponse(FileShare share) {
         return ShareResponse.newBuilder()
                 .setShareId(share.getId().toString())
@@ -486,6 +855,27 @@ public class FileGrpcService extends FileServiceGrpc.FileServiceImplBase {
                 .build();
     }
 
+    private EmptyTrashJobResponse mapToEmptyTrashJobResponse(EmptyTrashJob job) {
+        EmptyTrashJobResponse.Builder builder = EmptyTrashJobResponse.newBuilder()
+                .setJobId(job.getId().toString())
+                .setStatus(job.getStatus().name())
+                .setTotalItems(job.getTotalItems())
+                .setProcessedItems(job.getProcessedItems())
+                .setFailedItems(job.getFailedItems())
+                .setReleasedBytes(job.getReleasedBytes())
+                .setCreatedAt(job.getCreatedAt().format(DATE_FORMATTER));
+        if (job.getCompletedAt() != null) {
+            builder.setCompletedAt(job.getCompletedAt().format(DATE_FORMATTER));
+        }
+        return builder.build();
+    }
+
+    private List<com.fileservice.model.ChunkRef> mapToChunkRefs(ChunkedUploadRequest request) {
+        return request.getChunksList().stream()
+                .map(chunk -> new com.fileservice.model.ChunkRef(chunk.getHash(), chunk.getSize()))
+                .toList();
+    }
+
     private com.fileservice.grpc.FileVersion mapToVersion(com.fileservice.model.FileVersion version) {
         return com.fileservice.grpc.FileVersion.newBuilder()
                 .setVersion(version.getVersion())
@@ -505,41 +895,43 @@ public class FileGrpcService extends FileServiceGrpc.FileServiceImplBase {
         try {
             UUID userId = UUID.fromString(request.getUserId());
 
-            java.util.List<FileShare> shares = shareService.listSharedWithMe(userId);
-
-            FileListResponse.Builder responseBuilder = FileListResponse.newBuilder()
-                    .setTotal(shares.size());
+            java.util.List<FileShare> shares;
+            FileListResponse.Builder responseBuilder;
+            if (request.hasCursor()) {
+                Window<FileShare> window = shareService.listSharedWithMe(userId,
+                        KeysetCursor.decode(request.getCursor()), pageLimit(request.getLimit()));
+                shares = window.getContent();
+                responseBuilder = windowResponse(window);
+                if (request.getIncludeTotal()) {
+                    responseBuilder.setTotal((int) shareService.countSharedWithMe(userId));
+                }
+            } else {
+                shares = shareService.listSharedWithMe(userId);
+                responseBuilder = FileListResponse.newBuilder()
+                        .setTotal(shares.size());
+            }
 
-            // Map shares to file metadata with owner info
+            // Map shares to file metadata with owner info (one UserService call per page)
+            Map<UUID, UserInfo> owners = userInfoCache.getAll(shares.stream()
+                    .map(FileShare::getFile)
+                    .filter(Objects::nonNull)
+                    .map(com.fileservice.model.File::getUserId)
+                    .toList());
             shares.forEach(share -> {
                 com.fileservice.model.File file = share.getFile();
                 if (file != null && !file.isDeleted()) {
-                    // Get owner info from UserService
-                    UUID ownerId = file.getUserId();
-                    String ownerEmail = null;
-                    String ownerName = null;
-
-                    if (ownerId != null) {
-                        try {
-                            com.fileservice.client.UserServiceClient.UserInfo userInfo = userServiceClient
-                                    .getUserInfo(ownerId);
-                            if (userInfo != null) {
-                                ownerEmail = userInfo.getEmail();
-                                ownerName = userInfo.getName();
-                            }
-                        } catch (Exception e) {
-                            log.warn("Failed to get owner info for file {}, owner {}: {}", file.getId(), ownerId,
-                                    e.getMessage());
-                        }
-                    }
-
-                    responseBuilder.addFiles(mapToFileMetadata(file, ownerEmail, ownerName, share.getId().toString(),
-                            share.getPermission().name()));
+                    UserInfo owner = file.getUserId() != null ? owners.get(file.getUserId()) : null;
+                    responseBuilder.addFiles(mapToFileMetadata(file,
+                            owner != null ? owner.getEmail() : null,
+                            owner != null ? owner.getName() : null,
+                            share.getId().toString(), share.getPermission().name()));
                 }
             });
 
             responseObserver.onNext(responseBuilder.build());
             responseObserver.onCompleted();
+        } catch (IllegalArgumentException e) {
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
         } catch (Exception e) {
             log.error("Error listing shared with me files", e);
             responseObserver.onError(Status.INTERNAL.withDescription("Internal server error").asRuntimeException());
@@ -559,26 +951,13 @@ public class FileGrpcService extends FileServiceGrpc.FileServiceImplBase {
             ShareListResponse.Builder responseBuilder = ShareListResponse.newBuilder()
                     .setTotal(shares.size());
 
-            // Map shares to ShareInfo with user info
+            // Map shares to ShareInfo with user info (one UserService call per listing)
+            Map<UUID, UserInfo> recipients = userInfoCache.getAll(shares.stream()
+                    .map(FileShare::getSharedWithUserId)
+                    .toList());
             shares.forEach(share -> {
-                // Get shared user info from UserService
-                UUID sharedWithUserId = share.getSharedWithUserId();
-                String sharedWithEmail = null;
-                String sharedWithName = null;
-
-                if (sharedWithUserId != null) {
-                    try {
-                        com.fileservice.client.UserServiceClient.UserInfo userInfo = userServiceClient
-                                .getUserInfo(sharedWithUserId);
-                        if (userInfo != null) {
-                            sharedWithEmail = userInfo.getEmail();
-                            sharedWithName = userInfo.getName();
-                        }
-                    } catch (Exception e) {
-                        log.warn("Failed to get shared user info for share {}, user {}: {}", share.getId(),
-                                sharedWithUserId, e.getMessage());
-                    }
-                }
+                UserInfo recipient = recipients.get(share.getSharedWithUserId());
+                String sharedWithEmail = recipient != null ? recipient.getEmail() : null;
 
                 ShareInfo.Builder shareInfoBuilder = ShareInfo.newBuilder()
                         .setShareId(share.getId().toString())
@@ -658,23 +1037,12 @@ public class FileGrpcService extends FileServiceGrpc.FileServiceImplBase {
 
             // Add existing shares (only for OWNER)
             if (context.getExistingShares() != null) {
+                Map<UUID, UserInfo> recipients = userInfoCache.getAll(context.getExistingShares().stream()
+                        .map(FileShare::getSharedWithUserId)
+                        .toList());
                 context.getExistingShares().forEach(share -> {
-                    // Get shared user info from UserService
-                    UUID sharedWithUserId = share.getSharedWithUserId();
-                    String sharedWithEmail = null;
-
-                    if (sharedWithUserId != null) {
-                        try {
-                            com.fileservice.client.UserServiceClient.UserInfo userInfo = userServiceClient
-                                    .getUserInfo(sharedWithUserId);
-                            if (userInfo != null) {
-                                sharedWithEmail = userInfo.getEmail();
-                            }
-                        } catch (Exception e) {
-                            log.warn("Failed to get shared user info for share {}, user {}: {}", share.getId(),
-                                    sharedWithUserId, e.getMessage());
-                        }
-                    }
+                    UserInfo recipient = recipients.get(share.getSharedWithUserId());
+                    String sharedWithEmail = recipient != null ? recipient.getEmail() : null;
 
                     ShareInfo.Builder shareInfoBuilder = ShareInfo.newBuilder()
                             .setShareId(share.getId().toString())
@@ -0,0 +1,86 @@
+package com.fileservice.grpc;
+
+import org.springframework.data.domain.KeysetScrollPosition;
+import org.springframework.data.domain.ScrollPosition;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.UUID;
+
+/**
+ * Непрозрачный курсор keyset-пагинации для gRPC API.
+ * Кодирует ключи сортировки последнего элемента страницы (например name + id)
+ * в base64url-строку вида "key:type:base64(value)\n..."
+ */
+final class KeysetCursor {
+
+    private static final char STRING = 's';
+    private static final char UUID_TYPE = 'u';
+    private static final char TIMESTAMP = 't';
+
+    private KeysetCursor() {
+    }
+
+    /**
+     * Позиция по курсору из запроса; пустой курсор - первая страница
+     */
+    static KeysetScrollPosition decode(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return ScrollPosition.keyset();
+        }
+
+        try {
+            return ScrollPosition.forward(decodeKeys(cursor));
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+    }
+
+    private static Map<String, Object> decodeKeys(String cursor) {
+        String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        Map<String, Object> keys = new LinkedHashMap<>();
+        for (String entry : raw.split("\n")) {
+            String[] parts = entry.split(":", 3);
+            if (parts.length != 3 || parts[1].length() != 1) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            String value = new String(Base64.getUrlDecoder().decode(parts[2]), StandardCharsets.UTF_8);
+            keys.put(parts[0], switch (parts[1].charAt(0)) {
+                case STRING -> value;
+                case UUID_TYPE -> UUID.fromString(value);
+                case TIMESTAMP -> LocalDateTime.parse(value);
+                default -> throw new IllegalArgumentException("Invalid cursor");
+            });
+        }
+        return keys;
+    }
+
+    /**
+     * Курсор следующей страницы по позиции последнего элемента
+     */
+    static String encode(ScrollPosition position) {
+        if (!(position instanceof KeysetScrollPosition keyset)) {
+            throw new IllegalStateException("Keyset position expected, got " + position);
+        }
+
+        StringJoiner raw = new StringJoiner("\n");
+        keyset.getKeys().forEach((key, value) -> {
+            char type = switch (value) {
+                case UUID ignored -> UUID_TYPE;
+                case LocalDateTime ignored -> TIMESTAMP;
+                default -> STRING;
+            };
+            raw.add(key + ":" + type + ":" + encodeValue(value.toString()));
+        });
+        return encodeValue(raw.toString());
+    }
+
+    private static String encodeValue(String value) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+}
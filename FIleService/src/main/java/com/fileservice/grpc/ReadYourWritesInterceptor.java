@@ -0,0 +1,110 @@
+package com.fileservice.grpc;
+
+import com.fileservice.config.ReadYourWritesContext;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.Message;
+import io.grpc.ForwardingServerCall;
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import net.devh.boot.grpc.server.interceptor.GrpcGlobalServerInterceptor;
+
+import java.util.UUID;
+
+/**
+ * Привязывает user_id из запроса и метку последней записи из метаданных (x-last-write-at, epoch ms)
+ * к потоку обработчика (ReadYourWritesContext), чтобы маршрутизация соединений учитывала собственные
+ * недавние записи пользователя, в том числе сделанные через другие экземпляры.
+ * Если запрос что-то записал, время коммита возвращается в заголовках ответа под тем же ключом
+ */
+@GrpcGlobalServerInterceptor
+public class ReadYourWritesInterceptor implements ServerInterceptor {
+
+    public static final Metadata.Key<String> LAST_WRITE_AT =
+            Metadata.Key.of("x-last-write-at", Metadata.ASCII_STRING_MARSHALLER);
+
+    private static final String USER_ID_FIELD = "user_id";
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
+            ServerCall<ReqT, RespT> call,
+            Metadata headers,
+            ServerCallHandler<ReqT, RespT> next) {
+
+        long clientLastWriteAt = lastWriteAtOf(headers);
+        SessionHolder holder = new SessionHolder();
+
+        ServerCall<ReqT, RespT> tracking = new ForwardingServerCall.SimpleForwardingServerCall<>(call) {
+            @Override
+            public void sendHeaders(Metadata responseHeaders) {
+                ReadYourWritesContext.Session session = holder.session;
+                if (session != null && session.committedWriteAt() > 0) {
+                    responseHeaders.put(LAST_WRITE_AT, Long.toString(session.committedWriteAt()));
+                }
+                super.sendHeaders(responseHeaders);
+            }
+        };
+
+        return new ForwardingServerCallListener.SimpleForwardingServerCallListener<>(next.startCall(tracking, headers)) {
+
+            @Override
+            public void onMessage(ReqT message) {
+                holder.session = new ReadYourWritesContext.Session(userIdOf(message), clientLastWriteAt);
+                ReadYourWritesContext.runAs(holder.session, () -> super.onMessage(message));
+            }
+
+            @Override
+            public void onHalfClose() {
+                // Унарный обработчик выполняется здесь
+                ReadYourWritesContext.runAs(holder.session, super::onHalfClose);
+            }
+
+            @Override
+            public void onCancel() {
+                ReadYourWritesContext.runAs(holder.session, super::onCancel);
+            }
+
+            @Override
+            public void onComplete() {
+                ReadYourWritesContext.runAs(holder.session, super::onComplete);
+            }
+        };
+    }
+
+    private static long lastWriteAtOf(Metadata headers) {
+        String value = headers.get(LAST_WRITE_AT);
+        if (value == null) {
+            return 0L;
+        }
+        try {
+            // Метка из будущего (расхождение часов) не должна навсегда уводить чтения на primary
+            return Math.clamp(Long.parseLong(value), 0L, System.currentTimeMillis());
+        } catch (NumberFormatException e) {
+            return 0L;
+        }
+    }
+
+    private static UUID userIdOf(Object message) {
+        if (!(message instanceof Message proto)) {
+            return null;
+        }
+        Descriptors.FieldDescriptor field = proto.getDescriptorForType().findFieldByName(USER_ID_FIELD);
+        if (field == null || field.getJavaType() != Descriptors.FieldDescriptor.JavaType.STRING) {
+            return null;
+        }
+        try {
+            return UUID.fromString((String) proto.getField(field));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Сессия вызова: создается с первым сообщением, читается и из потока отправки ответа
+     */
+    private static final class SessionHolder {
+        private volatile ReadYourWritesContext.Session session;
+    }
+}
@@ -2,36 +2,21 @@ package com.fileservice.kafka;
 
 import com.fileservice.event.FileEvent;
 import com.fileservice.model.File;
-import lombok.RequiredArgsConstructor;
-import lombok.extern.slf4j.Slf4j;
-import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.stereotype.Service;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.UUID;
 
 @Service
-@RequiredArgsConstructor
-@Slf4j
 public class KafkaProducerService {
 
-    private final KafkaTemplate<String, Object> kafkaTemplate;
-    private static final String TOPIC = "file-events";
+    public static final String TOPIC = "file-events";
 
-    public void sendEvent(FileEvent event) {
-        log.debug("Sending kafka event: {}", event);
-        try {
-            // Преобразуем FileEvent в Map для совместимости с consumers
-            Map<String, Object> eventMap = convertToEventMap(event);
-
-            // Отправляем как Map для совместимости с NotificationService и другими
-            kafkaTemplate.send(TOPIC, event.getFileId().toString(), eventMap);
-        } catch (Exception e) {
-            log.error("Failed to send kafka event", e);
-        }
-    }
-
-    private Map<String, Object> convertToEventMap(FileEvent event) {
+    /**
+     * Формат сообщения топика file-events (сериализуется в outbox, доставляет OutboxRelay)
+     */
+    public Map<String, Object> toMessage(FileEvent event) {
         Map<String, Object> eventMap = new HashMap<>();
 
         // Стандартные поля для всех consumers
@@ -42,6 +27,9 @@ public class KafkaProducerService {
         eventMap.put("userId", event.getUserId() != null ? event.getUserId().toString() : null);
         eventMap.put("timestamp", event.getTimestamp() != null ? event.getTimestamp().toString() : null);
         eventMap.put("version", event.getVersion());
+        if (event.getRecipientIds() != null) {
+            eventMap.put("recipientIds", event.getRecipientIds().stream().map(UUID::toString).toList());
+        }
 
         // Формируем metadata
         Map<String, String> metadata = new HashMap<>();
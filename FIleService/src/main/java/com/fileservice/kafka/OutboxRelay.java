@@ -0,0 +1,208 @@
+package com.fileservice.kafka;
+
+import com.fileservice.model.OutboxEvent;
+import com.fileservice.repository.OutboxEventRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Доставка outbox в Kafka.
+ * Забирает недоставленные строки пачками в порядке записи, отправляет их асинхронно
+ * (продюсер собирает пачку в батчи с linger и сжатием), дожидается подтверждений и помечает
+ * доставленными непрерывный префикс пачки. Остаток после первой ошибки уйдет повторно
+ * в следующем цикле (at-least-once).
+ * Подтверждения ожидаются вне транзакции: единственность relay обеспечивает сессионная
+ * advisory-блокировка на отдельном соединении, а отметка доставки - короткая отдельная транзакция
+ */
+@Component
+@Slf4j
+public class OutboxRelay {
+
+    private static final long RELAY_LOCK_KEY = 0x6F7574626F78L; // "outbox"
+
+    private final OutboxEventRepository outboxEventRepository;
+    private final DataSource dataSource;
+    private final KafkaTemplate<String, String> outboxKafkaTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private final int maxBatchesPerRun;
+    private final Duration sendTimeout;
+    private final Duration retention;
+
+    private final AtomicLong lagMillis = new AtomicLong();
+    private final DistributionSummary batchSizeSummary;
+    private final Timer batchTimer;
+    private final Counter sentCounter;
+    private final Counter failedCounter;
+
+    public OutboxRelay(OutboxEventRepository outboxEventRepository,
+            DataSource dataSource,
+            KafkaTemplate<String, String> outboxKafkaTemplate,
+            PlatformTransactionManager transactionManager,
+            MeterRegistry meterRegistry,
+            @Value("${file-service.outbox.batch-size:500}") int batchSize,
+            @Value("${file-service.outbox.max-batches-per-run:20}") int maxBatchesPerRun,
+            @Value("${file-service.outbox.send-timeout:30s}") Duration sendTimeout,
+            @Value("${file-service.outbox.retention:24h}") Duration retention) {
+        this.outboxEventRepository = outboxEventRepository;
+        this.dataSource = dataSource;
+        this.outboxKafkaTemplate = outboxKafkaTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchSize = batchSize;
+        this.maxBatchesPerRun = maxBatchesPerRun;
+        this.sendTimeout = sendTimeout;
+        this.retention = retention;
+
+        Gauge.builder("file.outbox.relay.lag", lagMillis, value -> value.get() / 1000.0)
+                .description("Age of the oldest undelivered outbox event")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        this.batchSizeSummary = DistributionSummary.builder("file.outbox.relay.batch.size")
+                .description("Outbox events per relay batch")
+                .register(meterRegistry);
+        this.batchTimer = Timer.builder("file.outbox.relay.batch.duration")
+                .description("Time to send and mark one relay batch")
+                .register(meterRegistry);
+        this.sentCounter = Counter.builder("file.outbox.relay.sent")
+                .description("Outbox events delivered to Kafka")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("file.outbox.relay.failed")
+                .description("Outbox events whose send failed and will be retried")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${file-service.outbox.poll-interval-ms:200}")
+    public void relay() {
+        try (Connection lockConnection = dataSource.getConnection()) {
+            if (tryRelayLock(lockConnection)) {
+                try {
+                    for (int i = 0; i < maxBatchesPerRun; i++) {
+                        if (relayBatch() < batchSize) {
+                            break;
+                        }
+                    }
+                } finally {
+                    releaseRelayLock(lockConnection);
+                }
+            }
+        } catch (SQLException e) {
+            log.error("Outbox relay lock failed: {}", e.getMessage());
+        }
+        updateLag();
+    }
+
+    /**
+     * Сессионная advisory-блокировка: в каждый момент outbox разгружает один экземпляр,
+     * поэтому порядок отправки совпадает с порядком записи. Соединение держится без открытой транзакции
+     */
+    private boolean tryRelayLock(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT pg_try_advisory_lock(?)")) {
+            statement.setLong(1, RELAY_LOCK_KEY);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() && resultSet.getBoolean(1);
+            }
+        }
+    }
+
+    /**
+     * Соединение возвращается в пул: если снять блокировку не удалось, оно закрывается,
+     * чтобы блокировка не осталась на соединении пула
+     */
+    private void releaseRelayLock(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT pg_advisory_unlock(?)")) {
+            statement.setLong(1, RELAY_LOCK_KEY);
+            statement.execute();
+        } catch (SQLException e) {
+            connection.abort(Runnable::run);
+            throw e;
+        }
+    }
+
+    /**
+     * Одна пачка: чтение и отметка доставки - отдельные короткие транзакции,
+     * ожидание подтверждений Kafka - вне транзакции
+     *
+     * @return число доставленных событий; -1 если часть пачки не доставлена
+     */
+    private int relayBatch() {
+        List<OutboxEvent> batch = outboxEventRepository.findPending(batchSize);
+        if (batch.isEmpty()) {
+            return 0;
+        }
+
+        Timer.Sample sample = Timer.start();
+        List<CompletableFuture<?>> sends = new ArrayList<>(batch.size());
+        for (OutboxEvent event : batch) {
+            sends.add(outboxKafkaTemplate.send(event.getTopic(), event.getMessageKey(), event.getPayload()));
+        }
+        outboxKafkaTemplate.flush();
+
+        List<Long> delivered = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            try {
+                sends.get(i).get(sendTimeout.toMillis(), TimeUnit.MILLISECONDS);
+                delivered.add(batch.get(i).getId());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                log.error("Failed to relay outbox event id={}, eventId={}: {}",
+                        batch.get(i).getId(), batch.get(i).getEventId(), e.getMessage());
+                break;
+            }
+        }
+
+        if (!delivered.isEmpty()) {
+            transactionTemplate.executeWithoutResult(status ->
+                    outboxEventRepository.markDelivered(delivered, LocalDateTime.now()));
+        }
+
+        sample.stop(batchTimer);
+        batchSizeSummary.record(batch.size());
+        sentCounter.increment(delivered.size());
+        failedCounter.increment(batch.size() - delivered.size());
+        log.debug("Relayed outbox batch: size={}, delivered={}", batch.size(), delivered.size());
+
+        return delivered.size() == batch.size() ? delivered.size() : -1;
+    }
+
+    private void updateLag() {
+        LocalDateTime oldest = outboxEventRepository.findOldestPendingCreatedAt();
+        lagMillis.set(oldest != null ? Math.max(Duration.between(oldest, LocalDateTime.now()).toMillis(), 0L) : 0L);
+    }
+
+    /**
+     * Очистка доставленных событий старше срока хранения
+     */
+    @Scheduled(fixedDelayString = "${file-service.outbox.purge-interval-ms:3600000}")
+    public void purgeDelivered() {
+        Integer deleted = transactionTemplate.execute(status -> outboxEventRepository
+                .deleteDeliveredBefore(LocalDateTime.now().minus(retention)));
+        if (deleted != null && deleted > 0) {
+            log.info("Purged {} delivered outbox events", deleted);
+        }
+    }
+}
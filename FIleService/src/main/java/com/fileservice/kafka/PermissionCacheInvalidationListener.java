@@ -0,0 +1,49 @@
+package com.fileservice.kafka;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fileservice.service.PermissionCache;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.stereotype.Component;
+
+import java.util.UUID;
+
+/**
+ * Инвалидация кэша прав по событиям других реплик FileService.
+ * У каждого экземпляра своя consumer group, чтобы событие получили все реплики. Группа привязана
+ * к file-service.instance-id, а не создается заново при каждом запуске - иначе после каждого
+ * перезапуска на брокере остается брошенная группа. Без сохраненной позиции читаются только новые
+ * события (latest), история для кэша не нужна
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class PermissionCacheInvalidationListener {
+
+    private final PermissionCache permissionCache;
+    private final ObjectMapper objectMapper;
+
+    @KafkaListener(topics = "${kafka.topics.file-events:file-events}",
+            groupId = "${spring.application.name}-permission-cache-${file-service.instance-id}",
+            properties = {
+                    "auto.offset.reset=latest",
+                    "value.deserializer=org.apache.kafka.common.serialization.StringDeserializer"
+            })
+    public void handleFileEvent(String eventJson, Acknowledgment acknowledgment) {
+        try {
+            JsonNode event = objectMapper.readTree(eventJson);
+            String eventType = event.path("eventType").asText("");
+            String fileId = event.path("fileId").asText(null);
+            if (fileId != null) {
+                permissionCache.onEvent(eventType, UUID.fromString(fileId));
+            }
+        } catch (Exception e) {
+            log.warn("Failed to process file event for permission cache: {}", e.getMessage());
+        } finally {
+            acknowledgment.acknowledge();
+        }
+    }
+}
@@ -1,121 +1,230 @@
 package com.fileservice.kafka;
 
 import com.fileservice.event.FileEvent;
+import com.fileservice.model.ChangeJournalEntry.ChangeType;
 import com.fileservice.model.File;
 import com.fileservice.repository.FileRepository;
+import com.fileservice.repository.FileShareRepository;
+import com.fileservice.repository.FileShareRepository.ShareRecipient;
+import com.fileservice.service.ChangeJournalService;
+import com.fileservice.service.ContentBlobService;
 import com.fileservice.service.FileEventPublisher;
-import lombok.RequiredArgsConstructor;
+import com.fileservice.service.FolderAggregateService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.listener.BatchListenerFailedException;
+import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
-
+import java.util.stream.Collectors;
+
+/**
+ * Подтверждения загрузки от StorageService.
+ * Записи обрабатываются пачкой (одна выборка poll): события одного файла сворачиваются
+ * в итоговое состояние, файлы загружаются одним findAllById, изменения пишутся JDBC batch
+ * в одной транзакции. Offset пачки фиксируется вручную только после коммита.
+ * Если пачка не применилась, файлы применяются по одному, и обработчику ошибок (KafkaConfig)
+ * передается индекс первой записи сбойного файла (BatchListenerFailedException): записи до нее
+ * фиксируются, она после повторов уходит в DLT, остальные читаются заново. Повторное применение
+ * записывает те же значения, поэтому подтверждения остальных файлов пачки не теряются
+ */
 @Component
 @Slf4j
-@RequiredArgsConstructor
 public class StorageEventConsumer {
 
     private final FileRepository fileRepository;
-    private final com.fileservice.repository.FileShareRepository shareRepository;
+    private final FileShareRepository shareRepository;
     private final FileEventPublisher eventPublisher;
+    private final ContentBlobService contentBlobService;
+    private final FolderAggregateService folderAggregateService;
+    private final ChangeJournalService changeJournal;
+    private final TransactionTemplate transactionTemplate;
+
+    public StorageEventConsumer(FileRepository fileRepository,
+            FileShareRepository shareRepository,
+            FileEventPublisher eventPublisher,
+            ContentBlobService contentBlobService,
+            FolderAggregateService folderAggregateService,
+            ChangeJournalService changeJournal,
+            PlatformTransactionManager transactionManager) {
+        this.fileRepository = fileRepository;
+        this.shareRepository = shareRepository;
+        this.eventPublisher = eventPublisher;
+        this.contentBlobService = contentBlobService;
+        this.folderAggregateService = folderAggregateService;
+        this.changeJournal = changeJournal;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @KafkaListener(topics = "${kafka.topics.storage-events:storage.events}", groupId = "${spring.kafka.consumer.group-id:file-service}", batch = "true")
+    public void handleStorageEvents(List<StorageEvent> events, Acknowledgment acknowledgment) {
+        Map<UUID, StoredState> states = coalesce(events);
+        if (!states.isEmpty()) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> applyStoredStates(states));
+            } catch (RuntimeException e) {
+                log.warn("Storage event batch failed, applying files one by one: {}", e.getMessage());
+                applyOneByOne(states);
+            }
+        }
+        acknowledgment.acknowledge();
+        log.info("Processed storage events: records={}, files={}", events.size(), states.size());
+    }
 
-    @KafkaListener(topics = "${kafka.topics.storage-events:storage.events}", groupId = "${spring.kafka.consumer.group-id:file-service}")
-    @Transactional
-    public void handleStorageEvent(StorageEvent event) {
-        log.info("Received storage event: {}", event);
+    /**
+     * Поиск сбойного файла: каждый файл - отдельная транзакция, в порядке первой записи.
+     * На первом сбое обработчик ошибок получает индекс первой записи этого файла
+     */
+    private void applyOneByOne(Map<UUID, StoredState> states) {
+        for (Map.Entry<UUID, StoredState> entry : states.entrySet()) {
+            try {
+                transactionTemplate.executeWithoutResult(status ->
+                        applyStoredStates(Map.of(entry.getKey(), entry.getValue())));
+            } catch (RuntimeException e) {
+                throw new BatchListenerFailedException("Failed to apply storage events of file " + entry.getKey(),
+                        e, entry.getValue().firstIndex);
+            }
+        }
+    }
 
-        if ("stored".equals(event.getEventType())) {
-            handleStoredEvent(event);
+    /**
+     * Свертка событий stored по fileId в порядке offset: последнее непустое значение побеждает.
+     * Порядок файлов - порядок их первых записей
+     */
+    private Map<UUID, StoredState> coalesce(List<StorageEvent> events) {
+        Map<UUID, StoredState> states = new LinkedHashMap<>();
+        for (int i = 0; i < events.size(); i++) {
+            StorageEvent event = events.get(i);
+            int index = i;
+            if (event == null || !"stored".equals(event.getEventType())) {
+                continue;
+            }
+            UUID fileId;
+            try {
+                fileId = UUID.fromString(event.getFileId());
+            } catch (IllegalArgumentException | NullPointerException e) {
+                log.error("Invalid file ID in storage event: {}", event.getFileId());
+                continue;
+            }
+            states.computeIfAbsent(fileId, id -> new StoredState(index)).apply(event);
         }
+        return states;
     }
 
-    private void handleStoredEvent(StorageEvent event) {
-        try {
-            UUID fileId = UUID.fromString(event.getFileId());
-            fileRepository.findById(fileId).ifPresent(file -> {
-                // Update size and hash from storage confirmation
-                boolean updated = false;
-
-                if (event.getSize() != null && event.getSize() > 0) {
-                    file.setSize(event.getSize());
-                    updated = true;
-                }
-
-                if (event.getHash() != null && !event.getHash().isEmpty()) {
-                    file.setHash(event.getHash());
-                    updated = true;
-                }
-
-                // We do NOT update storagePath or version here as they are managed by
-                // FileService before upload.
-                // However, we might want to verify them or update status if we had one.
-
-                if (updated) {
-                    fileRepository.save(file);
-                    log.info("Updated file metadata from storage event: id={}, size={}, hash={}",
-                            fileId, event.getSize(), event.getHash());
-
-                    // Publish notification event
-                    // If version is 1, it's a new file -> file.uploaded
-                    // If version > 1, it's an update -> file.version_uploaded
-                    String eventType = file.getVersion() == 1 ? "file.uploaded" : "file.version_uploaded";
-
-                    eventPublisher.publish(FileEvent.builder()
-                            .eventId(UUID.randomUUID().toString())
-                            .eventType(eventType)
-                            .fileId(file.getId())
-                            .userId(file.getUserId())
-                            .timestamp(LocalDateTime.now())
-                            .version(file.getVersion())
-                            .payload(file)
-                            .metadata(Map.of(
-                                    "fileName", file.getName(),
-                                    "size", String.valueOf(file.getSize()),
-                                    "version", String.valueOf(file.getVersion())))
-                            .build());
-
-                    // --- Notify shared users ---
-                    try {
-                        java.util.List<com.fileservice.model.FileShare> shares = shareRepository
-                                .findByFileId(file.getId());
-                        for (com.fileservice.model.FileShare share : shares) {
-                            // Avoid double notification if sharedWith is the same as owner (shouldn't
-                            // happen)
-                            if (share.getSharedWithUserId().equals(file.getUserId()))
-                                continue;
-
-                            eventPublisher.publish(FileEvent.builder()
-                                    .eventId(UUID.randomUUID().toString())
-                                    .eventType(eventType)
-                                    .fileId(file.getId())
-                                    .userId(share.getSharedWithUserId()) // Target the recipient
-                                    .timestamp(LocalDateTime.now())
-                                    .version(file.getVersion())
-                                    .payload(file)
-                                    .metadata(Map.of(
-                                            "fileName", file.getName(),
-                                            "size", String.valueOf(file.getSize()),
-                                            "version", String.valueOf(file.getVersion()),
-                                            "ownerId", file.getUserId().toString(),
-                                            "sharedBy", file.getUserId().toString() // Context for notification
-                            ))
-                                    .build());
-                        }
-                    } catch (Exception e) {
-                        log.error("Failed to notify shared users regarding file upload: {}", file.getId(), e);
-                    }
-                    // ---------------------------
-
-                }
-            });
-        } catch (IllegalArgumentException e) {
-            log.error("Invalid file ID in storage event: {}", event.getFileId());
-        } catch (Exception e) {
-            log.error("Error processing stored event for file {}", event.getFileId(), e);
+    private void applyStoredStates(Map<UUID, StoredState> states) {
+        List<File> updated = new ArrayList<>();
+        Map<UUID, Long> oldSizes = new HashMap<>();
+        for (File file : fileRepository.findAllById(states.keySet())) {
+            StoredState state = states.get(file.getId());
+            boolean changed = false;
+
+            // Update size and hash from storage confirmation
+            if (state.size != null) {
+                oldSizes.put(file.getId(), file.getSize());
+                file.setSize(state.size);
+                changed = true;
+            }
+            if (state.hash != null) {
+                file.setHash(state.hash);
+                changed = true;
+            }
+
+            // We do NOT update storagePath or version here as they are managed by
+            // FileService before upload.
+
+            // Подтвержденное содержимое текущей версии становится доступным для дедупликации.
+            // Если файл уже ушел на следующую версию, путь не регистрируется (его не с чем связать)
+            StorageEvent current = state.byStoragePath.get(file.getStoragePath());
+            if (current != null && current.getSize() != null) {
+                contentBlobService.registerUpload(current.getStoragePath(), current.getHash(), current.getSize(),
+                        file.getUserId());
+            }
+
+            if (changed) {
+                updated.add(file);
+            }
+        }
+        if (updated.isEmpty()) {
+            return;
+        }
+
+        // Изменения managed-сущностей уходят одним flush с hibernate.jdbc.batch_size
+        fileRepository.saveAll(updated);
+        // Подтвержденные размеры - дельты агрегатов папок, сложенные по предкам всей пачки
+        folderAggregateService.onSizesChanged(updated, oldSizes);
+        // Журнал: одна запись на файл у владельца и у получателей расшариваний файла или его папок
+        changeJournal.recordWithRecipients(updated, ChangeType.UPDATED);
+
+        Map<UUID, List<UUID>> recipients = shareRepository
+                .findActiveRecipients(updated.stream().map(File::getId).toList(), LocalDateTime.now()).stream()
+                .collect(Collectors.groupingBy(ShareRecipient::getFileId,
+                        Collectors.mapping(ShareRecipient::getRecipientId, Collectors.toList())));
+
+        for (File file : updated) {
+            // If version is 1, it's a new file -> file.uploaded
+            // If version > 1, it's an update -> file.version_uploaded
+            String eventType = file.getVersion() == 1 ? "file.uploaded" : "file.version_uploaded";
+
+            eventPublisher.publish(FileEvent.builder()
+                    .eventId(UUID.randomUUID().toString())
+                    .eventType(eventType)
+                    .fileId(file.getId())
+                    .userId(file.getUserId())
+                    .timestamp(LocalDateTime.now())
+                    .version(file.getVersion())
+                    .payload(file)
+                    .metadata(Map.of(
+                            "fileName", file.getName(),
+                            "size", String.valueOf(file.getSize()),
+                            "version", String.valueOf(file.getVersion())))
+                    .build());
+
+            // --- Notify shared users (одно fan-out событие на всех получателей) ---
+            eventPublisher.publishShareFanout(file, eventType, file.getUserId(),
+                    recipients.getOrDefault(file.getId(), List.of()),
+                    Map.of(
+                            "size", String.valueOf(file.getSize()),
+                            "version", String.valueOf(file.getVersion())));
+        }
+        log.debug("Updated file metadata from storage events: files={}", updated.size());
+    }
+
+    /**
+     * Итоговое состояние файла по событиям пачки
+     */
+    private static final class StoredState {
+
+        /**
+         * Индекс первой записи файла в пачке
+         */
+        private final int firstIndex;
+        private Long size;
+        private String hash;
+        private final Map<String, StorageEvent> byStoragePath = new LinkedHashMap<>();
+
+        StoredState(int firstIndex) {
+            this.firstIndex = firstIndex;
+        }
+
+        void apply(StorageEvent event) {
+            if (event.getSize() != null && event.getSize() > 0) {
+                size = event.getSize();
+            }
+            if (event.getHash() != null && !event.getHash().isEmpty()) {
+                hash = event.getHash();
+            }
+            if (event.getStoragePath() != null) {
+                byStoragePath.put(event.getStoragePath(), event);
+            }
         }
     }
 }
@@ -0,0 +1,49 @@
+package com.fileservice.kafka;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fileservice.service.UserInfoCache;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.stereotype.Component;
+
+import java.util.UUID;
+
+/**
+ * Инвалидация кэша профилей по событиям пользователей (AuthService и UserService).
+ * Любое событие по пользователю сбрасывает его запись: события редкие, а перечитать
+ * профиль дешевле, чем поддерживать список типов, меняющих email/имя.
+ * Как и для кэша прав - своя постоянная consumer group на экземпляр (file-service.instance-id)
+ * и только новые события
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class UserInfoCacheInvalidationListener {
+
+    private final UserInfoCache userInfoCache;
+    private final ObjectMapper objectMapper;
+
+    @KafkaListener(topics = "${kafka.topics.user-events:user-events}",
+            groupId = "${spring.application.name}-user-cache-${file-service.instance-id}",
+            properties = {
+                    "auto.offset.reset=latest",
+                    "value.deserializer=org.apache.kafka.common.serialization.StringDeserializer"
+            })
+    public void handleUserEvent(String eventJson, Acknowledgment acknowledgment) {
+        try {
+            JsonNode event = objectMapper.readTree(eventJson);
+            String userId = event.path("userId").asText(null);
+            if (userId != null) {
+                log.debug("Invalidating user cache: userId={}, event={}", userId, event.path("eventType").asText(""));
+                userInfoCache.invalidate(UUID.fromString(userId));
+            }
+        } catch (Exception e) {
+            log.warn("Failed to process user event for user cache: {}", e.getMessage());
+        } finally {
+            acknowledgment.acknowledge();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.fileservice.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Запись журнала изменений пользователя: что произошло с файлом под номером seq.
+ * Для папки запись относится ко всему поддереву (удаление, восстановление, перемещение)
+ */
+@Entity
+@Table(name = "change_journal")
+@IdClass(ChangeJournalEntry.Key.class)
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ChangeJournalEntry {
+
+    @Id
+    @Column(name = "user_id")
+    private UUID userId;
+
+    @Id
+    @Column(name = "seq")
+    private Long seq;
+
+    @Column(name = "file_id", nullable = false)
+    private UUID fileId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "change_type", nullable = false, length = 20)
+    private ChangeType changeType;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    public enum ChangeType {
+        CREATED,
+        UPDATED,
+        MOVED,
+        DELETED,
+        RESTORED,
+        /** Окончательное удаление (tombstone) */
+        PURGED,
+        /** Изменились расшаривания файла владельца */
+        SHARED,
+        SHARED_WITH_ME,
+        /** Доступ к чужому файлу потерян (tombstone) */
+        UNSHARED_WITH_ME
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        private UUID userId;
+        private Long seq;
+    }
+}
@@ -0,0 +1,30 @@
+package com.fileservice.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.util.UUID;
+
+/**
+ * Счетчик журнала изменений пользователя.
+ * Записи с seq <= truncatedSeq могли быть удалены без замены (tombstones)
+ */
+@Entity
+@Table(name = "change_sequences")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ChangeSequence {
+
+    @Id
+    @Column(name = "user_id")
+    private UUID userId;
+
+    @Column(name = "last_seq", nullable = false)
+    private Long lastSeq;
+
+    @Column(name = "truncated_seq", nullable = false)
+    private Long truncatedSeq;
+}
@@ -0,0 +1,7 @@
+package com.fileservice.model;
+
+/**
+ * Фрагмент содержимого в манифесте версии: SHA-256 (hex) и размер в байтах
+ */
+public record ChunkRef(String hash, int size) {
+}
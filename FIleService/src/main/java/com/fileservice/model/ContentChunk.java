@@ -0,0 +1,66 @@
+package com.fileservice.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Фрагмент содержимого в хранилище. Ключ объекта зависит от пространства имен:
+ * chunks/{hash[0:2]}/{hash} для общего ('') и chunks/u/{namespace}/{hash[0:2]}/{hash} для пользовательского.
+ * Один фрагмент может входить в манифесты нескольких версий и файлов
+ */
+@Entity
+@Table(name = "content_chunks")
+@IdClass(ContentChunk.Key.class)
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ContentChunk {
+
+    /**
+     * Пространство имен: id загрузившего пользователя (scope USER) или '' (scope GLOBAL)
+     */
+    @Id
+    @Column(length = 36)
+    private String namespace;
+
+    @Id
+    @Column(length = 64)
+    private String hash;
+
+    @Column(nullable = false)
+    private Integer size;
+
+    /**
+     * Пользователь, первым загрузивший фрагмент
+     */
+    @Column(name = "user_id", nullable = false)
+    private UUID userId;
+
+    @CreationTimestamp
+    @Column(name = "created_at", nullable = false, updatable = false)
+    private LocalDateTime createdAt;
+
+    /**
+     * Последнее согласование или коммит, в котором фрагмент участвовал (для сборки мусора)
+     */
+    @Column(name = "last_referenced_at", nullable = false)
+    private LocalDateTime lastReferencedAt;
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    public static class Key implements Serializable {
+
+        private String namespace;
+        private String hash;
+    }
+}
@@ -0,0 +1,73 @@
+package com.fileservice.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+import org.hibernate.annotations.CreationTimestamp;
+import org.hibernate.annotations.UpdateTimestamp;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Асинхронная очистка корзины пользователя.
+ * Удаляются элементы, попавшие в корзину не позже cutoff; position - последняя обработанная
+ * позиция keyset-обхода, releasedBytes - освобожденный объем (возвращается в квоту по завершении)
+ */
+@Entity
+@Table(name = "empty_trash_jobs")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class EmptyTrashJob {
+
+    @Id
+    private UUID id;
+
+    @Column(name = "user_id", nullable = false)
+    private UUID userId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private Status status;
+
+    @Column(nullable = false)
+    private LocalDateTime cutoff;
+
+    @Column(name = "total_items", nullable = false)
+    private Long totalItems;
+
+    @Column(name = "processed_items", nullable = false)
+    private Long processedItems;
+
+    @Column(name = "failed_items", nullable = false)
+    private Long failedItems;
+
+    @Column(name = "released_bytes", nullable = false)
+    private Long releasedBytes;
+
+    @Column(columnDefinition = "TEXT")
+    private String position;
+
+    @CreationTimestamp
+    @Column(name = "created_at", nullable = false, updatable = false)
+    private LocalDateTime createdAt;
+
+    @UpdateTimestamp
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt;
+
+    @Column(name = "completed_at")
+    private LocalDateTime completedAt;
+
+    public boolean isActive() {
+        return status != Status.COMPLETED;
+    }
+
+    public enum Status {
+        PENDING,
+        RUNNING,
+        COMPLETED
+    }
+}
@@ -20,7 +20,8 @@ import java.util.UUID;
         @Index(name = "idx_files_path", columnList = "path"),
         @Index(name = "idx_files_parent_folder", columnList = "parent_folder_id"),
         @Index(name = "idx_files_hash", columnList = "hash"),
-        @Index(name = "idx_files_is_deleted", columnList = "is_deleted")
+        @Index(name = "idx_files_is_deleted", columnList = "is_deleted"),
+        @Index(name = "idx_files_ancestor_path", columnList = "ancestor_path")
 })
 @Getter
 @Setter
@@ -29,6 +30,8 @@ import java.util.UUID;
 @Builder
 public class File {
 
+    public static final String ROOT_ANCESTOR_PATH = "/";
+
     @Id
     @GeneratedValue(strategy = GenerationType.UUID)
     private UUID id;
@@ -47,6 +50,14 @@ public class File {
     @Builder.Default
     private List<File> children = new ArrayList<>();
 
+    /**
+     * Материализованный путь предков по ID: "/{rootId}/.../{parentId}/"
+     * Для элементов в корне - "/"
+     */
+    @Column(name = "ancestor_path", nullable = false, columnDefinition = "TEXT COLLATE \"C\"")
+    @Builder.Default
+    private String ancestorPath = ROOT_ANCESTOR_PATH;
+
     @Column(name = "user_id", nullable = false)
     private UUID userId;
 
@@ -71,6 +82,13 @@ public class File {
     @Column(name = "storage_path", length = 500)
     private String storagePath;
 
+    /**
+     * Содержимое текущей версии хранится фрагментами (манифест в file_version_chunks)
+     */
+    @Column(name = "is_chunked", nullable = false)
+    @Builder.Default
+    private Boolean isChunked = false;
+
     @CreationTimestamp
     @Column(name = "created_at", nullable = false, updatable = false)
     private LocalDateTime createdAt;
@@ -110,6 +128,10 @@ public class File {
         return Boolean.TRUE.equals(isDeleted);
     }
 
+    public boolean isChunked() {
+        return Boolean.TRUE.equals(isChunked);
+    }
+
     public void softDelete() {
         this.isDeleted = true;
         this.deletedAt = LocalDateTime.now();
@@ -124,16 +146,68 @@ public class File {
         this.version++;
     }
 
+    /**
+     * Префикс ancestor_path всех потомков этого элемента
+     */
+    public String getSubtreePath() {
+        return ancestorPath + id + "/";
+    }
+
+    /**
+     * Проверка, находится ли элемент внутри поддерева другого элемента
+     */
+    public boolean isInSubtreeOf(File other) {
+        return ancestorPath.startsWith(other.getSubtreePath());
+    }
+
+    /**
+     * ID предков от корня до родителя (из ancestor_path)
+     */
+    public List<UUID> getAncestorIds() {
+        return ancestorIdsOf(ancestorPath);
+    }
+
+    public static List<UUID> ancestorIdsOf(String ancestorPath) {
+        List<UUID> ids = new ArrayList<>();
+        for (String segment : ancestorPath.split("/")) {
+            if (!segment.isEmpty()) {
+                ids.add(UUID.fromString(segment));
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Верхняя граница диапазона для выборки поддерева по префиксу.
+     * Префикс всегда заканчивается на '/', следующий символ в порядке "C" - '0'.
+     */
+    public static String subtreeUpperBound(String subtreePath) {
+        return subtreePath.substring(0, subtreePath.length() - 1) + "0";
+    }
+
     @Transient
     private String uploadUrl;
 
     @Transient
     private String downloadUrl;
 
+    /**
+     * Эффективный уровень доступа запрашивающего пользователя (заполняется при листинге)
+     */
+    @Transient
+    private FilePermission.PermissionType effectivePermission;
+
+    /**
+     * Агрегаты поддерева (заполняются для папки при получении метаданных)
+     */
+    @Transient
+    private FolderAggregate folderAggregate;
+
     @PrePersist
     protected void onCreate() {
         if (createdBy == null) {
             createdBy = userId;
         }
+        ancestorPath = parentFolder != null ? parentFolder.getSubtreePath() : ROOT_ANCESTOR_PATH;
     }
 }
@@ -0,0 +1,32 @@
+package com.fileservice.model;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Строка листинга: только колонки, нужные FileMetadata.
+ * Выбирается конструктором в JPQL, в persistence context не попадает
+ * и не тянет связей File (children, versions, shares, permissions, parentFolder)
+ *
+ * @param aggregate агрегаты поддерева для папки (из folder_aggregates), для файла null
+ * @param effectivePermission уровень доступа запрашивающего (для чужой папки), иначе null
+ */
+public record FileListing(UUID id, String name, String path, Long size, String mimeType, String hash,
+        Boolean isFolder, Integer version, Boolean isChunked, UUID userId, LocalDateTime createdAt,
+        LocalDateTime updatedAt, FolderAggregate aggregate, FilePermission.PermissionType effectivePermission) {
+
+    public FileListing(UUID id, String name, String path, Long size, String mimeType, String hash,
+            Boolean isFolder, Integer version, Boolean isChunked, UUID userId, LocalDateTime createdAt,
+            LocalDateTime updatedAt, Long totalSize, Long fileCount, Long folderCount,
+            LocalDateTime contentModifiedAt) {
+        this(id, name, path, size, mimeType, hash, isFolder, version, isChunked, userId, createdAt, updatedAt,
+                totalSize == null ? null : new FolderAggregate(id, totalSize, fileCount, folderCount,
+                        contentModifiedAt),
+                null);
+    }
+
+    public FileListing withPermission(FilePermission.PermissionType permission) {
+        return new FileListing(id, name, path, size, mimeType, hash, isFolder, version, isChunked, userId,
+                createdAt, updatedAt, aggregate, permission);
+    }
+}
@@ -60,6 +60,15 @@ public class FilePermission {
         public boolean includes(PermissionType other) {
             return this.getLevel() >= other.getLevel();
         }
+
+        public static PermissionType fromLevel(int level) {
+            for (PermissionType type : values()) {
+                if (type.getLevel() == level) {
+                    return type;
+                }
+            }
+            throw new IllegalArgumentException("Unknown permission level: " + level);
+        }
     }
 
     public boolean allowsRead() {
@@ -43,6 +43,13 @@ public class FileVersion {
         @Column(name = "storage_path", nullable = false, length = 500)
         private String storagePath;
 
+        /**
+         * Содержимое версии хранится фрагментами (манифест в file_version_chunks)
+         */
+        @Column(name = "is_chunked", nullable = false)
+        @Builder.Default
+        private Boolean isChunked = false;
+
         @CreationTimestamp
         @Column(name = "created_at", nullable = false, updatable = false)
         private LocalDateTime createdAt;
@@ -54,6 +61,10 @@ public class FileVersion {
         @Column(name = "created_by_user_id", nullable = false)
         private UUID createdByUserId;
 
+        public boolean isChunked() {
+                return Boolean.TRUE.equals(isChunked);
+        }
+
         public boolean isLatestVersion() {
                 return file != null && file.getVersion().equals(this.version);
         }
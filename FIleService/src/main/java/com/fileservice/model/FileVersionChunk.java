@@ -0,0 +1,63 @@
+package com.fileservice.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.io.Serializable;
+import java.util.UUID;
+
+/**
+ * Элемент манифеста фрагментированной версии: seq-й фрагмент содержимого (file_id, version)
+ */
+@Entity
+@Table(name = "file_version_chunks")
+@IdClass(FileVersionChunk.Key.class)
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class FileVersionChunk {
+
+    @Id
+    @Column(name = "file_id")
+    private UUID fileId;
+
+    @Id
+    @Column(nullable = false)
+    private Integer version;
+
+    @Id
+    @Column(nullable = false)
+    private Integer seq;
+
+    /**
+     * Пространство имен фрагмента (см. ContentChunk)
+     */
+    @Column(name = "chunk_namespace", nullable = false, length = 36)
+    private String chunkNamespace;
+
+    @Column(name = "chunk_hash", nullable = false, length = 64)
+    private String chunkHash;
+
+    /**
+     * Смещение фрагмента в файле
+     */
+    @Column(name = "chunk_offset", nullable = false)
+    private Long chunkOffset;
+
+    @Column(nullable = false)
+    private Integer size;
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    public static class Key implements Serializable {
+
+        private UUID fileId;
+        private Integer version;
+        private Integer seq;
+    }
+}
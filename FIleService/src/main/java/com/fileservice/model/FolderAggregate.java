@@ -0,0 +1,43 @@
+package com.fileservice.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Агрегаты активного поддерева папки: суммарный размер, число файлов и папок на любой глубине.
+ * Строка изменяется только дельтами FolderAggregateRepository (нативными UPDATE)
+ */
+@Entity
+@Table(name = "folder_aggregates")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class FolderAggregate {
+
+    @Id
+    @Column(name = "folder_id")
+    private UUID folderId;
+
+    @Column(name = "total_size", nullable = false)
+    @Builder.Default
+    private Long totalSize = 0L;
+
+    @Column(name = "file_count", nullable = false)
+    @Builder.Default
+    private Long fileCount = 0L;
+
+    @Column(name = "folder_count", nullable = false)
+    @Builder.Default
+    private Long folderCount = 0L;
+
+    /**
+     * Время последнего изменения внутри поддерева
+     */
+    @Column(name = "last_modified_at", nullable = false)
+    private LocalDateTime lastModifiedAt;
+}
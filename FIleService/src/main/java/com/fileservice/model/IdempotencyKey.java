@@ -0,0 +1,51 @@
+package com.fileservice.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Ключ идемпотентности мутирующего RPC и сохраненный ответ (сериализованный protobuf).
+ * Повтор запроса с тем же ключом получает этот ответ без повторного выполнения
+ */
+@Entity
+@Table(name = "idempotency_keys")
+@IdClass(IdempotencyKey.Key.class)
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class IdempotencyKey {
+
+    @Id
+    @Column(name = "user_id")
+    private UUID userId;
+
+    @Id
+    @Column(name = "idempotency_key", length = 128)
+    private String idempotencyKey;
+
+    @Column(name = "operation", nullable = false, length = 32)
+    private String operation;
+
+    @Column(name = "request_hash", nullable = false)
+    private byte[] requestHash;
+
+    @Column(name = "response")
+    private byte[] response;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        private UUID userId;
+        private String idempotencyKey;
+    }
+}
@@ -0,0 +1,21 @@
+package com.fileservice.repository;
+
+import com.fileservice.model.ChangeJournalEntry.ChangeType;
+
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Выдача номеров и запись журнала изменений (фрагмент ChangeJournalRepository)
+ */
+public interface ChangeJournalBatchRepository {
+
+    /**
+     * Резервирует count номеров подряд и дописывает изменения пользователя одним JDBC batch.
+     * Строка счетчика пользователя остается заблокированной до конца транзакции
+     *
+     * @param changes изменения по файлам в порядке применения
+     * @return последний выданный номер
+     */
+    long append(UUID userId, Map<UUID, ChangeType> changes);
+}
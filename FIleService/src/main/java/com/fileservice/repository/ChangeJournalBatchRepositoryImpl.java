@@ -0,0 +1,53 @@
+package com.fileservice.repository;
+
+import com.fileservice.model.ChangeJournalEntry.ChangeType;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * JDBC-реализация записи журнала: номера берутся одним upsert счетчика (INSERT ... RETURNING),
+ * записи вставляются JdbcTemplate.batchUpdate
+ */
+@RequiredArgsConstructor
+public class ChangeJournalBatchRepositoryImpl implements ChangeJournalBatchRepository {
+
+    private static final String ALLOCATE_SQL = "INSERT INTO change_sequences (user_id, last_seq) VALUES (?, ?) " +
+            "ON CONFLICT (user_id) DO UPDATE SET last_seq = change_sequences.last_seq + EXCLUDED.last_seq " +
+            "RETURNING last_seq";
+
+    private static final String INSERT_SQL = "INSERT INTO change_journal (user_id, seq, file_id, change_type, " +
+            "created_at) VALUES (?, ?, ?, ?, CURRENT_TIMESTAMP)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${spring.jpa.properties.hibernate.jdbc.batch_size:20}")
+    private int batchSize;
+
+    @Override
+    public long append(UUID userId, Map<UUID, ChangeType> changes) {
+        Long lastSeq = jdbcTemplate.queryForObject(ALLOCATE_SQL, Long.class, userId, changes.size());
+        long firstSeq = lastSeq - changes.size() + 1;
+
+        List<Row> rows = new ArrayList<>(changes.size());
+        long seq = firstSeq;
+        for (Map.Entry<UUID, ChangeType> change : changes.entrySet()) {
+            rows.add(new Row(seq++, change.getKey(), change.getValue()));
+        }
+        jdbcTemplate.batchUpdate(INSERT_SQL, rows, batchSize, (ps, row) -> {
+            ps.setObject(1, userId);
+            ps.setLong(2, row.seq());
+            ps.setObject(3, row.fileId());
+            ps.setString(4, row.changeType().name());
+        });
+        return lastSeq;
+    }
+
+    private record Row(long seq, UUID fileId, ChangeType changeType) {
+    }
+}
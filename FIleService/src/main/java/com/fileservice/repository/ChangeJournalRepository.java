@@ -0,0 +1,69 @@
+package com.fileservice.repository;
+
+import com.fileservice.model.ChangeJournalEntry;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+@Repository
+public interface ChangeJournalRepository
+        extends JpaRepository<ChangeJournalEntry, ChangeJournalEntry.Key>, ChangeJournalBatchRepository {
+
+    /**
+     * Изменения после курсора в порядке номеров (по первичному ключу)
+     */
+    List<ChangeJournalEntry> findByUserIdAndSeqGreaterThanOrderBySeq(UUID userId, Long seq, Limit limit);
+
+    /**
+     * Записи старше cutoff, у файла которых есть более поздняя запись, начиная после позиции
+     * (fromUserId, fromSeq) в порядке первичного ключа
+     */
+    @Query(value = "SELECT j.user_id AS userId, j.seq AS seq FROM change_journal j " +
+            "WHERE (j.user_id, j.seq) > (:fromUserId, :fromSeq) AND j.created_at < :cutoff " +
+            "AND EXISTS (SELECT 1 FROM change_journal n " +
+            "WHERE n.user_id = j.user_id AND n.file_id = j.file_id AND n.seq > j.seq) " +
+            "ORDER BY j.user_id, j.seq LIMIT :limit",
+            nativeQuery = true)
+    List<JournalPosition> findSuperseded(@Param("fromUserId") UUID fromUserId, @Param("fromSeq") long fromSeq,
+            @Param("cutoff") LocalDateTime cutoff, @Param("limit") int limit);
+
+    /**
+     * Удаление замененных записей в диапазоне позиций (from, to] - тот же предикат, что у findSuperseded
+     */
+    @Modifying
+    @Query(value = "DELETE FROM change_journal j " +
+            "WHERE (j.user_id, j.seq) > (:fromUserId, :fromSeq) AND (j.user_id, j.seq) <= (:toUserId, :toSeq) " +
+            "AND j.created_at < :cutoff " +
+            "AND EXISTS (SELECT 1 FROM change_journal n " +
+            "WHERE n.user_id = j.user_id AND n.file_id = j.file_id AND n.seq > j.seq)",
+            nativeQuery = true)
+    int deleteSuperseded(@Param("fromUserId") UUID fromUserId, @Param("fromSeq") long fromSeq,
+            @Param("toUserId") UUID toUserId, @Param("toSeq") long toSeq,
+            @Param("cutoff") LocalDateTime cutoff);
+
+    /**
+     * Удаление старых tombstones (PURGED, UNSHARED_WITH_ME); до этого сдвигается truncated_seq
+     */
+    @Modifying
+    @Query(value = "DELETE FROM change_journal " +
+            "WHERE change_type IN ('PURGED', 'UNSHARED_WITH_ME') AND created_at < :cutoff",
+            nativeQuery = true)
+    int deleteTombstones(@Param("cutoff") LocalDateTime cutoff);
+
+    /**
+     * Позиция записи журнала (для keyset-обхода компактора)
+     */
+    interface JournalPosition {
+
+        UUID getUserId();
+
+        Long getSeq();
+    }
+}
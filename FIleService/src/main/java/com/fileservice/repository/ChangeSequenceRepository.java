@@ -0,0 +1,26 @@
+package com.fileservice.repository;
+
+import com.fileservice.model.ChangeSequence;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+@Repository
+public interface ChangeSequenceRepository extends JpaRepository<ChangeSequence, UUID> {
+
+    /**
+     * Сдвиг truncated_seq до последнего tombstone старше cutoff - вызывается перед их удалением
+     */
+    @Modifying
+    @Query(value = "UPDATE change_sequences s SET truncated_seq = GREATEST(s.truncated_seq, t.max_seq) " +
+            "FROM (SELECT user_id, MAX(seq) AS max_seq FROM change_journal " +
+            "WHERE change_type IN ('PURGED', 'UNSHARED_WITH_ME') AND created_at < :cutoff " +
+            "GROUP BY user_id) t WHERE s.user_id = t.user_id",
+            nativeQuery = true)
+    int advanceTruncatedSeq(@Param("cutoff") LocalDateTime cutoff);
+}
@@ -0,0 +1,75 @@
+package com.fileservice.repository;
+
+import com.fileservice.model.ContentBlob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+@Repository
+public interface ContentBlobRepository extends JpaRepository<ContentBlob, String> {
+
+    /**
+     * Живой blob с тем же содержимым. Собственные загрузки пользователя предпочтительнее;
+     * чужие рассматриваются только при crossUser = true.
+     * Строка блокируется до конца транзакции: снятие последней ссылки (lockByStoragePaths)
+     * ждет привязку, а привязка после снятия строку уже не находит
+     */
+    @Query(value = "SELECT storage_path FROM content_blobs " +
+            "WHERE hash = :hash AND size = :size AND ref_count > 0 " +
+            "AND (user_id = :userId OR :crossUser) " +
+            "ORDER BY (user_id = :userId) DESC LIMIT 1 FOR UPDATE", nativeQuery = true)
+    Optional<String> findLinkable(@Param("hash") String hash, @Param("size") long size,
+            @Param("userId") UUID userId, @Param("crossUser") boolean crossUser);
+
+    /**
+     * Регистрация подтвержденной загрузки с одной ссылкой; повторная доставка события не меняет счетчик
+     */
+    @Modifying
+    @Query(value = "INSERT INTO content_blobs (storage_path, hash, size, user_id, ref_count) " +
+            "VALUES (:storagePath, :hash, :size, :userId, 1) " +
+            "ON CONFLICT (storage_path) DO NOTHING", nativeQuery = true)
+    int register(@Param("storagePath") String storagePath, @Param("hash") String hash,
+            @Param("size") long size, @Param("userId") UUID userId);
+
+    /**
+     * +1 ссылка. Blob, у которого уже ушла последняя ссылка, не воскрешается (0 строк)
+     */
+    @Modifying
+    @Query(value = "UPDATE content_blobs SET ref_count = ref_count + 1, updated_at = CURRENT_TIMESTAMP " +
+            "WHERE storage_path = :storagePath AND ref_count > 0", nativeQuery = true)
+    int retain(@Param("storagePath") String storagePath);
+
+    /**
+     * Блокировка строк blob перед снятием ссылок (в порядке storage_path, чтобы параллельные
+     * удаления не взаимоблокировались). Порядок побайтовый (COLLATE "C") - как у сортировки пачек
+     * путей в ContentBlobService. Пути без строки (загруженные до дедупликации) не возвращаются
+     */
+    @Query(value = "SELECT storage_path AS storagePath, ref_count AS refCount FROM content_blobs " +
+            "WHERE storage_path IN (:storagePaths) ORDER BY storage_path COLLATE \"C\" FOR UPDATE",
+            nativeQuery = true)
+    List<BlobReference> lockByStoragePaths(@Param("storagePaths") Collection<String> storagePaths);
+
+    @Modifying
+    @Query(value = "UPDATE content_blobs SET ref_count = GREATEST(ref_count - :count, 0), " +
+            "updated_at = CURRENT_TIMESTAMP WHERE storage_path = :storagePath", nativeQuery = true)
+    int release(@Param("storagePath") String storagePath, @Param("count") int count);
+
+    @Modifying
+    @Query(value = "DELETE FROM content_blobs WHERE storage_path IN (:storagePaths) AND ref_count = 0",
+            nativeQuery = true)
+    int deleteUnreferenced(@Param("storagePaths") Collection<String> storagePaths);
+
+    interface BlobReference {
+
+        String getStoragePath();
+
+        int getRefCount();
+    }
+}
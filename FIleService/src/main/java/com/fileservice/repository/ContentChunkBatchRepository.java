@@ -0,0 +1,27 @@
+package com.fileservice.repository;
+
+import com.fileservice.model.ChunkRef;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Пакетная запись индекса фрагментов (фрагмент ContentChunkRepository)
+ */
+public interface ContentChunkBatchRepository {
+
+    /**
+     * Регистрация фрагментов пространства имен одним JDBC batch; у существующих обновляется last_referenced_at
+     */
+    void upsertChunks(String namespace, Collection<ChunkRef> chunks, UUID userId);
+
+    /**
+     * Блокировка (FOR UPDATE, в порядке хешей) уже зарегистрированных фрагментов из списка до конца
+     * транзакции. Сборщик мусора пропускает заблокированные строки, а строки, которые он успел
+     * удалить, в ответ не попадают
+     *
+     * @return хеши зарегистрированных фрагментов
+     */
+    List<String> lockPresentHashes(String namespace, Collection<String> hashes);
+}
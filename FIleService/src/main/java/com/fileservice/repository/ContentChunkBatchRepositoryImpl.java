@@ -0,0 +1,43 @@
+package com.fileservice.repository;
+
+import com.fileservice.model.ChunkRef;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+@RequiredArgsConstructor
+public class ContentChunkBatchRepositoryImpl implements ContentChunkBatchRepository {
+
+    private static final String UPSERT_SQL = "INSERT INTO content_chunks (namespace, hash, size, user_id) " +
+            "VALUES (?, ?, ?, ?) ON CONFLICT (namespace, hash) DO UPDATE SET last_referenced_at = CURRENT_TIMESTAMP";
+
+    /**
+     * Хеши передаются массивом: манифест может содержать больше фрагментов, чем допускается параметров
+     */
+    private static final String LOCK_PRESENT_SQL = "SELECT hash FROM content_chunks " +
+            "WHERE namespace = ? AND hash = ANY(?) ORDER BY hash FOR UPDATE";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${spring.jpa.properties.hibernate.jdbc.batch_size:20}")
+    private int batchSize;
+
+    @Override
+    public void upsertChunks(String namespace, Collection<ChunkRef> chunks, UUID userId) {
+        jdbcTemplate.batchUpdate(UPSERT_SQL, chunks, batchSize, (ps, chunk) -> {
+            ps.setString(1, namespace);
+            ps.setString(2, chunk.hash());
+            ps.setInt(3, chunk.size());
+            ps.setObject(4, userId);
+        });
+    }
+
+    @Override
+    public List<String> lockPresentHashes(String namespace, Collection<String> hashes) {
+        return jdbcTemplate.queryForList(LOCK_PRESENT_SQL, String.class, namespace, hashes.toArray(String[]::new));
+    }
+}
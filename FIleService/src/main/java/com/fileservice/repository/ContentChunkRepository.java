@@ -0,0 +1,56 @@
+package com.fileservice.repository;
+
+import com.fileservice.model.ContentChunk;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface ContentChunkRepository
+        extends JpaRepository<ContentChunk, ContentChunk.Key>, ContentChunkBatchRepository {
+
+    /**
+     * Фрагменты из списка, которые уже есть в пространстве имен. Чужие загрузки видны только
+     * в общем пространстве (scope GLOBAL), иначе по ответу можно проверить наличие чужого содержимого
+     */
+    @Query(value = "SELECT hash FROM content_chunks WHERE namespace = :namespace AND hash IN (:hashes)",
+            nativeQuery = true)
+    List<String> findPresentHashes(@Param("namespace") String namespace, @Param("hashes") Collection<String> hashes);
+
+    /**
+     * Продление жизни фрагментов, о наличии которых только что сообщили клиенту
+     */
+    @Modifying
+    @Query(value = "UPDATE content_chunks SET last_referenced_at = CURRENT_TIMESTAMP " +
+            "WHERE namespace = :namespace AND hash IN (:hashes)", nativeQuery = true)
+    int touch(@Param("namespace") String namespace, @Param("hashes") Collection<String> hashes);
+
+    /**
+     * Фрагменты, не входящие ни в один манифест дольше grace-периода.
+     * Строки блокируются; уже заблокированные (их продлевает согласование) пропускаются
+     */
+    @Query(value = "SELECT c.namespace AS namespace, c.hash AS hash FROM content_chunks c " +
+            "WHERE c.last_referenced_at < :threshold " +
+            "AND NOT EXISTS (SELECT 1 FROM file_version_chunks m " +
+            "WHERE m.chunk_namespace = c.namespace AND m.chunk_hash = c.hash) " +
+            "ORDER BY c.last_referenced_at LIMIT :limit FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<ChunkKey> lockCollectable(@Param("threshold") LocalDateTime threshold, @Param("limit") int limit);
+
+    @Modifying
+    @Query(value = "DELETE FROM content_chunks WHERE namespace = :namespace AND hash IN (:hashes)",
+            nativeQuery = true)
+    int deleteByHashes(@Param("namespace") String namespace, @Param("hashes") Collection<String> hashes);
+
+    interface ChunkKey {
+
+        String getNamespace();
+
+        String getHash();
+    }
+}
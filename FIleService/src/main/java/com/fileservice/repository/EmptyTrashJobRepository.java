@@ -0,0 +1,51 @@
+package com.fileservice.repository;
+
+import com.fileservice.model.EmptyTrashJob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+@Repository
+public interface EmptyTrashJobRepository extends JpaRepository<EmptyTrashJob, UUID> {
+
+    /**
+     * Создание задачи, если у пользователя нет активной (уникальный частичный индекс из V10)
+     *
+     * @return 1 - задача создана, 0 - уже есть активная
+     */
+    @Modifying
+    @Query(value = "INSERT INTO empty_trash_jobs (id, user_id, status, cutoff, total_items) " +
+            "VALUES (:id, :userId, 'PENDING', :cutoff, :totalItems) " +
+            "ON CONFLICT (user_id) WHERE status IN ('PENDING', 'RUNNING') DO NOTHING", nativeQuery = true)
+    int insertIfNoActive(@Param("id") UUID id, @Param("userId") UUID userId,
+            @Param("cutoff") LocalDateTime cutoff, @Param("totalItems") long totalItems);
+
+    @Query("SELECT j FROM EmptyTrashJob j WHERE j.userId = :userId " +
+            "AND j.status IN (com.fileservice.model.EmptyTrashJob.Status.PENDING, " +
+            "com.fileservice.model.EmptyTrashJob.Status.RUNNING)")
+    Optional<EmptyTrashJob> findActiveByUserId(@Param("userId") UUID userId);
+
+    Optional<EmptyTrashJob> findByIdAndUserId(UUID id, UUID userId);
+
+    /**
+     * Активная задача с блокировкой строки на время фрагмента.
+     * Задачу, фрагмент которой уже выполняет другой поток/экземпляр, пропускаем
+     */
+    @Query(value = "SELECT * FROM empty_trash_jobs WHERE id = :id AND status IN ('PENDING', 'RUNNING') " +
+            "FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    Optional<EmptyTrashJob> lockActive(@Param("id") UUID id);
+
+    /**
+     * Активные задачи без прогресса с момента threshold (экземпляр, выполнявший их, остановился)
+     */
+    @Query(value = "SELECT id FROM empty_trash_jobs WHERE status IN ('PENDING', 'RUNNING') " +
+            "AND updated_at < :threshold ORDER BY updated_at LIMIT :limit", nativeQuery = true)
+    List<UUID> findStalledIds(@Param("threshold") LocalDateTime threshold, @Param("limit") int limit);
+}
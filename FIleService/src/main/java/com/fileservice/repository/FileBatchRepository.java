@@ -0,0 +1,17 @@
+package com.fileservice.repository;
+
+import com.fileservice.model.File;
+
+import java.util.List;
+
+/**
+ * Пакетная вставка метаданных файлов (фрагмент FileRepository)
+ */
+public interface FileBatchRepository {
+
+    /**
+     * Вставка файлов с заранее назначенными ID одним JDBC batch, по одной записи на строку.
+     * Сущности не попадают в persistence context
+     */
+    void batchInsert(List<File> files);
+}
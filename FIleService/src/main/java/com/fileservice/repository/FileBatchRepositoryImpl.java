@@ -0,0 +1,50 @@
+package com.fileservice.repository;
+
+import com.fileservice.model.File;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.List;
+
+/**
+ * JDBC-реализация пакетной вставки. Hibernate не умеет сохранять сущность
+ * с заранее назначенным @GeneratedValue ID без лишнего SELECT (merge),
+ * поэтому строки пишутся напрямую через JdbcTemplate.batchUpdate.
+ */
+@RequiredArgsConstructor
+public class FileBatchRepositoryImpl implements FileBatchRepository {
+
+    private static final String INSERT_SQL = "INSERT INTO files (id, name, path, parent_folder_id, ancestor_path, " +
+            "user_id, size, mime_type, hash, is_folder, version, storage_path, created_at, updated_at, " +
+            "created_by, is_deleted) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, false)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${spring.jpa.properties.hibernate.jdbc.batch_size:20}")
+    private int batchSize;
+
+    @Override
+    public void batchInsert(List<File> files) {
+        jdbcTemplate.batchUpdate(INSERT_SQL, files, batchSize, (ps, file) -> {
+            ps.setObject(1, file.getId());
+            ps.setString(2, file.getName());
+            ps.setString(3, file.getPath());
+            ps.setObject(4, file.getParentFolder() != null ? file.getParentFolder().getId() : null, Types.OTHER);
+            ps.setString(5, file.getAncestorPath());
+            ps.setObject(6, file.getUserId());
+            ps.setLong(7, file.getSize());
+            ps.setString(8, file.getMimeType());
+            ps.setString(9, file.getHash());
+            ps.setBoolean(10, file.isFolder());
+            ps.setInt(11, file.getVersion());
+            ps.setString(12, file.getStoragePath());
+            ps.setTimestamp(13, Timestamp.valueOf(file.getCreatedAt()));
+            ps.setTimestamp(14, Timestamp.valueOf(file.getUpdatedAt()));
+            ps.setObject(15, file.getCreatedBy());
+        });
+    }
+}
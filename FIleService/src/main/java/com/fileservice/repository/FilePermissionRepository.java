@@ -7,6 +7,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -33,6 +34,47 @@ public interface FilePermissionRepository extends JpaRepository<FilePermission,
     Optional<FilePermission> findHighestPermission(@Param("fileId") UUID fileId,
                                                    @Param("userId") UUID userId);
 
+    /**
+     * Эффективный уровень доступа пользователя к каждому из файлов одним запросом.
+     * Учитываются сам файл и все его предки (id из ancestor_path): владение (5),
+     * прямые разрешения и активные неистекшие расшаривания; берется максимальный уровень.
+     * level = NULL - доступа нет; файла нет в результате - файл не существует
+     */
+    @Query(value = "WITH targets AS (" +
+            "    SELECT id, ancestor_path FROM files WHERE id IN (:fileIds)" +
+            "), chain AS (" +
+            "    SELECT t.id AS target_id, t.id AS node_id FROM targets t" +
+            "    UNION ALL" +
+            "    SELECT t.id, CAST(a.node AS UUID) FROM targets t" +
+            "    CROSS JOIN LATERAL unnest(string_to_array(trim(BOTH '/' FROM t.ancestor_path), '/')) AS a(node)" +
+            "    WHERE a.node <> ''" +
+            "), grants AS (" +
+            "    SELECT c.target_id, 5 AS level FROM chain c" +
+            "    JOIN files f ON f.id = c.node_id AND f.user_id = :userId" +
+            "    UNION ALL" +
+            "    SELECT c.target_id, CASE fp.permission WHEN 'READ' THEN 1 WHEN 'WRITE' THEN 2" +
+            "        WHEN 'DELETE' THEN 3 WHEN 'SHARE' THEN 4 WHEN 'ADMIN' THEN 5 END FROM chain c" +
+            "    JOIN file_permissions fp ON fp.file_id = c.node_id AND fp.user_id = :userId" +
+            "    UNION ALL" +
+            "    SELECT c.target_id, CASE fs.permission WHEN 'READ' THEN 1 WHEN 'WRITE' THEN 2" +
+            "        WHEN 'ADMIN' THEN 5 END FROM chain c" +
+            "    JOIN file_shares fs ON fs.file_id = c.node_id AND fs.shared_with_user_id = :userId" +
+            "    WHERE fs.is_active = true AND (fs.expires_at IS NULL OR fs.expires_at > CURRENT_TIMESTAMP)" +
+            ") " +
+            "SELECT t.id AS fileId, t.ancestor_path AS ancestorPath, MAX(g.level) AS level " +
+            "FROM targets t LEFT JOIN grants g ON g.target_id = t.id " +
+            "GROUP BY t.id, t.ancestor_path", nativeQuery = true)
+    List<EffectivePermission> findEffectivePermissions(@Param("fileIds") Collection<UUID> fileIds,
+                                                       @Param("userId") UUID userId);
+
+    interface EffectivePermission {
+        UUID getFileId();
+
+        String getAncestorPath();
+
+        Integer getLevel();
+    }
+
     void deleteByFileId(UUID fileId);
 
     long countByFileId(UUID fileId);
@@ -1,20 +1,29 @@
 package com.fileservice.repository;
 
 import com.fileservice.model.File;
+import com.fileservice.model.FileListing;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
 @Repository
-public interface FileRepository extends JpaRepository<File, UUID> {
+public interface FileRepository extends JpaRepository<File, UUID>, FileBatchRepository {
 
         Optional<File> findByIdAndUserId(UUID id, UUID userId);
 
@@ -27,21 +36,96 @@ public interface FileRepository extends JpaRepository<File, UUID> {
         Page<File> findByUserIdAndParentFolderIdAndIsDeletedFalse(
                         UUID userId, UUID parentFolderId, Pageable pageable);
 
-        Page<File> findByUserIdAndParentFolderIdIsNullAndIsDeletedFalse(
-                        UUID userId, Pageable pageable);
+        // Keyset-пагинация (индексы из V6): без OFFSET и без COUNT на каждой странице
+
+        Window<File> findByUserIdAndIsDeletedTrue(
+                        UUID userId, ScrollPosition position, Limit limit, Sort sort);
+
+        // Листинг проекцией FileListing (без сущностей и persistence context), порядок name, id.
+        // Агрегаты папок - LEFT JOIN по первичному ключу folder_aggregates, без обхода поддеревьев
+
+        String LISTING_SELECT = "SELECT new com.fileservice.model.FileListing(f.id, f.name, f.path, f.size, " +
+                        "f.mimeType, f.hash, f.isFolder, f.version, f.isChunked, f.userId, f.createdAt, f.updatedAt, " +
+                        "a.totalSize, a.fileCount, a.folderCount, a.lastModifiedAt) " +
+                        "FROM File f LEFT JOIN FolderAggregate a ON a.folderId = f.id ";
+
+        String LISTING_AFTER = "AND (f.name > :afterName OR (f.name = :afterName AND f.id > :afterId)) " +
+                        "ORDER BY f.name, f.id";
+
+        @Query(LISTING_SELECT + "WHERE f.userId = :userId AND f.parentFolder.id = :parentFolderId " +
+                        "AND f.isDeleted = false " + LISTING_AFTER)
+        List<FileListing> findListingAfter(@Param("userId") UUID userId,
+                        @Param("parentFolderId") UUID parentFolderId, @Param("afterName") String afterName,
+                        @Param("afterId") UUID afterId, Limit limit);
+
+        @Query(LISTING_SELECT + "WHERE f.userId = :userId AND f.parentFolder IS NULL " +
+                        "AND f.isDeleted = false " + LISTING_AFTER)
+        List<FileListing> findRootListingAfter(@Param("userId") UUID userId, @Param("afterName") String afterName,
+                        @Param("afterId") UUID afterId, Limit limit);
+
+        @Query(value = LISTING_SELECT + "WHERE f.userId = :userId AND f.parentFolder.id = :parentFolderId " +
+                        "AND f.isDeleted = false",
+                        countQuery = "SELECT COUNT(f) FROM File f WHERE f.userId = :userId " +
+                                        "AND f.parentFolder.id = :parentFolderId AND f.isDeleted = false")
+        Page<FileListing> findListing(@Param("userId") UUID userId,
+                        @Param("parentFolderId") UUID parentFolderId, Pageable pageable);
+
+        @Query(value = LISTING_SELECT + "WHERE f.userId = :userId AND f.parentFolder IS NULL " +
+                        "AND f.isDeleted = false",
+                        countQuery = "SELECT COUNT(f) FROM File f WHERE f.userId = :userId " +
+                                        "AND f.parentFolder IS NULL AND f.isDeleted = false")
+        Page<FileListing> findRootListing(@Param("userId") UUID userId, Pageable pageable);
+
+        long countByUserIdAndParentFolderIdAndIsDeletedFalse(UUID userId, UUID parentFolderId);
+
+        long countByUserIdAndParentFolderIdIsNullAndIsDeletedFalse(UUID userId);
+
+        long countByUserIdAndIsDeletedTrue(UUID userId);
 
         List<File> findByHashAndIsDeletedFalse(String hash);
 
         Optional<File> findByHashAndUserIdAndIsDeletedFalse(String hash, UUID userId);
 
-        @Query("SELECT f FROM File f WHERE f.userId = :userId AND f.isDeleted = false " +
-                        "AND LOWER(f.name) LIKE LOWER(CONCAT('%', :query, '%'))")
+        /**
+         * Поиск по подстроке имени и пути (GIN pg_trgm индексы из V5).
+         * Ранжирование: точное совпадение имени, префикс имени, подстрока имени,
+         * совпадение только по пути; внутри группы - по similarity()
+         */
+        @Query(value = "SELECT f.* FROM files f " + SEARCH_WHERE +
+                        "ORDER BY CASE WHEN LOWER(f.name) = :query THEN 0 " +
+                        "WHEN LOWER(f.name) LIKE :prefixPattern THEN 1 " +
+                        "WHEN LOWER(f.name) LIKE :pattern THEN 2 ELSE 3 END, " +
+                        "similarity(LOWER(f.name), :query) DESC, f.name, f.id",
+                        countQuery = "SELECT COUNT(*) FROM files f " + SEARCH_WHERE,
+                        nativeQuery = true)
         Page<File> searchByName(@Param("userId") UUID userId,
                         @Param("query") String query,
+                        @Param("pattern") String pattern,
+                        @Param("prefixPattern") String prefixPattern,
+                        @Param("mimePattern") String mimePattern,
+                        @Param("modifiedAfter") LocalDateTime modifiedAfter,
+                        @Param("modifiedBefore") LocalDateTime modifiedBefore,
                         Pageable pageable);
 
+        String SEARCH_WHERE = "WHERE f.user_id = :userId AND f.is_deleted = false " +
+                        "AND (LOWER(f.name) LIKE :pattern OR LOWER(f.path) LIKE :pattern) " +
+                        "AND (CAST(:mimePattern AS TEXT) IS NULL OR f.mime_type LIKE :mimePattern) " +
+                        "AND (CAST(:modifiedAfter AS TIMESTAMP) IS NULL OR f.updated_at >= :modifiedAfter) " +
+                        "AND (CAST(:modifiedBefore AS TIMESTAMP) IS NULL OR f.updated_at < :modifiedBefore) ";
+
         List<File> findByUserIdAndIsFolderTrueAndIsDeletedFalse(UUID userId);
 
+        /**
+         * Какие из путей уже заняты активными файлами пользователя (проверка пакета одним запросом)
+         */
+        @Query("SELECT f.path FROM File f WHERE f.userId = :userId AND f.isDeleted = false " +
+                        "AND f.path IN :paths")
+        List<String> findExistingPaths(@Param("userId") UUID userId,
+                        @Param("paths") Collection<String> paths);
+
+        @Query("SELECT f FROM File f WHERE f.id IN :ids AND f.isDeleted = false")
+        List<File> findActiveByIdIn(@Param("ids") Collection<UUID> ids);
+
         @Query("SELECT COALESCE(SUM(f.size), 0) FROM File f " +
                         "WHERE f.userId = :userId AND f.isDeleted = false AND f.isFolder = false")
         Long calculateStorageUsed(@Param("userId") UUID userId);
@@ -50,15 +134,145 @@ public interface FileRepository extends JpaRepository<File, UUID> {
 
         Page<File> findByUserIdAndIsDeletedTrue(UUID userId, Pageable pageable);
 
-        List<File> findAllByUserIdAndIsDeletedTrue(UUID userId);
-
         boolean existsByPathAndUserIdAndIsDeletedFalse(String path, UUID userId);
 
-        @Query("SELECT f FROM File f WHERE f.isDeleted = true AND f.deletedAt < :beforeDate")
-        List<File> findFilesForCleanup(@Param("beforeDate") LocalDateTime beforeDate);
+        /**
+         * Очередной фрагмент просроченной корзины в порядке (deletedAt, isFolder, id), индекс из V9.
+         * Строки блокируются до конца транзакции, чтобы файл нельзя было восстановить
+         * между удалением объекта из хранилища и удалением строки
+         */
+        @Lock(LockModeType.PESSIMISTIC_WRITE)
+        Window<File> findByIsDeletedTrueAndDeletedAtBefore(
+                        LocalDateTime cutoff, ScrollPosition position, Limit limit, Sort sort);
+
+        /**
+         * Очередной фрагмент корзины пользователя (удаленное не позже cutoff) в том же порядке,
+         * что и у просроченной корзины; индекс из V10. Строки блокируются до конца транзакции
+         */
+        @Lock(LockModeType.PESSIMISTIC_WRITE)
+        Window<File> findByUserIdAndIsDeletedTrueAndDeletedAtLessThanEqual(
+                        UUID userId, LocalDateTime cutoff, ScrollPosition position, Limit limit, Sort sort);
+
+        long countByUserIdAndIsDeletedTrueAndDeletedAtLessThanEqual(UUID userId, LocalDateTime cutoff);
+
+        /**
+         * Пути содержимого файлов и их архивных версий (с повторами) - для снятия ссылок
+         */
+        @Query(value = "SELECT storage_path FROM files WHERE id IN (:fileIds) AND storage_path IS NOT NULL " +
+                        "UNION ALL " +
+                        "SELECT storage_path FROM file_versions WHERE file_id IN (:fileIds)",
+                        nativeQuery = true)
+        List<String> findStoragePathsByFileIds(@Param("fileIds") Collection<UUID> fileIds);
+
+        @Modifying(flushAutomatically = true, clearAutomatically = true)
+        @Query(value = "DELETE FROM files WHERE id IN (:fileIds) AND is_deleted = true AND is_folder = false",
+                        nativeQuery = true)
+        int deleteTrashedFiles(@Param("fileIds") Collection<UUID> fileIds);
+
+        /**
+         * Удаление папок из корзины, в поддереве которых не осталось файлов
+         * (вложенные пустые папки удаляются каскадно)
+         */
+        @Modifying(flushAutomatically = true, clearAutomatically = true)
+        @Query(value = "DELETE FROM files f WHERE f.id IN (:folderIds) AND f.is_deleted = true " +
+                        "AND NOT EXISTS (SELECT 1 FROM files c " +
+                        "WHERE c.ancestor_path >= f.ancestor_path || CAST(f.id AS TEXT) || '/' " +
+                        "AND c.ancestor_path < f.ancestor_path || CAST(f.id AS TEXT) || '0' " +
+                        "AND c.is_folder = false)",
+                        nativeQuery = true)
+        int deleteEmptyTrashedFolders(@Param("folderIds") Collection<UUID> folderIds);
+
+        /**
+         * Все потомки элемента по префиксу ancestor_path (включая удаленные)
+         */
+        @Query("SELECT f FROM File f WHERE f.ancestorPath >= :subtreePath " +
+                        "AND f.ancestorPath < :upperBound")
+        List<File> findSubtree(@Param("subtreePath") String subtreePath,
+                        @Param("upperBound") String upperBound);
+
+        /**
+         * Перенос всего поддерева одним UPDATE: переписывает префиксы ancestor_path и path
+         * у всех потомков перемещаемого элемента
+         */
+        @Modifying(flushAutomatically = true, clearAutomatically = true)
+        @Query(value = "UPDATE files SET " +
+                        "ancestor_path = :newSubtreePath || substr(ancestor_path, length(:oldSubtreePath) + 1), " +
+                        "path = :newPath || substr(path, length(:oldPath) + 1), " +
+                        "updated_at = CURRENT_TIMESTAMP " +
+                        "WHERE ancestor_path >= :oldSubtreePath AND ancestor_path < :oldUpperBound",
+                        nativeQuery = true)
+        int rebaseSubtree(@Param("oldSubtreePath") String oldSubtreePath,
+                        @Param("oldUpperBound") String oldUpperBound,
+                        @Param("newSubtreePath") String newSubtreePath,
+                        @Param("oldPath") String oldPath,
+                        @Param("newPath") String newPath);
+
+        /**
+         * Файлы (не папки) поддерева с путями содержимого - текущим и архивных версий (с повторами).
+         * Файл без загруженного содержимого и версий возвращается одной строкой с пустым путем.
+         * Для снятия ссылок и удаления объектов из хранилища
+         */
+        @Query(value = "SELECT f.id AS fileId, f.storage_path AS storagePath FROM files f " +
+                        "WHERE f.ancestor_path >= :subtreePath AND f.ancestor_path < :upperBound " +
+                        "AND f.is_folder = false " +
+                        "UNION ALL " +
+                        "SELECT v.file_id AS fileId, v.storage_path AS storagePath FROM file_versions v " +
+                        "JOIN files f ON f.id = v.file_id " +
+                        "WHERE f.ancestor_path >= :subtreePath AND f.ancestor_path < :upperBound",
+                        nativeQuery = true)
+        List<FileContentRef> findContentInSubtree(@Param("subtreePath") String subtreePath,
+                        @Param("upperBound") String upperBound);
+
+        @Query("SELECT COALESCE(SUM(f.size), 0) FROM File f WHERE f.ancestorPath >= :subtreePath " +
+                        "AND f.ancestorPath < :upperBound AND f.isFolder = false")
+        Long sumFileSizeInSubtree(@Param("subtreePath") String subtreePath,
+                        @Param("upperBound") String upperBound);
+
+        /**
+         * Мягкое удаление папки и всех ее активных потомков одним UPDATE
+         */
+        @Modifying(flushAutomatically = true, clearAutomatically = true)
+        @Query(value = "UPDATE files SET is_deleted = true, deleted_at = :deletedAt, " +
+                        "updated_at = CURRENT_TIMESTAMP " +
+                        "WHERE (id = :folderId OR (ancestor_path >= :subtreePath AND ancestor_path < :upperBound)) " +
+                        "AND is_deleted = false",
+                        nativeQuery = true)
+        int softDeleteSubtree(@Param("folderId") UUID folderId,
+                        @Param("subtreePath") String subtreePath,
+                        @Param("upperBound") String upperBound,
+                        @Param("deletedAt") LocalDateTime deletedAt);
+
+        /**
+         * Восстановление папки и потомков, удаленных вместе с ней (тот же deleted_at)
+         */
+        @Modifying(flushAutomatically = true, clearAutomatically = true)
+        @Query(value = "UPDATE files SET is_deleted = false, deleted_at = NULL, " +
+                        "updated_at = CURRENT_TIMESTAMP " +
+                        "WHERE (id = :folderId OR (ancestor_path >= :subtreePath AND ancestor_path < :upperBound " +
+                        "AND deleted_at = :deletedAt)) " +
+                        "AND is_deleted = true",
+                        nativeQuery = true)
+        int restoreSubtree(@Param("folderId") UUID folderId,
+                        @Param("subtreePath") String subtreePath,
+                        @Param("upperBound") String upperBound,
+                        @Param("deletedAt") LocalDateTime deletedAt);
+
+        /**
+         * Окончательное удаление папки и всего поддерева.
+         * Версии, расшаривания и права удаляются каскадно (ON DELETE CASCADE)
+         */
+        @Modifying(flushAutomatically = true, clearAutomatically = true)
+        @Query(value = "DELETE FROM files " +
+                        "WHERE id = :folderId OR (ancestor_path >= :subtreePath AND ancestor_path < :upperBound)",
+                        nativeQuery = true)
+        int deleteSubtree(@Param("folderId") UUID folderId,
+                        @Param("subtreePath") String subtreePath,
+                        @Param("upperBound") String upperBound);
+
+        interface FileContentRef {
+
+                UUID getFileId();
 
-        @Query("SELECT f FROM File f WHERE f.userId = :userId AND f.isDeleted = false " +
-                        "AND f.path LIKE CONCAT(:folderPath, '%')")
-        List<File> findAllChildrenByPath(@Param("userId") UUID userId,
-                        @Param("folderPath") String folderPath);
+                String getStoragePath();
+        }
 }
@@ -1,6 +1,7 @@
 package com.fileservice.repository;
 
 import com.fileservice.model.FileShare;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
@@ -9,6 +10,7 @@ import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -25,6 +27,23 @@ public interface FileShareRepository extends JpaRepository<FileShare, UUID> {
         List<FileShare> findActiveSharesByFileId(@Param("fileId") UUID fileId,
                         @Param("now") LocalDateTime now);
 
+        /**
+         * Получатели активных расшариваний файла (только ID, без загрузки сущностей)
+         */
+        @Query("SELECT fs.sharedWithUserId FROM FileShare fs WHERE fs.file.id = :fileId " +
+                        "AND fs.isActive = true AND (fs.expiresAt IS NULL OR fs.expiresAt > :now)")
+        List<UUID> findActiveRecipientIds(@Param("fileId") UUID fileId,
+                        @Param("now") LocalDateTime now);
+
+        /**
+         * Получатели активных расшариваний нескольких файлов одним запросом
+         */
+        @Query("SELECT fs.file.id AS fileId, fs.sharedWithUserId AS recipientId FROM FileShare fs " +
+                        "WHERE fs.file.id IN :fileIds " +
+                        "AND fs.isActive = true AND (fs.expiresAt IS NULL OR fs.expiresAt > :now)")
+        List<ShareRecipient> findActiveRecipients(@Param("fileIds") Collection<UUID> fileIds,
+                        @Param("now") LocalDateTime now);
+
         // Query to get share IDs with pagination (no JOIN FETCH to avoid count query
         // issues)
         @Query("SELECT fs.id FROM FileShare fs JOIN fs.file f WHERE fs.sharedWithUserId = :userId " +
@@ -34,6 +53,36 @@ public interface FileShareRepository extends JpaRepository<FileShare, UUID> {
                         @Param("now") LocalDateTime now,
                         Pageable pageable);
 
+        /**
+         * Keyset-пагинация "расшарено со мной": первая страница, порядок created_at DESC, id DESC
+         */
+        @Query("SELECT fs.id FROM FileShare fs JOIN fs.file f WHERE fs.sharedWithUserId = :userId " +
+                        "AND (fs.expiresAt IS NULL OR fs.expiresAt > :now) " +
+                        "AND f.isDeleted = false " +
+                        "ORDER BY fs.createdAt DESC, fs.id DESC")
+        List<UUID> findActiveShareIdsForUser(@Param("userId") UUID userId,
+                        @Param("now") LocalDateTime now,
+                        Limit limit);
+
+        /**
+         * Keyset-пагинация "расшарено со мной": страница после курсора (createdAt, id)
+         */
+        @Query("SELECT fs.id FROM FileShare fs JOIN fs.file f WHERE fs.sharedWithUserId = :userId " +
+                        "AND (fs.expiresAt IS NULL OR fs.expiresAt > :now) " +
+                        "AND f.isDeleted = false " +
+                        "AND (fs.createdAt < :createdAt OR (fs.createdAt = :createdAt AND fs.id < :id)) " +
+                        "ORDER BY fs.createdAt DESC, fs.id DESC")
+        List<UUID> findActiveShareIdsForUserAfter(@Param("userId") UUID userId,
+                        @Param("now") LocalDateTime now,
+                        @Param("createdAt") LocalDateTime createdAt,
+                        @Param("id") UUID id,
+                        Limit limit);
+
+        @Query("SELECT COUNT(fs) FROM FileShare fs JOIN fs.file f WHERE fs.sharedWithUserId = :userId " +
+                        "AND (fs.expiresAt IS NULL OR fs.expiresAt > :now) " +
+                        "AND f.isDeleted = false")
+        long countActiveSharesForUser(@Param("userId") UUID userId, @Param("now") LocalDateTime now);
+
         // Query to fetch full shares with files by IDs
         @Query("SELECT fs FROM FileShare fs JOIN FETCH fs.file WHERE fs.id IN :shareIds")
         List<FileShare> findByIdInWithFile(@Param("shareIds") List<UUID> shareIds);
@@ -58,4 +107,24 @@ public interface FileShareRepository extends JpaRepository<FileShare, UUID> {
          * Найти все shares для списка файлов
          */
         List<FileShare> findByFileIdIn(List<UUID> fileIds);
+
+        /**
+         * Расшаривания папки и любых элементов внутри нее (пары файл - получатель)
+         */
+        @Query("SELECT f.id AS fileId, fs.sharedWithUserId AS recipientId FROM FileShare fs JOIN fs.file f " +
+                        "WHERE f.id = :folderId " +
+                        "OR (f.ancestorPath >= :subtreePath AND f.ancestorPath < :upperBound)")
+        List<ShareRecipient> findShareRecipientsInSubtree(@Param("folderId") UUID folderId,
+                        @Param("subtreePath") String subtreePath,
+                        @Param("upperBound") String upperBound);
+
+        /**
+         * Пара файл - получатель расшаривания
+         */
+        interface ShareRecipient {
+
+                UUID getFileId();
+
+                UUID getRecipientId();
+        }
 }
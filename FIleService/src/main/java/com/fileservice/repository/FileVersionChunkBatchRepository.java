@@ -0,0 +1,18 @@
+package com.fileservice.repository;
+
+import com.fileservice.model.ChunkRef;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Пакетная запись манифестов (фрагмент FileVersionChunkRepository)
+ */
+public interface FileVersionChunkBatchRepository {
+
+    /**
+     * Манифест версии одним JDBC batch: фрагменты пространства имен namespace в порядке следования,
+     * смещения накопительно
+     */
+    void insertManifest(UUID fileId, int version, String namespace, List<ChunkRef> chunks);
+}
@@ -0,0 +1,43 @@
+package com.fileservice.repository;
+
+import com.fileservice.model.ChunkRef;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+@RequiredArgsConstructor
+public class FileVersionChunkBatchRepositoryImpl implements FileVersionChunkBatchRepository {
+
+    private static final String INSERT_SQL = "INSERT INTO file_version_chunks " +
+            "(file_id, version, seq, chunk_namespace, chunk_hash, chunk_offset, size) VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${spring.jpa.properties.hibernate.jdbc.batch_size:20}")
+    private int batchSize;
+
+    @Override
+    public void insertManifest(UUID fileId, int version, String namespace, List<ChunkRef> chunks) {
+        List<Object[]> rows = new ArrayList<>(chunks.size());
+        long offset = 0;
+        for (int seq = 0; seq < chunks.size(); seq++) {
+            ChunkRef chunk = chunks.get(seq);
+            rows.add(new Object[] { fileId, version, seq, chunk.hash(), offset, chunk.size() });
+            offset += chunk.size();
+        }
+
+        jdbcTemplate.batchUpdate(INSERT_SQL, rows, batchSize, (ps, row) -> {
+            ps.setObject(1, row[0]);
+            ps.setInt(2, (Integer) row[1]);
+            ps.setInt(3, (Integer) row[2]);
+            ps.setString(4, namespace);
+            ps.setString(5, (String) row[3]);
+            ps.setLong(6, (Long) row[4]);
+            ps.setInt(7, (Integer) row[5]);
+        });
+    }
+}
@@ -0,0 +1,41 @@
+package com.fileservice.repository;
+
+import com.fileservice.model.FileVersionChunk;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.UUID;
+
+@Repository
+public interface FileVersionChunkRepository
+        extends JpaRepository<FileVersionChunk, FileVersionChunk.Key>, FileVersionChunkBatchRepository {
+
+    List<FileVersionChunk> findByFileIdAndVersionOrderBySeq(UUID fileId, Integer version);
+
+    /**
+     * Копия манифеста под новым номером версии (восстановление фрагментированной версии)
+     */
+    @Modifying
+    @Query(value = "INSERT INTO file_version_chunks " +
+            "(file_id, version, seq, chunk_namespace, chunk_hash, chunk_offset, size) " +
+            "SELECT file_id, :toVersion, seq, chunk_namespace, chunk_hash, chunk_offset, size FROM file_version_chunks " +
+            "WHERE file_id = :fileId AND version = :fromVersion", nativeQuery = true)
+    int copyManifest(@Param("fileId") UUID fileId, @Param("fromVersion") int fromVersion,
+            @Param("toVersion") int toVersion);
+
+    /**
+     * Манифесты версий, которых больше нет ни в files (текущая), ни в file_versions (архивные).
+     * Строки файла удаляются каскадно, архивные версии - компактором и лимитами версионирования
+     */
+    @Modifying
+    @Query(value = "DELETE FROM file_version_chunks WHERE (file_id, version) IN (" +
+            "SELECT m.file_id, m.version FROM file_version_chunks m WHERE m.seq = 0 " +
+            "AND NOT EXISTS (SELECT 1 FROM files f WHERE f.id = m.file_id AND f.version = m.version) " +
+            "AND NOT EXISTS (SELECT 1 FROM file_versions v WHERE v.file_id = m.file_id AND v.version = m.version) " +
+            "LIMIT :limit)", nativeQuery = true)
+    int deleteOrphanedManifests(@Param("limit") int limit);
+}
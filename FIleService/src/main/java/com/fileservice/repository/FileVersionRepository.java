@@ -4,10 +4,13 @@ import com.fileservice.model.FileVersion;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -37,4 +40,40 @@ public interface FileVersionRepository extends JpaRepository<FileVersion, UUID>
         @Query("SELECT fv FROM FileVersion fv WHERE fv.file.id = :fileId " +
                         "ORDER BY fv.version DESC")
         List<FileVersion> findAllVersionsSorted(@Param("fileId") UUID fileId);
+
+        /**
+         * Версии сверх лимитов, начиная с файла fromFileId (в порядке file_id): номер версии в файле
+         * (ROW_NUMBER по убыванию) больше maxVersions, либо версия старше cutoff и не текущая.
+         * Окно считается потоком по индексу (file_id, version DESC), LIMIT останавливает обход
+         */
+        @Query(value = "SELECT r.id AS id, r.file_id AS fileId, r.version AS version, " +
+                        "r.storage_path AS storagePath FROM (" +
+                        "SELECT v.id, v.file_id, v.version, v.storage_path, v.created_at, " +
+                        "ROW_NUMBER() OVER (PARTITION BY v.file_id ORDER BY v.version DESC) AS rn " +
+                        "FROM file_versions v WHERE v.file_id >= :fromFileId) r " +
+                        "JOIN files f ON f.id = r.file_id " +
+                        "WHERE r.rn > :maxVersions OR (r.created_at < :cutoff AND r.version <> f.version) " +
+                        "ORDER BY r.file_id, r.version DESC LIMIT :limit",
+                        nativeQuery = true)
+        List<SurplusVersion> findSurplusVersions(@Param("fromFileId") UUID fromFileId,
+                        @Param("maxVersions") int maxVersions, @Param("cutoff") LocalDateTime cutoff,
+                        @Param("limit") int limit);
+
+        @Modifying
+        @Query(value = "DELETE FROM file_versions WHERE id IN (:ids)", nativeQuery = true)
+        int deleteByIds(@Param("ids") Collection<UUID> ids);
+
+        /**
+         * Версия-кандидат на удаление компактором
+         */
+        interface SurplusVersion {
+
+                UUID getId();
+
+                UUID getFileId();
+
+                Integer getVersion();
+
+                String getStoragePath();
+        }
 }
@@ -0,0 +1,25 @@
+package com.fileservice.repository;
+
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Пакетное применение дельт агрегатов папок (фрагмент FolderAggregateRepository)
+ */
+public interface FolderAggregateBatchRepository {
+
+    /**
+     * Разные дельты для разных папок одним JDBC batch. Папки обновляются в порядке ключей карты
+     */
+    void batchApplyDeltas(Map<UUID, Delta> deltas);
+
+    /**
+     * Изменение агрегатов одной папки
+     */
+    record Delta(long size, long files, long folders) {
+
+        public Delta plus(Delta other) {
+            return new Delta(size + other.size, files + other.files, folders + other.folders);
+        }
+    }
+}
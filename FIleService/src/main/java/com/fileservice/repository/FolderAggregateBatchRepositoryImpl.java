@@ -0,0 +1,35 @@
+package com.fileservice.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * JDBC-реализация пакетного применения дельт: по одному UPDATE на папку в одном batch
+ */
+@RequiredArgsConstructor
+public class FolderAggregateBatchRepositoryImpl implements FolderAggregateBatchRepository {
+
+    private static final String UPDATE_SQL = "UPDATE folder_aggregates SET total_size = total_size + ?, " +
+            "file_count = file_count + ?, folder_count = folder_count + ?, " +
+            "last_modified_at = CURRENT_TIMESTAMP WHERE folder_id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${spring.jpa.properties.hibernate.jdbc.batch_size:20}")
+    private int batchSize;
+
+    @Override
+    public void batchApplyDeltas(Map<UUID, Delta> deltas) {
+        jdbcTemplate.batchUpdate(UPDATE_SQL, new ArrayList<>(deltas.entrySet()), batchSize, (ps, entry) -> {
+            ps.setLong(1, entry.getValue().size());
+            ps.setLong(2, entry.getValue().files());
+            ps.setLong(3, entry.getValue().folders());
+            ps.setObject(4, entry.getKey());
+        });
+    }
+}
@@ -0,0 +1,75 @@
+package com.fileservice.repository;
+
+import com.fileservice.model.FolderAggregate;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.UUID;
+
+/**
+ * Агрегаты папок (V12). Все изменения - нативные UPDATE по цепочке предков из ancestor_path,
+ * строки в persistence context не загружаются
+ */
+@Repository
+public interface FolderAggregateRepository extends JpaRepository<FolderAggregate, UUID>, FolderAggregateBatchRepository {
+
+    /**
+     * Пустые строки агрегатов для новых папок (строки files должны быть уже вставлены)
+     */
+    @Modifying(flushAutomatically = true)
+    @Query(value = "INSERT INTO folder_aggregates (folder_id, last_modified_at) " +
+            "SELECT id, CURRENT_TIMESTAMP FROM files WHERE id IN (:folderIds) " +
+            "ON CONFLICT (folder_id) DO NOTHING", nativeQuery = true)
+    int insertEmpty(@Param("folderIds") Collection<UUID> folderIds);
+
+    /**
+     * Одна и та же дельта для всех папок (цепочка предков файла)
+     */
+    @Modifying(flushAutomatically = true)
+    @Query(value = "UPDATE folder_aggregates SET total_size = total_size + :sizeDelta, " +
+            "file_count = file_count + :fileDelta, folder_count = folder_count + :folderDelta, " +
+            "last_modified_at = CURRENT_TIMESTAMP WHERE folder_id IN (:folderIds)", nativeQuery = true)
+    int applyDelta(@Param("folderIds") Collection<UUID> folderIds, @Param("sizeDelta") long sizeDelta,
+            @Param("fileDelta") long fileDelta, @Param("folderDelta") long folderDelta);
+
+    /**
+     * Добавление (sign = 1) или вычитание (sign = -1) агрегатов папки вместе с самой папкой
+     * у папок folderIds - без чтения строки в приложение
+     */
+    @Modifying(flushAutomatically = true)
+    @Query(value = "UPDATE folder_aggregates a SET total_size = a.total_size + :sign * s.total_size, " +
+            "file_count = a.file_count + :sign * s.file_count, " +
+            "folder_count = a.folder_count + :sign * (s.folder_count + 1), " +
+            "last_modified_at = CURRENT_TIMESTAMP " +
+            "FROM folder_aggregates s WHERE s.folder_id = :folderId AND a.folder_id IN (:folderIds)",
+            nativeQuery = true)
+    int applyFolder(@Param("folderId") UUID folderId, @Param("folderIds") Collection<UUID> folderIds,
+            @Param("sign") int sign);
+
+    /**
+     * Пересчет агрегатов папки и всех папок ее поддерева по активным потомкам.
+     * Нужен только при восстановлении: строки удаленных папок не поддерживаются
+     */
+    @Modifying(flushAutomatically = true)
+    @Query(value = "UPDATE folder_aggregates a SET total_size = agg.total_size, file_count = agg.file_count, " +
+            "folder_count = agg.folder_count, last_modified_at = CURRENT_TIMESTAMP " +
+            "FROM (SELECT f.id, " +
+            "COALESCE(SUM(d.size) FILTER (WHERE d.is_folder = false), 0) AS total_size, " +
+            "COUNT(d.id) FILTER (WHERE d.is_folder = false) AS file_count, " +
+            "COUNT(d.id) FILTER (WHERE d.is_folder = true) AS folder_count " +
+            "FROM files f LEFT JOIN files d " +
+            "ON d.ancestor_path >= f.ancestor_path || CAST(f.id AS TEXT) || '/' " +
+            "AND d.ancestor_path < f.ancestor_path || CAST(f.id AS TEXT) || '0' " +
+            "AND d.is_deleted = false " +
+            "WHERE f.is_folder = true " +
+            "AND (f.id = :folderId OR (f.ancestor_path >= :subtreePath AND f.ancestor_path < :upperBound)) " +
+            "GROUP BY f.id) agg WHERE a.folder_id = agg.id",
+            nativeQuery = true)
+    int recomputeSubtree(@Param("folderId") UUID folderId,
+            @Param("subtreePath") String subtreePath,
+            @Param("upperBound") String upperBound);
+}
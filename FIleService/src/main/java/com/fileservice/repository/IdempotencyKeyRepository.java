@@ -0,0 +1,42 @@
+package com.fileservice.repository;
+
+import com.fileservice.model.IdempotencyKey;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+@Repository
+public interface IdempotencyKeyRepository extends JpaRepository<IdempotencyKey, IdempotencyKey.Key> {
+
+    /**
+     * Захват ключа. 0 - ключ уже занят; если его держит незавершенная транзакция,
+     * вставка ждет ее завершения. Ключ, созданный раньше expiredBefore, считается свободным
+     * (его еще не удалила очистка) и захватывается заново
+     */
+    @Modifying
+    @Query(value = "INSERT INTO idempotency_keys (user_id, idempotency_key, operation, request_hash, created_at) " +
+            "VALUES (:userId, :key, :operation, :requestHash, CURRENT_TIMESTAMP) " +
+            "ON CONFLICT (user_id, idempotency_key) DO UPDATE SET operation = EXCLUDED.operation, " +
+            "request_hash = EXCLUDED.request_hash, response = NULL, created_at = EXCLUDED.created_at " +
+            "WHERE idempotency_keys.created_at < :expiredBefore",
+            nativeQuery = true)
+    int claim(@Param("userId") UUID userId, @Param("key") String key, @Param("operation") String operation,
+            @Param("requestHash") byte[] requestHash, @Param("expiredBefore") LocalDateTime expiredBefore);
+
+    @Modifying
+    @Query(value = "UPDATE idempotency_keys SET response = :response " +
+            "WHERE user_id = :userId AND idempotency_key = :key",
+            nativeQuery = true)
+    int storeResponse(@Param("userId") UUID userId, @Param("key") String key, @Param("response") byte[] response);
+
+    @Modifying
+    @Query(value = "DELETE FROM idempotency_keys WHERE (user_id, idempotency_key) IN (" +
+            "SELECT user_id, idempotency_key FROM idempotency_keys WHERE created_at < :cutoff LIMIT :limit)",
+            nativeQuery = true)
+    int deleteExpired(@Param("cutoff") LocalDateTime cutoff, @Param("limit") int limit);
+}
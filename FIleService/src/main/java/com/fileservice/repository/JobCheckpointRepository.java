@@ -0,0 +1,17 @@
+package com.fileservice.repository;
+
+import com.fileservice.model.JobCheckpoint;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface JobCheckpointRepository extends JpaRepository<JobCheckpoint, String> {
+
+    /**
+     * Транзакционная advisory-блокировка задачи: один шаг выполняет один экземпляр
+     */
+    @Query(value = "SELECT pg_try_advisory_xact_lock(:lockKey)", nativeQuery = true)
+    boolean tryJobLock(@Param("lockKey") long lockKey);
+}
@@ -0,0 +1,31 @@
+package com.fileservice.repository;
+
+import com.fileservice.model.OutboxEvent;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface OutboxEventRepository extends JpaRepository<OutboxEvent, Long> {
+
+    @Query(value = "SELECT * FROM event_outbox WHERE delivered_at IS NULL ORDER BY id LIMIT :limit",
+            nativeQuery = true)
+    List<OutboxEvent> findPending(@Param("limit") int limit);
+
+    @Query(value = "SELECT MIN(created_at) FROM event_outbox WHERE delivered_at IS NULL", nativeQuery = true)
+    LocalDateTime findOldestPendingCreatedAt();
+
+    @Modifying
+    @Query("UPDATE OutboxEvent e SET e.deliveredAt = :deliveredAt WHERE e.id IN :ids")
+    int markDelivered(@Param("ids") Collection<Long> ids, @Param("deliveredAt") LocalDateTime deliveredAt);
+
+    @Modifying
+    @Query("DELETE FROM OutboxEvent e WHERE e.deliveredAt < :before")
+    int deleteDeliveredBefore(@Param("before") LocalDateTime before);
+}
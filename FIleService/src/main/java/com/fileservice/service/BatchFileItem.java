@@ -0,0 +1,15 @@
+package com.fileservice.service;
+
+import java.util.UUID;
+
+/**
+ * Элемент пакетного создания файлов.
+ * Родитель задается либо ID существующей папки, либо индексом папки,
+ * создаваемой ранее в том же пакете (для загрузки целого дерева за один вызов)
+ *
+ * @param parentFolderId ID существующей папки или null
+ * @param parentIndex    индекс папки в пакете (меньше индекса элемента) или null
+ */
+public record BatchFileItem(String name, String path, long size, String mimeType, String hash,
+        boolean isFolder, UUID parentFolderId, Integer parentIndex) {
+}
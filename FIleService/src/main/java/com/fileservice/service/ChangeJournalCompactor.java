@@ -0,0 +1,159 @@
+package com.fileservice.service;
+
+import com.fileservice.model.JobCheckpoint;
+import com.fileservice.repository.ChangeJournalRepository;
+import com.fileservice.repository.ChangeJournalRepository.JournalPosition;
+import com.fileservice.repository.ChangeSequenceRepository;
+import com.fileservice.repository.JobCheckpointRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Компакция журнала изменений.
+ * Записи старше compact-after, у файла которых есть более поздняя запись, удаляются пачками
+ * в порядке (user_id, seq) - от старых сегментов остается снимок "последнее изменение каждого файла".
+ * Клиент с любым курсором по-прежнему получает все файлы, изменившиеся после него.
+ * В конце обхода удаляются tombstones старше tombstone-retention, а truncated_seq пользователей
+ * сдвигается, чтобы клиенты с более старым курсором ушли на полную синхронизацию
+ */
+@Component
+@Slf4j
+public class ChangeJournalCompactor {
+
+    static final String JOB_NAME = "change-journal-compaction";
+
+    private static final long COMPACTION_LOCK_KEY = 0x6A6F75726E616CL; // "journal"
+    private static final String FIRST_POSITION = new UUID(0L, 0L) + "|0";
+
+    private final ChangeJournalRepository journalRepository;
+    private final ChangeSequenceRepository sequenceRepository;
+    private final JobCheckpointRepository checkpointRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final Duration compactAfter;
+    private final Duration tombstoneRetention;
+    private final int batchSize;
+
+    private final Counter compactedCounter;
+    private final Counter tombstonesCounter;
+
+    public ChangeJournalCompactor(ChangeJournalRepository journalRepository,
+            ChangeSequenceRepository sequenceRepository,
+            JobCheckpointRepository checkpointRepository,
+            PlatformTransactionManager transactionManager,
+            MeterRegistry meterRegistry,
+            @Value("${file-service.change-journal.compaction.enabled:true}") boolean enabled,
+            @Value("${file-service.change-journal.compaction.compact-after:24h}") Duration compactAfter,
+            @Value("${file-service.change-journal.compaction.tombstone-retention:30d}") Duration tombstoneRetention,
+            @Value("${file-service.change-journal.compaction.batch-size:1000}") int batchSize) {
+        this.journalRepository = journalRepository;
+        this.sequenceRepository = sequenceRepository;
+        this.checkpointRepository = checkpointRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.compactAfter = compactAfter;
+        this.tombstoneRetention = tombstoneRetention;
+        this.batchSize = batchSize;
+
+        this.compactedCounter = Counter.builder("file.change_journal.compaction.deleted")
+                .description("Superseded change journal entries removed by compaction")
+                .register(meterRegistry);
+        this.tombstonesCounter = Counter.builder("file.change_journal.tombstones.deleted")
+                .description("Change journal tombstones removed after retention")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(cron = "${file-service.change-journal.compaction.schedule:0 0 4 * * ?}")
+    public void compact() {
+        if (!enabled) {
+            return;
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime cutoff = now.minus(compactAfter);
+        LocalDateTime tombstoneCutoff = now.minus(tombstoneRetention);
+        long startedAt = System.nanoTime();
+        long compacted = 0;
+
+        while (!Thread.currentThread().isInterrupted()) {
+            BatchResult batch = transactionTemplate.execute(status -> compactBatch(cutoff, tombstoneCutoff));
+            if (batch == null || batch.locked()) {
+                log.debug("Change journal compaction is running on another instance");
+                return;
+            }
+            compacted += batch.deleted();
+            if (batch.last()) {
+                break;
+            }
+        }
+
+        if (compacted > 0) {
+            log.info("Change journal compaction finished: entries={}, took={}ms", compacted,
+                    (System.nanoTime() - startedAt) / 1_000_000);
+        }
+    }
+
+    /**
+     * Одна пачка в транзакции, удерживающей advisory-блокировку
+     */
+    private BatchResult compactBatch(LocalDateTime cutoff, LocalDateTime tombstoneCutoff) {
+        if (!checkpointRepository.tryJobLock(COMPACTION_LOCK_KEY)) {
+            return BatchResult.LOCKED;
+        }
+
+        String[] from = checkpointRepository.findById(JOB_NAME)
+                .map(JobCheckpoint::getPosition)
+                .orElse(FIRST_POSITION)
+                .split("\\|");
+        UUID fromUserId = UUID.fromString(from[0]);
+        long fromSeq = Long.parseLong(from[1]);
+
+        List<JournalPosition> superseded = journalRepository.findSuperseded(fromUserId, fromSeq, cutoff, batchSize);
+        int deleted = 0;
+        if (!superseded.isEmpty()) {
+            JournalPosition to = superseded.get(superseded.size() - 1);
+            deleted = journalRepository.deleteSuperseded(fromUserId, fromSeq, to.getUserId(), to.getSeq(), cutoff);
+        }
+        compactedCounter.increment(deleted);
+
+        boolean last = superseded.size() < batchSize;
+        if (last) {
+            checkpointRepository.deleteById(JOB_NAME);
+            truncateTombstones(tombstoneCutoff);
+        } else {
+            JournalPosition to = superseded.get(superseded.size() - 1);
+            checkpointRepository.save(JobCheckpoint.builder()
+                    .jobName(JOB_NAME)
+                    .position(to.getUserId() + "|" + to.getSeq())
+                    .build());
+        }
+
+        log.debug("Compacted change journal batch: from={}|{}, deleted={}", fromUserId, fromSeq, deleted);
+        return new BatchResult(false, last, deleted);
+    }
+
+    private void truncateTombstones(LocalDateTime tombstoneCutoff) {
+        sequenceRepository.advanceTruncatedSeq(tombstoneCutoff);
+        int deleted = journalRepository.deleteTombstones(tombstoneCutoff);
+        tombstonesCounter.increment(deleted);
+        if (deleted > 0) {
+            log.info("Change journal tombstones removed: count={}", deleted);
+        }
+    }
+
+    private record BatchResult(boolean locked, boolean last, int deleted) {
+
+        static final BatchResult LOCKED = new BatchResult(true, true, 0);
+    }
+}
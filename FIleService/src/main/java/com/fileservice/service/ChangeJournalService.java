@@ -0,0 +1,218 @@
+package com.fileservice.service;
+
+import com.fileservice.model.ChangeJournalEntry;
+import com.fileservice.model.ChangeJournalEntry.ChangeType;
+import com.fileservice.model.ChangeSequence;
+import com.fileservice.model.File;
+import com.fileservice.repository.ChangeJournalRepository;
+import com.fileservice.repository.ChangeSequenceRepository;
+import com.fileservice.repository.FileRepository;
+import com.fileservice.repository.FileShareRepository;
+import com.fileservice.repository.FileShareRepository.ShareRecipient;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Журнал изменений пользователя: каждая мутация получает следующий номер в журнале затронутого
+ * пользователя. Изменения транзакции копятся в памяти и пишутся перед коммитом: номера выдаются
+ * в конце транзакции (блокировка счетчика держится только на время коммита), повторные изменения
+ * одного файла в транзакции сворачиваются в одну запись
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ChangeJournalService {
+
+    private static final Set<ChangeType> TOMBSTONES = Set.of(ChangeType.PURGED, ChangeType.UNSHARED_WITH_ME);
+
+    private final ChangeJournalRepository journalRepository;
+    private final ChangeSequenceRepository sequenceRepository;
+    private final FileRepository fileRepository;
+    private final FileShareRepository shareRepository;
+
+    public void record(UUID userId, UUID fileId, ChangeType changeType) {
+        record(userId, List.of(fileId), changeType);
+    }
+
+    public void record(UUID userId, Collection<UUID> fileIds, ChangeType changeType) {
+        if (fileIds.isEmpty()) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            PendingChanges pending = new PendingChanges();
+            pending.add(userId, fileIds, changeType);
+            pending.flush();
+            return;
+        }
+        currentPending().add(userId, fileIds, changeType);
+    }
+
+    /**
+     * Запись в журналы владельца и получателей активных расшариваний элемента или любого из его предков:
+     * получатель папки видит все ее поддерево и должен узнать об изменениях в нем
+     */
+    public void recordWithRecipients(File item, ChangeType changeType) {
+        recordWithRecipients(List.of(item), changeType, List.of());
+    }
+
+    /**
+     * Перемещение: получатели прежних предков тоже получают запись (элемент покинул их поддерево)
+     */
+    public void recordWithRecipients(File item, ChangeType changeType, Collection<UUID> formerAncestorIds) {
+        recordWithRecipients(List.of(item), changeType, formerAncestorIds);
+    }
+
+    /**
+     * Пакет элементов: получатели всех элементов и предков выбираются одним запросом
+     */
+    public void recordWithRecipients(Collection<File> items, ChangeType changeType) {
+        recordWithRecipients(items, changeType, List.of());
+    }
+
+    private void recordWithRecipients(Collection<File> items, ChangeType changeType,
+            Collection<UUID> formerAncestorIds) {
+        if (items.isEmpty()) {
+            return;
+        }
+        Set<UUID> sharedIds = new HashSet<>(formerAncestorIds);
+        for (File item : items) {
+            sharedIds.add(item.getId());
+            sharedIds.addAll(item.getAncestorIds());
+        }
+        Map<UUID, List<UUID>> recipientsByShared = shareRepository
+                .findActiveRecipients(sharedIds, LocalDateTime.now()).stream()
+                .collect(Collectors.groupingBy(ShareRecipient::getFileId,
+                        Collectors.mapping(ShareRecipient::getRecipientId, Collectors.toList())));
+
+        Map<UUID, List<UUID>> fileIdsByUser = new TreeMap<>();
+        for (File item : items) {
+            Set<UUID> audience = new HashSet<>();
+            audience.add(item.getUserId());
+            List<UUID> scope = new ArrayList<>(item.getAncestorIds());
+            scope.add(item.getId());
+            scope.addAll(formerAncestorIds);
+            scope.forEach(id -> audience.addAll(recipientsByShared.getOrDefault(id, List.of())));
+            audience.forEach(userId -> fileIdsByUser.computeIfAbsent(userId, id -> new ArrayList<>())
+                    .add(item.getId()));
+        }
+        fileIdsByUser.forEach((userId, fileIds) -> record(userId, fileIds, changeType));
+    }
+
+    /**
+     * Изменения после курсора. В пределах страницы остается последняя запись каждого файла,
+     * метаданные активных файлов загружаются одним запросом
+     */
+    @Transactional(readOnly = true)
+    public ChangeSet getChangesSince(UUID userId, long cursor, int limit) {
+        ChangeSequence sequence = sequenceRepository.findById(userId).orElse(null);
+        long lastSeq = sequence != null ? sequence.getLastSeq() : 0L;
+        long truncatedSeq = sequence != null ? sequence.getTruncatedSeq() : 0L;
+
+        // Tombstones после курсора удалены - нужна полная синхронизация
+        if (cursor < truncatedSeq) {
+            log.debug("Change cursor reset: userId={}, cursor={}, truncatedSeq={}, lastSeq={}",
+                    userId, cursor, truncatedSeq, lastSeq);
+            return ChangeSet.reset(lastSeq);
+        }
+        // Курсор получен с более свежего узла (primary или реплика с меньшим отставанием):
+        // здесь его изменения еще не видны, это не повод для полной синхронизации
+        if (cursor > lastSeq) {
+            log.debug("Change cursor ahead of journal: userId={}, cursor={}, lastSeq={}", userId, cursor, lastSeq);
+            return ChangeSet.empty(cursor);
+        }
+
+        List<ChangeJournalEntry> rows = journalRepository.findByUserIdAndSeqGreaterThanOrderBySeq(userId, cursor,
+                Limit.of(limit + 1));
+        boolean hasMore = rows.size() > limit;
+        List<ChangeJournalEntry> page = hasMore ? rows.subList(0, limit) : rows;
+        long nextCursor = page.isEmpty() ? cursor : page.get(page.size() - 1).getSeq();
+
+        Map<UUID, ChangeJournalEntry> latest = new LinkedHashMap<>();
+        for (ChangeJournalEntry entry : page) {
+            latest.remove(entry.getFileId());
+            latest.put(entry.getFileId(), entry);
+        }
+
+        List<UUID> liveIds = latest.values().stream()
+                .filter(entry -> !TOMBSTONES.contains(entry.getChangeType()))
+                .map(ChangeJournalEntry::getFileId)
+                .toList();
+        Map<UUID, File> files = liveIds.isEmpty()
+                ? Map.of()
+                : fileRepository.findActiveByIdIn(liveIds).stream()
+                        .collect(Collectors.toMap(File::getId, Function.identity()));
+
+        return new ChangeSet(List.copyOf(latest.values()), files, nextCursor, hasMore, false);
+    }
+
+    /**
+     * Буфер текущей транзакции (ищется среди ее синхронизаций, поэтому REQUIRES_NEW получает свой)
+     */
+    private PendingChanges currentPending() {
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            if (synchronization instanceof PendingChanges pending) {
+                return pending;
+            }
+        }
+        PendingChanges pending = new PendingChanges();
+        TransactionSynchronizationManager.registerSynchronization(pending);
+        return pending;
+    }
+
+    private final class PendingChanges implements TransactionSynchronization {
+
+        /**
+         * Пользователи в порядке ID - одинаковый порядок блокировок счетчиков у параллельных транзакций
+         */
+        private final Map<UUID, Map<UUID, ChangeType>> byUser = new TreeMap<>();
+
+        void add(UUID userId, Collection<UUID> fileIds, ChangeType changeType) {
+            Map<UUID, ChangeType> changes = byUser.computeIfAbsent(userId, id -> new LinkedHashMap<>());
+            for (UUID fileId : fileIds) {
+                ChangeType previous = changes.remove(fileId);
+                changes.put(fileId, merge(previous, changeType));
+            }
+        }
+
+        @Override
+        public void beforeCommit(boolean readOnly) {
+            flush();
+        }
+
+        void flush() {
+            byUser.forEach((userId, changes) -> {
+                long lastSeq = journalRepository.append(userId, changes);
+                log.debug("Journaled changes: userId={}, count={}, lastSeq={}", userId, changes.size(), lastSeq);
+            });
+            byUser.clear();
+        }
+
+        /**
+         * Файл, созданный в этой же транзакции, остается CREATED, пока не удален
+         */
+        private static ChangeType merge(ChangeType previous, ChangeType next) {
+            if (previous == ChangeType.CREATED && next != ChangeType.DELETED && next != ChangeType.PURGED) {
+                return ChangeType.CREATED;
+            }
+            return next;
+        }
+    }
+}
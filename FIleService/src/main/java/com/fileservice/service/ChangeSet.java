@@ -0,0 +1,28 @@
+package com.fileservice.service;
+
+import com.fileservice.model.ChangeJournalEntry;
+import com.fileservice.model.File;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Страница журнала изменений
+ *
+ * @param changes       последняя запись по каждому файлу страницы, в порядке номеров
+ * @param files         текущие метаданные активных файлов из changes
+ * @param cursor        курсор следующего запроса (номер последней записи страницы)
+ * @param resetRequired курсор устарел или неизвестен: клиенту нужна полная синхронизация, после нее - cursor
+ */
+public record ChangeSet(List<ChangeJournalEntry> changes, Map<UUID, File> files, long cursor, boolean hasMore,
+        boolean resetRequired) {
+
+    static ChangeSet empty(long cursor) {
+        return new ChangeSet(List.of(), Map.of(), cursor, false, false);
+    }
+
+    static ChangeSet reset(long cursor) {
+        return new ChangeSet(List.of(), Map.of(), cursor, false, true);
+    }
+}
@@ -0,0 +1,143 @@
+package com.fileservice.service;
+
+import com.fileservice.client.StorageServiceClient;
+import com.fileservice.repository.ContentChunkRepository;
+import com.fileservice.repository.ContentChunkRepository.ChunkKey;
+import com.fileservice.repository.FileVersionChunkRepository;
+import com.fileservice.repository.JobCheckpointRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Сборка мусора фрагментов.
+ * Сначала удаляются манифесты версий, которых больше нет, затем фрагменты, не входящие ни в один
+ * манифест дольше grace-периода (он защищает фрагменты загрузок между согласованием и коммитом).
+ * Объекты удаляются из хранилища внутри транзакции, удерживающей блокировки строк:
+ * ошибка хранилища откатывает пачку, и она повторяется при следующем запуске.
+ * Строки, заблокированные коммитом версии, пропускаются (SKIP LOCKED)
+ */
+@Component
+@Slf4j
+public class ChunkGarbageCollector {
+
+    private static final long GC_LOCK_KEY = 0x6368756E6BL; // "chunk"
+
+    private final ContentChunkRepository chunkRepository;
+    private final FileVersionChunkRepository versionChunkRepository;
+    private final JobCheckpointRepository checkpointRepository;
+    private final StorageServiceClient storageServiceClient;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final Duration grace;
+    private final int batchSize;
+
+    private final Counter manifestsCounter;
+    private final Counter chunksCounter;
+
+    public ChunkGarbageCollector(ContentChunkRepository chunkRepository,
+            FileVersionChunkRepository versionChunkRepository,
+            JobCheckpointRepository checkpointRepository,
+            StorageServiceClient storageServiceClient,
+            PlatformTransactionManager transactionManager,
+            MeterRegistry meterRegistry,
+            @Value("${file-service.chunking.enabled:true}") boolean enabled,
+            @Value("${file-service.chunking.gc.grace:24h}") Duration grace,
+            @Value("${file-service.chunking.gc.batch-size:500}") int batchSize) {
+        this.chunkRepository = chunkRepository;
+        this.versionChunkRepository = versionChunkRepository;
+        this.checkpointRepository = checkpointRepository;
+        this.storageServiceClient = storageServiceClient;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.grace = grace;
+        this.batchSize = batchSize;
+
+        this.manifestsCounter = Counter.builder("file.chunk.gc.manifest.rows")
+                .description("Manifest rows of removed versions deleted by chunk GC")
+                .register(meterRegistry);
+        this.chunksCounter = Counter.builder("file.chunk.gc.chunks")
+                .description("Unreferenced chunks deleted from storage")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${file-service.chunking.gc.interval-ms:3600000}")
+    public void collect() {
+        if (!enabled) {
+            return;
+        }
+
+        long manifestRows = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            Integer deleted = transactionTemplate.execute(status -> checkpointRepository.tryJobLock(GC_LOCK_KEY)
+                    ? versionChunkRepository.deleteOrphanedManifests(batchSize)
+                    : null);
+            if (deleted == null) {
+                log.debug("Chunk GC is running on another instance");
+                return;
+            }
+            manifestRows += deleted;
+            manifestsCounter.increment(deleted);
+            if (deleted < batchSize) {
+                break;
+            }
+        }
+
+        LocalDateTime threshold = LocalDateTime.now().minus(grace);
+        long chunks = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            Integer deleted;
+            try {
+                deleted = transactionTemplate.execute(status -> collectBatch(threshold));
+            } catch (Exception e) {
+                log.error("Chunk GC batch failed, it will be retried on the next run", e);
+                break;
+            }
+            if (deleted == null || deleted == 0) {
+                break;
+            }
+            chunks += deleted;
+            chunksCounter.increment(deleted);
+            if (deleted < batchSize) {
+                break;
+            }
+        }
+
+        if (manifestRows > 0 || chunks > 0) {
+            log.info("Chunk GC finished: manifestRows={}, chunks={}", manifestRows, chunks);
+        }
+    }
+
+    /**
+     * Одна пачка фрагментов: блокировка строк, удаление объектов, удаление строк
+     */
+    private Integer collectBatch(LocalDateTime threshold) {
+        if (!checkpointRepository.tryJobLock(GC_LOCK_KEY)) {
+            return null;
+        }
+        List<ChunkKey> chunks = chunkRepository.lockCollectable(threshold, batchSize);
+        if (chunks.isEmpty()) {
+            return 0;
+        }
+        Map<String, List<String>> hashesByNamespace = chunks.stream()
+                .collect(Collectors.groupingBy(ChunkKey::getNamespace,
+                        Collectors.mapping(ChunkKey::getHash, Collectors.toList())));
+        int deleted = 0;
+        for (Map.Entry<String, List<String>> entry : hashesByNamespace.entrySet()) {
+            storageServiceClient.deleteChunks(entry.getKey(), entry.getValue());
+            deleted += chunkRepository.deleteByHashes(entry.getKey(), entry.getValue());
+        }
+        return deleted;
+    }
+}
@@ -0,0 +1,294 @@
+package com.fileservice.service;
+
+import com.fileservice.client.StorageServiceClient;
+import com.fileservice.model.ChunkRef;
+import com.fileservice.model.File;
+import com.fileservice.model.FileVersion;
+import com.fileservice.model.FileVersionChunk;
+import com.fileservice.repository.ContentChunkRepository;
+import com.fileservice.repository.FileRepository;
+import com.fileservice.repository.FileVersionChunkRepository;
+import com.fileservice.repository.FileVersionRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Версии, хранящиеся фрагментами (content-defined chunking).
+ * Клиент режет файл скользящим хешем на фрагменты и присылает их список (хеш и размер).
+ * Согласование выдает upload URL только для фрагментов, которых нет в индексе; коммит проверяет
+ * догруженные фрагменты в хранилище, регистрирует их и создает версию с манифестом.
+ * Правка части большого файла загружает и хранит только измененные фрагменты.
+ * Фрагменты хранятся в пространстве имен загрузившего пользователя (scope USER) или в общем (GLOBAL):
+ * upload URL выдается только для ключа, которого нет в своем пространстве, а хранилище принимает
+ * и подтверждает лишь содержимое, SHA-256 которого совпадает с хешем фрагмента
+ */
+@Service
+@Slf4j
+@Transactional
+public class ChunkedVersionService {
+
+    private static final Pattern CHUNK_HASH = Pattern.compile("[0-9a-f]{64}");
+
+    /**
+     * Общее пространство имен фрагментов (ключи chunks/{hash[0:2]}/{hash})
+     */
+    static final String GLOBAL_NAMESPACE = "";
+
+    private final FileRepository fileRepository;
+    private final FileVersionRepository versionRepository;
+    private final ContentChunkRepository chunkRepository;
+    private final FileVersionChunkRepository versionChunkRepository;
+    private final FileService fileService;
+    private final StorageServiceClient storageServiceClient;
+    private final boolean enabled;
+    private final int minChunkSize;
+    private final int maxChunkSize;
+    private final int maxChunksPerVersion;
+    private final boolean globalScope;
+
+    public ChunkedVersionService(FileRepository fileRepository,
+            FileVersionRepository versionRepository,
+            ContentChunkRepository chunkRepository,
+            FileVersionChunkRepository versionChunkRepository,
+            FileService fileService,
+            StorageServiceClient storageServiceClient,
+            @Value("${file-service.chunking.enabled:true}") boolean enabled,
+            @Value("${file-service.chunking.min-chunk-size:65536}") int minChunkSize,
+            @Value("${file-service.chunking.max-chunk-size:8388608}") int maxChunkSize,
+            @Value("${file-service.chunking.max-chunks-per-version:100000}") int maxChunksPerVersion,
+            @Value("${file-service.dedup.scope:USER}") ContentBlobService.Scope scope) {
+        this.fileRepository = fileRepository;
+        this.versionRepository = versionRepository;
+        this.chunkRepository = chunkRepository;
+        this.versionChunkRepository = versionChunkRepository;
+        this.fileService = fileService;
+        this.storageServiceClient = storageServiceClient;
+        this.enabled = enabled;
+        this.minChunkSize = minChunkSize;
+        this.maxChunkSize = maxChunkSize;
+        this.maxChunksPerVersion = maxChunksPerVersion;
+        this.globalScope = scope == ContentBlobService.Scope.GLOBAL;
+    }
+
+    /**
+     * Логический storage_path фрагментированной версии (объекта с таким путем нет)
+     */
+    public static String manifestPath(UUID fileId, int version) {
+        return String.format("chunked/%s/v%d", fileId, version);
+    }
+
+    /**
+     * Пространство имен фрагментов пользователя: общее ('') при scope GLOBAL, иначе собственное
+     */
+    String chunkNamespace(UUID userId) {
+        return globalScope ? GLOBAL_NAMESPACE : userId.toString();
+    }
+
+    /**
+     * Согласование загрузки: какие фрагменты нужно загрузить
+     */
+    @Transactional
+    public Negotiation negotiate(UUID fileId, UUID userId, long size, List<ChunkRef> chunks) {
+        findActiveFile(fileId);
+        Map<String, ChunkRef> distinct = validate(size, chunks);
+
+        String namespace = chunkNamespace(userId);
+        List<String> present = chunkRepository.findPresentHashes(namespace, distinct.keySet());
+        if (!present.isEmpty()) {
+            // Фрагмент, о наличии которого сообщили клиенту, не будет собран до коммита
+            chunkRepository.touch(namespace, present);
+        }
+
+        List<String> missing = new ArrayList<>(distinct.keySet());
+        missing.removeAll(Set.copyOf(present));
+        long missingBytes = missing.stream().mapToLong(hash -> distinct.get(hash).size()).sum();
+        Map<String, String> uploadUrls = missing.isEmpty()
+                ? Map.of()
+                : storageServiceClient.getChunkUrls(namespace, missing, "PUT");
+
+        log.debug("Chunked upload negotiated: fileId={}, chunks={}, missing={}, missingBytes={}",
+                fileId, chunks.size(), missing.size(), missingBytes);
+        return new Negotiation(missing, uploadUrls, missingBytes, chunks.size());
+    }
+
+    /**
+     * Коммит версии из фрагментов. Догруженные фрагменты проверяются в хранилище
+     * (наличие, размер и сохраненная контрольная сумма SHA-256), уже зарегистрированные
+     * блокируются от сборщика мусора до конца транзакции
+     */
+    public File commit(UUID fileId, UUID userId, String hash, long size, List<ChunkRef> chunks) {
+        int previousVersion = findActiveFile(fileId).getVersion();
+        Map<String, ChunkRef> distinct = validate(size, chunks);
+
+        String namespace = chunkNamespace(userId);
+        // Зарегистрированные фрагменты блокируются до коммита: иначе сборщик мусора может удалить
+        // объект и строку между проверкой и записью манифеста. Фрагмент, который сборщик успел удалить,
+        // считается догруженным и проверяется в хранилище
+        List<String> uploaded = new ArrayList<>(distinct.keySet());
+        uploaded.removeAll(Set.copyOf(chunkRepository.lockPresentHashes(namespace, distinct.keySet())));
+        if (!uploaded.isEmpty()) {
+            Map<String, Long> stored = storageServiceClient.statChunks(namespace, uploaded);
+            for (String chunkHash : uploaded) {
+                Long storedSize = stored.get(chunkHash);
+                if (storedSize == null) {
+                    throw new IllegalArgumentException(String.format(
+                            "Chunk %s has not been uploaded or its content does not match the hash", chunkHash));
+                }
+                if (storedSize != distinct.get(chunkHash).size()) {
+                    throw new IllegalArgumentException(String.format(
+                            "Chunk %s size mismatch: declared %d, stored %d",
+                            chunkHash, distinct.get(chunkHash).size(), storedSize));
+                }
+            }
+        }
+        // Порядок хешей совпадает с порядком блокировок: параллельные коммиты общих фрагментов не взаимоблокируются
+        chunkRepository.upsertChunks(namespace, distinct.values().stream()
+                .sorted(Comparator.comparing(ChunkRef::hash))
+                .toList(), userId);
+
+        File savedFile = fileService.updateFile(fileId, userId, File.builder()
+                .size(size)
+                .hash(hash)
+                .isChunked(true)
+                .build());
+
+        if (savedFile.getVersion() > previousVersion) {
+            versionChunkRepository.insertManifest(fileId, savedFile.getVersion(), namespace, chunks);
+            log.info("Chunked version committed: fileId={}, version={}, chunks={}, newChunks={}",
+                    fileId, savedFile.getVersion(), chunks.size(), uploaded.size());
+        }
+        return savedFile;
+    }
+
+    /**
+     * Манифест версии с URL скачивания фрагментов
+     *
+     * @param version номер версии; null - текущая
+     */
+    @Transactional(readOnly = true)
+    public Manifest getManifest(UUID fileId, Integer version) {
+        File file = findActiveFile(fileId);
+
+        int manifestVersion = version != null ? version : file.getVersion();
+        long size;
+        String hash;
+        if (manifestVersion == file.getVersion()) {
+            if (!file.isChunked()) {
+                throw new IllegalArgumentException(
+                        String.format("Version %d of file %s is not chunked", manifestVersion, fileId));
+            }
+            size = file.getSize();
+            hash = file.getHash();
+        } else {
+            FileVersion fileVersion = versionRepository.findByFileIdAndVersion(fileId, manifestVersion)
+                    .filter(FileVersion::isChunked)
+                    .orElseThrow(() -> new IllegalArgumentException(String.format(
+                            "Chunked version %d not found for file %s", manifestVersion, fileId)));
+            size = fileVersion.getSize();
+            hash = fileVersion.getHash();
+        }
+
+        List<FileVersionChunk> entries = versionChunkRepository.findByFileIdAndVersionOrderBySeq(fileId,
+                manifestVersion);
+        // Манифест восстановленной версии может ссылаться на фрагменты разных пространств имен
+        Map<String, Set<String>> hashesByNamespace = entries.stream()
+                .collect(Collectors.groupingBy(FileVersionChunk::getChunkNamespace,
+                        Collectors.mapping(FileVersionChunk::getChunkHash, Collectors.toSet())));
+        Map<String, String> downloadUrls = new HashMap<>();
+        hashesByNamespace.forEach((namespace, hashes) -> storageServiceClient
+                .getChunkUrls(namespace, hashes, "GET")
+                .forEach((chunkHash, url) -> downloadUrls.put(Manifest.urlKey(namespace, chunkHash), url)));
+        return new Manifest(fileId, manifestVersion, size, hash, entries, downloadUrls);
+    }
+
+    private File findActiveFile(UUID fileId) {
+        if (!enabled) {
+            throw new IllegalArgumentException("Chunked versions are disabled");
+        }
+        return fileRepository.findById(fileId)
+                .filter(f -> !f.isDeleted() && !f.isFolder())
+                .orElseThrow(() -> new IllegalArgumentException(
+                        String.format("File with id %s not found", fileId)));
+    }
+
+    /**
+     * Проверка манифеста: формат хешей, границы размеров фрагментов (последний может быть меньше
+     * минимального), сумма размеров равна размеру файла
+     *
+     * @return различные фрагменты по хешу
+     */
+    private Map<String, ChunkRef> validate(long size, List<ChunkRef> chunks) {
+        if (chunks.isEmpty()) {
+            throw new IllegalArgumentException("Chunk list is empty");
+        }
+        if (chunks.size() > maxChunksPerVersion) {
+            throw new IllegalArgumentException(String.format(
+                    "Too many chunks: %d (max %d)", chunks.size(), maxChunksPerVersion));
+        }
+
+        Map<String, ChunkRef> distinct = new LinkedHashMap<>();
+        long total = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            ChunkRef chunk = chunks.get(i);
+            if (chunk.hash() == null || !CHUNK_HASH.matcher(chunk.hash()).matches()) {
+                throw new IllegalArgumentException(String.format("Invalid chunk hash at position %d", i));
+            }
+            boolean last = i == chunks.size() - 1;
+            if (chunk.size() <= 0 || chunk.size() > maxChunkSize || (!last && chunk.size() < minChunkSize)) {
+                throw new IllegalArgumentException(String.format(
+                        "Chunk size %d at position %d is out of bounds [%d, %d]",
+                        chunk.size(), i, minChunkSize, maxChunkSize));
+            }
+            ChunkRef previous = distinct.putIfAbsent(chunk.hash(), chunk);
+            if (previous != null && previous.size() != chunk.size()) {
+                throw new IllegalArgumentException(
+                        String.format("Chunk %s is listed with different sizes", chunk.hash()));
+            }
+            total += chunk.size();
+        }
+
+        if (total != size) {
+            throw new IllegalArgumentException(String.format(
+                    "Chunk sizes add up to %d, file size is %d", total, size));
+        }
+        return distinct;
+    }
+
+    /**
+     * @param missingHashes фрагменты, которые нужно загрузить
+     * @param uploadUrls    хеш -> presigned PUT URL
+     * @param missingBytes  объем к загрузке
+     * @param totalChunks   фрагментов в манифесте
+     */
+    public record Negotiation(List<String> missingHashes, Map<String, String> uploadUrls, long missingBytes,
+            int totalChunks) {
+    }
+
+    /**
+     * @param downloadUrls пространство имен и хеш фрагмента (urlKey) -> presigned GET URL
+     */
+    public record Manifest(UUID fileId, int version, long size, String hash, List<FileVersionChunk> chunks,
+            Map<String, String> downloadUrls) {
+
+        static String urlKey(String namespace, String chunkHash) {
+            return namespace + "/" + chunkHash;
+        }
+
+        public String downloadUrl(FileVersionChunk chunk) {
+            return downloadUrls.getOrDefault(urlKey(chunk.getChunkNamespace(), chunk.getChunkHash()), "");
+        }
+    }
+}
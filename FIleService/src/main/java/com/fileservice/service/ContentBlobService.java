@@ -0,0 +1,169 @@
+package com.fileservice.service;
+
+import com.fileservice.repository.ContentBlobRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Дедупликация содержимого по хешу.
+ * Новый файл или версия с уже загруженным содержимым ссылаются на существующий storage_path
+ * (content_blobs.ref_count) вместо выдачи upload URL.
+ * ref_count - единственный источник истины о том, можно ли удалить объект: ссылки снимаются
+ * под блокировкой строки до вызова StorageService, и пути, на которые остались ссылки,
+ * передаются в DeleteFile/DeleteFiles как неудаляемые. Привязка берет ту же блокировку,
+ * поэтому не может сослаться на объект, который уже удаляется
+ */
+@Service
+@Slf4j
+@Transactional
+public class ContentBlobService {
+
+    public enum Scope {
+        /**
+         * Только собственные загрузки пользователя
+         */
+        USER,
+        /**
+         * Загрузки любых пользователей
+         */
+        GLOBAL
+    }
+
+    /**
+     * Путей в одном запросе: список IN большого поддерева не должен упираться в лимит параметров JDBC (65535)
+     */
+    static final int PATH_BATCH_SIZE = 1000;
+
+    private final ContentBlobRepository contentBlobRepository;
+    private final boolean enabled;
+    private final Scope scope;
+
+    public ContentBlobService(ContentBlobRepository contentBlobRepository,
+            @Value("${file-service.dedup.enabled:true}") boolean enabled,
+            @Value("${file-service.dedup.scope:USER}") Scope scope) {
+        this.contentBlobRepository = contentBlobRepository;
+        this.enabled = enabled;
+        this.scope = scope;
+    }
+
+    /**
+     * Привязка к уже загруженному содержимому с тем же хешем и размером.
+     * Ссылка учитывается сразу (в транзакции вызывающего)
+     *
+     * @return storage_path существующего объекта; пусто - содержимое нужно загружать
+     */
+    public Optional<String> linkExisting(UUID userId, String hash, Long size) {
+        if (!enabled || hash == null || hash.isBlank() || size == null || size <= 0) {
+            return Optional.empty();
+        }
+
+        Optional<String> storagePath = contentBlobRepository.findLinkable(hash, size, userId, scope == Scope.GLOBAL);
+        if (storagePath.isPresent() && contentBlobRepository.retain(storagePath.get()) == 1) {
+            log.debug("Deduplicated content: userId={}, hash={}, storagePath={}", userId, hash, storagePath.get());
+            return storagePath;
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Учет подтвержденной StorageService загрузки как blob с одной ссылкой
+     */
+    public void registerUpload(String storagePath, String hash, long size, UUID userId) {
+        if (storagePath == null || hash == null || hash.isBlank() || size <= 0) {
+            return;
+        }
+        if (contentBlobRepository.register(storagePath, hash, size, userId) == 1) {
+            log.debug("Registered content blob: storagePath={}, hash={}, size={}", storagePath, hash, size);
+        }
+    }
+
+    /**
+     * Дополнительная ссылка на путь (например, файл снова указывает на путь восстановленной версии).
+     * Пути без учета (загруженные до дедупликации) пропускаются
+     */
+    public void retain(String storagePath) {
+        if (storagePath != null) {
+            contentBlobRepository.retain(storagePath);
+        }
+    }
+
+    /**
+     * Снятие ссылок удаляемых файлов/версий; путь может встречаться несколько раз.
+     * Строки blob без ссылок удаляются, после чего содержимое больше не предлагается для привязки.
+     * Строки остаются заблокированными до конца транзакции
+     *
+     * @return пути, на которые остались ссылки: их объекты StorageService удалять не должен
+     */
+    public Set<String> release(Collection<String> storagePaths) {
+        Map<String, Long> counts = countByPath(storagePaths);
+        if (counts.isEmpty()) {
+            return Set.of();
+        }
+
+        Set<String> retained = lockRetained(counts);
+        counts.forEach((storagePath, count) -> contentBlobRepository.release(storagePath, count.intValue()));
+        int deleted = 0;
+        for (List<String> batch : sortedBatches(counts.keySet())) {
+            deleted += contentBlobRepository.deleteUnreferenced(batch);
+        }
+        if (deleted > 0) {
+            log.debug("Released last reference of {} content blobs", deleted);
+        }
+        return retained;
+    }
+
+    /**
+     * Блокировка строк blob без снятия ссылок - для удалений, где объекты удаляются из хранилища
+     * раньше строк (ссылки снимаются release после удаления объектов, в той же транзакции)
+     *
+     * @return пути, на которые останутся ссылки после снятия ссылок storagePaths
+     */
+    public Set<String> lockForRelease(Collection<String> storagePaths) {
+        Map<String, Long> counts = countByPath(storagePaths);
+        return counts.isEmpty() ? Set.of() : lockRetained(counts);
+    }
+
+    /**
+     * Строки блокируются пачками в порядке путей: порядок блокировок один и тот же при любом
+     * числе путей, поэтому параллельные удаления не взаимоблокируются
+     */
+    private Set<String> lockRetained(Map<String, Long> counts) {
+        Set<String> retained = new HashSet<>();
+        for (List<String> batch : sortedBatches(counts.keySet())) {
+            contentBlobRepository.lockByStoragePaths(batch).stream()
+                    .filter(blob -> blob.getRefCount() > counts.get(blob.getStoragePath()))
+                    .map(ContentBlobRepository.BlobReference::getStoragePath)
+                    .forEach(retained::add);
+        }
+        return retained;
+    }
+
+    private static List<List<String>> sortedBatches(Collection<String> storagePaths) {
+        List<String> sorted = storagePaths.stream().sorted().toList();
+        List<List<String>> batches = new ArrayList<>();
+        for (int from = 0; from < sorted.size(); from += PATH_BATCH_SIZE) {
+            batches.add(sorted.subList(from, Math.min(from + PATH_BATCH_SIZE, sorted.size())));
+        }
+        return batches;
+    }
+
+    private static Map<String, Long> countByPath(Collection<String> storagePaths) {
+        return storagePaths.stream()
+                .filter(Objects::nonNull)
+                .collect(Collectors.groupingBy(Function.identity(), Collectors.counting()));
+    }
+}
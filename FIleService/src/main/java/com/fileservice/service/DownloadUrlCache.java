@@ -0,0 +1,91 @@
+package com.fileservice.service;
+
+import com.fileservice.client.StorageServiceClient;
+import com.fileservice.client.StorageServiceClient.PresignedUrl;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Кэш presigned URL скачивания (fileId, version) -> URL.
+ * Запись живет до истечения срока URL минус safety-margin, чтобы клиент успел начать скачивание.
+ * Одновременные промахи по одному ключу ждут одного вызова StorageService; вызов асинхронный
+ * и идет вне блокировок кэша, ожидающие потоки паркуются на future.
+ * Новое содержимое всегда получает новый номер версии, поэтому устаревшие записи недостижимы;
+ * явная инвалидация при новой версии и удалении освобождает их сразу
+ */
+@Component
+public class DownloadUrlCache {
+
+    private final StorageServiceClient storageServiceClient;
+    private final AsyncCache<Key, PresignedUrl> cache;
+    private final Duration safetyMargin;
+    private final Duration defaultTtl;
+
+    public DownloadUrlCache(StorageServiceClient storageServiceClient,
+            MeterRegistry meterRegistry,
+            @Value("${file-service.download-url-cache.max-size:100000}") long maxSize,
+            @Value("${file-service.download-url-cache.safety-margin:5m}") Duration safetyMargin,
+            @Value("${file-service.download-url-cache.default-ttl:1h}") Duration defaultTtl) {
+        this.storageServiceClient = storageServiceClient;
+        this.safetyMargin = safetyMargin;
+        this.defaultTtl = defaultTtl;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new Expiry<Key, PresignedUrl>() {
+                    @Override
+                    public long expireAfterCreate(Key key, PresignedUrl url, long currentTime) {
+                        return timeToLive(url).toNanos();
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(Key key, PresignedUrl url, long currentTime,
+                            long currentDuration) {
+                        return timeToLive(url).toNanos();
+                    }
+
+                    @Override
+                    public long expireAfterRead(Key key, PresignedUrl url, long currentTime,
+                            long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .buildAsync();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache.synchronous(), "file.download-urls");
+    }
+
+    public String get(UUID fileId, int version) {
+        try {
+            return cache.get(new Key(fileId, version),
+                    (key, executor) -> storageServiceClient.getPresignedDownloadUrlAsync(fileId.toString(), version))
+                    .join().url();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+    }
+
+    public void invalidate(UUID fileId, int version) {
+        cache.synchronous().invalidate(new Key(fileId, version));
+    }
+
+    /**
+     * Срок URL минус запас; URL без срока живет default-ttl
+     */
+    private Duration timeToLive(PresignedUrl url) {
+        Duration validFor = url.expiresInSeconds() > 0 ? Duration.ofSeconds(url.expiresInSeconds()) : defaultTtl;
+        Duration ttl = validFor.minus(safetyMargin);
+        return ttl.isNegative() ? Duration.ZERO : ttl;
+    }
+
+    private record Key(UUID fileId, int version) {
+    }
+}
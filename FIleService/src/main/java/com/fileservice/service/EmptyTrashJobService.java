@@ -0,0 +1,220 @@
+package com.fileservice.service;
+
+import com.fileservice.model.EmptyTrashJob;
+import com.fileservice.model.File;
+import com.fileservice.repository.EmptyTrashJobRepository;
+import com.fileservice.repository.FileRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Window;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Асинхронная очистка корзины.
+ * EmptyTrash создает задачу и сразу возвращает ее ID; задача обходит корзину пользователя
+ * keyset-фрагментами (каждый - отдельная транзакция с блокировкой строки задачи), фрагмент
+ * удаляет {@link TrashPurger}. Позиция и счетчики сохраняются с каждым фрагментом, квота
+ * освобождается одной дельтой при завершении. Задачи, остановившиеся вместе с экземпляром,
+ * подхватывает периодический обход
+ */
+@Service
+@Slf4j
+public class EmptyTrashJobService {
+
+    private final EmptyTrashJobRepository jobRepository;
+    private final FileRepository fileRepository;
+    private final TrashPurger trashPurger;
+    private final QuotaLeaseManager quotaLeaseManager;
+    private final TransactionTemplate transactionTemplate;
+    private final ExecutorService jobExecutor;
+    private final int chunkSize;
+    private final Duration stallTimeout;
+
+    /**
+     * Задачи, выполняемые этим экземпляром (чтобы не запускать одну задачу дважды)
+     */
+    private final Set<UUID> runningJobs = ConcurrentHashMap.newKeySet();
+
+    private final Counter deletedCounter;
+    private final Counter failedCounter;
+    private final Timer jobTimer;
+
+    public EmptyTrashJobService(EmptyTrashJobRepository jobRepository,
+            FileRepository fileRepository,
+            TrashPurger trashPurger,
+            QuotaLeaseManager quotaLeaseManager,
+            PlatformTransactionManager transactionManager,
+            MeterRegistry meterRegistry,
+            @Value("${file-service.empty-trash.parallelism:4}") int parallelism,
+            @Value("${file-service.empty-trash.chunk-size:500}") int chunkSize,
+            @Value("${file-service.empty-trash.stall-timeout:2m}") Duration stallTimeout) {
+        this.jobRepository = jobRepository;
+        this.fileRepository = fileRepository;
+        this.trashPurger = trashPurger;
+        this.quotaLeaseManager = quotaLeaseManager;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.jobExecutor = Executors.newFixedThreadPool(parallelism);
+        this.chunkSize = chunkSize;
+        this.stallTimeout = stallTimeout;
+
+        this.deletedCounter = Counter.builder("file.trash.empty.files")
+                .description("Trash items permanently deleted by empty-trash jobs")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("file.trash.empty.failed")
+                .description("Files left in trash because their storage deletion failed")
+                .register(meterRegistry);
+        this.jobTimer = Timer.builder("file.trash.empty.job.duration")
+                .description("Time from empty-trash request to job completion")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Запуск очистки корзины. Повторный запрос при активной задаче возвращает ее же
+     */
+    @Transactional
+    public EmptyTrashJob start(UUID userId) {
+        LocalDateTime cutoff = LocalDateTime.now().truncatedTo(ChronoUnit.MICROS);
+        long total = fileRepository.countByUserIdAndIsDeletedTrueAndDeletedAtLessThanEqual(userId, cutoff);
+
+        UUID jobId = UUID.randomUUID();
+        boolean created = jobRepository.insertIfNoActive(jobId, userId, cutoff, total) > 0;
+        EmptyTrashJob job = jobRepository.findActiveByUserId(userId)
+                .orElseThrow(() -> new IllegalStateException("Empty trash job disappeared for user " + userId));
+
+        if (created) {
+            log.info("Empty trash job created: id={}, userId={}, items={}", jobId, userId, total);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    submit(jobId);
+                }
+            });
+        } else {
+            log.debug("Empty trash job already active: id={}, userId={}", job.getId(), userId);
+        }
+        return job;
+    }
+
+    @Transactional(readOnly = true)
+    public EmptyTrashJob getJob(UUID jobId, UUID userId) {
+        return jobRepository.findByIdAndUserId(jobId, userId)
+                .orElseThrow(() -> new IllegalArgumentException(
+                        String.format("Empty trash job %s not found for user %s", jobId, userId)));
+    }
+
+    /**
+     * Продолжение задач, по которым нет прогресса дольше stall-timeout
+     */
+    @Scheduled(fixedDelayString = "${file-service.empty-trash.resume-interval-ms:60000}")
+    public void resumeStalled() {
+        LocalDateTime threshold = LocalDateTime.now().minus(stallTimeout);
+        for (UUID jobId : jobRepository.findStalledIds(threshold, 100)) {
+            log.info("Resuming stalled empty trash job {}", jobId);
+            submit(jobId);
+        }
+    }
+
+    private void submit(UUID jobId) {
+        if (!runningJobs.add(jobId)) {
+            return;
+        }
+        try {
+            jobExecutor.execute(() -> {
+                try {
+                    run(jobId);
+                } finally {
+                    runningJobs.remove(jobId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            runningJobs.remove(jobId);
+            log.warn("Empty trash job {} rejected, it will be resumed later", jobId);
+        }
+    }
+
+    private void run(UUID jobId) {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Boolean more = transactionTemplate.execute(status -> processChunk(jobId));
+                if (!Boolean.TRUE.equals(more)) {
+                    return;
+                }
+            }
+        } catch (Exception e) {
+            // Позиция последнего успешного фрагмента сохранена - задачу продолжит resumeStalled
+            log.error("Empty trash job {} interrupted", jobId, e);
+        }
+    }
+
+    /**
+     * Один фрагмент задачи
+     *
+     * @return true, если остались необработанные элементы
+     */
+    private boolean processChunk(UUID jobId) {
+        EmptyTrashJob job = jobRepository.lockActive(jobId).orElse(null);
+        if (job == null) {
+            // Задача завершена или ее фрагмент выполняется в другом месте
+            return false;
+        }
+        job.setStatus(EmptyTrashJob.Status.RUNNING);
+
+        Window<File> window = fileRepository.findByUserIdAndIsDeletedTrueAndDeletedAtLessThanEqual(
+                job.getUserId(), job.getCutoff(), TrashPurger.decodePosition(job.getPosition()),
+                Limit.of(chunkSize), TrashPurger.PURGE_ORDER);
+
+        if (!window.isEmpty()) {
+            TrashPurger.PurgeResult result = trashPurger.purge(window.getContent());
+            job.setProcessedItems(job.getProcessedItems() + result.deleted());
+            job.setFailedItems(job.getFailedItems() + result.failed());
+            job.setReleasedBytes(job.getReleasedBytes() + result.releasedBytes());
+            deletedCounter.increment(result.deleted());
+            failedCounter.increment(result.failed());
+            log.debug("Empty trash job {} chunk: scanned={}, deleted={}, storageFailures={}",
+                    jobId, window.size(), result.deleted(), result.failed());
+        }
+
+        if (window.hasNext()) {
+            job.setPosition(TrashPurger.encodePosition(window.positionAt(window.size() - 1)));
+            jobRepository.save(job);
+            return true;
+        }
+
+        // Квота - одной дельтой за всю задачу, в одной транзакции с отметкой о завершении
+        quotaLeaseManager.release(job.getUserId(), job.getReleasedBytes());
+        job.setStatus(EmptyTrashJob.Status.COMPLETED);
+        job.setCompletedAt(LocalDateTime.now());
+        jobRepository.save(job);
+
+        jobTimer.record(Duration.between(job.getCreatedAt(), job.getCompletedAt()));
+        log.info("Empty trash job completed: id={}, userId={}, deleted={}, failed={}, releasedBytes={}",
+                jobId, job.getUserId(), job.getProcessedItems(), job.getFailedItems(), job.getReleasedBytes());
+        return false;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        jobExecutor.shutdownNow();
+    }
+}
@@ -1,33 +1,101 @@
 package com.fileservice.service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fileservice.event.FileEvent;
 import com.fileservice.kafka.KafkaProducerService;
+import com.fileservice.model.File;
+import com.fileservice.model.OutboxEvent;
+import com.fileservice.repository.OutboxEventRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.event.TransactionPhase;
-import org.springframework.transaction.event.TransactionalEventListener;
 
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Публикация событий файлов через transactional outbox: сообщение пишется в event_outbox
+ * в той же транзакции, что и изменение файла, а в Kafka его доставляет OutboxRelay
+ */
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class FileEventPublisher {
 
+    public static final String SHARE_FANOUT_EVENT = "file.share_fanout";
+
+    /**
+     * Максимум получателей в одном сообщении (держит размер сообщения Kafka ограниченным)
+     */
+    static final int FANOUT_CHUNK_SIZE = 1000;
+
     private final ApplicationEventPublisher applicationEventPublisher;
     private final KafkaProducerService kafkaProducerService;
+    private final OutboxEventRepository outboxEventRepository;
+    private final ObjectMapper objectMapper;
 
     // Method to be called by business logic within transaction
     public void publish(FileEvent event) {
-        log.debug("Publishing application event for: {}", event.getEventType());
-        // Publish internal Spring event first
+        log.debug("Publishing file event to outbox: {}", event.getEventType());
+
+        String payload;
+        try {
+            payload = objectMapper.writeValueAsString(kafkaProducerService.toMessage(event));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize file event " + event.getEventType(), e);
+        }
+
+        outboxEventRepository.save(OutboxEvent.builder()
+                .eventId(event.getEventId())
+                .eventType(event.getEventType())
+                .topic(KafkaProducerService.TOPIC)
+                .messageKey(event.getFileId() != null ? event.getFileId().toString() : null)
+                .payload(payload)
+                .build());
+
+        // Внутреннее Spring-событие для локальных слушателей (AFTER_COMMIT, например PermissionCache)
         applicationEventPublisher.publishEvent(event);
     }
 
-    // Listener that runs ONLY after DB commit
-    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT)
-    public void handleAfterCommit(FileEvent event) {
-        log.info("Transaction committed, sending Kafka event: {}", event.getEventType());
-        kafkaProducerService.sendEvent(event);
+    /**
+     * Одно событие file.share_fanout на всех получателей расшариваний вместо сообщения на каждого.
+     * Исходный тип события передается в metadata.fanoutType; NotificationService разворачивает
+     * получателей на своей стороне. Очень длинные списки режутся на части по FANOUT_CHUNK_SIZE
+     */
+    public void publishShareFanout(File file, String fanoutType, UUID actorId, List<UUID> recipientIds,
+            Map<String, String> metadata) {
+        List<UUID> recipients = recipientIds.stream()
+                .filter(recipientId -> !recipientId.equals(actorId) && !recipientId.equals(file.getUserId()))
+                .distinct()
+                .toList();
+        if (recipients.isEmpty()) {
+            return;
+        }
+
+        Map<String, String> fanoutMetadata = new HashMap<>(metadata);
+        fanoutMetadata.put("fanoutType", fanoutType);
+        fanoutMetadata.put("fileName", file.getName());
+        fanoutMetadata.put("ownerId", file.getUserId().toString());
+        fanoutMetadata.put("sharedBy", actorId.toString());
+
+        for (int from = 0; from < recipients.size(); from += FANOUT_CHUNK_SIZE) {
+            publish(FileEvent.builder()
+                    .eventId(UUID.randomUUID().toString())
+                    .eventType(SHARE_FANOUT_EVENT)
+                    .fileId(file.getId())
+                    .userId(actorId)
+                    .timestamp(LocalDateTime.now())
+                    .version(file.getVersion())
+                    .metadata(fanoutMetadata)
+                    .recipientIds(recipients.subList(from, Math.min(from + FANOUT_CHUNK_SIZE, recipients.size())))
+                    .build());
+        }
+        log.debug("Published share fan-out: fileId={}, type={}, recipients={}",
+                file.getId(), fanoutType, recipients.size());
     }
 }
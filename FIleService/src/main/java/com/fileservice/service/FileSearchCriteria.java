@@ -0,0 +1,55 @@
+package com.fileservice.service;
+
+import java.time.LocalDateTime;
+
+/**
+ * Параметры поиска файлов: строка запроса и необязательные фильтры
+ *
+ * @param query          подстрока имени или пути ("report", "docs/2024")
+ * @param mimeType       точный MIME-тип ("image/png") или группа ("image/", "image/*")
+ * @param modifiedAfter  нижняя граница updated_at (включительно)
+ * @param modifiedBefore верхняя граница updated_at (не включительно)
+ */
+public record FileSearchCriteria(String query, String mimeType,
+        LocalDateTime modifiedAfter, LocalDateTime modifiedBefore) {
+
+    public static FileSearchCriteria of(String query) {
+        return new FileSearchCriteria(query, null, null, null);
+    }
+
+    /**
+     * Нормализованная строка запроса (нижний регистр, без крайних пробелов)
+     */
+    String normalizedQuery() {
+        return query == null ? "" : query.trim().toLowerCase();
+    }
+
+    /**
+     * LIKE-шаблон подстроки с экранированием спецсимволов
+     */
+    String substringPattern() {
+        return "%" + escapeLike(normalizedQuery()) + "%";
+    }
+
+    String prefixPattern() {
+        return escapeLike(normalizedQuery()) + "%";
+    }
+
+    /**
+     * LIKE-шаблон для фильтра по MIME-типу, либо null если фильтр не задан
+     */
+    String mimePattern() {
+        if (mimeType == null || mimeType.isBlank()) {
+            return null;
+        }
+        String mime = mimeType.trim().toLowerCase();
+        if (mime.endsWith("/*")) {
+            mime = mime.substring(0, mime.length() - 1);
+        }
+        return mime.endsWith("/") ? escapeLike(mime) + "%" : escapeLike(mime);
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+}
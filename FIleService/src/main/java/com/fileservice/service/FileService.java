@@ -1,23 +1,41 @@
 package com.fileservice.service;
 
 import com.fileservice.client.StorageServiceClient;
-import com.fileservice.client.UserServiceClient;
+import com.fileservice.client.StorageServiceClient.UploadTarget;
 import com.fileservice.event.FileEvent;
+import com.fileservice.model.ChangeJournalEntry.ChangeType;
 import com.fileservice.model.File;
+import com.fileservice.model.FileListing;
+import com.fileservice.model.FilePermission;
 import com.fileservice.model.FileVersion;
 import com.fileservice.repository.FileRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.KeysetScrollPosition;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Основной сервис для работы с файлами
@@ -28,12 +46,22 @@ import java.util.UUID;
 @Transactional
 public class FileService {
 
+    private static final UUID FIRST_ID = new UUID(0L, 0L);
+    private static final Sort TRASH_SORT = Sort.by(Sort.Direction.DESC, "updatedAt", "id");
+    private static final int MAX_BATCH_SIZE = 1000;
+
     private final FileRepository fileRepository;
     private final com.fileservice.repository.FileShareRepository shareRepository;
-    private final UserServiceClient userServiceClient;
+    private final QuotaLeaseManager quotaLeaseManager;
     private final StorageServiceClient storageServiceClient;
     private final FileEventPublisher eventPublisher;
     private final VersionService versionService;
+    private final FolderService folderService;
+    private final PermissionService permissionService;
+    private final ContentBlobService contentBlobService;
+    private final FolderAggregateService folderAggregateService;
+    private final ChangeJournalService changeJournal;
+    private final DownloadUrlCache downloadUrlCache;
 
     // We cannot inject VersionService directly if it creates a cycle.
     // VersionService depends on FileRepository.
@@ -65,21 +93,10 @@ public class FileService {
             file.setParentFolder(parent.get());
         }
 
-        // Проверка квоты (размер файла)
+        // Проверка квоты (размер файла) по локальной аренде; занятое место учитывается после коммита
         // Пропускаем проверку для папок (size=0), так как они не занимают место
         if (file.getSize() > 0) {
-            try {
-                boolean hasQuota = userServiceClient.checkQuota(file.getUserId(), file.getSize());
-                if (!hasQuota) {
-                    log.warn("Quota check failed for user {}: requested size={}", file.getUserId(), file.getSize());
-                    throw new IllegalArgumentException(
-                            "User storage quota exceeded. Please free up some space or upgrade your plan.");
-                }
-            } catch (RuntimeException e) {
-                // Пробрасываем оригинальное сообщение об ошибке
-                log.error("Error checking quota for user {}: {}", file.getUserId(), e.getMessage());
-                throw new IllegalArgumentException("Failed to verify storage quota: " + e.getMessage(), e);
-            }
+            quotaLeaseManager.reserve(file.getUserId(), file.getSize());
         } else {
             log.debug("Skipping quota check for folder or zero-size file: userId={}, isFolder={}",
                     file.getUserId(), file.isFolder());
@@ -87,37 +104,28 @@ public class FileService {
 
         File savedFile = fileRepository.save(file);
 
-        // Обновляем использованное место (только для файлов, не для папок)
-        if (savedFile.getSize() > 0) {
-            try {
-                userServiceClient.updateStorageUsed(savedFile.getUserId(), savedFile.getSize());
-            } catch (Exception e) {
-                log.error("Failed to update storage used for user {}", savedFile.getUserId(), e);
-            }
-        }
+        // Содержимое с тем же хешем уже загружено - ссылаемся на него вместо новой загрузки
+        Optional<String> existingBlob = savedFile.isFolder()
+                ? Optional.empty()
+                : contentBlobService.linkExisting(savedFile.getUserId(), savedFile.getHash(), savedFile.getSize());
 
         // Set storage path synchronously BEFORE upload URL generation
         // Format: files/{fileId}/v{version}/data (or just filename, but standardized)
         // We use a clean path structure that is deterministic
-        String storagePath = String.format("files/%s/v%d/%s",
-                savedFile.getId(), savedFile.getVersion(), "data"); // "data" is the standard blob name
+        String storagePath = existingBlob.orElse(String.format("files/%s/v%d/%s",
+                savedFile.getId(), savedFile.getVersion(), "data")); // "data" is the standard blob name
         savedFile.setStoragePath(storagePath);
         savedFile = fileRepository.save(savedFile);
 
-        // Получаем Upload URL и проставляем в transient поле
-        if (!savedFile.isFolder()) {
-            try {
-                String uploadUrl = storageServiceClient.getUploadUrl(
-                        savedFile.getId().toString(),
-                        savedFile.getName(),
-                        savedFile.getSize(),
-                        savedFile.getMimeType(),
-                        savedFile.getVersion());
-                savedFile.setUploadUrl(uploadUrl);
-            } catch (Exception e) {
-                log.error("Failed to get upload url for file {}", savedFile.getId(), e);
-            }
+        if (existingBlob.isPresent()) {
+            linkStoredContent(savedFile);
         }
+        // Upload URL запрашивается сразу и ждется в конце: RPC идет параллельно с записью журнала и outbox
+        CompletableFuture<String> uploadUrl = existingBlob.isEmpty() && !savedFile.isFolder()
+                ? requestUploadUrl(savedFile)
+                : null;
+
+        changeJournal.record(savedFile.getUserId(), savedFile.getId(), ChangeType.CREATED);
 
         log.info("File created: id={}, name={}, userId={}",
                 savedFile.getId(), savedFile.getName(), savedFile.getUserId());
@@ -132,10 +140,228 @@ public class FileService {
                 .payload(savedFile)
                 .build());
 
+        applyUploadUrl(savedFile, uploadUrl);
+        // Агрегаты блокируют строки всей цепочки предков - последними перед коммитом, после ожидания
+        // StorageService, иначе загрузки в одно дерево папок выстраиваются в очередь за его задержкой
+        folderAggregateService.onCreated(savedFile);
         return savedFile;
 
     }
 
+    /**
+     * Асинхронный запрос Upload URL для новой версии файла
+     */
+    private CompletableFuture<String> requestUploadUrl(File file) {
+        return storageServiceClient.getUploadUrlAsync(
+                file.getId().toString(),
+                file.getName(),
+                file.getSize(),
+                file.getMimeType(),
+                file.getVersion());
+    }
+
+    /**
+     * Ожидание Upload URL (ограничено дедлайном вызова) и запись в transient поле.
+     * Без URL файл все равно создан - клиент запросит его повторно
+     */
+    private void applyUploadUrl(File file, CompletableFuture<String> uploadUrl) {
+        if (uploadUrl == null) {
+            return;
+        }
+        try {
+            file.setUploadUrl(uploadUrl.join());
+        } catch (Exception e) {
+            log.error("Failed to get upload url for file {}", file.getId(), e);
+        }
+    }
+
+    /**
+     * Регистрация версии, ссылающейся на уже загруженный объект, в StorageService
+     * (загрузки и события "stored" для нее не будет)
+     */
+    private void linkStoredContent(File file) {
+        storageServiceClient.saveVersionMetadata(file.getId().toString(), file.getVersion(),
+                file.getStoragePath(), file.getSize());
+        log.info("File content deduplicated: id={}, version={}, storagePath={}",
+                file.getId(), file.getVersion(), file.getStoragePath());
+    }
+
+    /**
+     * Пакетное создание файлов/папок.
+     * Весь пакет проверяется заранее (пути, родители, одна проверка квоты на суммарный размер),
+     * ID назначаются до вставки, поэтому каждая строка пишется один раз одним JDBC batch.
+     * Пакет создается целиком или не создается вовсе
+     */
+    public List<File> batchCreateFiles(UUID userId, List<BatchFileItem> items) {
+        log.debug("Batch creating files: userId={}, count={}", userId, items.size());
+
+        if (items.isEmpty()) {
+            throw new IllegalArgumentException("Batch is empty");
+        }
+        if (items.size() > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException(
+                    String.format("Batch size %d exceeds limit %d", items.size(), MAX_BATCH_SIZE));
+        }
+
+        // Пути: без дублей внутри пакета и без конфликтов с существующими файлами
+        Set<String> paths = new HashSet<>();
+        for (BatchFileItem item : items) {
+            if (item.name() == null || item.name().isBlank() || item.path() == null || item.path().isBlank()) {
+                throw new IllegalArgumentException("File name and path are required");
+            }
+            if (!paths.add(item.path())) {
+                throw new IllegalArgumentException(
+                        String.format("Duplicate path '%s' in batch", item.path()));
+            }
+        }
+        List<String> existingPaths = fileRepository.findExistingPaths(userId, paths);
+        if (!existingPaths.isEmpty()) {
+            throw new IllegalArgumentException(
+                    String.format("File with path '%s' already exists for user %s", existingPaths.get(0), userId));
+        }
+
+        // Существующие родительские папки - одним запросом
+        Set<UUID> parentIds = new HashSet<>();
+        items.stream()
+                .map(BatchFileItem::parentFolderId)
+                .filter(Objects::nonNull)
+                .forEach(parentIds::add);
+        Map<UUID, File> parents = new HashMap<>();
+        for (File parent : fileRepository.findActiveByIdIn(parentIds)) {
+            if (parent.getUserId().equals(userId) && parent.isFolder()) {
+                parents.put(parent.getId(), parent);
+            }
+        }
+
+        // Квота - одна проверка на суммарный размер
+        long totalSize = items.stream()
+                .filter(item -> !item.isFolder())
+                .mapToLong(BatchFileItem::size)
+                .sum();
+        long largestFile = items.stream()
+                .filter(item -> !item.isFolder())
+                .mapToLong(BatchFileItem::size)
+                .max()
+                .orElse(0L);
+        quotaLeaseManager.reserve(userId, totalSize, largestFile);
+
+        LocalDateTime now = LocalDateTime.now();
+        List<File> files = new ArrayList<>(items.size());
+        Set<UUID> deduplicated = new HashSet<>();
+        for (int i = 0; i < items.size(); i++) {
+            BatchFileItem item = items.get(i);
+
+            File parent = null;
+            if (item.parentIndex() != null) {
+                int parentIndex = item.parentIndex();
+                if (parentIndex < 0 || parentIndex >= i || !items.get(parentIndex).isFolder()) {
+                    throw new IllegalArgumentException(
+                            String.format("Item %d: parent index %d must point to an earlier folder in the batch",
+                                    i, parentIndex));
+                }
+                parent = files.get(parentIndex);
+            } else if (item.parentFolderId() != null) {
+                parent = parents.get(item.parentFolderId());
+                if (parent == null) {
+                    throw new IllegalArgumentException(
+                            "Parent folder does not exist or is not a folder");
+                }
+            }
+
+            UUID id = UUID.randomUUID();
+            Optional<String> existingBlob = item.isFolder()
+                    ? Optional.empty()
+                    : contentBlobService.linkExisting(userId, item.hash(), item.size());
+            existingBlob.ifPresent(blob -> deduplicated.add(id));
+            files.add(File.builder()
+                    .id(id)
+                    .name(item.name())
+                    .path(item.path())
+                    .parentFolder(parent)
+                    .ancestorPath(parent != null ? parent.getSubtreePath() : File.ROOT_ANCESTOR_PATH)
+                    .userId(userId)
+                    .createdBy(userId)
+                    .size(item.isFolder() ? 0L : item.size())
+                    .mimeType(item.mimeType())
+                    .hash(item.hash())
+                    .isFolder(item.isFolder())
+                    .version(1)
+                    .storagePath(existingBlob.orElse(String.format("files/%s/v%d/%s", id, 1, "data")))
+                    .createdAt(now)
+                    .updatedAt(now)
+                    .build());
+        }
+
+        fileRepository.batchInsert(files);
+        changeJournal.record(userId, files.stream().map(File::getId).toList(), ChangeType.CREATED);
+
+        // Upload URL для всех файлов пакета, кроме привязанных к уже загруженному содержимому, -
+        // один вызов GetUploadUrls, выполняется параллельно с привязкой дедуплицированных файлов
+        List<UploadTarget> uploads = files.stream()
+                .filter(file -> !deduplicated.contains(file.getId()) && !file.isFolder())
+                .map(file -> new UploadTarget(file.getId(), file.getName(), file.getSize(), file.getMimeType(),
+                        file.getVersion()))
+                .toList();
+        CompletableFuture<Map<UUID, String>> uploadUrls = uploads.isEmpty()
+                ? CompletableFuture.completedFuture(Map.of())
+                : storageServiceClient.getUploadUrlsAsync(uploads);
+        for (File file : files) {
+            if (deduplicated.contains(file.getId())) {
+                linkStoredContent(file);
+            }
+        }
+        try {
+            Map<UUID, String> urls = uploadUrls.join();
+            files.stream()
+                    .filter(file -> urls.containsKey(file.getId()))
+                    .forEach(file -> file.setUploadUrl(urls.get(file.getId())));
+        } catch (Exception e) {
+            log.error("Failed to get upload urls for batch of {} files", uploads.size(), e);
+        }
+        // Блокировки агрегатов предков - после вызовов StorageService (см. createFile)
+        folderAggregateService.onCreated(files);
+
+        log.info("Batch created: userId={}, count={}, totalSize={}, deduplicated={}",
+                userId, files.size(), totalSize, deduplicated.size());
+
+        // Одно итоговое событие на пакет вместо события на каждый файл
+        Map<String, String> metadata = new HashMap<>();
+        metadata.put("itemCount", String.valueOf(files.size()));
+        metadata.put("size", String.valueOf(totalSize));
+        metadata.put("sizeDelta", String.valueOf(totalSize));
+        eventPublisher.publish(FileEvent.builder()
+                .eventId(UUID.randomUUID().toString())
+                .eventType("file.batch_uploaded")
+                .fileId(files.get(0).getId())
+                .userId(userId)
+                .timestamp(now)
+                .version(1)
+                .metadata(metadata)
+                .build());
+
+        return files;
+    }
+
+    /**
+     * Пакетное получение метаданных: все ID одним запросом.
+     * Возвращаются только активные файлы, доступные пользователю на чтение;
+     * права на чужие файлы проверяются одним пакетным запросом (PermissionCache.getAll)
+     */
+    @Transactional(readOnly = true)
+    public List<File> batchGetFiles(UUID userId, Collection<UUID> fileIds) {
+        log.debug("Batch getting files: userId={}, count={}", userId, fileIds.size());
+
+        if (fileIds.size() > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException(
+                    String.format("Batch size %d exceeds limit %d", fileIds.size(), MAX_BATCH_SIZE));
+        }
+        if (fileIds.isEmpty()) {
+            return List.of();
+        }
+
+        return permissionService.annotateReadable(fileRepository.findActiveByIdIn(fileIds), userId);
+    }
+
     /**
      * Получение информации о файле
      */
@@ -148,11 +374,15 @@ public class FileService {
                 .filter(file -> !file.isDeleted());
 
         fileOpt.ifPresent(file -> {
-            if (!file.isFolder()) {
+            if (file.isFolder()) {
+                // Размер и число элементов папки - одна строка агрегатов
+                folderAggregateService.getAggregate(file.getId()).ifPresent(file::setFolderAggregate);
+            } else if (file.isChunked()) {
+                // Цельного объекта у фрагментированной версии нет: содержимое отдается манифестом
+                log.debug("Skipping download url for chunked file {}", file.getId());
+            } else {
                 try {
-                    String downloadUrl = storageServiceClient.getDownloadUrl(file.getId().toString(),
-                            file.getVersion());
-                    file.setDownloadUrl(downloadUrl);
+                    file.setDownloadUrl(downloadUrlCache.get(file.getId(), file.getVersion()));
                 } catch (Exception e) {
                     log.error("Failed to get download url for file {}", file.getId(), e);
                 }
@@ -162,6 +392,24 @@ public class FileService {
         return fileOpt;
     }
 
+    /**
+     * Новый Upload URL текущей версии файла - для повтора идемпотентного CreateFile/UpdateFile:
+     * сохраненный URL живет меньше ключа идемпотентности.
+     * Пусто, если файл удален, перешел к другой версии или URL получить не удалось
+     */
+    @Transactional(readOnly = true)
+    public Optional<String> reissueUploadUrl(UUID fileId, int version) {
+        Optional<File> file = fileRepository.findById(fileId)
+                .filter(f -> !f.isDeleted() && !f.isFolder() && f.getVersion() == version);
+        try {
+            return file.map(f -> storageServiceClient.getUploadUrl(f.getId().toString(), f.getName(),
+                    f.getSize(), f.getMimeType(), f.getVersion()));
+        } catch (Exception e) {
+            log.error("Failed to reissue upload url for file {}", fileId, e);
+            return Optional.empty();
+        }
+    }
+
     /**
      * Получение файла по пути
      */
@@ -184,6 +432,8 @@ public class FileService {
                         String.format("File with id %s not found", fileId)));
 
         boolean contentChanged = false;
+        boolean contentDeduplicated = false;
+        boolean contentChunked = false;
 
         // Check for name change BEFORE updating the entity
         String oldName = existingFile.getName();
@@ -191,6 +441,7 @@ public class FileService {
                 && !updatedFile.getName().equals(oldName);
 
         long oldSize = existingFile.getSize();
+        int oldVersion = existingFile.getVersion();
 
         // Обновляем поля
         if (updatedFile.getName() != null) {
@@ -215,26 +466,9 @@ public class FileService {
         // Если меняется размер, проверяем квоту ВЛАДЕЛЬЦА
         if (updatedFile.getSize() != null && updatedFile.getSize() > existingFile.getSize()) {
             long sizeDiff = updatedFile.getSize() - existingFile.getSize();
-            try {
-                // Check quota for OWNER (existingFile.getUserId()), not necessarily the actor
-                // (userId)
-                boolean hasQuota = userServiceClient.checkQuota(existingFile.getUserId(), sizeDiff);
-                if (!hasQuota) {
-                    log.warn("Quota check failed for owner {} during update by {}: sizeDiff={}",
-                            existingFile.getUserId(), userId, sizeDiff);
-                    throw new IllegalArgumentException(
-                            "Owner's storage quota exceeded.");
-                }
-            } catch (RuntimeException e) {
-                // Re-throw valid business exceptions
-                if (e.getMessage().contains("quota"))
-                    throw e;
-                log.error("Error checking quota checks for owner {}: {}", existingFile.getUserId(), e.getMessage());
-                // Optional: fail or proceed? Safety first -> fail?
-                // Let's assume fail if service is reachable but returns false.
-                // If service error, maybe block to prevent abuse.
-                throw new IllegalArgumentException("Failed to verify storage quota during update.");
-            }
+            // Check quota for OWNER (existingFile.getUserId()), not necessarily the actor
+            // (userId)
+            quotaLeaseManager.reserve(existingFile.getUserId(), sizeDiff, updatedFile.getSize());
         }
         // --- QUOTA CHECK END ---
 
@@ -260,6 +494,7 @@ public class FileService {
                     .size(existingFile.getSize())
                     .hash(existingFile.getHash())
                     .storagePath(existingFile.getStoragePath())
+                    .isChunked(existingFile.isChunked())
                     .createdByUserId(userId)
                     .build();
 
@@ -284,12 +519,28 @@ public class FileService {
 
             existingFile.incrementVersion();
 
-            // Generate NEW storage path for the NEW version
-            // Format: files/{fileId}/v{version}/data
-            String newStoragePath = String.format("files/%s/v%d/%s",
-                    existingFile.getId(), existingFile.getVersion(), "data");
-            existingFile.setStoragePath(newStoragePath);
-            log.debug("Rotated to new storage path: {}", newStoragePath);
+            if (updatedFile.isChunked()) {
+                // Содержимое уже в хранилище фрагментами, манифест пишет ChunkedVersionService
+                contentChunked = true;
+                existingFile.setIsChunked(true);
+                existingFile.setStoragePath(ChunkedVersionService.manifestPath(existingFile.getId(),
+                        existingFile.getVersion()));
+            } else {
+                existingFile.setIsChunked(false);
+
+                // Generate NEW storage path for the NEW version
+                // Format: files/{fileId}/v{version}/data
+                // Новое содержимое уже загружено (тот же хеш) - версия ссылается на существующий объект
+                Optional<String> existingBlob = updatedFile.getStoragePath() == null
+                        ? contentBlobService.linkExisting(existingFile.getUserId(), existingFile.getHash(),
+                                existingFile.getSize())
+                        : Optional.empty();
+                contentDeduplicated = existingBlob.isPresent();
+                String newStoragePath = existingBlob.orElse(String.format("files/%s/v%d/%s",
+                        existingFile.getId(), existingFile.getVersion(), "data"));
+                existingFile.setStoragePath(newStoragePath);
+                log.debug("Rotated to new storage path: {}", newStoragePath);
+            }
         }
 
         if (updatedFile.getStoragePath() != null) {
@@ -298,31 +549,27 @@ public class FileService {
 
         File savedFile = fileRepository.save(existingFile);
 
-        // Update storage used if size changed
-        if (updatedFile.getSize() != null && !updatedFile.getSize().equals(oldSize)) {
-            long sizeDiff = updatedFile.getSize() - oldSize;
-            try {
-                userServiceClient.updateStorageUsed(savedFile.getUserId(), sizeDiff);
-            } catch (Exception e) {
-                log.error("Failed to update storage used for user {}", savedFile.getUserId(), e);
-            }
+        // Если контент меняется - выдаем UploadUrl. RPC идет параллельно с остальной записью в БД,
+        // результат ждется перед возвратом
+        CompletableFuture<String> uploadUrl = contentChanged && !contentDeduplicated && !contentChunked
+                ? requestUploadUrl(savedFile)
+                : null;
+
+        changeJournal.recordWithRecipients(savedFile, ChangeType.UPDATED);
+        if (contentChanged || updatedFile.getStoragePath() != null) {
+            downloadUrlCache.invalidate(savedFile.getId(), oldVersion);
+        }
+
+        // Рост размера уже списан из аренды; уменьшение освобождает место после коммита.
+        // Считаем по фактически сохраненному размеру (size=0 при rename размер не меняет)
+        if (savedFile.getSize() < oldSize) {
+            quotaLeaseManager.release(savedFile.getUserId(), oldSize - savedFile.getSize());
         }
 
         log.info("File updated: id={}, userId={}", savedFile.getId(), userId);
 
-        // Если контент меняется, или клиент явно просит - выдаем UploadUrl
-        if (contentChanged) {
-            try {
-                String uploadUrl = storageServiceClient.getUploadUrl(
-                        savedFile.getId().toString(),
-                        savedFile.getName(),
-                        savedFile.getSize(),
-                        savedFile.getMimeType(),
-                        savedFile.getVersion());
-                savedFile.setUploadUrl(uploadUrl);
-            } catch (Exception e) {
-                log.error("Failed to get upload url for update file {}", savedFile.getId(), e);
-            }
+        if (contentDeduplicated) {
+            linkStoredContent(savedFile);
         }
 
         // Publish specific events based on what changed
@@ -362,51 +609,28 @@ public class FileService {
                     .build());
         }
 
-        // --- Notify shared users ---
+        // --- Notify shared users (одно fan-out событие на всех получателей) ---
         try {
-            List<com.fileservice.model.FileShare> shares = shareRepository.findByFileId(savedFile.getId());
-            for (com.fileservice.model.FileShare share : shares) {
-                // Skip if the recipient is the one performing the action (actor)
-                // Note: userId is the actor here.
-                if (share.getSharedWithUserId().equals(userId))
-                    continue;
-
-                // Also skip if recipient is the owner (already notified above, if owner !=
-                // actor)
-                // But wait, above we notify savedFile.getUserId() (owner).
-                // If actor (userId) != owner, owner gets notified.
-                // If actor == owner, owner gets notified.
-                // We just need to ensure we don't notify the same person twice via this loop.
-                if (share.getSharedWithUserId().equals(savedFile.getUserId()))
-                    continue;
-
-                String eventType = contentChanged ? "file.version_uploaded"
-                        : nameChanged ? "file.renamed" : "file.updated";
-
-                java.util.Map<String, String> metadata = new java.util.HashMap<>();
-                if (nameChanged) {
-                    metadata.put("oldName", oldName);
-                    metadata.put("newName", savedFile.getName());
-                }
-                metadata.put("fileName", savedFile.getName());
-                metadata.put("sharedBy", userId.toString()); // Actor who updated it
-
-                eventPublisher.publish(FileEvent.builder()
-                        .eventId(UUID.randomUUID().toString())
-                        .eventType(eventType)
-                        .fileId(savedFile.getId())
-                        .userId(share.getSharedWithUserId()) // Target recipient
-                        .timestamp(LocalDateTime.now())
-                        .version(savedFile.getVersion())
-                        .metadata(metadata)
-                        .payload(savedFile)
-                        .build());
+            String eventType = contentChanged ? "file.version_uploaded"
+                    : nameChanged ? "file.renamed" : "file.updated";
+
+            java.util.Map<String, String> metadata = new java.util.HashMap<>();
+            if (nameChanged) {
+                metadata.put("oldName", oldName);
+                metadata.put("newName", savedFile.getName());
             }
+
+            // Актор и владелец исключаются из получателей (владелец уже уведомлен выше)
+            eventPublisher.publishShareFanout(savedFile, eventType, userId,
+                    shareRepository.findActiveRecipientIds(savedFile.getId(), LocalDateTime.now()), metadata);
         } catch (Exception e) {
             log.error("Failed to notify shared users for file update: {}", savedFile.getId(), e);
         }
         // ---------------------------
 
+        applyUploadUrl(savedFile, uploadUrl);
+        // Блокировки агрегатов предков - после вызовов StorageService (см. createFile)
+        folderAggregateService.onSizeChanged(savedFile, oldSize);
         return savedFile;
     }
 
@@ -425,14 +649,31 @@ public class FileService {
                 .orElseThrow(() -> new IllegalArgumentException(
                         String.format("File with id %s not found", fileId)));
 
+        // Папки удаляются целым поддеревом через bulk-операции FolderService
+        if (file.isFolder()) {
+            if (file.isDeleted()) {
+                folderService.purgeSubtree(file, userId);
+            } else {
+                folderService.softDeleteSubtree(file, userId);
+            }
+            return;
+        }
+
         // Получаем всех пользователей, с которыми расшарен файл, чтобы уведомить их
-        List<com.fileservice.model.FileShare> shares = shareRepository.findByFileId(fileId);
+        List<UUID> recipientIds = shareRepository.findActiveRecipientIds(fileId, LocalDateTime.now());
 
         if (file.isDeleted()) {
             // HARD DELETE
             log.info("Permanently deleting file: id={}, userId={}", fileId, userId);
 
-            // 1. Физическое удаление из хранилища (если это файл)
+            // 1. Освобождаем квоту и ссылки на содержимое (текущее и всех версий).
+            // Ссылки снимаются до удаления из хранилища: объекты путей, на которые ссылки остались,
+            // StorageService не удаляет
+            // Use file.getUserId() (owner) for quota update
+            quotaLeaseManager.release(file.getUserId(), file.getSize());
+            Set<String> retainedPaths = contentBlobService.release(storagePathsOf(file));
+
+            // 2. Физическое удаление из хранилища (если это файл)
             if (!file.isFolder()) {
                 try {
                     // Удаляем текущий файл (все версии удаляются в storage-service если не указана
@@ -440,25 +681,17 @@ public class FileService {
                     // или storage-service просто чистит по префиксу.
                     // В данном случае deleteFile(fileId, null) удаляет все versions в
                     // StorageService)
-                    storageServiceClient.deleteFile(file.getId().toString(), null);
+                    storageServiceClient.deleteFile(file.getId().toString(), null, retainedPaths);
                 } catch (Exception e) {
                     log.error("Failed to delete file {} from storage during hard delete", file.getId(), e);
                     // Продолжаем удаление из БД, чтобы не оставлять мусор, даже если в S3 останется
                 }
             }
 
-            // 2. Освобождаем квоту
-            if (file.getSize() > 0) {
-                try {
-                    // Use file.getUserId() (owner) for quota update
-                    userServiceClient.updateStorageUsed(file.getUserId(), -file.getSize());
-                } catch (Exception e) {
-                    log.error("Failed to update storage used (decrement) for user {}", file.getUserId(), e);
-                }
-            }
-
             // 3. Удаляем из БД
             fileRepository.delete(file);
+            changeJournal.record(file.getUserId(), fileId, ChangeType.PURGED);
+            downloadUrlCache.invalidate(fileId, file.getVersion());
 
             // Уведомляем владельца
             eventPublisher.publish(FileEvent.builder()
@@ -475,6 +708,9 @@ public class FileService {
             // SOFT DELETE
             file.softDelete();
             fileRepository.save(file);
+            folderAggregateService.onRemoved(file);
+            changeJournal.recordWithRecipients(file, ChangeType.DELETED);
+            downloadUrlCache.invalidate(fileId, file.getVersion());
 
             log.info("File soft deleted: id={}, userId={}", fileId, userId);
 
@@ -490,22 +726,9 @@ public class FileService {
                     .build());
         }
 
-        // Уведомляем всех пользователей, с которыми был расшарен файл
-        for (com.fileservice.model.FileShare share : shares) {
-            java.util.Map<String, String> metadata = new java.util.HashMap<>();
-            metadata.put("fileName", file.getName());
-            metadata.put("ownerId", file.getUserId().toString());
-
-            eventPublisher.publish(FileEvent.builder()
-                    .eventId(UUID.randomUUID().toString())
-                    .eventType("file.unshared")
-                    .fileId(fileId)
-                    .userId(share.getSharedWithUserId()) // Notify the user who lost access
-                    .timestamp(LocalDateTime.now())
-                    .version(file.getVersion())
-                    .metadata(metadata)
-                    .build());
-        }
+        // Уведомляем всех пользователей, с которыми был расшарен файл (одним fan-out событием)
+        eventPublisher.publishShareFanout(file, "file.unshared", userId, recipientIds, Map.of());
+        recipientIds.forEach(recipientId -> changeJournal.record(recipientId, fileId, ChangeType.UNSHARED_WITH_ME));
     }
 
     /**
@@ -524,29 +747,38 @@ public class FileService {
                     .filter(f -> !f.isDeleted() && f.isFolder())
                     .orElseThrow(() -> new IllegalArgumentException("Target folder not found"));
 
-            // Check for cycling: newParent cannot be child of file (if file is folder)
-            if (file.isFolder()) {
-                File current = newParent;
-                while (current != null) {
-                    if (current.getId().equals(file.getId())) {
-                        throw new IllegalArgumentException("Cannot move folder into itself or its children");
-                    }
-                    current = current.getParentFolder();
-                }
+            // Check for cycling: newParent cannot be the file itself or inside its subtree
+            if (file.isFolder() && (newParent.getId().equals(file.getId()) || newParent.isInSubtreeOf(file))) {
+                throw new IllegalArgumentException("Cannot move folder into itself or its children");
             }
         }
 
-        // Update parent
-        file.setParentFolder(newParent);
+        String newPath = (newParent != null ? newParent.getPath() : "") + "/" + file.getName();
+        if (!newPath.equals(file.getPath())
+                && fileRepository.existsByPathAndUserIdAndIsDeletedFalse(newPath, file.getUserId())) {
+            throw new IllegalArgumentException(
+                    String.format("File with path '%s' already exists", newPath));
+        }
+
+        String oldPath = file.getPath();
+        String oldAncestorPath = file.getAncestorPath();
+        String oldSubtreePath = file.getSubtreePath();
 
-        // Recalculate paths (simplified - in real app would trigger recursive update)
-        // String newPath = (newParent != null ? newParent.getPath() : "") + "/" +
-        // file.getName();
-        // file.setPath(newPath);
-        // Note: Real path logic implies we need to update all children paths too.
+        // Update parent, path and ancestor index
+        file.setParentFolder(newParent);
+        file.setPath(newPath);
+        file.setAncestorPath(newParent != null ? newParent.getSubtreePath() : File.ROOT_ANCESTOR_PATH);
 
         File savedFile = fileRepository.save(file);
 
+        // Children paths are rewritten with a single set-based UPDATE over the subtree
+        if (savedFile.isFolder()) {
+            fileRepository.rebaseSubtree(oldSubtreePath, File.subtreeUpperBound(oldSubtreePath),
+                    savedFile.getSubtreePath(), oldPath, newPath);
+        }
+        folderAggregateService.onMoved(savedFile, oldAncestorPath);
+        changeJournal.recordWithRecipients(savedFile, ChangeType.MOVED, File.ancestorIdsOf(oldAncestorPath));
+
         eventPublisher.publish(FileEvent.builder()
                 .eventId(UUID.randomUUID().toString())
                 .eventType("file.moved") // Assuming new event type or generic updated
@@ -560,25 +792,105 @@ public class FileService {
     }
 
     /**
-     * Список файлов с пагинацией и фильтрацией
+     * Список файлов с пагинацией и фильтрацией.
+     * Папку другого пользователя можно просматривать при доступе к ней или к любому ее предку
      */
     @Transactional(readOnly = true)
-    public Page<File> listFiles(UUID userId, UUID parentFolderId, Pageable pageable) {
+    public Page<FileListing> listFiles(UUID userId, UUID parentFolderId, Pageable pageable) {
         log.debug("Listing files: userId={}, parentFolderId={}, page={}, size={}",
                 userId, parentFolderId, pageable.getPageNumber(), pageable.getPageSize());
 
         if (parentFolderId == null) {
-            return fileRepository.findByUserIdAndParentFolderIdIsNullAndIsDeletedFalse(
-                    userId, pageable);
+            return fileRepository.findRootListing(userId, pageable);
+        }
+
+        Optional<UUID> ownerId = resolveListingOwner(userId, parentFolderId);
+        if (ownerId.isEmpty()) {
+            return Page.empty();
+        }
+        Page<FileListing> page = fileRepository.findListing(ownerId.get(), parentFolderId, pageable);
+        if (ownerId.get().equals(userId)) {
+            return page;
+        }
+        List<FileListing> annotated = annotateForeignListing(page.getContent(), userId);
+        return new PageImpl<>(annotated, pageable, page.getTotalElements());
+    }
+
+    /**
+     * Список файлов папки с keyset-пагинацией (порядок name, id).
+     * Позиция - ключи name и id последнего элемента предыдущей страницы
+     */
+    @Transactional(readOnly = true)
+    public Window<FileListing> listFiles(UUID userId, UUID parentFolderId, KeysetScrollPosition position,
+            int limit) {
+        log.debug("Listing files (keyset): userId={}, parentFolderId={}, limit={}", userId, parentFolderId, limit);
+
+        // Начальная позиция: любая строка больше ("", нулевой UUID)
+        String afterName = position.isInitial() ? "" : (String) position.getKeys().get("name");
+        UUID afterId = position.isInitial() ? FIRST_ID : (UUID) position.getKeys().get("id");
+        if (afterName == null || afterId == null) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+
+        // Лишняя строка определяет, есть ли следующая страница
+        List<FileListing> rows;
+        if (parentFolderId == null) {
+            rows = fileRepository.findRootListingAfter(userId, afterName, afterId, Limit.of(limit + 1));
         } else {
-            // Check if parent itself is deleted
-            Optional<File> parent = fileRepository.findById(parentFolderId);
-            if (parent.isPresent() && parent.get().isDeleted()) {
-                return Page.empty();
+            Optional<UUID> ownerId = resolveListingOwner(userId, parentFolderId);
+            if (ownerId.isEmpty()) {
+                return Window.from(List.of(), ScrollPosition::offset);
+            }
+            rows = fileRepository.findListingAfter(ownerId.get(), parentFolderId, afterName, afterId,
+                    Limit.of(limit + 1));
+            if (!ownerId.get().equals(userId)) {
+                rows = annotateForeignListing(rows, userId);
             }
-            return fileRepository.findByUserIdAndParentFolderIdAndIsDeletedFalse(
-                    userId, parentFolderId, pageable);
         }
+
+        boolean hasNext = rows.size() > limit;
+        List<FileListing> content = hasNext ? rows.subList(0, limit) : rows;
+        return Window.from(content, index -> {
+            Map<String, Object> keys = new LinkedHashMap<>();
+            keys.put("name", content.get(index).name());
+            keys.put("id", content.get(index).id());
+            return ScrollPosition.forward(keys);
+        }, hasNext);
+    }
+
+    /**
+     * Владелец просматриваемой папки, если она активна и доступна пользователю на чтение
+     */
+    private Optional<UUID> resolveListingOwner(UUID userId, UUID parentFolderId) {
+        return fileRepository.findById(parentFolderId)
+                .filter(parent -> !parent.isDeleted())
+                .filter(parent -> parent.getUserId().equals(userId)
+                        || permissionService.hasReadAccess(parentFolderId, userId))
+                .map(File::getUserId);
+    }
+
+    /**
+     * Права на элементы чужой папки - одним запросом на страницу
+     */
+    private List<FileListing> annotateForeignListing(List<FileListing> rows, UUID userId) {
+        Map<UUID, FilePermission.PermissionType> permissions = permissionService.getEffectivePermissions(
+                rows.stream().map(FileListing::id).toList(), userId);
+        return rows.stream()
+                .map(row -> row.withPermission(permissions.get(row.id())))
+                .toList();
+    }
+
+    /**
+     * Количество файлов в папке (для keyset-пагинации считается только по запросу)
+     */
+    @Transactional(readOnly = true)
+    public long countFiles(UUID userId, UUID parentFolderId) {
+        if (parentFolderId == null) {
+            return fileRepository.countByUserIdAndParentFolderIdIsNullAndIsDeletedFalse(userId);
+        }
+        return resolveListingOwner(userId, parentFolderId)
+                .map(ownerId -> fileRepository.countByUserIdAndParentFolderIdAndIsDeletedFalse(ownerId, parentFolderId))
+                .orElse(0L);
     }
 
     /**
@@ -590,6 +902,20 @@ public class FileService {
         return fileRepository.findByUserIdAndIsDeletedTrue(userId, pageable);
     }
 
+    /**
+     * Корзина с keyset-пагинацией (порядок updatedAt DESC, id DESC)
+     */
+    @Transactional(readOnly = true)
+    public Window<File> listTrash(UUID userId, ScrollPosition position, int limit) {
+        log.debug("Listing trash (keyset): userId={}, limit={}", userId, limit);
+        return fileRepository.findByUserIdAndIsDeletedTrue(userId, position, Limit.of(limit), TRASH_SORT);
+    }
+
+    @Transactional(readOnly = true)
+    public long countTrash(UUID userId) {
+        return fileRepository.countByUserIdAndIsDeletedTrue(userId);
+    }
+
     /**
      * Восстановление файла из корзины
      */
@@ -607,8 +933,16 @@ public class FileService {
         // style)
         restoreParentChain(file);
 
+        // Папка восстанавливается вместе с содержимым, удаленным вместе с ней
+        if (file.isFolder()) {
+            folderService.restoreSubtree(file, userId);
+            return;
+        }
+
         file.restore();
         fileRepository.save(file);
+        folderAggregateService.onRestored(file);
+        changeJournal.recordWithRecipients(file, ChangeType.RESTORED);
 
         log.info("File restored: id={}, userId={}", fileId, userId);
 
@@ -630,53 +964,19 @@ public class FileService {
             restoreParentChain(parent);
             parent.restore();
             fileRepository.save(parent);
+            folderAggregateService.onRestored(parent);
+            changeJournal.recordWithRecipients(parent, ChangeType.RESTORED);
         }
     }
 
     /**
-     * Окончательное удаление всех файлов из корзины
+     * Пути содержимого, на которые ссылается файл: текущая версия и архивные
      */
-    public void emptyTrash(UUID userId) {
-        log.info("Emptying trash for user: {}", userId);
-
-        // 1. Получаем список всех удаленных файлов
-        List<File> trashFiles = fileRepository.findAllByUserIdAndIsDeletedTrue(userId);
-
-        long totalReleasedSpace = 0;
-
-        // 2. Для каждого файла вызываем физическое удаление
-        for (File file : trashFiles) {
-            if (!file.isFolder()) {
-                try {
-                    // Пытаемся удалить из хранилища
-                    storageServiceClient.deleteFile(file.getId().toString(), null);
-                    totalReleasedSpace += file.getSize();
-                } catch (Exception e) {
-                    log.error("Failed to delete file {} from storage during empty trash", file.getId(), e);
-                    // Продолжаем, но не удаляем из БД этот файл, чтобы можно было попробовать
-                    // позже?
-                    // Или удаляем все равно? Пользователь ожидает очистки.
-                    // Обычно лучше не удалять из БД если физически файл остался,
-                    // чтобы не "забыть" про него в хранилище.
-                    continue;
-                }
-            }
-
-            // 3. Только если успешно (или если папка) -> удаляем из БД
-            // Для папок физического удаления в StorageService нет (они обычно transient в
-            // S3/MinIO)
-            fileRepository.delete(file);
-        }
-
-        // 4. Обновляем квоту пользователя (освобождаем место)
-        if (totalReleasedSpace > 0) {
-            try {
-                userServiceClient.updateStorageUsed(userId, -totalReleasedSpace);
-                log.info("User quota updated: released {} bytes for user {}", totalReleasedSpace, userId);
-            } catch (Exception e) {
-                log.error("Failed to update storage used (decrement) after emptying trash for user {}", userId, e);
-            }
-        }
+    private List<String> storagePathsOf(File file) {
+        List<String> paths = new ArrayList<>(file.getVersions().size() + 1);
+        paths.add(file.getStoragePath());
+        file.getVersions().forEach(version -> paths.add(version.getStoragePath()));
+        return paths;
     }
 
     /**
@@ -684,8 +984,30 @@ public class FileService {
      */
     @Transactional(readOnly = true)
     public Page<File> searchFiles(UUID userId, String query, Pageable pageable) {
-        log.debug("Searching files: userId={}, query={}", userId, query);
-        return fileRepository.searchByName(userId, query, pageable);
+        return searchFiles(userId, FileSearchCriteria.of(query), pageable);
+    }
+
+    /**
+     * Поиск файлов по имени/пути с фильтрами по MIME-типу и дате изменения.
+     * Результаты упорядочены по релевантности, сортировка из pageable не применяется
+     */
+    @Transactional(readOnly = true)
+    public Page<File> searchFiles(UUID userId, FileSearchCriteria criteria, Pageable pageable) {
+        log.debug("Searching files: userId={}, criteria={}", userId, criteria);
+
+        if (criteria.normalizedQuery().isEmpty()) {
+            throw new IllegalArgumentException("Search query cannot be empty");
+        }
+
+        Pageable unsorted = PageRequest.of(pageable.getPageNumber(), pageable.getPageSize());
+        return fileRepository.searchByName(userId,
+                criteria.normalizedQuery(),
+                criteria.substringPattern(),
+                criteria.prefixPattern(),
+                criteria.mimePattern(),
+                criteria.modifiedAfter(),
+                criteria.modifiedBefore(),
+                unsorted);
     }
 
     /**
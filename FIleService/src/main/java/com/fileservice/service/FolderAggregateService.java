@@ -0,0 +1,164 @@
+package com.fileservice.service;
+
+import com.fileservice.model.File;
+import com.fileservice.model.FolderAggregate;
+import com.fileservice.repository.FolderAggregateBatchRepository.Delta;
+import com.fileservice.repository.FolderAggregateRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Инкрементальное ведение агрегатов папок (размер, число файлов и папок поддерева).
+ * Каждое изменение применяет дельту к цепочке предков элемента в той же транзакции,
+ * поэтому размер папки читается одной строкой без обхода поддерева.
+ * Учитываются только активные элементы; строки удаленных папок пересчитываются при восстановлении
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+@Transactional
+public class FolderAggregateService {
+
+    private final FolderAggregateRepository aggregateRepository;
+
+    /**
+     * Новый файл или папка: строка агрегатов для папки и вклад элемента во всех предков
+     */
+    public void onCreated(File item) {
+        if (item.isFolder()) {
+            aggregateRepository.insertEmpty(List.of(item.getId()));
+        }
+        apply(item.getAncestorIds(), contribution(item), 1);
+    }
+
+    /**
+     * Пакет новых элементов: одна вставка строк для папок и одна дельта на каждого затронутого предка
+     */
+    public void onCreated(List<File> items) {
+        List<UUID> folderIds = items.stream()
+                .filter(File::isFolder)
+                .map(File::getId)
+                .toList();
+        if (!folderIds.isEmpty()) {
+            aggregateRepository.insertEmpty(folderIds);
+        }
+
+        // Порядок по ID - одинаковый порядок блокировок строк у параллельных транзакций
+        Map<UUID, Delta> deltas = new TreeMap<>();
+        for (File item : items) {
+            Delta delta = contribution(item);
+            item.getAncestorIds().forEach(ancestorId -> deltas.merge(ancestorId, delta, Delta::plus));
+        }
+        if (!deltas.isEmpty()) {
+            aggregateRepository.batchApplyDeltas(deltas);
+        }
+    }
+
+    /**
+     * Изменение размера активного файла
+     */
+    public void onSizeChanged(File file, long oldSize) {
+        if (file.isFolder() || file.isDeleted() || file.getSize() == oldSize) {
+            return;
+        }
+        apply(file.getAncestorIds(), new Delta(file.getSize() - oldSize, 0, 0), 1);
+    }
+
+    /**
+     * Изменение размеров нескольких файлов: дельты предков складываются и пишутся одним batch
+     */
+    public void onSizesChanged(Collection<File> files, Map<UUID, Long> oldSizes) {
+        Map<UUID, Delta> deltas = new TreeMap<>();
+        for (File file : files) {
+            Long oldSize = oldSizes.get(file.getId());
+            if (oldSize == null || file.isFolder() || file.isDeleted() || file.getSize() == oldSize.longValue()) {
+                continue;
+            }
+            Delta delta = new Delta(file.getSize() - oldSize, 0, 0);
+            file.getAncestorIds().forEach(ancestorId -> deltas.merge(ancestorId, delta, Delta::plus));
+        }
+        if (!deltas.isEmpty()) {
+            aggregateRepository.batchApplyDeltas(deltas);
+        }
+    }
+
+    /**
+     * Мягкое удаление файла или папки: вклад элемента (для папки - вместе с поддеревом) снимается с предков
+     */
+    public void onRemoved(File item) {
+        apply(item.getAncestorIds(), item, -1);
+    }
+
+    /**
+     * Восстановление файла или папки. Агрегаты восстановленной папки пересчитываются по поддереву,
+     * затем ее вклад добавляется предкам
+     */
+    public void onRestored(File item) {
+        if (item.isFolder()) {
+            String subtreePath = item.getSubtreePath();
+            aggregateRepository.recomputeSubtree(item.getId(), subtreePath, File.subtreeUpperBound(subtreePath));
+        }
+        apply(item.getAncestorIds(), item, 1);
+    }
+
+    /**
+     * Перемещение: вклад снимается с предков, которых элемент покинул, и добавляется новым.
+     * Общие предки не меняются. Агрегаты перемещаемой папки и ее поддерева остаются прежними
+     */
+    public void onMoved(File item, String oldAncestorPath) {
+        List<UUID> oldAncestors = File.ancestorIdsOf(oldAncestorPath);
+        List<UUID> newAncestors = item.getAncestorIds();
+
+        List<UUID> left = new ArrayList<>(oldAncestors);
+        left.removeAll(newAncestors);
+        List<UUID> joined = new ArrayList<>(newAncestors);
+        joined.removeAll(oldAncestors);
+
+        apply(left, item, -1);
+        apply(joined, item, 1);
+    }
+
+    /**
+     * Агрегаты папки - одна строка по первичному ключу
+     */
+    @Transactional(readOnly = true)
+    public Optional<FolderAggregate> getAggregate(UUID folderId) {
+        return aggregateRepository.findById(folderId);
+    }
+
+    private void apply(List<UUID> ancestorIds, File item, int sign) {
+        if (ancestorIds.isEmpty()) {
+            return;
+        }
+        if (item.isFolder()) {
+            aggregateRepository.applyFolder(item.getId(), ancestorIds, sign);
+        } else {
+            apply(ancestorIds, contribution(item), sign);
+        }
+    }
+
+    private void apply(List<UUID> ancestorIds, Delta delta, int sign) {
+        if (ancestorIds.isEmpty()) {
+            return;
+        }
+        aggregateRepository.applyDelta(ancestorIds, sign * delta.size(), sign * delta.files(),
+                sign * delta.folders());
+    }
+
+    /**
+     * Вклад нового элемента: файл - его размер, папка - только она сама (поддерево пока пустое)
+     */
+    private static Delta contribution(File item) {
+        return item.isFolder() ? new Delta(0, 0, 1) : new Delta(item.getSize(), 1, 0);
+    }
+}
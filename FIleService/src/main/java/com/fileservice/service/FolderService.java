@@ -1,16 +1,32 @@
 package com.fileservice.service;
 
+import com.fileservice.event.FileEvent;
+import com.fileservice.model.ChangeJournalEntry.ChangeType;
 import com.fileservice.model.File;
 import com.fileservice.repository.FileRepository;
+import com.fileservice.repository.FileRepository.FileContentRef;
+import com.fileservice.repository.FileShareRepository;
+import com.fileservice.repository.FileShareRepository.ShareRecipient;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 
 /**
@@ -23,8 +39,14 @@ import java.util.UUID;
 public class FolderService {
 
     private final FileRepository fileRepository;
-    private final FileService fileService;
+    private final FileShareRepository shareRepository;
     private final PermissionService permissionService;
+    private final QuotaLeaseManager quotaLeaseManager;
+    private final FileEventPublisher eventPublisher;
+    private final ContentBlobService contentBlobService;
+    private final TrashPurger trashPurger;
+    private final FolderAggregateService folderAggregateService;
+    private final ChangeJournalService changeJournal;
 
     /**
      * Создание папки
@@ -60,6 +82,8 @@ public class FolderService {
                 .build();
 
         File savedFolder = fileRepository.save(folder);
+        folderAggregateService.onCreated(savedFolder);
+        changeJournal.record(userId, savedFolder.getId(), ChangeType.CREATED);
         log.info("Folder created: id={}, name={}, path={}, userId={}",
                 savedFolder.getId(), savedFolder.getName(), savedFolder.getPath(), userId);
         return savedFolder;
@@ -71,24 +95,28 @@ public class FolderService {
     @Transactional(readOnly = true)
     public Page<File> listFolderContents(UUID folderId, UUID userId, Pageable pageable) {
         log.debug("Listing folder contents: folderId={}, userId={}, page={}, size={}",
-                folderId, pageable.getPageNumber(), pageable.getPageSize());
+                folderId, userId, pageable.getPageNumber(), pageable.getPageSize());
 
-        // Проверка существования папки и прав доступа
-        fileRepository.findByIdAndUserId(folderId, userId)
+        // Проверка существования папки
+        File folder = fileRepository.findById(folderId)
                 .filter(f -> !f.isDeleted() && f.isFolder())
                 .orElseThrow(() -> new IllegalArgumentException(
-                        String.format("Folder with id %s not found for user %s",
-                                folderId, userId)));
+                        String.format("Folder with id %s not found", folderId)));
 
-        // Проверка прав доступа
+        // Проверка прав доступа (в т.ч. унаследованных от расшаренной папки-предка)
         if (!permissionService.hasReadAccess(folderId, userId)) {
             throw new SecurityException(
                     String.format("User %s does not have read access to folder %s",
                             userId, folderId));
         }
 
-        return fileRepository.findByUserIdAndParentFolderIdAndIsDeletedFalse(
-                userId, folderId, pageable);
+        Page<File> contents = fileRepository.findByUserIdAndParentFolderIdAndIsDeletedFalse(
+                folder.getUserId(), folderId, pageable);
+
+        // Права на элементы страницы - одним запросом, без проверки каждого элемента;
+        // недоступные элементы отбрасываются, метаданные страницы сохраняются
+        List<File> readable = permissionService.annotateReadable(contents.getContent(), userId);
+        return new PageImpl<>(readable, contents.getPageable(), contents.getTotalElements());
     }
 
     /**
@@ -108,6 +136,26 @@ public class FolderService {
                 .getContent();
     }
 
+    /**
+     * Получение всех потомков папки на любой глубине (один запрос по ancestor_path)
+     */
+    @Transactional(readOnly = true)
+    public List<File> getSubtree(UUID folderId, UUID userId) {
+        log.debug("Getting subtree of folder: folderId={}, userId={}", folderId, userId);
+
+        File folder = fileRepository.findByIdAndUserId(folderId, userId)
+                .filter(f -> !f.isDeleted() && f.isFolder())
+                .orElseThrow(() -> new IllegalArgumentException(
+                        String.format("Folder with id %s not found for user %s",
+                                folderId, userId)));
+
+        String subtreePath = folder.getSubtreePath();
+        return fileRepository.findSubtree(subtreePath, File.subtreeUpperBound(subtreePath))
+                .stream()
+                .filter(f -> !f.isDeleted())
+                .toList();
+    }
+
     /**
      * Перемещение файла/папки
      */
@@ -144,11 +192,12 @@ public class FolderService {
         }
 
         // Проверка, что не перемещаем папку в саму себя или в подпапку
-        if (file.isFolder() && newParentFolderId != null) {
+        // (по ancestor_path, без обхода дерева запросами)
+        if (file.isFolder() && newParentFolder != null) {
             if (fileId.equals(newParentFolderId)) {
                 throw new IllegalArgumentException("Cannot move folder into itself");
             }
-            if (isDescendant(newParentFolderId, fileId)) {
+            if (newParentFolder.isInSubtreeOf(file)) {
                 throw new IllegalArgumentException("Cannot move folder into its own descendant");
             }
         }
@@ -164,17 +213,40 @@ public class FolderService {
                     String.format("File with path '%s' already exists", newPath));
         }
 
+        String oldPath = file.getPath();
+        String oldAncestorPath = file.getAncestorPath();
+        String oldSubtreePath = file.getSubtreePath();
+
         file.setParentFolder(newParentFolder);
         file.setPath(newPath);
+        file.setAncestorPath(newParentFolder != null
+                ? newParentFolder.getSubtreePath()
+                : File.ROOT_ANCESTOR_PATH);
 
-        // Если это папка, обновляем пути всех дочерних элементов
-        if (file.isFolder()) {
-            updateChildrenPaths(file, newPath);
+        File savedFile = fileRepository.save(file);
+
+        // Если это папка, переносим все поддерево одним UPDATE
+        int descendantsMoved = 0;
+        if (savedFile.isFolder()) {
+            descendantsMoved = fileRepository.rebaseSubtree(oldSubtreePath,
+                    File.subtreeUpperBound(oldSubtreePath), savedFile.getSubtreePath(), oldPath, newPath);
         }
+        folderAggregateService.onMoved(savedFile, oldAncestorPath);
+        changeJournal.recordWithRecipients(savedFile, ChangeType.MOVED, File.ancestorIdsOf(oldAncestorPath));
+
+        log.info("File moved: id={}, newParentFolderId={}, newPath={}, descendantsMoved={}",
+                savedFile.getId(), newParentFolderId, newPath, descendantsMoved);
+
+        // Наследуемые права поддерева изменились - событие сбрасывает кэш прав на всех репликах
+        eventPublisher.publish(FileEvent.builder()
+                .eventId(UUID.randomUUID().toString())
+                .eventType("file.moved")
+                .fileId(savedFile.getId())
+                .userId(savedFile.getUserId())
+                .timestamp(LocalDateTime.now())
+                .version(savedFile.getVersion())
+                .build());
 
-        File savedFile = fileRepository.save(file);
-        log.info("File moved: id={}, newParentFolderId={}, newPath={}",
-                savedFile.getId(), newParentFolderId, newPath);
         return savedFile;
     }
 
@@ -184,7 +256,7 @@ public class FolderService {
     public void deleteFolder(UUID folderId, UUID userId) {
         log.debug("Deleting folder: folderId={}, userId={}", folderId, userId);
 
-        fileRepository.findByIdAndUserId(folderId, userId)
+        File folder = fileRepository.findByIdAndUserId(folderId, userId)
                 .filter(f -> !f.isDeleted() && f.isFolder())
                 .orElseThrow(() -> new IllegalArgumentException(
                         String.format("Folder with id %s not found for user %s",
@@ -197,64 +269,147 @@ public class FolderService {
                             userId, folderId));
         }
 
-        // Получаем все дочерние элементы
-        List<File> children = fileRepository
-                .findByParentFolderIdAndIsDeletedFalse(folderId, Pageable.unpaged())
-                .getContent();
-
-        // Рекурсивно удаляем все дочерние элементы
-        for (File child : children) {
-            if (child.isFolder()) {
-                deleteFolder(child.getId(), userId);
-            } else {
-                fileService.deleteFile(child.getId(), userId);
-            }
-        }
+        softDeleteSubtree(folder, userId);
+    }
 
-        // Удаляем саму папку
-        fileService.deleteFile(folderId, userId);
-        log.info("Folder deleted: id={}, userId={}, childrenCount={}",
-                folderId, userId, children.size());
+    /**
+     * Мягкое удаление папки вместе со всем поддеревом.
+     * Один UPDATE по ancestor_path и одно итоговое событие folder.deleted
+     */
+    public int softDeleteSubtree(File folder, UUID actorId) {
+        String subtreePath = folder.getSubtreePath();
+        String upperBound = File.subtreeUpperBound(subtreePath);
+        // Единая метка времени позволяет восстановить ровно то, что было удалено вместе с папкой
+        LocalDateTime deletedAt = LocalDateTime.now().truncatedTo(ChronoUnit.MICROS);
+
+        List<ShareRecipient> shares = shareRepository.findShareRecipientsInSubtree(folder.getId(), subtreePath,
+                upperBound);
+        // Вклад папки снимается с предков до удаления (агрегаты удаленных папок не поддерживаются)
+        folderAggregateService.onRemoved(folder);
+        int affected = fileRepository.softDeleteSubtree(folder.getId(), subtreePath, upperBound, deletedAt);
+
+        folder.setIsDeleted(true);
+        folder.setDeletedAt(deletedAt);
+
+        log.info("Folder soft deleted: id={}, actorId={}, affected={}", folder.getId(), actorId, affected);
+
+        // Одна запись журнала на поддерево
+        changeJournal.recordWithRecipients(folder, ChangeType.DELETED);
+        publishSubtreeEvent("folder.deleted", folder, actorId, affected);
+        notifyRecipientsLostAccess(folder, shares);
+        return affected;
     }
 
     /**
-     * Проверка, является ли папка потомком другой папки
+     * Восстановление папки и всех элементов, удаленных вместе с ней.
+     * Один UPDATE по ancestor_path и одно итоговое событие folder.restored
      */
-    @Transactional(readOnly = true)
-    private boolean isDescendant(UUID ancestorId, UUID descendantId) {
-        Optional<File> current = fileRepository.findById(descendantId);
+    public int restoreSubtree(File folder, UUID actorId) {
+        String subtreePath = folder.getSubtreePath();
+        String upperBound = File.subtreeUpperBound(subtreePath);
+        LocalDateTime deletedAt = folder.getDeletedAt();
 
-        while (current.isPresent()) {
-            File file = current.get();
-            if (file.getParentFolder() == null) {
-                return false;
-            }
-            if (file.getParentFolder().getId().equals(ancestorId)) {
-                return true;
-            }
-            current = fileRepository.findById(file.getParentFolder().getId());
-        }
+        int affected = fileRepository.restoreSubtree(folder.getId(), subtreePath, upperBound, deletedAt);
 
-        return false;
+        folder.restore();
+        folderAggregateService.onRestored(folder);
+        changeJournal.recordWithRecipients(folder, ChangeType.RESTORED);
+
+        log.info("Folder restored: id={}, actorId={}, affected={}", folder.getId(), actorId, affected);
+
+        publishSubtreeEvent("folder.restored", folder, actorId, affected);
+        return affected;
     }
 
     /**
-     * Обновление путей всех дочерних элементов при перемещении папки
+     * Окончательное удаление папки и всего поддерева: снятие ссылок на содержимое, одна корректировка
+     * квоты и один DELETE. Объекты удаляются из хранилища пакетами после коммита ({@link TrashPurger}),
+     * поэтому транзакция не держит блокировки строк на время вызовов StorageService
      */
-    private void updateChildrenPaths(File folder, String newFolderPath) {
-        List<File> children = fileRepository
-                .findByParentFolderIdAndIsDeletedFalse(folder.getId(), Pageable.unpaged())
-                .getContent();
+    public int purgeSubtree(File folder, UUID actorId) {
+        String subtreePath = folder.getSubtreePath();
+        String upperBound = File.subtreeUpperBound(subtreePath);
+
+        List<ShareRecipient> shares = shareRepository.findShareRecipientsInSubtree(folder.getId(), subtreePath,
+                upperBound);
+        long releasedBytes = fileRepository.sumFileSizeInSubtree(subtreePath, upperBound);
+        Map<UUID, Set<String>> storagePathsByFile = new LinkedHashMap<>();
+        List<String> releasedPaths = new ArrayList<>();
+        for (FileContentRef content : fileRepository.findContentInSubtree(subtreePath, upperBound)) {
+            Set<String> paths = storagePathsByFile.computeIfAbsent(content.getFileId(), id -> new HashSet<>());
+            if (content.getStoragePath() != null) {
+                paths.add(content.getStoragePath());
+                releasedPaths.add(content.getStoragePath());
+            }
+        }
+
+        // 1. Снимаем ссылки на содержимое: объекты путей, на которые ссылки остались, не удаляются
+        Set<String> retainedPaths = contentBlobService.release(releasedPaths);
 
-        for (File child : children) {
-            String newPath = newFolderPath + "/" + child.getName();
-            child.setPath(newPath);
-            fileRepository.save(child);
+        // 2. Удаляем поддерево из БД
+        int affected = fileRepository.deleteSubtree(folder.getId(), subtreePath, upperBound);
 
-            // Рекурсивно обновляем пути для подпапок
-            if (child.isFolder()) {
-                updateChildrenPaths(child, newPath);
+        // 3. Освобождаем квоту владельца одной дельтой
+        quotaLeaseManager.release(folder.getUserId(), releasedBytes);
+
+        // 4. Физическое удаление из хранилища - после коммита. Ссылки сняты, строки blob без ссылок
+        // удалены, поэтому новая привязка к удаляемому содержимому невозможна
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                trashPurger.deleteFromStorageDetached(storagePathsByFile, retainedPaths);
             }
+        });
+
+        log.info("Folder permanently deleted: id={}, actorId={}, affected={}, files={}, releasedBytes={}",
+                folder.getId(), actorId, affected, storagePathsByFile.size(), releasedBytes);
+
+        changeJournal.record(folder.getUserId(), folder.getId(), ChangeType.PURGED);
+        publishSubtreeEvent("folder.hard_deleted", folder, actorId, affected);
+        notifyRecipientsLostAccess(folder, shares);
+        return affected;
+    }
+
+    private void publishSubtreeEvent(String eventType, File folder, UUID actorId, int affected) {
+        Map<String, String> metadata = new HashMap<>();
+        metadata.put("fileName", folder.getName());
+        metadata.put("filePath", folder.getPath());
+        metadata.put("itemCount", String.valueOf(affected));
+
+        eventPublisher.publish(FileEvent.builder()
+                .eventId(UUID.randomUUID().toString())
+                .eventType(eventType)
+                .fileId(folder.getId())
+                .userId(actorId)
+                .timestamp(LocalDateTime.now())
+                .version(folder.getVersion())
+                .metadata(metadata)
+                .build());
+    }
+
+    /**
+     * Одно уведомление на получателя (а не на каждый файл поддерева).
+     * В журнал получателя попадает каждый расшаренный ему файл, доступ к которому потерян
+     */
+    private void notifyRecipientsLostAccess(File folder, List<ShareRecipient> shares) {
+        shares.forEach(share -> changeJournal.record(share.getRecipientId(), share.getFileId(),
+                ChangeType.UNSHARED_WITH_ME));
+
+        List<UUID> recipients = shares.stream().map(ShareRecipient::getRecipientId).distinct().toList();
+        for (UUID recipientId : recipients) {
+            Map<String, String> metadata = new HashMap<>();
+            metadata.put("fileName", folder.getName());
+            metadata.put("ownerId", folder.getUserId().toString());
+
+            eventPublisher.publish(FileEvent.builder()
+                    .eventId(UUID.randomUUID().toString())
+                    .eventType("file.unshared")
+                    .fileId(folder.getId())
+                    .userId(recipientId)
+                    .timestamp(LocalDateTime.now())
+                    .version(folder.getVersion())
+                    .metadata(metadata)
+                    .build());
         }
     }
 
@@ -0,0 +1,165 @@
+package com.fileservice.service;
+
+import com.fileservice.model.IdempotencyKey;
+import com.fileservice.repository.IdempotencyKeyRepository;
+import com.fileservice.repository.JobCheckpointRepository;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.Parser;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Идемпотентность мутирующих RPC (CreateFile, UpdateFile, ShareFile).
+ * Ключ захватывается в одной транзакции с изменением, ответ сохраняется до коммита,
+ * поэтому повтор (ретрай клиента или gateway) получает исходный ответ без повторных проверок квоты,
+ * архивации версий и публикации событий. Ошибки не сохраняются: при откате ключ освобождается
+ * и повтор выполняется заново. Ключ старше ttl считается свободным, даже если очистка его еще не удалила
+ */
+@Service
+@Slf4j
+public class IdempotencyService {
+
+    public static final int MAX_KEY_LENGTH = 128;
+
+    private static final long PURGE_LOCK_KEY = 0x6964656D706F74L; // "idempot"
+
+    private final IdempotencyKeyRepository repository;
+    private final JobCheckpointRepository checkpointRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+    private final Duration ttl;
+    private final int purgeBatchSize;
+
+    public IdempotencyService(IdempotencyKeyRepository repository,
+            JobCheckpointRepository checkpointRepository,
+            PlatformTransactionManager transactionManager,
+            MeterRegistry meterRegistry,
+            @Value("${file-service.idempotency.ttl:24h}") Duration ttl,
+            @Value("${file-service.idempotency.purge-batch-size:1000}") int purgeBatchSize) {
+        this.repository = repository;
+        this.checkpointRepository = checkpointRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.meterRegistry = meterRegistry;
+        this.ttl = ttl;
+        this.purgeBatchSize = purgeBatchSize;
+    }
+
+    /**
+     * Выполнение action не более одного раза на ключ пользователя.
+     * Без ключа action выполняется как обычно
+     *
+     * @param operation имя RPC; ключ, использованный для другой операции или другого запроса, отклоняется
+     * @throws IdempotencyKeyException если ключ слишком длинный или уже использован для другого запроса
+     */
+    public <T extends Message> T execute(String operation, UUID userId, String key, Message request,
+            Parser<T> responseParser, Supplier<T> action) {
+        return execute(operation, userId, key, request, responseParser, action, UnaryOperator.identity());
+    }
+
+    /**
+     * То же, что {@link #execute(String, UUID, String, Message, Parser, Supplier)}; сохраненный ответ
+     * при повторе проходит через onReplay (вне транзакции) - например, чтобы заменить истекший upload URL
+     */
+    public <T extends Message> T execute(String operation, UUID userId, String key, Message request,
+            Parser<T> responseParser, Supplier<T> action, UnaryOperator<T> onReplay) {
+        if (key == null || key.isEmpty()) {
+            return action.get();
+        }
+        if (key.length() > MAX_KEY_LENGTH) {
+            throw new IdempotencyKeyException("Idempotency key must not exceed " + MAX_KEY_LENGTH + " characters");
+        }
+
+        byte[] requestHash = fingerprint(operation, request);
+        Outcome<T> outcome = transactionTemplate.execute(status -> {
+            // Ключ старше ttl повторяется только до очистки - такой ключ считается свободным
+            if (repository.claim(userId, key, operation, requestHash, LocalDateTime.now().minus(ttl)) == 0) {
+                return new Outcome<>(replay(operation, userId, key, requestHash, responseParser), true);
+            }
+            T response = action.get();
+            repository.storeResponse(userId, key, response.toByteArray());
+            return new Outcome<>(response, false);
+        });
+        return outcome.replayed() ? onReplay.apply(outcome.response()) : outcome.response();
+    }
+
+    private <T extends Message> T replay(String operation, UUID userId, String key, byte[] requestHash,
+            Parser<T> responseParser) {
+        IdempotencyKey stored = repository.findById(new IdempotencyKey.Key(userId, key))
+                .orElseThrow(() -> new IllegalStateException("Idempotency key disappeared: " + key));
+        if (!stored.getOperation().equals(operation) || !Arrays.equals(stored.getRequestHash(), requestHash)) {
+            throw new IdempotencyKeyException("Idempotency key " + key + " was already used for a different request");
+        }
+        try {
+            T response = responseParser.parseFrom(stored.getResponse());
+            meterRegistry.counter("file.idempotency.replays", "operation", operation).increment();
+            log.debug("Replayed idempotent response: operation={}, userId={}, key={}", operation, userId, key);
+            return response;
+        } catch (InvalidProtocolBufferException e) {
+            throw new RuntimeException("Stored response for idempotency key is unreadable", e);
+        }
+    }
+
+    /**
+     * Удаление ключей старше ttl пачками; одновременно работает один экземпляр
+     */
+    @Scheduled(fixedDelayString = "${file-service.idempotency.purge-interval-ms:600000}")
+    public void purgeExpired() {
+        LocalDateTime cutoff = LocalDateTime.now().minus(ttl);
+        long purged = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            Integer deleted = transactionTemplate.execute(status -> checkpointRepository.tryJobLock(PURGE_LOCK_KEY)
+                    ? repository.deleteExpired(cutoff, purgeBatchSize)
+                    : null);
+            if (deleted == null) {
+                return;
+            }
+            purged += deleted;
+            if (deleted < purgeBatchSize) {
+                break;
+            }
+        }
+        if (purged > 0) {
+            log.debug("Expired idempotency keys removed: count={}", purged);
+        }
+    }
+
+    private static byte[] fingerprint(String operation, Message request) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(operation.getBytes(StandardCharsets.UTF_8));
+            digest.update(request.toByteArray());
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private record Outcome<T>(T response, boolean replayed) {
+    }
+
+    /**
+     * Недопустимый ключ идемпотентности (отдается клиенту как INVALID_ARGUMENT)
+     */
+    public static class IdempotencyKeyException extends RuntimeException {
+
+        public IdempotencyKeyException(String message) {
+            super(message);
+        }
+    }
+}
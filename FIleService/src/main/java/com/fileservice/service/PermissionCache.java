@@ -0,0 +1,241 @@
+package com.fileservice.service;
+
+import com.fileservice.event.FileEvent;
+import com.fileservice.model.FilePermission;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Кэш эффективных прав доступа (fileId, userId) -> PermissionType (с учетом наследования от папок).
+ * Инвалидируется по событиям изменения расшариваний/прав: локально после коммита
+ * и на остальных репликах через топик file-events (PermissionCacheInvalidationListener).
+ * Промах загружается в потоке вызывающего вне блокировок кэша: одновременные запросы того же ключа
+ * ждут его future, а запрос к БД не выполняется под блокировкой сегмента ConcurrentHashMap
+ * (иначе виртуальный поток был бы закреплен на потоке-носителе на все время запроса)
+ */
+@Component
+@Slf4j
+public class PermissionCache {
+
+    /**
+     * События, после которых решения по файлу становятся неактуальными
+     */
+    public static final Set<String> INVALIDATING_EVENTS = Set.of(
+            "file.shared",
+            "file.share.updated",
+            "file.unshared",
+            "file.share.revoked",
+            "file.share.expired",
+            "file.moved");
+
+    private final AsyncCache<Key, Entry> cache;
+
+    /**
+     * Поколение инвалидации узла (файла или папки). Решение, загруженное до инвалидации
+     * самого файла или любого его предка, устарело. Записи живут дольше решений (2 x ttl),
+     * поэтому к моменту их истечения все решения, загруженные до инвалидации, уже истекли.
+     * Размер ограничен: при вытеснении записи по размеру устаревшими считаются все решения,
+     * загруженные до нее (evictedGeneration)
+     */
+    private final Cache<UUID, Long> invalidatedAt;
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * Поколение самой поздней инвалидации, вытесненной по размеру
+     */
+    private final AtomicLong evictedGeneration = new AtomicLong();
+
+    public PermissionCache(MeterRegistry meterRegistry,
+            @Value("${file-service.permission-cache.max-size:100000}") long maxSize,
+            @Value("${file-service.permission-cache.ttl:60s}") Duration ttl,
+            @Value("${file-service.permission-cache.invalidations-max-size:100000}") long invalidationsMaxSize) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .buildAsync();
+        this.invalidatedAt = Caffeine.newBuilder()
+                .maximumSize(invalidationsMaxSize)
+                .expireAfterWrite(ttl.multipliedBy(2))
+                .evictionListener((UUID node, Long invalidated, RemovalCause cause) -> {
+                    if (cause == RemovalCause.SIZE && invalidated != null) {
+                        evictedGeneration.accumulateAndGet(invalidated, Math::max);
+                    }
+                })
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache.synchronous(), "file.permissions");
+    }
+
+    public Decision get(UUID fileId, UUID userId, Supplier<Decision> loader) {
+        Key key = new Key(fileId, userId);
+        evictIfStale(key);
+        CompletableFuture<Entry> loading = new CompletableFuture<>();
+        CompletableFuture<Entry> entry = cache.get(key, (k, executor) -> loading);
+        if (entry == loading) {
+            long loadedAt = generation.get();
+            complete(loading, () -> Entry.of(fileId, loader.get(), loadedAt));
+        }
+        return join(entry).decision();
+    }
+
+    /**
+     * Решения для набора файлов; промахи загружаются одним вызовом loader
+     */
+    public Map<UUID, Decision> getAll(Collection<UUID> fileIds, UUID userId,
+            Function<Set<UUID>, Map<UUID, Decision>> loader) {
+        List<Key> keys = fileIds.stream().map(fileId -> new Key(fileId, userId)).toList();
+        keys.forEach(this::evictIfStale);
+        CompletableFuture<Map<Key, Entry>> loading = new CompletableFuture<>();
+        Set<Key> missing = new HashSet<>();
+        CompletableFuture<Map<Key, Entry>> entries = cache.getAll(keys, (keysToLoad, executor) -> {
+            missing.addAll(keysToLoad);
+            return loading;
+        });
+        if (!missing.isEmpty()) {
+            long loadedAt = generation.get();
+            complete(loading, () -> {
+                Set<UUID> missingIds = missing.stream().map(Key::fileId).collect(Collectors.toSet());
+                Map<Key, Entry> loaded = new HashMap<>();
+                loader.apply(missingIds).forEach((fileId, decision) ->
+                        loaded.put(new Key(fileId, userId), Entry.of(fileId, decision, loadedAt)));
+                return loaded;
+            });
+        }
+
+        Map<UUID, Decision> result = new HashMap<>();
+        join(entries).forEach((key, entry) -> result.put(key.fileId(), entry.decision()));
+        return result;
+    }
+
+    /**
+     * Сброс всех решений по файлу и по всем его потомкам (права наследуются от папок).
+     * Кэш не обходится: решения сверяются с поколением инвалидации при чтении, поэтому
+     * сброс стоит O(1) независимо от размера кэша. Незавершенные загрузки тоже считаются устаревшими
+     */
+    public void invalidateFile(UUID fileId) {
+        invalidatedAt.put(fileId, generation.incrementAndGet());
+    }
+
+    public void invalidateAll() {
+        cache.synchronous().invalidateAll();
+    }
+
+    /**
+     * Удаление решения, если после его загрузки инвалидирован файл или один из предков
+     */
+    private void evictIfStale(Key key) {
+        CompletableFuture<Entry> cached = cache.asMap().get(key);
+        if (cached == null || !cached.isDone() || cached.isCompletedExceptionally()) {
+            return;
+        }
+        Entry entry = cached.join();
+        if (entry.loadedAt() < evictedGeneration.get()) {
+            cache.asMap().remove(key, cached);
+            return;
+        }
+        for (UUID node : entry.nodes()) {
+            Long invalidated = invalidatedAt.getIfPresent(node);
+            if (invalidated != null && invalidated > entry.loadedAt()) {
+                cache.asMap().remove(key, cached);
+                return;
+            }
+        }
+    }
+
+    private static <T> void complete(CompletableFuture<T> loading, Supplier<T> loader) {
+        try {
+            loading.complete(loader.get());
+        } catch (RuntimeException e) {
+            loading.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Ожидающие чужую загрузку получают исходное исключение загрузчика
+     */
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+    }
+
+    /**
+     * Локальная инвалидация сразу после коммита, не дожидаясь возврата события из Kafka
+     */
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT)
+    public void handleAfterCommit(FileEvent event) {
+        onEvent(event.getEventType(), event.getFileId());
+    }
+
+    public void onEvent(String eventType, UUID fileId) {
+        if (fileId != null && INVALIDATING_EVENTS.contains(eventType)) {
+            log.debug("Invalidating permission cache: fileId={}, event={}", fileId, eventType);
+            invalidateFile(fileId);
+        }
+    }
+
+    private record Key(UUID fileId, UUID userId) {
+    }
+
+    /**
+     * Решение с поколением, на момент которого началась его загрузка, и узлами,
+     * от которых оно зависит: сам файл и его предки из ancestor_path
+     */
+    private record Entry(Decision decision, long loadedAt, List<UUID> nodes) {
+
+        static Entry of(UUID fileId, Decision decision, long loadedAt) {
+            List<UUID> nodes = new ArrayList<>();
+            nodes.add(fileId);
+            if (decision != null && decision.ancestorPath() != null) {
+                for (String segment : decision.ancestorPath().split("/")) {
+                    if (!segment.isEmpty()) {
+                        nodes.add(UUID.fromString(segment));
+                    }
+                }
+            }
+            return new Entry(decision, loadedAt, nodes);
+        }
+    }
+
+    /**
+     * Решение по доступу: эффективный уровень (null - нет доступа) и ancestor_path файла
+     * (null - файл не найден), по которому инвалидируются решения потомков
+     */
+    public record Decision(FilePermission.PermissionType permission, String ancestorPath) {
+
+        public static final Decision NOT_FOUND = new Decision(null, null);
+
+        public Optional<FilePermission.PermissionType> asOptional() {
+            return Optional.ofNullable(permission);
+        }
+    }
+}
@@ -3,16 +3,22 @@ package com.fileservice.service;
 import com.fileservice.model.File;
 import com.fileservice.model.FilePermission;
 import com.fileservice.model.FileShare;
-import com.fileservice.model.SharePermission;
 import com.fileservice.repository.FilePermissionRepository;
 import com.fileservice.repository.FileRepository;
 import com.fileservice.repository.FileShareRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 
 /**
@@ -27,57 +33,20 @@ public class PermissionService {
     private final FilePermissionRepository permissionRepository;
     private final FileShareRepository shareRepository;
     private final FileRepository fileRepository;
+    private final PermissionCache permissionCache;
 
     /**
      * Проверка прав доступа
      */
+    @Transactional(propagation = Propagation.SUPPORTS)
     public boolean checkPermission(UUID fileId, UUID userId,
             FilePermission.PermissionType requiredPermission) {
         log.debug("Checking permission: fileId={}, userId={}, requiredPermission={}",
                 fileId, userId, requiredPermission);
 
-        // Проверка существования файла
-        // Проверка существования файла
-        Optional<File> fileOpt = fileRepository.findById(fileId);
-
-        if (fileOpt.isEmpty()) {
-            return false;
-        }
-
-        File file = fileOpt.get();
-
-        // Владелец файла имеет все права
-        if (file.getUserId().equals(userId)) {
-            return true;
-        }
-
-        // Проверка прямых разрешений
-        Optional<FilePermission> permission = permissionRepository
-                .findHighestPermission(fileId, userId);
-
-        if (permission.isPresent()) {
-            FilePermission.PermissionType userPermission = permission.get().getPermission();
-            if (userPermission.includes(requiredPermission)) {
-                return true;
-            }
-        }
-
-        // Проверка расшаривания
-        Optional<FileShare> share = shareRepository
-                .findByFileIdAndSharedWithUserId(fileId, userId);
-
-        if (share.isPresent() && share.get().isActive()) {
-            SharePermission sharePermission = share.get().getPermission();
-
-            // Маппинг SharePermission в PermissionType
-            return switch (requiredPermission) {
-                case READ -> sharePermission.canRead();
-                case WRITE -> sharePermission.canWrite();
-                case DELETE, SHARE, ADMIN -> sharePermission.canAdmin();
-            };
-        }
-
-        return false;
+        return getUserPermission(fileId, userId)
+                .map(permission -> permission.includes(requiredPermission))
+                .orElse(false);
     }
 
     /**
@@ -109,52 +78,77 @@ public class PermissionService {
     }
 
     /**
-     * Получение уровня доступа пользователя к файлу
+     * Получение уровня доступа пользователя к файлу.
+     * Решение кэшируется (PermissionCache); вне транзакции вызывающего попадание в кэш
+     * не занимает соединение с БД
      */
+    @Transactional(propagation = Propagation.SUPPORTS)
     public Optional<FilePermission.PermissionType> getUserPermission(UUID fileId, UUID userId) {
-        log.debug("Getting user permission: fileId={}, userId={}", fileId, userId);
-
-        // Проверка существования файла
-        // Проверка существования файла
-        Optional<File> fileOpt = fileRepository.findById(fileId);
-
-        if (fileOpt.isEmpty()) {
-            return Optional.empty();
-        }
-
-        File file = fileOpt.get();
+        return permissionCache.get(fileId, userId,
+                () -> resolvePermissions(Set.of(fileId), userId).get(fileId))
+                .asOptional();
+    }
 
-        // Владелец файла имеет ADMIN права
-        if (file.getUserId().equals(userId)) {
-            return Optional.of(FilePermission.PermissionType.ADMIN);
+    /**
+     * Эффективные уровни доступа для набора файлов (например, страницы листинга).
+     * Промахи кэша разрешаются одним запросом; файлы без доступа в результат не попадают
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public Map<UUID, FilePermission.PermissionType> getEffectivePermissions(Collection<UUID> fileIds, UUID userId) {
+        Map<UUID, FilePermission.PermissionType> result = new HashMap<>();
+        if (fileIds.isEmpty()) {
+            return result;
         }
 
-        // Проверка прямых разрешений
-        Optional<FilePermission> permission = permissionRepository
-                .findHighestPermission(fileId, userId);
+        permissionCache.getAll(fileIds, userId, missing -> resolvePermissions(missing, userId))
+                .forEach((fileId, decision) -> decision.asOptional()
+                        .ifPresent(permission -> result.put(fileId, permission)));
+        return result;
+    }
 
-        if (permission.isPresent()) {
-            return Optional.of(permission.get().getPermission());
+    /**
+     * Проставляет effectivePermission элементам листинга и отбрасывает недоступные.
+     * Для собственных файлов пользователя запрос не выполняется
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public List<File> annotateReadable(List<File> files, UUID userId) {
+        List<UUID> foreignIds = files.stream()
+                .filter(file -> !file.getUserId().equals(userId))
+                .map(File::getId)
+                .toList();
+        Map<UUID, FilePermission.PermissionType> permissions = getEffectivePermissions(foreignIds, userId);
+
+        List<File> readable = new ArrayList<>(files.size());
+        for (File file : files) {
+            FilePermission.PermissionType permission = file.getUserId().equals(userId)
+                    ? FilePermission.PermissionType.ADMIN
+                    : permissions.get(file.getId());
+            if (permission != null) {
+                file.setEffectivePermission(permission);
+                readable.add(file);
+            }
         }
+        return readable;
+    }
 
-        // Проверка расшаривания
-        Optional<FileShare> share = shareRepository
-                .findByFileIdAndSharedWithUserId(fileId, userId);
-
-        if (share.isPresent() && share.get().isActive()) {
-            SharePermission sharePermission = share.get().getPermission();
-
-            // Конвертация SharePermission в PermissionType
-            FilePermission.PermissionType permissionType = switch (sharePermission) {
-                case READ -> FilePermission.PermissionType.READ;
-                case WRITE -> FilePermission.PermissionType.WRITE;
-                case ADMIN -> FilePermission.PermissionType.ADMIN;
-            };
-
-            return Optional.of(permissionType);
+    /**
+     * Эффективный уровень доступа одним запросом по файлу и всем его предкам (ancestor_path):
+     * максимум из владения, прямых разрешений и активных неистекших расшариваний
+     */
+    private Map<UUID, PermissionCache.Decision> resolvePermissions(Set<UUID> fileIds, UUID userId) {
+        log.debug("Resolving effective permissions: fileIds={}, userId={}", fileIds.size(), userId);
+
+        Map<UUID, PermissionCache.Decision> decisions = new HashMap<>();
+        fileIds.forEach(fileId -> decisions.put(fileId, PermissionCache.Decision.NOT_FOUND));
+
+        for (FilePermissionRepository.EffectivePermission row : permissionRepository
+                .findEffectivePermissions(fileIds, userId)) {
+            FilePermission.PermissionType permission = row.getLevel() != null
+                    ? FilePermission.PermissionType.fromLevel(row.getLevel())
+                    : null;
+            decisions.put(row.getFileId(), new PermissionCache.Decision(permission, row.getAncestorPath()));
         }
-
-        return Optional.empty();
+        return decisions;
     }
 
     /**
@@ -0,0 +1,364 @@
+package com.fileservice.service;
+
+import com.fileservice.client.UserServiceClient;
+import com.filesync.user.grpc.StorageLeaseResponse;
+import com.filesync.user.grpc.StorageUsageDelta;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Локальная аренда квоты пользователей.
+ * Экземпляр получает у UserService бюджет байт на активного пользователя и расходует его
+ * атомарными счетчиками, поэтому создание файла не ждет UserService. Зафиксированные изменения
+ * занятого места копятся и отправляются одним пакетом (ReportStorageUsage); аренды продлеваются
+ * и возвращаются в фоне
+ */
+@Component
+@Slf4j
+public class QuotaLeaseManager {
+
+    private static final String QUOTA_EXCEEDED_MESSAGE =
+            "User storage quota exceeded. Please free up some space or upgrade your plan.";
+
+    private final UserServiceClient userServiceClient;
+    private final String holderId;
+    private final long chunkSize;
+    private final Duration ttl;
+    private final Duration renewBefore;
+    private final Duration idleTimeout;
+
+    private final ConcurrentMap<UUID, Lease> leases = new ConcurrentHashMap<>();
+
+    /**
+     * Зафиксированные, но еще не отправленные изменения storage_used по пользователям
+     */
+    private final ConcurrentMap<UUID, Long> pendingUsed = new ConcurrentHashMap<>();
+
+    public QuotaLeaseManager(UserServiceClient userServiceClient,
+            @Value("${spring.application.name:file-service}") String applicationName,
+            @Value("${file-service.quota-lease.chunk-size:268435456}") long chunkSize,
+            @Value("${file-service.quota-lease.ttl:60s}") Duration ttl,
+            @Value("${file-service.quota-lease.renew-before:15s}") Duration renewBefore,
+            @Value("${file-service.quota-lease.idle-timeout:5m}") Duration idleTimeout) {
+        this.userServiceClient = userServiceClient;
+        this.holderId = applicationName + "-" + UUID.randomUUID();
+        this.chunkSize = chunkSize;
+        this.ttl = ttl;
+        this.renewBefore = renewBefore;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Резервирование места под один файл
+     */
+    public void reserve(UUID userId, long bytes) {
+        reserve(userId, bytes, bytes);
+    }
+
+    /**
+     * Резервирование места из локальной аренды. Внутри транзакции место списывается
+     * окончательно после коммита и возвращается в аренду при откате.
+     *
+     * @param largestFileSize размер самого большого файла (проверяется против лимита плана)
+     * @throws IllegalArgumentException если квоты недостаточно или UserService недоступен
+     *                                  при необходимости пополнить аренду
+     */
+    public void reserve(UUID userId, long bytes, long largestFileSize) {
+        if (bytes <= 0) {
+            return;
+        }
+
+        while (true) {
+            Lease lease = leases.computeIfAbsent(userId, Lease::new);
+            lease.lastUsedMillis = System.currentTimeMillis();
+
+            if (lease.isUsable() && consume(lease, bytes, largestFileSize)) {
+                return;
+            }
+
+            lease.lock.lock();
+            try {
+                if (lease.closed) {
+                    continue; // Аренда возвращена фоновой задачей - берем новую
+                }
+                if (lease.isUsable() && consume(lease, bytes, largestFileSize)) {
+                    return;
+                }
+                topUp(lease, bytes);
+            } finally {
+                lease.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Освобождение места (удаление файлов). Учитывается после коммита транзакции
+     */
+    public void release(UUID userId, long bytes) {
+        if (bytes <= 0) {
+            return;
+        }
+        afterCommit(() -> pendingUsed.merge(userId, -bytes, Long::sum), () -> {
+        });
+    }
+
+    private boolean consume(Lease lease, long bytes, long largestFileSize) {
+        if (largestFileSize > lease.maxFileSize) {
+            log.warn("File size {} exceeds max file limit {} for user {}",
+                    largestFileSize, lease.maxFileSize, lease.userId);
+            throw new IllegalArgumentException(QUOTA_EXCEEDED_MESSAGE);
+        }
+        if (!lease.tryConsume(bytes)) {
+            return false;
+        }
+        if (lease.closed) {
+            lease.refund(bytes);
+            return false;
+        }
+
+        afterCommit(() -> {
+            lease.consumed.addAndGet(bytes);
+            pendingUsed.merge(lease.userId, bytes, Long::sum);
+        }, () -> lease.refund(bytes));
+        return true;
+    }
+
+    /**
+     * Пополнение аренды синхронным запросом к UserService (вызывается под блокировкой аренды)
+     */
+    private void topUp(Lease lease, long bytes) {
+        boolean usable = lease.isUsable();
+        long minBytes = usable ? Math.max(bytes - lease.remaining.get(), 1L) : bytes;
+
+        StorageLeaseResponse response;
+        try {
+            response = userServiceClient.acquireStorageLease(lease.userId, holderId, minBytes,
+                    Math.max(chunkSize, bytes), (int) ttl.toSeconds());
+        } catch (RuntimeException e) {
+            log.error("Error acquiring storage lease for user {}: {}", lease.userId, e.getMessage());
+            throw new IllegalArgumentException("Failed to verify storage quota: " + e.getMessage(), e);
+        }
+
+        apply(lease, response, usable);
+        if (!response.getGranted()) {
+            log.warn("Quota lease denied for user {}: requested size={}, used={}, total={}",
+                    lease.userId, bytes, response.getStorageUsed(), response.getStorageQuota());
+            throw new IllegalArgumentException(QUOTA_EXCEEDED_MESSAGE);
+        }
+        log.debug("Quota lease topped up for user {}: granted={}, remaining={}",
+                lease.userId, response.getGrantedBytes(), lease.remaining.get());
+    }
+
+    private void apply(Lease lease, StorageLeaseResponse response, boolean usable) {
+        if (usable) {
+            lease.remaining.addAndGet(response.getGrantedBytes());
+        } else {
+            // Локальный срок истек - сверяем остаток с сервером
+            lease.remaining.set(Math.max(response.getLeaseBytes() - lease.outstanding.get(), 0L));
+        }
+        // Локальный срок короче серверного на renewBefore, чтобы не тратить уже истекшую аренду
+        lease.expiresAtMillis = response.getExpiresAt() - renewBefore.toMillis();
+        lease.maxFileSize = response.getMaxFileSize() > 0 ? response.getMaxFileSize() : Long.MAX_VALUE;
+    }
+
+    /**
+     * Фоновая задача: пакетная отправка изменений, продление активных и возврат простаивающих аренд
+     */
+    @Scheduled(fixedDelayString = "${file-service.quota-lease.flush-interval-ms:1000}")
+    public void flush() {
+        long now = System.currentTimeMillis();
+        Map<UUID, Lease> released = new HashMap<>();
+
+        for (Lease lease : leases.values()) {
+            if (now - lease.lastUsedMillis > idleTimeout.toMillis()) {
+                lease.lock.lock();
+                try {
+                    if (lease.outstanding.get() == lease.consumed.get()) {
+                        lease.closed = true;
+                        lease.remaining.set(0L);
+                        leases.remove(lease.userId, lease);
+                        released.put(lease.userId, lease);
+                    }
+                } finally {
+                    lease.lock.unlock();
+                }
+            } else if (lease.isUsable() && lease.expiresAtMillis - now < renewBefore.toMillis()) {
+                // Истекшие аренды не продлеваем - они пополнятся при следующем резерве
+                renew(lease);
+            }
+        }
+
+        report(released);
+    }
+
+    private void renew(Lease lease) {
+        lease.lock.lock();
+        try {
+            if (lease.closed) {
+                return;
+            }
+            boolean usable = lease.isUsable();
+            long requested = lease.remaining.get() < chunkSize / 2 ? chunkSize : 0L;
+            try {
+                apply(lease, userServiceClient.acquireStorageLease(lease.userId, holderId, 0L,
+                        requested, (int) ttl.toSeconds()), usable);
+            } catch (RuntimeException e) {
+                log.warn("Failed to renew quota lease for user {}: {}", lease.userId, e.getMessage());
+            }
+        } finally {
+            lease.lock.unlock();
+        }
+    }
+
+    private void report(Map<UUID, Lease> released) {
+        Map<UUID, Long> used = new HashMap<>();
+        for (UUID userId : pendingUsed.keySet()) {
+            Long delta = pendingUsed.remove(userId);
+            if (delta != null && delta != 0) {
+                used.put(userId, delta);
+            }
+        }
+
+        Map<UUID, Lease> reporting = new HashMap<>(released);
+        Map<UUID, Long> consumed = new HashMap<>();
+        leases.values().forEach(lease -> reporting.putIfAbsent(lease.userId, lease));
+        reporting.forEach((userId, lease) -> {
+            long bytes = lease.consumed.getAndSet(0L);
+            if (bytes > 0) {
+                consumed.put(userId, bytes);
+            }
+        });
+
+        List<StorageUsageDelta> deltas = new ArrayList<>();
+        reporting.keySet().stream()
+                .filter(userId -> used.containsKey(userId) || consumed.containsKey(userId)
+                        || released.containsKey(userId))
+                .forEach(userId -> deltas.add(delta(userId, used.getOrDefault(userId, 0L),
+                        consumed.getOrDefault(userId, 0L), released.containsKey(userId))));
+        used.keySet().stream()
+                .filter(userId -> !reporting.containsKey(userId))
+                .forEach(userId -> deltas.add(delta(userId, used.get(userId), 0L, false)));
+
+        if (deltas.isEmpty()) {
+            return;
+        }
+
+        try {
+            userServiceClient.reportStorageUsage(holderId, deltas);
+            consumed.forEach((userId, bytes) -> reporting.get(userId).outstanding.addAndGet(-bytes));
+            log.debug("Reported storage usage: users={}, releasedLeases={}", deltas.size(), released.size());
+        } catch (RuntimeException e) {
+            // Вернем изменения в очередь - отправятся следующим пакетом
+            log.error("Failed to report storage usage for {} users: {}", deltas.size(), e.getMessage());
+            used.forEach((userId, delta) -> pendingUsed.merge(userId, delta, Long::sum));
+            consumed.forEach((userId, bytes) -> reporting.get(userId).consumed.addAndGet(bytes));
+        }
+    }
+
+    private StorageUsageDelta delta(UUID userId, long usedDelta, long consumedBytes, boolean releaseLease) {
+        return StorageUsageDelta.newBuilder()
+                .setUserId(userId.toString())
+                .setUsedDelta(usedDelta)
+                .setConsumedLeaseBytes(consumedBytes)
+                .setReleaseLease(releaseLease)
+                .build();
+    }
+
+    /**
+     * При остановке отправляем накопленное и возвращаем все аренды
+     */
+    @PreDestroy
+    public void shutdown() {
+        Map<UUID, Lease> released = new HashMap<>();
+        for (Lease lease : leases.values()) {
+            lease.lock.lock();
+            try {
+                lease.closed = true;
+                lease.remaining.set(0L);
+                released.put(lease.userId, lease);
+            } finally {
+                lease.lock.unlock();
+            }
+        }
+        leases.clear();
+        report(released);
+    }
+
+    private static void afterCommit(Runnable onCommit, Runnable onRollback) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            onCommit.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_COMMITTED) {
+                    onCommit.run();
+                } else {
+                    onRollback.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * Аренда одного пользователя.
+     * remaining - доступно для новых резервов; outstanding - взято из аренды и еще не отправлено
+     * (или не возвращено откатом); consumed - зафиксировано и ждет отправки.
+     * lock вместо synchronized: под ним идет запрос к UserService, а монитор закрепил бы
+     * виртуальный поток на потоке-носителе на все время запроса
+     */
+    private static final class Lease {
+        private final UUID userId;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final AtomicLong remaining = new AtomicLong();
+        private final AtomicLong outstanding = new AtomicLong();
+        private final AtomicLong consumed = new AtomicLong();
+        private volatile long expiresAtMillis;
+        private volatile long maxFileSize = Long.MAX_VALUE;
+        private volatile long lastUsedMillis = System.currentTimeMillis();
+        private volatile boolean closed;
+
+        private Lease(UUID userId) {
+            this.userId = userId;
+        }
+
+        private boolean isUsable() {
+            return !closed && System.currentTimeMillis() < expiresAtMillis;
+        }
+
+        private boolean tryConsume(long bytes) {
+            while (true) {
+                long current = remaining.get();
+                if (current < bytes) {
+                    return false;
+                }
+                if (remaining.compareAndSet(current, current - bytes)) {
+                    outstanding.addAndGet(bytes);
+                    return true;
+                }
+            }
+        }
+
+        private void refund(long bytes) {
+            outstanding.addAndGet(-bytes);
+            remaining.addAndGet(bytes);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.fileservice.service;
 
 import com.fileservice.event.FileEvent;
+import com.fileservice.model.ChangeJournalEntry.ChangeType;
 import com.fileservice.model.File;
 import com.fileservice.model.FileShare;
 import com.fileservice.model.SharePermission;
@@ -9,15 +10,23 @@ import com.fileservice.repository.FileShareRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.KeysetScrollPosition;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Window;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * Сервис для управления расшариванием файлов
@@ -31,6 +40,7 @@ public class ShareService {
         private final FileShareRepository shareRepository;
         private final FileRepository fileRepository;
         private final FileEventPublisher eventPublisher;
+        private final ChangeJournalService changeJournal;
 
         @Value("${file-service.share.max-shares-per-file:50}")
         private int maxSharesPerFile;
@@ -78,6 +88,7 @@ public class ShareService {
                         FileShare updatedShare = shareRepository.save(share);
                         log.info("Share updated: id={}, fileId={}, sharedWithUserId={}",
                                         updatedShare.getId(), fileId, sharedWithUserId);
+                        publishShareUpdated(updatedShare, ownerId);
                         return updatedShare;
                 }
 
@@ -97,6 +108,7 @@ public class ShareService {
                                 .build();
 
                 FileShare savedShare = shareRepository.save(share);
+                recordShareChange(savedShare, ChangeType.SHARED_WITH_ME);
                 log.info("File shared: id={}, fileId={}, ownerId={}, sharedWithUserId={}, permission={}",
                                 savedShare.getId(), fileId, ownerId, sharedWithUserId, permission);
 
@@ -144,6 +156,7 @@ public class ShareService {
                                 .orElseThrow(() -> new IllegalArgumentException("File not found"));
 
                 shareRepository.delete(share);
+                recordShareChange(share, ChangeType.UNSHARED_WITH_ME);
                 log.info("Share revoked: fileId={}, sharedWithUserId={}", fileId, sharedWithUserId);
 
                 // Уведомляем пользователя об отзыве доступа
@@ -176,6 +189,7 @@ public class ShareService {
 
                 List<FileShare> shares = shareRepository.findByFileId(fileId);
                 shareRepository.deleteAll(shares);
+                shares.forEach(share -> recordShareChange(share, ChangeType.UNSHARED_WITH_ME));
 
                 log.info("All shares revoked for file: fileId={}, count={}", fileId, shares.size());
 
@@ -283,9 +297,41 @@ public class ShareService {
                 FileShare updatedShare = shareRepository.save(share);
                 log.info("Share permission updated: id={}, newPermission={}",
                                 updatedShare.getId(), newPermission);
+                publishShareUpdated(updatedShare, ownerId);
                 return updatedShare;
         }
 
+        /**
+         * Событие изменения существующего расшаривания (инвалидация кэша прав на всех репликах)
+         */
+        private void publishShareUpdated(FileShare share, UUID ownerId) {
+                recordShareChange(share, ChangeType.SHARED_WITH_ME);
+
+                java.util.Map<String, String> metadata = new java.util.HashMap<>();
+                metadata.put("sharedWithUserId", share.getSharedWithUserId().toString());
+                metadata.put("permission", share.getPermission().name());
+
+                eventPublisher.publish(FileEvent.builder()
+                                .eventId(UUID.randomUUID().toString())
+                                .eventType("file.share.updated")
+                                .fileId(share.getFile().getId())
+                                .userId(ownerId)
+                                .timestamp(LocalDateTime.now())
+                                .version(1)
+                                .metadata(metadata)
+                                .build());
+        }
+
+        /**
+         * Журнал изменений: владелец видит изменение списка расшариваний файла,
+         * получатель - появление или потерю доступа
+         */
+        private void recordShareChange(FileShare share, ChangeType recipientChange) {
+                UUID fileId = share.getFile().getId();
+                changeJournal.record(share.getOwnerId(), fileId, ChangeType.SHARED);
+                changeJournal.record(share.getSharedWithUserId(), fileId, recipientChange);
+        }
+
         /**
          * Удаление истекших расшариваний
          */
@@ -296,7 +342,19 @@ public class ShareService {
 
                 if (!expiredShares.isEmpty()) {
                         shareRepository.deleteAll(expiredShares);
+                        expiredShares.forEach(share -> recordShareChange(share, ChangeType.UNSHARED_WITH_ME));
                         log.info("Deleted {} expired shares", expiredShares.size());
+
+                        expiredShares.stream()
+                                        .map(share -> share.getFile().getId())
+                                        .distinct()
+                                        .forEach(fileId -> eventPublisher.publish(FileEvent.builder()
+                                                        .eventId(UUID.randomUUID().toString())
+                                                        .eventType("file.share.expired")
+                                                        .fileId(fileId)
+                                                        .timestamp(now)
+                                                        .version(1)
+                                                        .build()));
                 }
         }
 
@@ -327,6 +385,55 @@ public class ShareService {
                 return shareRepository.findByIdInWithFile(shareIdsPage.getContent());
         }
 
+        /**
+         * "Расшарено со мной" с keyset-пагинацией (порядок createdAt DESC, id DESC).
+         * Позиция - ключи createdAt и id последнего элемента предыдущей страницы
+         */
+        @Transactional(readOnly = true)
+        public Window<FileShare> listSharedWithMe(UUID userId, KeysetScrollPosition position, int limit) {
+                log.debug("Listing files shared with user (keyset): userId={}, limit={}", userId, limit);
+
+                if (!position.isInitial() && !(position.getKeys().get("createdAt") instanceof LocalDateTime
+                                && position.getKeys().get("id") instanceof UUID)) {
+                        throw new IllegalArgumentException("Invalid cursor");
+                }
+
+                LocalDateTime now = LocalDateTime.now();
+                // Запрашиваем на один элемент больше, чтобы узнать, есть ли следующая страница
+                Limit fetchLimit = Limit.of(limit + 1);
+                List<UUID> shareIds = position.isInitial()
+                                ? shareRepository.findActiveShareIdsForUser(userId, now, fetchLimit)
+                                : shareRepository.findActiveShareIdsForUserAfter(userId, now,
+                                                (LocalDateTime) position.getKeys().get("createdAt"),
+                                                (UUID) position.getKeys().get("id"),
+                                                fetchLimit);
+
+                boolean hasNext = shareIds.size() > limit;
+                if (hasNext) {
+                        shareIds = shareIds.subList(0, limit);
+                }
+                if (shareIds.isEmpty()) {
+                        return Window.from(List.of(), ScrollPosition::offset);
+                }
+
+                // IN-запрос не сохраняет порядок - восстанавливаем порядок страницы
+                Map<UUID, FileShare> byId = shareRepository.findByIdInWithFile(shareIds).stream()
+                                .collect(Collectors.toMap(FileShare::getId, Function.identity()));
+                List<FileShare> shares = shareIds.stream()
+                                .map(byId::get)
+                                .filter(Objects::nonNull)
+                                .toList();
+
+                return Window.from(shares, i -> ScrollPosition.forward(Map.of(
+                                "createdAt", shares.get(i).getCreatedAt(),
+                                "id", shares.get(i).getId())), hasNext);
+        }
+
+        @Transactional(readOnly = true)
+        public long countSharedWithMe(UUID userId) {
+                return shareRepository.countActiveSharesForUser(userId, LocalDateTime.now());
+        }
+
         /**
          * Список моих shares (для RPC ListMyShares)
          * Возвращает все shares для файлов, принадлежащих пользователю
@@ -375,6 +482,7 @@ public class ShareService {
                 }
 
                 shareRepository.delete(share);
+                recordShareChange(share, ChangeType.UNSHARED_WITH_ME);
                 log.info("Share revoked: shareId={}, fileId={}, sharedWithUserId={}",
                                 shareId, share.getFile().getId(), share.getSharedWithUserId());
 
@@ -0,0 +1,197 @@
+package com.fileservice.service;
+
+import com.fileservice.model.File;
+import com.fileservice.model.JobCheckpoint;
+import com.fileservice.repository.FileRepository;
+import com.fileservice.repository.JobCheckpointRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Window;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+
+/**
+ * Окончательное удаление файлов, пролежавших в корзине дольше срока хранения.
+ * Просроченные строки обходятся keyset-фрагментами (каждый - отдельная транзакция),
+ * фрагмент удаляет {@link TrashPurger}, квота освобождается одной дельтой на владельца.
+ * Позиция сохраняется после каждого фрагмента, поэтому перезапуск продолжает обход;
+ * файлы, которые не удалось удалить из хранилища, остаются в корзине до следующего запуска
+ */
+@Component
+@Slf4j
+public class TrashPurgeWorker {
+
+    static final String JOB_NAME = "trash-purge";
+
+    private static final long PURGE_LOCK_KEY = 0x7472617368L; // "trash"
+
+    private final FileRepository fileRepository;
+    private final JobCheckpointRepository checkpointRepository;
+    private final TrashPurger trashPurger;
+    private final QuotaLeaseManager quotaLeaseManager;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int retentionDays;
+    private final int chunkSize;
+    private final int maxFilesPerSecond;
+    private final long maxBytesPerSecond;
+
+    private final Counter purgedFilesCounter;
+    private final Counter purgedBytesCounter;
+    private final Counter failedCounter;
+    private final Timer chunkTimer;
+
+    public TrashPurgeWorker(FileRepository fileRepository,
+            JobCheckpointRepository checkpointRepository,
+            TrashPurger trashPurger,
+            QuotaLeaseManager quotaLeaseManager,
+            PlatformTransactionManager transactionManager,
+            MeterRegistry meterRegistry,
+            @Value("${file-service.cleanup.enabled:true}") boolean enabled,
+            @Value("${file-service.cleanup.deleted-files-retention-days:30}") int retentionDays,
+            @Value("${file-service.cleanup.chunk-size:200}") int chunkSize,
+            @Value("${file-service.cleanup.max-files-per-second:100}") int maxFilesPerSecond,
+            @Value("${file-service.cleanup.max-bytes-per-second:0}") long maxBytesPerSecond) {
+        this.fileRepository = fileRepository;
+        this.checkpointRepository = checkpointRepository;
+        this.trashPurger = trashPurger;
+        this.quotaLeaseManager = quotaLeaseManager;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.retentionDays = retentionDays;
+        this.chunkSize = chunkSize;
+        this.maxFilesPerSecond = maxFilesPerSecond;
+        this.maxBytesPerSecond = maxBytesPerSecond;
+
+        this.purgedFilesCounter = Counter.builder("file.trash.purge.files")
+                .description("Expired trash items permanently deleted")
+                .register(meterRegistry);
+        this.purgedBytesCounter = Counter.builder("file.trash.purge.bytes")
+                .description("Bytes released by the trash purge")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("file.trash.purge.failed")
+                .description("Expired files whose storage deletion failed and will be retried")
+                .register(meterRegistry);
+        this.chunkTimer = Timer.builder("file.trash.purge.chunk.duration")
+                .description("Time to purge one chunk of expired trash")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(cron = "${file-service.cleanup.schedule:0 0 2 * * ?}")
+    public void purgeExpired() {
+        if (!enabled) {
+            return;
+        }
+
+        LocalDateTime cutoff = LocalDateTime.now().minusDays(retentionDays);
+        long startedAt = System.nanoTime();
+        long purgedFiles = 0;
+        long purgedBytes = 0;
+
+        while (!Thread.currentThread().isInterrupted()) {
+            ChunkResult chunk = transactionTemplate.execute(status -> purgeChunk(cutoff));
+            if (chunk == null || chunk.locked()) {
+                log.debug("Trash purge is running on another instance");
+                return;
+            }
+            purgedFiles += chunk.files();
+            purgedBytes += chunk.bytes();
+            if (chunk.last()) {
+                break;
+            }
+            throttle(startedAt, purgedFiles, purgedBytes);
+        }
+
+        if (purgedFiles > 0) {
+            log.info("Trash purge finished: files={}, bytes={}, took={}ms", purgedFiles, purgedBytes,
+                    (System.nanoTime() - startedAt) / 1_000_000);
+        }
+    }
+
+    /**
+     * Один фрагмент в транзакции, удерживающей advisory-блокировку
+     */
+    private ChunkResult purgeChunk(LocalDateTime cutoff) {
+        if (!checkpointRepository.tryJobLock(PURGE_LOCK_KEY)) {
+            return ChunkResult.LOCKED;
+        }
+
+        Window<File> window = fileRepository.findByIsDeletedTrueAndDeletedAtBefore(cutoff, loadPosition(),
+                Limit.of(chunkSize), TrashPurger.PURGE_ORDER);
+        if (window.isEmpty()) {
+            checkpointRepository.deleteById(JOB_NAME);
+            return ChunkResult.DONE;
+        }
+
+        Timer.Sample sample = Timer.start();
+        TrashPurger.PurgeResult result = trashPurger.purge(window.getContent());
+        result.releasedByOwner().forEach(quotaLeaseManager::release);
+
+        if (window.hasNext()) {
+            saveCheckpoint(window.positionAt(window.size() - 1));
+        } else {
+            checkpointRepository.deleteById(JOB_NAME);
+        }
+
+        long bytes = result.releasedBytes();
+        sample.stop(chunkTimer);
+        purgedFilesCounter.increment(result.deleted());
+        purgedBytesCounter.increment(bytes);
+        failedCounter.increment(result.failed());
+        log.debug("Purged trash chunk: scanned={}, deleted={}, bytes={}, storageFailures={}",
+                window.size(), result.deleted(), bytes, result.failed());
+
+        return new ChunkResult(false, !window.hasNext(), result.deleted(), bytes);
+    }
+
+    /**
+     * Пауза, выравнивающая скорость обхода по max-files-per-second и max-bytes-per-second
+     */
+    private void throttle(long startedAt, long files, long bytes) {
+        double requiredSeconds = 0;
+        if (maxFilesPerSecond > 0) {
+            requiredSeconds = Math.max(requiredSeconds, (double) files / maxFilesPerSecond);
+        }
+        if (maxBytesPerSecond > 0) {
+            requiredSeconds = Math.max(requiredSeconds, (double) bytes / maxBytesPerSecond);
+        }
+
+        long sleepMillis = (long) (requiredSeconds * 1000) - (System.nanoTime() - startedAt) / 1_000_000;
+        if (sleepMillis > 0) {
+            try {
+                Thread.sleep(sleepMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private ScrollPosition loadPosition() {
+        return checkpointRepository.findById(JOB_NAME)
+                .map(checkpoint -> TrashPurger.decodePosition(checkpoint.getPosition()))
+                .orElseGet(ScrollPosition::keyset);
+    }
+
+    private void saveCheckpoint(ScrollPosition position) {
+        checkpointRepository.save(JobCheckpoint.builder()
+                .jobName(JOB_NAME)
+                .position(TrashPurger.encodePosition(position))
+                .build());
+    }
+
+    private record ChunkResult(boolean locked, boolean last, long files, long bytes) {
+
+        static final ChunkResult LOCKED = new ChunkResult(true, true, 0, 0);
+        static final ChunkResult DONE = new ChunkResult(false, true, 0, 0);
+    }
+}
@@ -0,0 +1,204 @@
+package com.fileservice.service;
+
+import com.fileservice.client.StorageServiceClient;
+import com.fileservice.model.File;
+import com.fileservice.repository.FileRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.KeysetScrollPosition;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Collectors;
+
+/**
+ * Окончательное удаление фрагмента корзины (общая часть очистки просроченной корзины и EmptyTrash).
+ * Объекты удаляются пакетными DeleteFiles - несколько пакетов параллельно с ограничением,
+ * строки - одним DELETE. Квоту освобождает вызывающий по результату: одной дельтой на владельца
+ */
+@Component
+@Slf4j
+public class TrashPurger {
+
+    /**
+     * Порядок обхода корзины: файлы раньше папок с тем же deletedAt,
+     * поэтому папка обрабатывается после содержимого, удаленного вместе с ней
+     */
+    public static final Sort PURGE_ORDER = Sort.by("deletedAt", "isFolder", "id");
+
+    private final FileRepository fileRepository;
+    private final StorageServiceClient storageServiceClient;
+    private final ContentBlobService contentBlobService;
+    private final ExecutorService storageExecutor;
+    private final int storageBatchSize;
+
+    public TrashPurger(FileRepository fileRepository,
+            StorageServiceClient storageServiceClient,
+            ContentBlobService contentBlobService,
+            @Value("${file-service.cleanup.storage-parallelism:8}") int storageParallelism,
+            @Value("${file-service.cleanup.storage-batch-size:50}") int storageBatchSize) {
+        this.fileRepository = fileRepository;
+        this.storageServiceClient = storageServiceClient;
+        this.contentBlobService = contentBlobService;
+        this.storageExecutor = Executors.newFixedThreadPool(storageParallelism);
+        this.storageBatchSize = storageBatchSize;
+    }
+
+    /**
+     * Удаление фрагмента. Вызывается в транзакции, удерживающей блокировки строк фрагмента.
+     * Файлы, которые не удалось удалить из хранилища, остаются в корзине
+     */
+    public PurgeResult purge(List<File> chunk) {
+        List<File> files = new ArrayList<>();
+        List<UUID> folderIds = new ArrayList<>();
+        for (File file : chunk) {
+            if (file.isFolder()) {
+                folderIds.add(file.getId());
+            } else {
+                files.add(file);
+            }
+        }
+
+        // Строки blob блокируются до удаления объектов: привязка к удаляемому содержимому ждет коммита
+        Set<String> retainedPaths = files.isEmpty()
+                ? Set.of()
+                : contentBlobService.lockForRelease(
+                        fileRepository.findStoragePathsByFileIds(files.stream().map(File::getId).toList()));
+        List<File> removed = deleteFromStorage(files, retainedPaths);
+        List<UUID> removedIds = removed.stream().map(File::getId).toList();
+        Map<UUID, Long> releasedByOwner = new HashMap<>();
+        removed.forEach(file -> releasedByOwner.merge(file.getUserId(), file.getSize(), Long::sum));
+
+        int deleted = 0;
+        if (!removedIds.isEmpty()) {
+            List<String> storagePaths = fileRepository.findStoragePathsByFileIds(removedIds);
+            deleted += fileRepository.deleteTrashedFiles(removedIds);
+            contentBlobService.release(storagePaths);
+        }
+        if (!folderIds.isEmpty()) {
+            deleted += fileRepository.deleteEmptyTrashedFolders(folderIds);
+        }
+
+        return new PurgeResult(deleted, files.size() - removed.size(), releasedByOwner);
+    }
+
+    /**
+     * Пакеты по storage-batch-size файлов, не более storage-parallelism пакетов одновременно.
+     * Пакет, запрос которого не прошел, целиком считается неудаленным
+     *
+     * @param retainedPaths пути, на которые остаются ссылки: их объекты не удаляются
+     * @return файлы, чьи объекты удалены
+     */
+    private List<File> deleteFromStorage(List<File> files, Set<String> retainedPaths) {
+        List<CompletableFuture<Set<UUID>>> deletions = new ArrayList<>();
+        for (int from = 0; from < files.size(); from += storageBatchSize) {
+            List<UUID> batch = files.subList(from, Math.min(from + storageBatchSize, files.size())).stream()
+                    .map(File::getId)
+                    .toList();
+            deletions.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return storageServiceClient.deleteFiles(batch, retainedPaths);
+                } catch (Exception e) {
+                    log.error("Failed to delete {} files from storage during trash purge", batch.size(), e);
+                    return Set.of();
+                }
+            }, storageExecutor));
+        }
+
+        List<File> removed = new ArrayList<>(files.size());
+        for (int i = 0; i < deletions.size(); i++) {
+            Set<UUID> deletedIds = deletions.get(i).join();
+            for (File file : files.subList(i * storageBatchSize, Math.min((i + 1) * storageBatchSize, files.size()))) {
+                if (deletedIds.contains(file.getId())) {
+                    removed.add(file);
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Удаление объектов файлов, строки которых уже удалены (окончательное удаление папки).
+     * Вызывается после коммита и не ждет хранилища: пакеты DeleteFiles по storage-batch-size файлов
+     * выполняются в фоне, не более storage-parallelism одновременно. Каждый пакет получает только
+     * неудаляемые пути своих файлов. Ошибки хранилища логируются - объекты остаются сиротами
+     *
+     * @param storagePathsByFile пути содержимого файлов и их версий
+     * @param retainedPaths      пути, на которые остались ссылки: их объекты не удаляются
+     */
+    public void deleteFromStorageDetached(Map<UUID, Set<String>> storagePathsByFile, Set<String> retainedPaths) {
+        List<UUID> fileIds = List.copyOf(storagePathsByFile.keySet());
+        for (int from = 0; from < fileIds.size(); from += storageBatchSize) {
+            List<UUID> batch = fileIds.subList(from, Math.min(from + storageBatchSize, fileIds.size()));
+            Set<String> batchRetained = batch.stream()
+                    .flatMap(fileId -> storagePathsByFile.get(fileId).stream())
+                    .filter(retainedPaths::contains)
+                    .collect(Collectors.toSet());
+            try {
+                storageExecutor.execute(() -> {
+                    try {
+                        Set<UUID> deleted = storageServiceClient.deleteFiles(batch, batchRetained);
+                        if (deleted.size() < batch.size()) {
+                            log.warn("Storage kept {} of {} purged files", batch.size() - deleted.size(),
+                                    batch.size());
+                        }
+                    } catch (Exception e) {
+                        log.error("Failed to delete {} purged files from storage", batch.size(), e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                log.warn("Storage deletion of {} purged files rejected on shutdown", batch.size());
+            }
+        }
+    }
+
+    /**
+     * Позиция keyset-обхода в виде строки deletedAt|isFolder|id
+     */
+    public static String encodePosition(ScrollPosition position) {
+        Map<String, Object> keys = ((KeysetScrollPosition) position).getKeys();
+        return keys.get("deletedAt") + "|" + keys.get("isFolder") + "|" + keys.get("id");
+    }
+
+    public static ScrollPosition decodePosition(String encoded) {
+        if (encoded == null) {
+            return ScrollPosition.keyset();
+        }
+        String[] parts = encoded.split("\\|");
+        Map<String, Object> keys = new HashMap<>();
+        keys.put("deletedAt", LocalDateTime.parse(parts[0]));
+        keys.put("isFolder", Boolean.parseBoolean(parts[1]));
+        keys.put("id", UUID.fromString(parts[2]));
+        return ScrollPosition.forward(keys);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        storageExecutor.shutdownNow();
+    }
+
+    /**
+     * @param deleted         удалено строк (файлы и пустые папки)
+     * @param failed          файлы, оставшиеся в корзине из-за ошибки хранилища
+     * @param releasedByOwner освобожденный объем по владельцам
+     */
+    public record PurgeResult(int deleted, int failed, Map<UUID, Long> releasedByOwner) {
+
+        public long releasedBytes() {
+            return releasedByOwner.values().stream().mapToLong(Long::longValue).sum();
+        }
+    }
+}
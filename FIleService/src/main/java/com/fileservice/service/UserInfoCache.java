@@ -0,0 +1,69 @@
+package com.fileservice.service;
+
+import com.fileservice.client.UserServiceClient;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Кэш кратких профилей пользователей (email, имя) для листингов расшариваний.
+ * Промахи загружаются одним пакетным вызовом UserService; записи сбрасываются
+ * по событиям топика user-events (UserInfoCacheInvalidationListener), TTL - страховка
+ */
+@Component
+@Slf4j
+public class UserInfoCache {
+
+    private final UserServiceClient userServiceClient;
+    private final Cache<UUID, UserServiceClient.UserInfo> cache;
+
+    public UserInfoCache(UserServiceClient userServiceClient,
+            MeterRegistry meterRegistry,
+            @Value("${file-service.user-cache.max-size:50000}") long maxSize,
+            @Value("${file-service.user-cache.ttl:10m}") Duration ttl) {
+        this.userServiceClient = userServiceClient;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "file.user-info");
+    }
+
+    /**
+     * Профили набора пользователей. Ненайденные пользователи не кэшируются и не попадают
+     * в результат; при недоступности UserService возвращается то, что есть в кэше
+     */
+    public Map<UUID, UserServiceClient.UserInfo> getAll(Collection<UUID> userIds) {
+        Collection<UUID> ids = userIds.stream().filter(Objects::nonNull).collect(Collectors.toSet());
+        if (ids.isEmpty()) {
+            return Map.of();
+        }
+
+        try {
+            return cache.getAll(ids, userServiceClient::getUsersByIds);
+        } catch (Exception e) {
+            log.warn("Failed to load {} user profiles, serving cached only: {}", ids.size(), e.getMessage());
+            return cache.getAllPresent(ids);
+        }
+    }
+
+    public void invalidate(UUID userId) {
+        cache.invalidate(userId);
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+}
@@ -0,0 +1,212 @@
+package com.fileservice.service;
+
+import com.fileservice.client.StorageServiceClient;
+import com.fileservice.model.JobCheckpoint;
+import com.fileservice.repository.FileVersionRepository;
+import com.fileservice.repository.FileVersionRepository.SurplusVersion;
+import com.fileservice.repository.JobCheckpointRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Фоновое применение лимитов версионирования ко всем файлам
+ * (max-versions-per-file и retention-days).
+ * Лишние версии выбираются одним оконным запросом пачками в порядке file_id. В транзакции пачки
+ * сначала удаляются объекты в хранилище (параллельно с ограничением), затем строки только тех версий,
+ * чьи объекты удалены (как в TrashPurger). Версия, объект которой удалить не удалось, остается
+ * и выбирается повторно следующим запуском. Позиция (file_id) сохраняется после каждой пачки,
+ * поэтому перезапуск продолжает обход
+ */
+@Component
+@Slf4j
+public class VersionRetentionCompactor {
+
+    static final String JOB_NAME = "version-compaction";
+
+    private static final long COMPACTION_LOCK_KEY = 0x76657273696F6EL; // "version"
+    private static final UUID FIRST_FILE_ID = new UUID(0L, 0L);
+
+    private final FileVersionRepository versionRepository;
+    private final JobCheckpointRepository checkpointRepository;
+    private final StorageServiceClient storageServiceClient;
+    private final ContentBlobService contentBlobService;
+    private final TransactionTemplate transactionTemplate;
+    private final ExecutorService storageExecutor;
+    private final boolean enabled;
+    private final int maxVersionsPerFile;
+    private final int retentionDays;
+    private final int batchSize;
+
+    private final Counter deletedCounter;
+    private final Counter storageFailedCounter;
+    private final Timer batchTimer;
+
+    public VersionRetentionCompactor(FileVersionRepository versionRepository,
+            JobCheckpointRepository checkpointRepository,
+            StorageServiceClient storageServiceClient,
+            ContentBlobService contentBlobService,
+            PlatformTransactionManager transactionManager,
+            MeterRegistry meterRegistry,
+            @Value("${file-service.versioning.enabled:true}") boolean enabled,
+            @Value("${file-service.versioning.max-versions-per-file:10}") int maxVersionsPerFile,
+            @Value("${file-service.versioning.retention-days:30}") int retentionDays,
+            @Value("${file-service.versioning.compaction.batch-size:500}") int batchSize,
+            @Value("${file-service.versioning.compaction.storage-parallelism:8}") int storageParallelism) {
+        this.versionRepository = versionRepository;
+        this.checkpointRepository = checkpointRepository;
+        this.storageServiceClient = storageServiceClient;
+        this.contentBlobService = contentBlobService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.storageExecutor = Executors.newFixedThreadPool(storageParallelism);
+        this.enabled = enabled;
+        this.maxVersionsPerFile = maxVersionsPerFile;
+        this.retentionDays = retentionDays;
+        this.batchSize = batchSize;
+
+        this.deletedCounter = Counter.builder("file.version.compaction.deleted")
+                .description("File versions removed by retention limits")
+                .register(meterRegistry);
+        this.storageFailedCounter = Counter.builder("file.version.compaction.storage.failed")
+                .description("Surplus versions kept because their storage deletion failed")
+                .register(meterRegistry);
+        this.batchTimer = Timer.builder("file.version.compaction.batch.duration")
+                .description("Time to select and delete one batch of surplus versions")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(cron = "${file-service.versioning.compaction.schedule:0 30 3 * * ?}")
+    public void compact() {
+        if (!enabled) {
+            return;
+        }
+
+        LocalDateTime cutoff = LocalDateTime.now().minusDays(retentionDays);
+        long startedAt = System.nanoTime();
+        long deleted = 0;
+
+        while (!Thread.currentThread().isInterrupted()) {
+            BatchResult batch = transactionTemplate.execute(status -> compactBatch(cutoff));
+            if (batch == null || batch.locked()) {
+                log.debug("Version compaction is running on another instance");
+                return;
+            }
+            deleted += batch.deleted();
+            if (batch.last()) {
+                break;
+            }
+        }
+
+        if (deleted > 0) {
+            log.info("Version compaction finished: versions={}, took={}ms", deleted,
+                    (System.nanoTime() - startedAt) / 1_000_000);
+        }
+    }
+
+    /**
+     * Одна пачка в транзакции, удерживающей advisory-блокировку и блокировки строк content_blobs
+     * на время удаления объектов
+     */
+    private BatchResult compactBatch(LocalDateTime cutoff) {
+        if (!checkpointRepository.tryJobLock(COMPACTION_LOCK_KEY)) {
+            return BatchResult.LOCKED;
+        }
+
+        Timer.Sample sample = Timer.start();
+        UUID fromFileId = checkpointRepository.findById(JOB_NAME)
+                .map(checkpoint -> UUID.fromString(checkpoint.getPosition()))
+                .orElse(FIRST_FILE_ID);
+        List<SurplusVersion> versions = versionRepository.findSurplusVersions(fromFileId,
+                maxVersionsPerFile, cutoff, batchSize);
+
+        List<SurplusVersion> removed = List.of();
+        if (!versions.isEmpty()) {
+            Set<String> retainedPaths = contentBlobService.lockForRelease(
+                    versions.stream().map(SurplusVersion::getStoragePath).toList());
+            removed = deleteFromStorage(versions, retainedPaths);
+            if (!removed.isEmpty()) {
+                versionRepository.deleteByIds(removed.stream().map(SurplusVersion::getId).toList());
+                contentBlobService.release(removed.stream().map(SurplusVersion::getStoragePath).toList());
+            }
+        }
+
+        // Пачка без единого удаленного объекта (хранилище недоступно) завершает запуск, не сдвигая позицию:
+        // иначе одни и те же версии выбирались бы снова
+        boolean stalled = !versions.isEmpty() && removed.isEmpty();
+        boolean last = versions.size() < batchSize;
+        if (stalled) {
+            log.warn("Version compaction stopped: no version objects could be deleted from storage");
+        } else if (last) {
+            checkpointRepository.deleteById(JOB_NAME);
+        } else {
+            // Следующая пачка начинается с того же файла: его оставшиеся лишние версии еще не выбраны
+            checkpointRepository.save(JobCheckpoint.builder()
+                    .jobName(JOB_NAME)
+                    .position(versions.get(versions.size() - 1).getFileId().toString())
+                    .build());
+        }
+
+        sample.stop(batchTimer);
+        deletedCounter.increment(removed.size());
+        log.debug("Compacted version batch: from={}, selected={}, deleted={}",
+                fromFileId, versions.size(), removed.size());
+        return new BatchResult(false, last || stalled, removed.size());
+    }
+
+    /**
+     * Удаление объектов версий (не более storage-parallelism запросов одновременно).
+     * Объекты путей, на которые остаются ссылки, StorageService не удаляет
+     *
+     * @return версии, чьи объекты удалены
+     */
+    private List<SurplusVersion> deleteFromStorage(List<SurplusVersion> versions, Set<String> retainedPaths) {
+        List<CompletableFuture<Boolean>> deletions = versions.stream()
+                .map(version -> CompletableFuture.supplyAsync(() -> {
+                    try {
+                        storageServiceClient.deleteFile(version.getFileId().toString(), version.getVersion(),
+                                retainedPaths);
+                        return true;
+                    } catch (Exception e) {
+                        storageFailedCounter.increment();
+                        log.warn("Failed to delete version from storage: fileId={}, version={}",
+                                version.getFileId(), version.getVersion());
+                        return false;
+                    }
+                }, storageExecutor))
+                .toList();
+
+        List<SurplusVersion> removed = new ArrayList<>(versions.size());
+        for (int i = 0; i < versions.size(); i++) {
+            if (deletions.get(i).join()) {
+                removed.add(versions.get(i));
+            }
+        }
+        return removed;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        storageExecutor.shutdownNow();
+    }
+
+    private record BatchResult(boolean locked, boolean last, int deleted) {
+
+        static final BatchResult LOCKED = new BatchResult(true, true, 0);
+    }
+}
@@ -2,9 +2,11 @@ package com.fileservice.service;
 
 import com.fileservice.client.StorageServiceClient;
 import com.fileservice.event.FileEvent;
+import com.fileservice.model.ChangeJournalEntry.ChangeType;
 import com.fileservice.model.File;
 import com.fileservice.model.FileVersion;
 import com.fileservice.repository.FileRepository;
+import com.fileservice.repository.FileVersionChunkRepository;
 import com.fileservice.repository.FileVersionRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -17,6 +19,7 @@ import org.springframework.transaction.annotation.Transactional;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 
 /**
@@ -32,6 +35,11 @@ public class VersionService {
     private final FileRepository fileRepository;
     private final StorageServiceClient storageServiceClient;
     private final FileEventPublisher eventPublisher;
+    private final ContentBlobService contentBlobService;
+    private final FileVersionChunkRepository versionChunkRepository;
+    private final FolderAggregateService folderAggregateService;
+    private final ChangeJournalService changeJournal;
+    private final DownloadUrlCache downloadUrlCache;
 
     @Value("${file-service.versioning.max-versions-per-file:10}")
     private int maxVersionsPerFile;
@@ -65,8 +73,10 @@ public class VersionService {
 
         // Обновляем версию файла
         if (version.getVersion() > file.getVersion()) {
+            downloadUrlCache.invalidate(fileId, file.getVersion());
             file.setVersion(version.getVersion());
             fileRepository.save(file);
+            changeJournal.recordWithRecipients(file, ChangeType.UPDATED);
         }
 
         // Проверяем лимит версий и удаляем старые при необходимости
@@ -139,6 +149,7 @@ public class VersionService {
                 .size(file.getSize())
                 .hash(file.getHash())
                 .storagePath(file.getStoragePath())
+                .isChunked(file.isChunked())
                 // Attribute the archiving to the user performing the restore,
                 // or ideally the original creator if we knew.
                 // Using file owner or current user is acceptable.
@@ -151,22 +162,36 @@ public class VersionService {
         // The file is moving forward to a new version (v3), which happens to look like
         // v1.
         int newVersionNumber = file.getVersion() + 1;
+        long oldSize = file.getSize();
 
         // 3. Update File to match the OLD version (content-wise) but with NEW version
         // number
+        downloadUrlCache.invalidate(fileId, file.getVersion());
         file.setVersion(newVersionNumber);
         file.setSize(oldVersion.getSize());
         file.setHash(oldVersion.getHash());
-        file.setStoragePath(oldVersion.getStoragePath());
+        file.setStoragePath(oldVersion.isChunked()
+                ? ChunkedVersionService.manifestPath(fileId, newVersionNumber)
+                : oldVersion.getStoragePath());
+        file.setIsChunked(oldVersion.isChunked());
         fileRepository.save(file);
-
-        // Synchronously register the new version metadata in StorageService to prevent
-        // race conditions during download
-        storageServiceClient.saveVersionMetadata(
-                fileId.toString(),
-                newVersionNumber,
-                oldVersion.getStoragePath(),
-                oldVersion.getSize());
+        changeJournal.recordWithRecipients(file, ChangeType.UPDATED);
+
+        if (oldVersion.isChunked()) {
+            // Фрагменты общие - новой версии достаточно копии манифеста
+            versionChunkRepository.copyManifest(fileId, versionNumber, newVersionNumber);
+        } else {
+            // Файл и старая версия теперь ссылаются на один объект
+            contentBlobService.retain(oldVersion.getStoragePath());
+
+            // Synchronously register the new version metadata in StorageService to prevent
+            // race conditions during download
+            storageServiceClient.saveVersionMetadata(
+                    fileId.toString(),
+                    newVersionNumber,
+                    oldVersion.getStoragePath(),
+                    oldVersion.getSize());
+        }
 
         log.info("Version restored: oldVersion={}, newVersion={}, fileId={}",
                 versionNumber, newVersionNumber, fileId);
@@ -181,6 +206,9 @@ public class VersionService {
                 .payload(file) // Payload is the new file state
                 .build());
 
+        // Блокировки агрегатов предков - после вызова StorageService (см. FileService.createFile)
+        folderAggregateService.onSizeChanged(file, oldSize);
+
         // Return a representation of the new version (which is the file itself now)
         return FileVersion.builder()
                 .file(file)
@@ -211,15 +239,17 @@ public class VersionService {
         // Удаляем версии сверх лимита
         List<FileVersion> versionsToDelete = versions.subList(maxVersionsPerFile, versions.size());
         versionRepository.deleteAll(versionsToDelete);
+        Set<String> retainedPaths = contentBlobService.release(
+                versionsToDelete.stream().map(FileVersion::getStoragePath).toList());
 
         log.info("Deleted {} old versions for file: fileId={}",
                 versionsToDelete.size(), fileId);
 
-        // Clean up storage for deleted versions
+        // Clean up storage for deleted versions.
+        // Объект, на который остались ссылки (дедупликация), StorageService не удаляет
         for (FileVersion v : versionsToDelete) {
             try {
-                // Warning: deduplication check is needed in real word
-                storageServiceClient.deleteFile(v.getFile().getId().toString(), v.getVersion());
+                storageServiceClient.deleteFile(v.getFile().getId().toString(), v.getVersion(), retainedPaths);
             } catch (Exception e) {
                 log.warn("Failed to delete version file from storage: fileId={}, version={}",
                         v.getFile().getId(), v.getVersion());
@@ -244,13 +274,15 @@ public class VersionService {
 
         if (!versionsToDelete.isEmpty()) {
             versionRepository.deleteAll(versionsToDelete);
+            Set<String> retainedPaths = contentBlobService.release(
+                    versionsToDelete.stream().map(FileVersion::getStoragePath).toList());
             log.info("Deleted {} versions older than {} days for file: fileId={}",
                     versionsToDelete.size(), days, fileId);
 
             // Clean up storage
             for (FileVersion v : versionsToDelete) {
                 try {
-                    storageServiceClient.deleteFile(v.getFile().getId().toString(), v.getVersion());
+                    storageServiceClient.deleteFile(v.getFile().getId().toString(), v.getVersion(), retainedPaths);
                 } catch (Exception e) {
                     log.warn("Failed to delete version file from storage: fileId={}, version={}",
                             v.getFile().getId(), v.getVersion());
@@ -271,8 +303,7 @@ public class VersionService {
      * Проверка и удаление старых версий при необходимости
      */
     private void deleteOldVersionsIfNeeded(UUID fileId) {
-        List<FileVersion> versions = versionRepository.findByFileIdOrderByVersionDesc(fileId);
-        if (versions.size() > maxVersionsPerFile) {
+        if (versionRepository.countByFileId(fileId) > maxVersionsPerFile) {
             deleteOldVersions(fileId);
         }
     }
@@ -0,0 +1,45 @@
+-- ============================================================
+-- Migration V10: Asynchronous "empty trash" jobs
+-- ============================================================
+-- Changes:
+-- 1. Add empty_trash_jobs: one row per EmptyTrash request with
+--    progress counters and the keyset position reached so far
+-- 2. At most one active (PENDING/RUNNING) job per user
+-- 3. Index over a user's soft-deleted files in purge order
+--    (user_id, deleted_at, is_folder, id)
+-- ============================================================
+-- EmptyTrash returns a job id immediately. The job walks the user's
+-- trash (items deleted up to the request time) in chunks, one
+-- transaction per chunk, and stores the position and counters with
+-- every chunk, so an interrupted job resumes where it stopped. The
+-- released bytes are accumulated here and returned to the quota as
+-- one delta when the job completes.
+-- ============================================================
+
+CREATE TABLE IF NOT EXISTS empty_trash_jobs (
+    id UUID PRIMARY KEY,
+    user_id UUID NOT NULL,
+    status VARCHAR(20) NOT NULL,
+    cutoff TIMESTAMP NOT NULL,
+    total_items BIGINT NOT NULL DEFAULT 0,
+    processed_items BIGINT NOT NULL DEFAULT 0,
+    failed_items BIGINT NOT NULL DEFAULT 0,
+    released_bytes BIGINT NOT NULL DEFAULT 0,
+    position TEXT,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    completed_at TIMESTAMP,
+    CONSTRAINT chk_empty_trash_jobs_status CHECK (status IN ('PENDING', 'RUNNING', 'COMPLETED'))
+);
+
+CREATE UNIQUE INDEX IF NOT EXISTS uq_empty_trash_jobs_active_user
+    ON empty_trash_jobs(user_id)
+    WHERE status IN ('PENDING', 'RUNNING');
+
+CREATE INDEX IF NOT EXISTS idx_empty_trash_jobs_active_updated
+    ON empty_trash_jobs(updated_at)
+    WHERE status IN ('PENDING', 'RUNNING');
+
+CREATE INDEX IF NOT EXISTS idx_files_user_trash_purge
+    ON files(user_id, deleted_at, is_folder, id)
+    WHERE is_deleted = true;
@@ -0,0 +1,47 @@
+-- ============================================================
+-- Migration V11: Chunk-level (content-defined) versioning
+-- ============================================================
+-- Changes:
+-- 1. Add content_chunks: index of stored chunks keyed by chunk hash
+--    (SHA-256); the object lives at chunks/{hash[0:2]}/{hash}
+-- 2. Add file_version_chunks: manifest of a chunked version, the
+--    ordered list of chunks per (file_id, version)
+-- 3. Add is_chunked to files and file_versions
+-- ============================================================
+-- The client splits the file with a rolling hash (content-defined
+-- chunking), so an edit changes only the chunks around it. Upload
+-- negotiation returns URLs only for chunks missing from the index;
+-- commit verifies the new chunks in storage and writes the manifest
+-- together with the version bump. Chunks are shared between versions
+-- and files. A chunk no manifest refers to is collected after a grace
+-- period; negotiation and commit refresh last_referenced_at, so a
+-- chunk reported as present survives until the upload is committed.
+-- ============================================================
+
+CREATE TABLE IF NOT EXISTS content_chunks (
+    hash VARCHAR(64) PRIMARY KEY,
+    size INTEGER NOT NULL,
+    user_id UUID NOT NULL,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    last_referenced_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    CONSTRAINT chk_content_chunks_size CHECK (size > 0)
+);
+
+CREATE INDEX IF NOT EXISTS idx_content_chunks_last_referenced
+    ON content_chunks(last_referenced_at);
+
+CREATE TABLE IF NOT EXISTS file_version_chunks (
+    file_id UUID NOT NULL REFERENCES files(id) ON DELETE CASCADE,
+    version INTEGER NOT NULL,
+    seq INTEGER NOT NULL,
+    chunk_hash VARCHAR(64) NOT NULL,
+    chunk_offset BIGINT NOT NULL,
+    size INTEGER NOT NULL,
+    PRIMARY KEY (file_id, version, seq)
+);
+
+CREATE INDEX IF NOT EXISTS idx_file_version_chunks_hash
+    ON file_version_chunks(chunk_hash);
+
+ALTER TABLE files ADD COLUMN IF NOT EXISTS is_chunked BOOLEAN NOT NULL DEFAULT false;
+ALTER TABLE file_versions ADD COLUMN IF NOT EXISTS is_chunked BOOLEAN NOT NULL DEFAULT false;
@@ -0,0 +1,39 @@
+-- ============================================================
+-- Migration V12: Incrementally maintained folder aggregates
+-- ============================================================
+-- Changes:
+-- 1. Add folder_aggregates: one row per folder with the recursive
+--    size, file count and folder count of its active subtree and
+--    the time of the last change inside it
+-- 2. Backfill rows for all existing folders
+-- ============================================================
+-- Every create, size change, delete, restore and move applies a
+-- delta to the rows of the item's ancestors (taken from
+-- ancestor_path) in the same transaction, so folder sizes are read
+-- with a primary key lookup instead of a subtree scan. Rows of
+-- soft-deleted folders are not maintained; they are recomputed from
+-- the subtree when the folder is restored.
+-- ============================================================
+
+CREATE TABLE IF NOT EXISTS folder_aggregates (
+    folder_id UUID PRIMARY KEY REFERENCES files(id) ON DELETE CASCADE,
+    total_size BIGINT NOT NULL DEFAULT 0,
+    file_count BIGINT NOT NULL DEFAULT 0,
+    folder_count BIGINT NOT NULL DEFAULT 0,
+    last_modified_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+INSERT INTO folder_aggregates (folder_id, total_size, file_count, folder_count, last_modified_at)
+SELECT f.id,
+       COALESCE(SUM(d.size) FILTER (WHERE d.is_folder = false), 0),
+       COUNT(d.id) FILTER (WHERE d.is_folder = false),
+       COUNT(d.id) FILTER (WHERE d.is_folder = true),
+       COALESCE(MAX(d.updated_at), f.updated_at)
+FROM files f
+LEFT JOIN files d
+       ON d.ancestor_path >= f.ancestor_path || f.id::TEXT || '/'
+      AND d.ancestor_path < f.ancestor_path || f.id::TEXT || '0'
+      AND d.is_deleted = false
+WHERE f.is_folder = true
+GROUP BY f.id, f.updated_at
+ON CONFLICT (folder_id) DO NOTHING;
@@ -0,0 +1,47 @@
+-- ============================================================
+-- Migration V13: Per-user change journal
+-- ============================================================
+-- Changes:
+-- 1. Add change_sequences: the last sequence number issued per user
+--    and the position below which the journal has been truncated
+-- 2. Add change_journal: append-only (user_id, seq) -> (file_id,
+--    change_type) entries
+-- 3. Indexes for compaction (superseded entries per file) and for
+--    dropping old tombstones
+-- ============================================================
+-- Every mutation stamps an entry into the journal of the affected
+-- user in the same transaction. Sequence numbers are taken from
+-- change_sequences at commit time; the row lock is held until commit,
+-- so a user's entries become visible in sequence order and a cursor
+-- never skips a later-committed lower number.
+--
+-- Compaction keeps only the latest entry per (user_id, file_id) once
+-- entries are old enough, which turns old segments into a snapshot of
+-- "last change per file" without losing anything a client needs.
+-- PURGED / UNSHARED_WITH_ME tombstones are dropped after a longer
+-- retention; truncated_seq records the highest dropped sequence, and a
+-- client whose cursor is below it has to resynchronize.
+-- No foreign key to files: tombstones outlive the file rows.
+-- ============================================================
+
+CREATE TABLE IF NOT EXISTS change_sequences (
+    user_id UUID PRIMARY KEY,
+    last_seq BIGINT NOT NULL DEFAULT 0,
+    truncated_seq BIGINT NOT NULL DEFAULT 0
+);
+
+CREATE TABLE IF NOT EXISTS change_journal (
+    user_id UUID NOT NULL,
+    seq BIGINT NOT NULL,
+    file_id UUID NOT NULL,
+    change_type VARCHAR(20) NOT NULL,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (user_id, seq)
+);
+
+CREATE INDEX IF NOT EXISTS idx_change_journal_user_file
+    ON change_journal(user_id, file_id, seq);
+
+CREATE INDEX IF NOT EXISTS idx_change_journal_tombstones
+    ON change_journal(created_at)
+    WHERE change_type IN ('PURGED', 'UNSHARED_WITH_ME');
@@ -0,0 +1,29 @@
+-- ============================================================
+-- Migration V14: Idempotency keys for mutating RPCs
+-- ============================================================
+-- Changes:
+-- 1. Add idempotency_keys: (user_id, idempotency_key) -> operation,
+--    request fingerprint and the serialized protobuf response
+-- 2. Index on created_at for purging expired keys
+-- ============================================================
+-- CreateFile, UpdateFile and ShareFile claim the key with
+-- INSERT ... ON CONFLICT DO NOTHING in the same transaction as the
+-- mutation and store the response before commit. A concurrent retry
+-- blocks on the uncommitted row and then replays the stored response;
+-- if the first attempt rolls back, the key is free again.
+-- request_hash (SHA-256 of operation and request) rejects reuse of a
+-- key for a different request.
+-- ============================================================
+
+CREATE TABLE IF NOT EXISTS idempotency_keys (
+    user_id UUID NOT NULL,
+    idempotency_key VARCHAR(128) NOT NULL,
+    operation VARCHAR(32) NOT NULL,
+    request_hash BYTEA NOT NULL,
+    response BYTEA,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (user_id, idempotency_key)
+);
+
+CREATE INDEX IF NOT EXISTS idx_idempotency_keys_created_at
+    ON idempotency_keys(created_at);
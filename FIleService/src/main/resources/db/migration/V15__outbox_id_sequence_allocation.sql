@@ -0,0 +1,21 @@
+-- ============================================================
+-- Migration V15: Pooled id allocation for event_outbox
+-- ============================================================
+-- Changes:
+-- 1. event_outbox_id_seq (created by BIGSERIAL) now increments by 50
+-- ============================================================
+-- OutboxEvent ids were generated with IDENTITY, which makes Hibernate
+-- execute every insert immediately and disables JDBC batching for
+-- multi-event transactions (folder operations, share fan-out). The
+-- entity now uses this sequence with allocationSize = 50 (pooled
+-- optimizer): one nextval reserves a range of 50 ids in the
+-- application, so inserts are batched.
+-- The increment must match allocationSize. The column default still
+-- works for raw inserts; it just leaves gaps.
+-- Ids from different instances interleave by range rather than by
+-- insert time. The relay still sends in id order, and file-events
+-- consumers (notifications, quota deltas, cache invalidation) do not
+-- depend on cross-instance order for the same file.
+-- ============================================================
+
+ALTER SEQUENCE event_outbox_id_seq INCREMENT BY 50;
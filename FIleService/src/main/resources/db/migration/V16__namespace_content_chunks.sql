@@ -0,0 +1,30 @@
+-- ============================================================
+-- Migration V16: Per-scope namespaces for content chunks
+-- ============================================================
+-- Changes:
+-- 1. content_chunks gets a namespace; primary key becomes
+--    (namespace, hash)
+-- 2. file_version_chunks records the namespace of every manifest
+--    entry; the chunk lookup index covers (chunk_namespace, chunk_hash)
+-- ============================================================
+-- The object key used to be chunks/{hash[0:2]}/{hash} for every user,
+-- while the index only reported a user's own chunks as present under
+-- the USER dedup scope. Another user was then handed a PUT URL for an
+-- existing key and could overwrite it. Chunks now live under a
+-- namespace: the uploading user's id for the USER scope, '' (the old
+-- shared key layout) for the GLOBAL scope, so a PUT URL is only ever
+-- issued for a key missing from its own namespace. Presigned PUTs also
+-- carry x-amz-checksum-sha256, and commit accepts only objects whose
+-- stored SHA-256 matches the chunk hash.
+-- Existing rows keep namespace '' and their current object keys.
+-- ============================================================
+
+ALTER TABLE content_chunks ADD COLUMN IF NOT EXISTS namespace VARCHAR(36) NOT NULL DEFAULT '';
+ALTER TABLE content_chunks DROP CONSTRAINT IF EXISTS content_chunks_pkey;
+ALTER TABLE content_chunks ADD CONSTRAINT content_chunks_pkey PRIMARY KEY (namespace, hash);
+
+ALTER TABLE file_version_chunks ADD COLUMN IF NOT EXISTS chunk_namespace VARCHAR(36) NOT NULL DEFAULT '';
+
+DROP INDEX IF EXISTS idx_file_version_chunks_hash;
+CREATE INDEX IF NOT EXISTS idx_file_version_chunks_namespace_hash
+    ON file_version_chunks(chunk_namespace, chunk_hash);
@@ -0,0 +1,33 @@
+-- ============================================================
+-- Migration V4: Materialized ancestor path for subtree operations
+-- ============================================================
+-- Changes:
+-- 1. Add ancestor_path to files: "/{rootId}/.../{parentId}/" ("/" for root items)
+-- 2. Backfill ancestor_path from parent_folder_id with a recursive CTE
+-- 3. Add btree index for prefix (subtree) range scans
+-- ============================================================
+-- The column uses the "C" collation so that a plain btree index serves
+-- range predicates (ancestor_path >= :prefix AND ancestor_path < :upper)
+-- in byte order. Only UUIDs and '/' are stored, so nothing is lost.
+-- ============================================================
+
+-- Step 1: Add column
+ALTER TABLE files ADD COLUMN IF NOT EXISTS ancestor_path TEXT COLLATE "C" NOT NULL DEFAULT '/';
+
+-- Step 2: Backfill from the parent chain
+WITH RECURSIVE tree AS (
+    SELECT id, '/'::TEXT AS ancestor_path
+    FROM files
+    WHERE parent_folder_id IS NULL
+    UNION ALL
+    SELECT f.id, t.ancestor_path || f.parent_folder_id::TEXT || '/'
+    FROM files f
+    JOIN tree t ON f.parent_folder_id = t.id
+)
+UPDATE files f
+SET ancestor_path = tree.ancestor_path
+FROM tree
+WHERE f.id = tree.id;
+
+-- Step 3: Index for subtree lookups
+CREATE INDEX IF NOT EXISTS idx_files_ancestor_path ON files(ancestor_path);
@@ -0,0 +1,29 @@
+-- ============================================================
+-- Migration V5: Trigram indexes for file search
+-- ============================================================
+-- Changes:
+-- 1. Enable pg_trgm extension
+-- 2. GIN trigram indexes on lower(name) and lower(path) for active files
+-- 3. Composite index for mime type / modified date filters
+-- ============================================================
+-- gin_trgm_ops serves LIKE '%q%', LIKE 'q%' and similarity() ranking,
+-- so substring and path-token search no longer scans all user rows.
+-- Deleted files are never searched, so the indexes are partial.
+-- ============================================================
+
+-- Step 1: Extension
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+-- Step 2: Trigram indexes
+CREATE INDEX IF NOT EXISTS idx_files_name_trgm
+    ON files USING GIN (LOWER(name) gin_trgm_ops)
+    WHERE is_deleted = false;
+
+CREATE INDEX IF NOT EXISTS idx_files_path_trgm
+    ON files USING GIN (LOWER(path) gin_trgm_ops)
+    WHERE is_deleted = false;
+
+-- Step 3: Filter index
+CREATE INDEX IF NOT EXISTS idx_files_user_mime_updated
+    ON files(user_id, mime_type, updated_at)
+    WHERE is_deleted = false;
@@ -0,0 +1,27 @@
+-- ============================================================
+-- Migration V6: Composite indexes for keyset (cursor) pagination
+-- ============================================================
+-- Changes:
+-- 1. Folder listing: (user_id, parent_folder_id, name, id) for active files
+-- 2. Root listing: (user_id, name, id) for active root items
+-- 3. Trash listing: (user_id, updated_at DESC, id DESC) for deleted files
+-- 4. Shared-with-me: (shared_with_user_id, created_at DESC, id DESC)
+-- ============================================================
+-- Each index matches the ORDER BY of its listing, so a page after a
+-- cursor is an index range scan of LIMIT rows regardless of depth.
+-- ============================================================
+
+CREATE INDEX IF NOT EXISTS idx_files_listing
+    ON files(user_id, parent_folder_id, name, id)
+    WHERE is_deleted = false;
+
+CREATE INDEX IF NOT EXISTS idx_files_root_listing
+    ON files(user_id, name, id)
+    WHERE is_deleted = false AND parent_folder_id IS NULL;
+
+CREATE INDEX IF NOT EXISTS idx_files_trash_listing
+    ON files(user_id, updated_at DESC, id DESC)
+    WHERE is_deleted = true;
+
+CREATE INDEX IF NOT EXISTS idx_file_shares_shared_with_created
+    ON file_shares(shared_with_user_id, created_at DESC, id DESC);
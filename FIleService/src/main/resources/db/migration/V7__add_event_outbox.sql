@@ -0,0 +1,33 @@
+-- ============================================================
+-- Migration V7: Transactional outbox for file events
+-- ============================================================
+-- Changes:
+-- 1. Add event_outbox: serialized Kafka messages written in the same
+--    transaction as the file change
+-- 2. Partial index over undelivered rows in relay order
+-- 3. Index for purging delivered rows
+-- ============================================================
+-- The relay (OutboxRelay) reads undelivered rows ordered by id, sends
+-- them to Kafka in batches and sets delivered_at. A crash between send
+-- and mark resends the batch (at-least-once); consumers already
+-- tolerate duplicates via eventId.
+-- ============================================================
+
+CREATE TABLE IF NOT EXISTS event_outbox (
+    id BIGSERIAL PRIMARY KEY,
+    event_id VARCHAR(64) NOT NULL,
+    event_type VARCHAR(100) NOT NULL,
+    topic VARCHAR(255) NOT NULL,
+    message_key VARCHAR(255),
+    payload TEXT NOT NULL,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    delivered_at TIMESTAMP
+);
+
+CREATE INDEX IF NOT EXISTS idx_event_outbox_pending
+    ON event_outbox(id)
+    WHERE delivered_at IS NULL;
+
+CREATE INDEX IF NOT EXISTS idx_event_outbox_delivered_at
+    ON event_outbox(delivered_at)
+    WHERE delivered_at IS NOT NULL;
@@ -0,0 +1,32 @@
+-- ============================================================
+-- Migration V8: Reference-counted content blobs for deduplication
+-- ============================================================
+-- Changes:
+-- 1. Add content_blobs: one row per stored object (storage_path) with
+--    the storage-confirmed hash/size and the number of file and
+--    version rows that point at it
+-- 2. Index for dedup lookups by (hash, size)
+-- ============================================================
+-- A blob is registered when StorageService confirms the upload
+-- (storage event "stored"), so only content that really exists is
+-- offered for linking. A new file/version with the same hash and size
+-- is linked to the existing storage_path (ref_count + 1) instead of
+-- being uploaded again. Deleting a file/version decrements ref_count;
+-- the row disappears with the last reference. Objects uploaded before
+-- this migration have no row and are treated as unshared.
+-- ============================================================
+
+CREATE TABLE IF NOT EXISTS content_blobs (
+    storage_path VARCHAR(500) PRIMARY KEY,
+    hash VARCHAR(64) NOT NULL,
+    size BIGINT NOT NULL,
+    user_id UUID NOT NULL,
+    ref_count INTEGER NOT NULL DEFAULT 1,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    CONSTRAINT chk_content_blobs_ref_count CHECK (ref_count >= 0)
+);
+
+CREATE INDEX IF NOT EXISTS idx_content_blobs_hash_size
+    ON content_blobs(hash, size)
+    WHERE ref_count > 0;
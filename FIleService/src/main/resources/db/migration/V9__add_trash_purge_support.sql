@@ -0,0 +1,23 @@
+-- ============================================================
+-- Migration V9: Scheduled purge of expired trash
+-- ============================================================
+-- Changes:
+-- 1. Add job_checkpoints: last processed position of long-running
+--    background jobs, so a restarted instance resumes mid-scan
+-- 2. Partial index over soft-deleted files in purge order
+--    (deleted_at, is_folder, id)
+-- ============================================================
+-- TrashPurgeWorker walks expired soft-deleted rows in keyset chunks.
+-- Files sort before folders with the same deleted_at, so a folder is
+-- reached after the contents that were deleted together with it.
+-- ============================================================
+
+CREATE TABLE IF NOT EXISTS job_checkpoints (
+    job_name VARCHAR(100) PRIMARY KEY,
+    position TEXT NOT NULL,
+    updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE INDEX IF NOT EXISTS idx_files_trash_purge
+    ON files(deleted_at, is_folder, id)
+    WHERE is_deleted = true;
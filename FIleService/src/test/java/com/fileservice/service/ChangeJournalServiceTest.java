@@ -0,0 +1,175 @@
+package com.fileservice.service;
+
+import com.fileservice.PostgresIntegrationTest;
+import com.fileservice.model.ChangeJournalEntry;
+import com.fileservice.model.ChangeJournalEntry.ChangeType;
+import com.fileservice.model.File;
+import com.fileservice.model.FileShare;
+import com.fileservice.model.SharePermission;
+import com.fileservice.repository.FileRepository;
+import com.fileservice.repository.FileShareRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+/**
+ * Инварианты журнала изменений: номера пользователя идут подряд, изменения транзакции пишутся
+ * при коммите (откат не оставляет записей), получатели расшаренной папки видят изменения ее поддерева.
+ * Записи появляются только при коммите, поэтому тесты работают без транзакции теста
+ */
+@Import(ChangeJournalService.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class ChangeJournalServiceTest extends PostgresIntegrationTest {
+
+    @Autowired
+    private ChangeJournalService changeJournal;
+
+    @Autowired
+    private FileRepository fileRepository;
+
+    @Autowired
+    private FileShareRepository shareRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate transactionTemplate;
+
+    private UUID ownerId;
+
+    @BeforeEach
+    void setUp() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        ownerId = UUID.randomUUID();
+    }
+
+    @Test
+    void sequenceIsContiguousAndChangesOfOneTransactionCollapse() {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+
+        transactionTemplate.executeWithoutResult(status -> {
+            changeJournal.record(ownerId, first, ChangeType.CREATED);
+            changeJournal.record(ownerId, first, ChangeType.UPDATED);
+            changeJournal.record(ownerId, second, ChangeType.CREATED);
+        });
+        transactionTemplate.executeWithoutResult(status -> changeJournal.record(ownerId, first, ChangeType.MOVED));
+
+        ChangeSet changes = changeJournal.getChangesSince(ownerId, 0, 100);
+        assertThat(changes.resetRequired()).isFalse();
+        assertThat(changes.cursor()).isEqualTo(3);
+        assertThat(changes.changes())
+                .extracting(ChangeJournalEntry::getSeq, ChangeJournalEntry::getFileId,
+                        ChangeJournalEntry::getChangeType)
+                .containsExactly(
+                        tuple(2L, second, ChangeType.CREATED),
+                        tuple(3L, first, ChangeType.MOVED));
+    }
+
+    @Test
+    void rolledBackTransactionLeavesNoEntries() {
+        transactionTemplate.executeWithoutResult(status -> {
+            changeJournal.record(ownerId, UUID.randomUUID(), ChangeType.CREATED);
+            status.setRollbackOnly();
+        });
+
+        ChangeSet changes = changeJournal.getChangesSince(ownerId, 0, 100);
+        assertThat(changes.changes()).isEmpty();
+        assertThat(changes.cursor()).isZero();
+    }
+
+    @Test
+    void pagesResumeFromCursorWithoutGapsOrRepeats() {
+        transactionTemplate.executeWithoutResult(status -> {
+            for (int i = 0; i < 5; i++) {
+                changeJournal.record(ownerId, UUID.randomUUID(), ChangeType.CREATED);
+            }
+        });
+
+        ChangeSet firstPage = changeJournal.getChangesSince(ownerId, 0, 3);
+        ChangeSet secondPage = changeJournal.getChangesSince(ownerId, firstPage.cursor(), 3);
+
+        assertThat(firstPage.hasMore()).isTrue();
+        assertThat(firstPage.changes()).extracting(ChangeJournalEntry::getSeq).containsExactly(1L, 2L, 3L);
+        assertThat(secondPage.hasMore()).isFalse();
+        assertThat(secondPage.changes()).extracting(ChangeJournalEntry::getSeq).containsExactly(4L, 5L);
+    }
+
+    @Test
+    void cursorAheadOfJournalMeansNoChangesYet() {
+        transactionTemplate.executeWithoutResult(status ->
+                changeJournal.record(ownerId, UUID.randomUUID(), ChangeType.CREATED));
+
+        // Курсор выдан узлом, который видит больше записей (например, менее отстающей репликой)
+        ChangeSet changes = changeJournal.getChangesSince(ownerId, 42, 100);
+        assertThat(changes.resetRequired()).isFalse();
+        assertThat(changes.changes()).isEmpty();
+        assertThat(changes.cursor()).isEqualTo(42);
+    }
+
+    @Test
+    void recipientsOfSharedAncestorSeeSubtreeChanges() {
+        UUID folderRecipient = UUID.randomUUID();
+        UUID outsider = UUID.randomUUID();
+
+        File document = transactionTemplate.execute(status -> {
+            File shared = fileRepository.save(File.builder()
+                    .name("shared").path("/shared-" + ownerId).userId(ownerId).isFolder(true).build());
+            File nested = fileRepository.save(File.builder()
+                    .name("doc.txt").path("/shared-" + ownerId + "/doc.txt").userId(ownerId)
+                    .parentFolder(shared).size(1L).build());
+            shareRepository.save(FileShare.builder()
+                    .file(shared).sharedWithUserId(folderRecipient).permission(SharePermission.READ)
+                    .createdBy(ownerId).build());
+            return nested;
+        });
+
+        transactionTemplate.executeWithoutResult(status ->
+                changeJournal.recordWithRecipients(document, ChangeType.UPDATED));
+
+        assertThat(changeJournal.getChangesSince(ownerId, 0, 100).changes())
+                .extracting(ChangeJournalEntry::getFileId, ChangeJournalEntry::getChangeType)
+                .containsExactly(tuple(document.getId(), ChangeType.UPDATED));
+        assertThat(changeJournal.getChangesSince(folderRecipient, 0, 100).changes())
+                .extracting(ChangeJournalEntry::getFileId, ChangeJournalEntry::getChangeType)
+                .containsExactly(tuple(document.getId(), ChangeType.UPDATED));
+        assertThat(changeJournal.getChangesSince(outsider, 0, 100).changes()).isEmpty();
+    }
+
+    @Test
+    void moveIsJournaledForRecipientsOfFormerAncestors() {
+        UUID formerRecipient = UUID.randomUUID();
+
+        List<File> created = transactionTemplate.execute(status -> {
+            File shared = fileRepository.save(File.builder()
+                    .name("team").path("/team-" + ownerId).userId(ownerId).isFolder(true).build());
+            File document = fileRepository.save(File.builder()
+                    .name("plan.txt").path("/plan-" + ownerId + ".txt").userId(ownerId).size(1L).build());
+            shareRepository.save(FileShare.builder()
+                    .file(shared).sharedWithUserId(formerRecipient).permission(SharePermission.READ)
+                    .createdBy(ownerId).build());
+            return List.of(shared, document);
+        });
+        File shared = created.get(0);
+        File document = created.get(1);
+
+        // Файл был в расшаренной папке и перемещен в корень
+        transactionTemplate.executeWithoutResult(status -> changeJournal.recordWithRecipients(document,
+                ChangeType.MOVED, List.of(shared.getId())));
+
+        assertThat(changeJournal.getChangesSince(formerRecipient, 0, 100).changes())
+                .extracting(ChangeJournalEntry::getFileId, ChangeJournalEntry::getChangeType)
+                .containsExactly(tuple(document.getId(), ChangeType.MOVED));
+    }
+}
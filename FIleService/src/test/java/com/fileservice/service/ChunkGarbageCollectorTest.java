@@ -0,0 +1,144 @@
+package com.fileservice.service;
+
+import com.fileservice.PostgresIntegrationTest;
+import com.fileservice.client.StorageServiceClient;
+import com.fileservice.repository.ContentChunkRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Сборка мусора фрагментов параллельно с коммитом версии: фрагмент, который коммит считает
+ * зарегистрированным, не удаляется до конца его транзакции, а фрагмент, который сборщик уже удаляет,
+ * коммит не считает зарегистрированным (и проверяет его в хранилище заново).
+ * Блокировки видны только между транзакциями, поэтому тесты работают без транзакции теста
+ */
+@Import({ChunkGarbageCollector.class, ChunkGarbageCollectorTest.MetricsConfig.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class ChunkGarbageCollectorTest extends PostgresIntegrationTest {
+
+    private static final String HASH = "ab".repeat(32);
+
+    @Autowired
+    private ChunkGarbageCollector garbageCollector;
+
+    @Autowired
+    private ContentChunkRepository chunkRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @MockitoBean
+    private StorageServiceClient storageServiceClient;
+
+    private TransactionTemplate transactionTemplate;
+
+    private String namespace;
+
+    @BeforeEach
+    void setUp() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        namespace = UUID.randomUUID().toString();
+        // Фрагмент вне манифестов дольше grace-периода: кандидат на удаление
+        jdbcTemplate.update("INSERT INTO content_chunks (namespace, hash, size, user_id, last_referenced_at) " +
+                "VALUES (?, ?, 1024, ?, CURRENT_TIMESTAMP - INTERVAL '2 days')", namespace, HASH, UUID.randomUUID());
+    }
+
+    @Test
+    void chunkLockedByCommitSurvivesConcurrentCollection() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            List<String> present = transactionTemplate.execute(status -> {
+                List<String> locked = chunkRepository.lockPresentHashes(namespace, List.of(HASH));
+                try {
+                    executor.submit(garbageCollector::collect).get(10, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+                return locked;
+            });
+
+            assertThat(present).containsExactly(HASH);
+            verify(storageServiceClient, never()).deleteChunks(eq(namespace), any());
+            assertThat(chunkCount()).isEqualTo(1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void chunkBeingCollectedIsNotReportedAsPresentToCommit() throws Exception {
+        CountDownLatch deleting = new CountDownLatch(1);
+        CountDownLatch proceed = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            deleting.countDown();
+            proceed.await(10, TimeUnit.SECONDS);
+            return null;
+        }).when(storageServiceClient).deleteChunks(eq(namespace), any());
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> collection = executor.submit(garbageCollector::collect);
+            assertThat(deleting.await(10, TimeUnit.SECONDS)).isTrue();
+
+            // Сборщик удерживает строку и удаляет объект: коммит ждет его транзакцию
+            Future<List<String>> commit = executor.submit(() -> transactionTemplate.execute(status ->
+                    chunkRepository.lockPresentHashes(namespace, List.of(HASH))));
+            assertThatThrownBy(() -> commit.get(500, TimeUnit.MILLISECONDS)).isInstanceOf(TimeoutException.class);
+
+            proceed.countDown();
+            collection.get(10, TimeUnit.SECONDS);
+
+            assertThat(commit.get(10, TimeUnit.SECONDS)).isEmpty();
+            assertThat(chunkCount()).isZero();
+        } finally {
+            proceed.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    private int chunkCount() {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM content_chunks WHERE namespace = ?",
+                Integer.class, namespace);
+    }
+
+    @TestConfiguration
+    static class MetricsConfig {
+
+        @Bean
+        MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.fileservice.service;
+
+import com.fileservice.PostgresIntegrationTest;
+import com.fileservice.model.File;
+import com.fileservice.repository.FileRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Инвариант агрегатов папок: после любой последовательности изменений строка каждой активной папки
+ * равна пересчету по ее активному поддереву
+ */
+@Import(FolderAggregateService.class)
+class FolderAggregateServiceTest extends PostgresIntegrationTest {
+
+    private static final UUID USER_ID = UUID.randomUUID();
+
+    /**
+     * Пересчет агрегатов по таблице files рядом с хранимыми значениями
+     */
+    private static final String CONSISTENCY_SQL = "SELECT f.id, " +
+            "a.total_size AS total_size, a.file_count AS file_count, a.folder_count AS folder_count, " +
+            "CAST(COALESCE(SUM(d.size) FILTER (WHERE d.is_folder = false), 0) AS BIGINT) AS expected_size, " +
+            "COUNT(d.id) FILTER (WHERE d.is_folder = false) AS expected_files, " +
+            "COUNT(d.id) FILTER (WHERE d.is_folder = true) AS expected_folders " +
+            "FROM files f LEFT JOIN folder_aggregates a ON a.folder_id = f.id " +
+            "LEFT JOIN files d ON d.ancestor_path LIKE f.ancestor_path || CAST(f.id AS TEXT) || '/%' " +
+            "AND d.is_deleted = false " +
+            "WHERE f.is_folder = true AND f.is_deleted = false AND f.user_id = ? " +
+            "GROUP BY f.id, a.total_size, a.file_count, a.folder_count";
+
+    @Autowired
+    private FolderAggregateService aggregateService;
+
+    @Autowired
+    private FileRepository fileRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void createdItemsAddUpAlongAncestorChain() {
+        File root = folder("root", null);
+        File docs = folder("docs", root);
+        File drafts = folder("drafts", docs);
+        file("a.txt", root, 10);
+        file("b.txt", docs, 20);
+        file("c.txt", drafts, 30);
+
+        assertConsistent();
+        assertThat(aggregate(root)).containsExactly(60L, 3L, 2L);
+        assertThat(aggregate(drafts)).containsExactly(30L, 1L, 0L);
+    }
+
+    @Test
+    void batchCreateMatchesSingleCreates() {
+        File root = folder("root", null);
+        File docs = folder("docs", root);
+        List<File> batch = List.of(
+                fileRepository.save(newFile("x.bin", docs, 5)),
+                fileRepository.save(newFile("y.bin", docs, 7)),
+                fileRepository.save(newFolder("nested", root)));
+        fileRepository.flush();
+        aggregateService.onCreated(batch);
+
+        assertConsistent();
+        assertThat(aggregate(root)).containsExactly(12L, 2L, 2L);
+    }
+
+    @Test
+    void sizeChangeMovesOnlyTheDifference() {
+        File root = folder("root", null);
+        File docs = folder("docs", root);
+        File report = file("report.pdf", docs, 100);
+
+        long oldSize = report.getSize();
+        report.setSize(250L);
+        fileRepository.saveAndFlush(report);
+        aggregateService.onSizeChanged(report, oldSize);
+
+        assertConsistent();
+        assertThat(aggregate(root)).containsExactly(250L, 1L, 1L);
+    }
+
+    @Test
+    void deletedAndRestoredSubtreeKeepsAncestorsConsistent() {
+        File root = folder("root", null);
+        File docs = folder("docs", root);
+        File drafts = folder("drafts", docs);
+        file("a.txt", docs, 10);
+        file("b.txt", drafts, 20);
+        file("kept.txt", root, 5);
+
+        aggregateService.onRemoved(docs);
+        String subtreePath = docs.getSubtreePath();
+        LocalDateTime deletedAt = LocalDateTime.now().truncatedTo(ChronoUnit.MICROS);
+        fileRepository.softDeleteSubtree(docs.getId(), subtreePath, File.subtreeUpperBound(subtreePath), deletedAt);
+
+        assertConsistent();
+        assertThat(aggregate(root)).containsExactly(5L, 1L, 0L);
+
+        fileRepository.restoreSubtree(docs.getId(), subtreePath, File.subtreeUpperBound(subtreePath), deletedAt);
+        docs.restore();
+        aggregateService.onRestored(docs);
+
+        assertConsistent();
+        assertThat(aggregate(root)).containsExactly(35L, 3L, 2L);
+        assertThat(aggregate(drafts)).containsExactly(20L, 1L, 0L);
+    }
+
+    @Test
+    void movedFolderLeavesOldBranchAndJoinsNewOne() {
+        File root = folder("root", null);
+        File left = folder("left", root);
+        File right = folder("right", root);
+        File moving = folder("moving", left);
+        file("inner.txt", moving, 40);
+        file("left.txt", left, 1);
+
+        String oldAncestorPath = moving.getAncestorPath();
+        String oldSubtreePath = moving.getSubtreePath();
+        String oldPath = moving.getPath();
+        moving.setParentFolder(right);
+        moving.setPath(right.getPath() + "/" + moving.getName());
+        moving.setAncestorPath(right.getSubtreePath());
+        File saved = fileRepository.saveAndFlush(moving);
+        fileRepository.rebaseSubtree(oldSubtreePath, File.subtreeUpperBound(oldSubtreePath),
+                saved.getSubtreePath(), oldPath, saved.getPath());
+        aggregateService.onMoved(saved, oldAncestorPath);
+
+        assertConsistent();
+        assertThat(aggregate(left)).containsExactly(1L, 1L, 0L);
+        assertThat(aggregate(right)).containsExactly(40L, 1L, 1L);
+        assertThat(aggregate(root)).containsExactly(41L, 2L, 3L);
+    }
+
+    private void assertConsistent() {
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(CONSISTENCY_SQL, USER_ID);
+        assertThat(rows).isNotEmpty();
+        for (Map<String, Object> row : rows) {
+            assertThat(row.get("total_size"))
+                    .as("aggregate row of folder %s", row.get("id"))
+                    .isNotNull();
+            assertThat(List.of(row.get("total_size"), row.get("file_count"), row.get("folder_count")))
+                    .as("aggregates of folder %s", row.get("id"))
+                    .isEqualTo(List.of(row.get("expected_size"), row.get("expected_files"),
+                            row.get("expected_folders")));
+        }
+    }
+
+    private List<Long> aggregate(File folder) {
+        return jdbcTemplate.queryForObject(
+                "SELECT total_size, file_count, folder_count FROM folder_aggregates WHERE folder_id = ?",
+                (rs, rowNum) -> List.of(rs.getLong(1), rs.getLong(2), rs.getLong(3)),
+                folder.getId());
+    }
+
+    private File folder(String name, File parent) {
+        File saved = fileRepository.saveAndFlush(newFolder(name, parent));
+        aggregateService.onCreated(saved);
+        return saved;
+    }
+
+    private File file(String name, File parent, long size) {
+        File saved = fileRepository.saveAndFlush(newFile(name, parent, size));
+        aggregateService.onCreated(saved);
+        return saved;
+    }
+
+    private static File newFolder(String name, File parent) {
+        return File.builder()
+                .name(name)
+                .path(pathOf(name, parent))
+                .parentFolder(parent)
+                .userId(USER_ID)
+                .isFolder(true)
+                .build();
+    }
+
+    private static File newFile(String name, File parent, long size) {
+        return File.builder()
+                .name(name)
+                .path(pathOf(name, parent))
+                .parentFolder(parent)
+                .userId(USER_ID)
+                .size(size)
+                .build();
+    }
+
+    private static String pathOf(String name, File parent) {
+        return parent != null ? parent.getPath() + "/" + name : "/" + name;
+    }
+}
@@ -0,0 +1,208 @@
+package com.fileservice.service;
+
+import com.fileservice.PostgresIntegrationTest;
+import com.fileservice.grpc.CreateFileRequest;
+import com.fileservice.grpc.FileMetadata;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Инварианты идемпотентности: действие выполняется не больше одного раза на ключ пользователя,
+ * повтор получает исходный ответ, ошибка освобождает ключ, ключ нельзя использовать для другого запроса,
+ * истекший ключ считается свободным.
+ * Ключ захватывается в собственной транзакции сервиса, поэтому тесты работают без транзакции теста
+ */
+@Import({IdempotencyService.class, IdempotencyServiceTest.MetricsConfig.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class IdempotencyServiceTest extends PostgresIntegrationTest {
+
+    private static final String OPERATION = "CreateFile";
+
+    @Autowired
+    private IdempotencyService idempotencyService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private UUID userId;
+    private AtomicInteger executions;
+
+    @BeforeEach
+    void setUp() {
+        userId = UUID.randomUUID();
+        executions = new AtomicInteger();
+    }
+
+    @Test
+    void retryReplaysStoredResponseWithoutRunningActionAgain() {
+        CreateFileRequest request = request("report.pdf");
+
+        FileMetadata first = execute(userId, "key-1", request, () -> created("report.pdf"));
+        FileMetadata retry = execute(userId, "key-1", request, () -> created("report.pdf"));
+
+        assertThat(executions).hasValue(1);
+        assertThat(retry).isEqualTo(first);
+    }
+
+    @Test
+    void keyReusedForDifferentRequestIsRejected() {
+        execute(userId, "key-1", request("a.txt"), () -> created("a.txt"));
+
+        assertThatThrownBy(() -> execute(userId, "key-1", request("b.txt"), () -> created("b.txt")))
+                .isInstanceOf(IdempotencyService.IdempotencyKeyException.class);
+        assertThat(executions).hasValue(1);
+    }
+
+    @Test
+    void failedAttemptReleasesKey() {
+        CreateFileRequest request = request("quota.bin");
+
+        assertThatThrownBy(() -> execute(userId, "key-1", request, () -> {
+            throw new IllegalStateException("Quota exceeded");
+        })).isInstanceOf(IllegalStateException.class);
+        FileMetadata retry = execute(userId, "key-1", request, () -> created("quota.bin"));
+
+        assertThat(executions).hasValue(2);
+        assertThat(retry.getName()).isEqualTo("quota.bin");
+    }
+
+    @Test
+    void keysAreScopedPerUser() {
+        CreateFileRequest request = request("shared-name.txt");
+
+        execute(userId, "key-1", request, () -> created("shared-name.txt"));
+        execute(UUID.randomUUID(), "key-1", request, () -> created("shared-name.txt"));
+
+        assertThat(executions).hasValue(2);
+    }
+
+    @Test
+    void requestWithoutKeyAlwaysRuns() {
+        CreateFileRequest request = request("plain.txt");
+
+        execute(userId, "", request, () -> created("plain.txt"));
+        execute(userId, "", request, () -> created("plain.txt"));
+
+        assertThat(executions).hasValue(2);
+    }
+
+    @Test
+    void expiredKeyIsClaimedAgainBeforeCleanup() {
+        execute(userId, "key-1", request("old.txt"), () -> created("old.txt"));
+        expire(userId, "key-1");
+
+        // Ключ старше ttl не повторяет старый ответ и не отклоняет другой запрос
+        FileMetadata fresh = execute(userId, "key-1", request("new.txt"), () -> created("new.txt"));
+
+        assertThat(executions).hasValue(2);
+        assertThat(fresh.getName()).isEqualTo("new.txt");
+    }
+
+    @Test
+    void replayedResponsePassesThroughReplayHook() {
+        CreateFileRequest request = request("upload.bin");
+        FileMetadata first = execute(userId, "key-1", request, () -> created("upload.bin").toBuilder()
+                .setUploadUrl("https://storage/expired").build());
+
+        FileMetadata retry = idempotencyService.execute(OPERATION, userId, "key-1", request, FileMetadata.parser(),
+                () -> created("upload.bin"),
+                replayed -> replayed.toBuilder().setUploadUrl("https://storage/fresh").build());
+
+        assertThat(executions).hasValue(1);
+        assertThat(retry.getId()).isEqualTo(first.getId());
+        assertThat(retry.getUploadUrl()).isEqualTo("https://storage/fresh");
+    }
+
+    @Test
+    void concurrentRetryWaitsForFirstAttemptAndReplaysIt() throws Exception {
+        CreateFileRequest request = request("slow.bin");
+        CountDownLatch claimed = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<FileMetadata> first = executor.submit(() -> execute(userId, "key-1", request, () -> {
+                claimed.countDown();
+                await(release);
+                return created("slow.bin");
+            }));
+            assertThat(claimed.await(10, TimeUnit.SECONDS)).isTrue();
+
+            // Повтор блокируется на строке ключа, пока первая попытка не завершится
+            Future<FileMetadata> retry = executor.submit(() -> execute(userId, "key-1", request,
+                    () -> created("slow.bin")));
+            release.countDown();
+
+            assertThat(retry.get(10, TimeUnit.SECONDS)).isEqualTo(first.get(10, TimeUnit.SECONDS));
+            assertThat(executions).hasValue(1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private FileMetadata execute(UUID user, String key, CreateFileRequest request, Supplier<FileMetadata> action) {
+        return idempotencyService.execute(OPERATION, user, key, request, FileMetadata.parser(), () -> {
+            executions.incrementAndGet();
+            return action.get();
+        });
+    }
+
+    private void expire(UUID user, String key) {
+        jdbcTemplate.update("UPDATE idempotency_keys SET created_at = CURRENT_TIMESTAMP - INTERVAL '25 hours' " +
+                "WHERE user_id = ? AND idempotency_key = ?", user, key);
+    }
+
+    private CreateFileRequest request(String name) {
+        return CreateFileRequest.newBuilder()
+                .setName(name)
+                .setPath("/" + name)
+                .setUserId(userId.toString())
+                .build();
+    }
+
+    private static FileMetadata created(String name) {
+        return FileMetadata.newBuilder()
+                .setId(UUID.randomUUID().toString())
+                .setName(name)
+                .setPath("/" + name)
+                .build();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @TestConfiguration
+    static class MetricsConfig {
+
+        @Bean
+        MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+    }
+}
@@ -14,11 +14,18 @@ import java.util.concurrent.Callable;
 @RequiredArgsConstructor
 public class FileServiceClient {
 
-    @GrpcClient("file-service")
+    @GrpcClient(value = "file-service", interceptors = ReadYourWritesClientInterceptor.class)
     private FileServiceGrpc.FileServiceBlockingStub fileServiceStub;
 
+    /**
+     * Stub вызова от имени пользователя: метка его последней записи передается в FileService
+     */
+    private FileServiceGrpc.FileServiceBlockingStub stub(String userId) {
+        return fileServiceStub.withOption(ReadYourWritesClientInterceptor.USER_ID, userId);
+    }
+
     public Mono<com.fileservice.grpc.FileMetadata> createFile(String userId, String name, String path,
-            long size, String mimeType, String hash, boolean isFolder, String parentFolderId) {
+            long size, String mimeType, String hash, boolean isFolder, String parentFolderId, String idempotencyKey) {
         return Mono.fromCallable((Callable<com.fileservice.grpc.FileMetadata>) () -> {
             try {
                 com.fileservice.grpc.CreateFileRequest.Builder builder = com.fileservice.grpc.CreateFileRequest
@@ -33,7 +40,10 @@ public class FileServiceClient {
                 if (parentFolderId != null && !parentFolderId.isEmpty()) {
                     builder.setParentFolderId(parentFolderId);
                 }
-                return fileServiceStub.createFile(builder.build());
+                if (idempotencyKey != null && !idempotencyKey.isEmpty()) {
+                    builder.setIdempotencyKey(idempotencyKey);
+                }
+                return stub(userId).createFile(builder.build());
             } catch (Exception e) {
                 log.error("Error creating file via gRPC: {}", e.getMessage(), e);
                 throw new RuntimeException("File service unavailable: " + e.getMessage(), e);
@@ -41,6 +51,40 @@ public class FileServiceClient {
         });
     }
 
+    public Mono<com.fileservice.grpc.BatchFilesResponse> batchCreateFiles(String userId,
+            java.util.List<com.fileservice.grpc.BatchCreateFileItem> items) {
+        return Mono.fromCallable((Callable<com.fileservice.grpc.BatchFilesResponse>) () -> {
+            try {
+                com.fileservice.grpc.BatchCreateFilesRequest request = com.fileservice.grpc.BatchCreateFilesRequest
+                        .newBuilder()
+                        .setUserId(userId)
+                        .addAllItems(items)
+                        .build();
+                return stub(userId).batchCreateFiles(request);
+            } catch (Exception e) {
+                log.error("Error batch creating files via gRPC: {}", e.getMessage(), e);
+                throw new RuntimeException("File service unavailable: " + e.getMessage(), e);
+            }
+        });
+    }
+
+    public Mono<com.fileservice.grpc.BatchFilesResponse> batchGetFiles(String userId,
+            java.util.List<String> fileIds) {
+        return Mono.fromCallable((Callable<com.fileservice.grpc.BatchFilesResponse>) () -> {
+            try {
+                com.fileservice.grpc.BatchGetFilesRequest request = com.fileservice.grpc.BatchGetFilesRequest
+                        .newBuilder()
+                        .setUserId(userId)
+                        .addAllFileIds(fileIds)
+                        .build();
+                return stub(userId).batchGetFiles(request);
+            } catch (Exception e) {
+                log.error("Error batch getting files via gRPC: {}", e.getMessage(), e);
+                throw new RuntimeException("File service unavailable: " + e.getMessage(), e);
+            }
+        });
+    }
+
     public Mono<com.fileservice.grpc.FileMetadata> getFile(String fileId, String userId) {
         return Mono.fromCallable((Callable<com.fileservice.grpc.FileMetadata>) () -> {
             try {
@@ -48,7 +92,7 @@ public class FileServiceClient {
                         .setFileId(fileId)
                         .setUserId(userId)
                         .build();
-                return fileServiceStub.getFile(request);
+                return stub(userId).getFile(request);
             } catch (Exception e) {
                 log.error("Error getting file via gRPC: {}", e.getMessage(), e);
                 throw new RuntimeException("File service unavailable: " + e.getMessage(), e);
@@ -57,7 +101,7 @@ public class FileServiceClient {
     }
 
     public Mono<com.fileservice.grpc.FileMetadata> updateFile(String fileId, String userId,
-            String name, Long size, String hash, Integer version) {
+            String name, Long size, String hash, Integer version, String idempotencyKey) {
         return Mono.fromCallable((Callable<com.fileservice.grpc.FileMetadata>) () -> {
             try {
                 com.fileservice.grpc.UpdateFileRequest.Builder builder = com.fileservice.grpc.UpdateFileRequest
@@ -72,7 +116,9 @@ public class FileServiceClient {
                     builder.setHash(hash);
                 if (version != null)
                     builder.setVersion(version);
-                return fileServiceStub.updateFile(builder.build());
+                if (idempotencyKey != null && !idempotencyKey.isEmpty())
+                    builder.setIdempotencyKey(idempotencyKey);
+                return stub(userId).updateFile(builder.build());
             } catch (Exception e) {
                 log.error("Error updating file via gRPC: {}", e.getMessage(), e);
                 throw new RuntimeException("File service unavailable: " + e.getMessage(), e);
@@ -87,7 +133,7 @@ public class FileServiceClient {
                         .setFileId(fileId)
                         .setUserId(userId)
                         .build();
-                fileServiceStub.deleteFile(request);
+                stub(userId).deleteFile(request);
                 return null;
             } catch (Exception e) {
                 log.error("Error deleting file via gRPC: {}", e.getMessage(), e);
@@ -97,7 +143,8 @@ public class FileServiceClient {
     }
 
     public Mono<com.fileservice.grpc.FileListResponse> listFiles(String userId, String path,
-            String parentFolderId, String search, int limit, int offset) {
+            String parentFolderId, String search, String mimeType, String modifiedAfter, String modifiedBefore,
+            int limit, int offset, String cursor, boolean includeTotal) {
         return Mono.fromCallable((Callable<com.fileservice.grpc.FileListResponse>) () -> {
             try {
                 com.fileservice.grpc.ListFilesRequest.Builder builder = com.fileservice.grpc.ListFilesRequest
@@ -111,7 +158,17 @@ public class FileServiceClient {
                     builder.setParentFolderId(parentFolderId);
                 if (search != null && !search.isEmpty())
                     builder.setSearchQuery(search);
-                return fileServiceStub.listFiles(builder.build());
+                if (mimeType != null && !mimeType.isEmpty())
+                    builder.setMimeType(mimeType);
+                if (modifiedAfter != null && !modifiedAfter.isEmpty())
+                    builder.setModifiedAfter(modifiedAfter);
+                if (modifiedBefore != null && !modifiedBefore.isEmpty())
+                    builder.setModifiedBefore(modifiedBefore);
+                if (cursor != null) {
+                    builder.setCursor(cursor);
+                    builder.setIncludeTotal(includeTotal);
+                }
+                return stub(userId).listFiles(builder.build());
             } catch (Exception e) {
                 log.error("Error listing files via gRPC: {}", e.getMessage(), e);
                 throw new RuntimeException("File service unavailable: " + e.getMessage(), e);
@@ -119,15 +176,20 @@ public class FileServiceClient {
         });
     }
 
-    public Mono<com.fileservice.grpc.FileListResponse> listTrash(String userId, int limit, int offset) {
+    public Mono<com.fileservice.grpc.FileListResponse> listTrash(String userId, int limit, int offset,
+            String cursor, boolean includeTotal) {
         return Mono.fromCallable((Callable<com.fileservice.grpc.FileListResponse>) () -> {
             try {
-                com.fileservice.grpc.ListTrashRequest request = com.fileservice.grpc.ListTrashRequest.newBuilder()
+                com.fileservice.grpc.ListTrashRequest.Builder builder = com.fileservice.grpc.ListTrashRequest
+                        .newBuilder()
                         .setUserId(userId)
                         .setLimit(limit)
-                        .setOffset(offset)
-                        .build();
-                return fileServiceStub.listTrash(request);
+                        .setOffset(offset);
+                if (cursor != null) {
+                    builder.setCursor(cursor);
+                    builder.setIncludeTotal(includeTotal);
+                }
+                return stub(userId).listTrash(builder.build());
             } catch (Exception e) {
                 log.error("Error listing trash via gRPC: {}", e.getMessage(), e);
                 throw new RuntimeException("File service unavailable: " + e.getMessage(), e);
@@ -142,7 +204,7 @@ public class FileServiceClient {
                         .setFileId(fileId)
                         .setUserId(userId)
                         .build();
-                fileServiceStub.restoreFile(request);
+                stub(userId).restoreFile(request);
                 return null;
             } catch (Exception e) {
                 log.error("Error restoring file via gRPC: {}", e.getMessage(), e);
@@ -151,14 +213,13 @@ public class FileServiceClient {
         });
     }
 
-    public Mono<Void> emptyTrash(String userId) {
-        return Mono.fromCallable((Callable<Void>) () -> {
+    public Mono<com.fileservice.grpc.EmptyTrashJobResponse> emptyTrash(String userId) {
+        return Mono.fromCallable((Callable<com.fileservice.grpc.EmptyTrashJobResponse>) () -> {
             try {
                 com.fileservice.grpc.EmptyTrashRequest request = com.fileservice.grpc.EmptyTrashRequest.newBuilder()
                         .setUserId(userId)
                         .build();
-                fileServiceStub.emptyTrash(request);
-                return null;
+                return stub(userId).emptyTrash(request);
             } catch (Exception e) {
                 log.error("Error emptying trash via gRPC: {}", e.getMessage(), e);
                 throw new RuntimeException("File service unavailable: " + e.getMessage(), e);
@@ -166,17 +227,36 @@ public class FileServiceClient {
         });
     }
 
+    public Mono<com.fileservice.grpc.EmptyTrashJobResponse> getEmptyTrashJob(String jobId, String userId) {
+        return Mono.fromCallable((Callable<com.fileservice.grpc.EmptyTrashJobResponse>) () -> {
+            try {
+                com.fileservice.grpc.GetEmptyTrashJobRequest request = com.fileservice.grpc.GetEmptyTrashJobRequest
+                        .newBuilder()
+                        .setJobId(jobId)
+                        .setUserId(userId)
+                        .build();
+                return stub(userId).getEmptyTrashJob(request);
+            } catch (Exception e) {
+                log.error("Error getting empty trash job via gRPC: {}", e.getMessage(), e);
+                throw new RuntimeException("File service unavailable: " + e.getMessage(), e);
+            }
+        });
+    }
+
     public Mono<com.fileservice.grpc.ShareResponse> shareFile(String fileId, String ownerId,
-            String sharedWithUserId, String permission) {
+            String sharedWithUserId, String permission, String idempotencyKey) {
         return Mono.fromCallable((Callable<com.fileservice.grpc.ShareResponse>) () -> {
             try {
-                com.fileservice.grpc.ShareFileRequest request = com.fileservice.grpc.ShareFileRequest.newBuilder()
+                com.fileservice.grpc.ShareFileRequest.Builder builder = com.fileservice.grpc.ShareFileRequest
+                        .newBuilder()
                         .setFileId(fileId)
                         .setOwnerId(ownerId)
                         .setSharedWithUserId(sharedWithUserId)
-                        .setPermission(permission)
-                        .build();
-                return fileServiceStub.shareFile(request);
+                        .setPermission(permission);
+                if (idempotencyKey != null && !idempotencyKey.isEmpty()) {
+                    builder.setIdempotencyKey(idempotencyKey);
+                }
+                return stub(ownerId).shareFile(builder.build());
             } catch (Exception e) {
                 log.error("Error sharing file via gRPC: {}", e.getMessage(), e);
                 throw new RuntimeException("File service unavailable: " + e.getMessage(), e);
@@ -191,7 +271,7 @@ public class FileServiceClient {
                         .setFileId(fileId)
                         .setUserId(userId)
                         .build();
-                return fileServiceStub.getFileVersions(request);
+                return stub(userId).getFileVersions(request);
             } catch (Exception e) {
                 log.error("Error getting file versions via gRPC: {}", e.getMessage(), e);
                 throw new RuntimeException("File service unavailable: " + e.getMessage(), e);
@@ -208,7 +288,7 @@ public class FileServiceClient {
                         .setVersion(version)
                         .setUserId(userId)
                         .build();
-                return fileServiceStub.restoreVersion(request);
+                return stub(userId).restoreVersion(request);
             } catch (Exception e) {
                 log.error("Error restoring version via gRPC: {}", e.getMessage(), e);
                 throw new RuntimeException("File service unavailable: " + e.getMessage(), e);
@@ -216,6 +296,66 @@ public class FileServiceClient {
         });
     }
 
+    public Mono<com.fileservice.grpc.ChunkedUploadResponse> negotiateChunkedUpload(
+            com.fileservice.grpc.ChunkedUploadRequest request) {
+        return Mono.fromCallable((Callable<com.fileservice.grpc.ChunkedUploadResponse>) () -> {
+            try {
+                return stub(request.getUserId()).negotiateChunkedUpload(request);
+            } catch (Exception e) {
+                log.error("Error negotiating chunked upload via gRPC: {}", e.getMessage(), e);
+                throw new RuntimeException("File service unavailable: " + e.getMessage(), e);
+            }
+        });
+    }
+
+    public Mono<com.fileservice.grpc.FileMetadata> commitChunkedVersion(
+            com.fileservice.grpc.ChunkedUploadRequest request) {
+        return Mono.fromCallable((Callable<com.fileservice.grpc.FileMetadata>) () -> {
+            try {
+                return stub(request.getUserId()).commitChunkedVersion(request);
+            } catch (Exception e) {
+                log.error("Error committing chunked version via gRPC: {}", e.getMessage(), e);
+                throw new RuntimeException("File service unavailable: " + e.getMessage(), e);
+            }
+        });
+    }
+
+    public Mono<com.fileservice.grpc.ChunkManifestResponse> getChunkManifest(String fileId, String userId,
+            Integer version) {
+        return Mono.fromCallable((Callable<com.fileservice.grpc.ChunkManifestResponse>) () -> {
+            try {
+                com.fileservice.grpc.GetChunkManifestRequest.Builder builder = com.fileservice.grpc.GetChunkManifestRequest
+                        .newBuilder()
+                        .setFileId(fileId)
+                        .setUserId(userId);
+                if (version != null) {
+                    builder.setVersion(version);
+                }
+                return stub(userId).getChunkManifest(builder.build());
+            } catch (Exception e) {
+                log.error("Error getting chunk manifest via gRPC: {}", e.getMessage(), e);
+                throw new RuntimeException("File service unavailable: " + e.getMessage(), e);
+            }
+        });
+    }
+
+    public Mono<com.fileservice.grpc.ChangesResponse> getChangesSince(String userId, long cursor, int limit) {
+        return Mono.fromCallable((Callable<com.fileservice.grpc.ChangesResponse>) () -> {
+            try {
+                com.fileservice.grpc.GetChangesSinceRequest request = com.fileservice.grpc.GetChangesSinceRequest
+                        .newBuilder()
+                        .setUserId(userId)
+                        .setCursor(cursor)
+                        .setLimit(limit)
+                        .build();
+                return stub(userId).getChangesSince(request);
+            } catch (Exception e) {
+                log.error("Error getting changes via gRPC: {}", e.getMessage(), e);
+                throw new RuntimeException("File service unavailable: " + e.getMessage(), e);
+            }
+        });
+    }
+
     public Mono<com.fileservice.grpc.PermissionResponse> checkPermission(String fileId, String userId,
             String requiredPermission) {
         return Mono.fromCallable((Callable<com.fileservice.grpc.PermissionResponse>) () -> {
@@ -226,7 +366,7 @@ public class FileServiceClient {
                         .setUserId(userId)
                         .setRequiredPermission(requiredPermission)
                         .build();
-                return fileServiceStub.checkPermission(request);
+                return stub(userId).checkPermission(request);
             } catch (Exception e) {
                 log.error("Error checking permission via gRPC: {}", e.getMessage(), e);
                 throw new RuntimeException("File service unavailable: " + e.getMessage(), e);
@@ -242,7 +382,7 @@ public class FileServiceClient {
                         .setNewParentFolderId(newParentFolderId != null ? newParentFolderId : "")
                         .setUserId(userId)
                         .build();
-                return fileServiceStub.moveFile(request);
+                return stub(userId).moveFile(request);
             } catch (Exception e) {
                 log.error("Error moving file via gRPC: {}", e.getMessage(), e);
                 throw new RuntimeException("File service unavailable: " + e.getMessage(), e);
@@ -250,14 +390,19 @@ public class FileServiceClient {
         });
     }
 
-    public Mono<com.fileservice.grpc.FileListResponse> listSharedWithMe(String userId) {
+    public Mono<com.fileservice.grpc.FileListResponse> listSharedWithMe(String userId, int limit, String cursor,
+            boolean includeTotal) {
         return Mono.fromCallable((Callable<com.fileservice.grpc.FileListResponse>) () -> {
             try {
-                com.fileservice.grpc.ListSharedWithMeRequest request = com.fileservice.grpc.ListSharedWithMeRequest
+                com.fileservice.grpc.ListSharedWithMeRequest.Builder builder = com.fileservice.grpc.ListSharedWithMeRequest
                         .newBuilder()
                         .setUserId(userId)
-                        .build();
-                return fileServiceStub.listSharedWithMe(request);
+                        .setLimit(limit);
+                if (cursor != null) {
+                    builder.setCursor(cursor);
+                    builder.setIncludeTotal(includeTotal);
+                }
+                return stub(userId).listSharedWithMe(builder.build());
             } catch (Exception e) {
                 log.error("Error listing shared with me files via gRPC: {}", e.getMessage(), e);
                 throw new RuntimeException("File service unavailable: " + e.getMessage(), e);
@@ -272,7 +417,7 @@ public class FileServiceClient {
                         .setOwnerId(ownerId)
                         .setFileId(fileId)
                         .build();
-                return fileServiceStub.listMyShares(request);
+                return stub(ownerId).listMyShares(request);
             } catch (Exception e) {
                 log.error("Error listing my shares via gRPC: {}", e.getMessage(), e);
                 throw new RuntimeException("File service unavailable: " + e.getMessage(), e);
@@ -287,7 +432,7 @@ public class FileServiceClient {
                         .setShareId(shareId)
                         .setOwnerId(ownerId)
                         .build();
-                fileServiceStub.revokeShare(request);
+                stub(ownerId).revokeShare(request);
                 return null;
             } catch (Exception e) {
                 log.error("Error revoking share via gRPC: {}", e.getMessage(), e);
@@ -304,7 +449,7 @@ public class FileServiceClient {
                         .setFileId(fileId)
                         .setUserId(userId)
                         .build();
-                return fileServiceStub.getFileAccessContext(request);
+                return stub(userId).getFileAccessContext(request);
             } catch (Exception e) {
                 log.error("Error getting file access context via gRPC: {}", e.getMessage(), e);
                 throw new RuntimeException("File service unavailable: " + e.getMessage(), e);
@@ -322,7 +467,7 @@ public class FileServiceClient {
                         .setSize(size)
                         .setHash(hash != null ? hash : "")
                         .build();
-                return fileServiceStub.addFileVersion(request);
+                return stub(userId).addFileVersion(request);
             } catch (Exception e) {
                 log.error("Error adding file version via gRPC: {}", e.getMessage(), e);
                 throw new RuntimeException("File service unavailable: " + e.getMessage(), e);
@@ -0,0 +1,83 @@
+package com.gatewayservice.client;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ForwardingClientCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Read-your-writes между экземплярами FileService: метку последней записи пользователя
+ * (x-last-write-at из ответа FileService) gateway запоминает и передает в следующих вызовах этого
+ * пользователя, на какой бы экземпляр они ни попали. По метке FileService не отправляет чтение
+ * на реплику, которая еще не догнала запись.
+ * Пользователь вызова задается опцией USER_ID (FileServiceClient)
+ */
+@Component
+public class ReadYourWritesClientInterceptor implements ClientInterceptor {
+
+    public static final CallOptions.Key<String> USER_ID = CallOptions.Key.create("read-your-writes-user-id");
+
+    static final Metadata.Key<String> LAST_WRITE_AT =
+            Metadata.Key.of("x-last-write-at", Metadata.ASCII_STRING_MARSHALLER);
+
+    /**
+     * Метки старше ttl (максимального отставания реплик в FileService) ни на что не влияют
+     */
+    private final Cache<String, Long> lastWrites;
+
+    public ReadYourWritesClientInterceptor(
+            @Value("${gateway.read-your-writes.ttl:5s}") Duration ttl) {
+        this.lastWrites = Caffeine.newBuilder()
+                .expireAfterWrite(ttl)
+                .maximumSize(100_000)
+                .build();
+    }
+
+    @Override
+    public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> method,
+            CallOptions callOptions, Channel next) {
+        String userId = callOptions.getOption(USER_ID);
+        if (userId == null || userId.isEmpty()) {
+            return next.newCall(method, callOptions);
+        }
+
+        return new ForwardingClientCall.SimpleForwardingClientCall<>(next.newCall(method, callOptions)) {
+            @Override
+            public void start(Listener<RespT> responseListener, Metadata headers) {
+                Long lastWrite = lastWrites.getIfPresent(userId);
+                if (lastWrite != null) {
+                    headers.put(LAST_WRITE_AT, Long.toString(lastWrite));
+                }
+                super.start(new ForwardingClientCallListener.SimpleForwardingClientCallListener<>(responseListener) {
+                    @Override
+                    public void onHeaders(Metadata responseHeaders) {
+                        remember(userId, responseHeaders.get(LAST_WRITE_AT));
+                        super.onHeaders(responseHeaders);
+                    }
+                }, headers);
+            }
+        };
+    }
+
+    private void remember(String userId, String value) {
+        if (value == null) {
+            return;
+        }
+        try {
+            long writtenAt = Long.parseLong(value);
+            lastWrites.asMap().merge(userId, writtenAt, Math::max);
+        } catch (NumberFormatException ignored) {
+            // Некорректная метка не должна ломать ответ
+        }
+    }
+}
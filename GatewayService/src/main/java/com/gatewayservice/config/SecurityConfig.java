@@ -50,6 +50,7 @@ public class SecurityConfig {
                 "Content-Type",
                 "X-Request-Id",
                 "X-User-Id",
+                "Idempotency-Key",
                 "X-Forwarded-For",
                 "Upgrade",
                 "Connection",
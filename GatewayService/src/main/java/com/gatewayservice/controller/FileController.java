@@ -26,6 +26,7 @@ public class FileController {
         @PostMapping("/files")
         public Mono<ResponseEntity<Object>> createFile(
                         @RequestHeader("X-User-Id") String userId,
+                        @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
                         @RequestBody Map<String, Object> requestBody) {
                 log.info("Create file request for userId: {}", userId);
 
@@ -39,7 +40,8 @@ public class FileController {
                 boolean isFolder = isFolderObj != null && isFolderObj;
                 String parentFolderId = (String) requestBody.get("parentFolderId");
 
-                return fileServiceClient.createFile(userId, name, path, size, mimeType, hash, isFolder, parentFolderId)
+                return fileServiceClient.createFile(userId, name, path, size, mimeType, hash, isFolder, parentFolderId,
+                                idempotencyKey)
                                 .map(response -> ResponseEntity.ok((Object) convertFileMetadataToMap(response)))
                                 .onErrorResume(e -> {
                                         log.error("Create file error: {}", e.getMessage());
@@ -52,6 +54,82 @@ public class FileController {
                                 });
         }
 
+        @PostMapping("/files/batch")
+        public Mono<ResponseEntity<Object>> batchCreateFiles(
+                        @RequestHeader("X-User-Id") String userId,
+                        @RequestBody Map<String, Object> requestBody) {
+                @SuppressWarnings("unchecked")
+                java.util.List<Map<String, Object>> rawItems = (java.util.List<Map<String, Object>>) requestBody
+                                .getOrDefault("items", java.util.List.of());
+                log.info("Batch create request for userId: {}, items: {}", userId, rawItems.size());
+
+                java.util.List<com.fileservice.grpc.BatchCreateFileItem> items = rawItems.stream()
+                                .map(item -> {
+                                        com.fileservice.grpc.BatchCreateFileItem.Builder builder = com.fileservice.grpc.BatchCreateFileItem
+                                                        .newBuilder()
+                                                        .setName((String) item.get("name"))
+                                                        .setPath((String) item.get("path"))
+                                                        .setSize(((Number) item.getOrDefault("size", 0)).longValue())
+                                                        .setMimeType((String) item.getOrDefault("mimeType",
+                                                                        "application/octet-stream"))
+                                                        .setHash(item.get("hash") != null ? (String) item.get("hash")
+                                                                        : "")
+                                                        .setIsFolder(Boolean.TRUE.equals(item.get("isFolder")));
+                                        if (item.get("parentFolderId") != null) {
+                                                builder.setParentFolderId((String) item.get("parentFolderId"));
+                                        }
+                                        if (item.get("parentIndex") != null) {
+                                                builder.setParentIndex(((Number) item.get("parentIndex")).intValue());
+                                        }
+                                        return builder.build();
+                                })
+                                .toList();
+
+                return fileServiceClient.batchCreateFiles(userId, items)
+                                .map(response -> {
+                                        Map<String, Object> result = new java.util.HashMap<>();
+                                        result.put("files", response.getFilesList().stream()
+                                                        .map(this::convertFileMetadataToMap)
+                                                        .collect(java.util.stream.Collectors.toList()));
+                                        return ResponseEntity.ok((Object) result);
+                                })
+                                .onErrorResume(e -> {
+                                        log.error("Batch create error: {}", e.getMessage());
+                                        HttpStatus status = e.getMessage().contains("quota")
+                                                        ? HttpStatus.FORBIDDEN
+                                                        : HttpStatus.INTERNAL_SERVER_ERROR;
+                                        return Mono.just(ResponseEntity.status(status)
+                                                        .body(new com.gatewayservice.model.ErrorResponse(
+                                                                        e.getMessage())));
+                                });
+        }
+
+        @PostMapping("/files/batch-get")
+        public Mono<ResponseEntity<Object>> batchGetFiles(
+                        @RequestHeader("X-User-Id") String userId,
+                        @RequestBody Map<String, Object> requestBody) {
+                @SuppressWarnings("unchecked")
+                java.util.List<String> fileIds = (java.util.List<String>) requestBody
+                                .getOrDefault("fileIds", java.util.List.of());
+                log.info("Batch get request for userId: {}, ids: {}", userId, fileIds.size());
+
+                return fileServiceClient.batchGetFiles(userId, fileIds)
+                                .map(response -> {
+                                        Map<String, Object> result = new java.util.HashMap<>();
+                                        result.put("files", response.getFilesList().stream()
+                                                        .map(this::convertFileMetadataToMap)
+                                                        .collect(java.util.stream.Collectors.toList()));
+                                        result.put("missingIds", response.getMissingIdsList());
+                                        return ResponseEntity.ok((Object) result);
+                                })
+                                .onErrorResume(e -> {
+                                        log.error("Batch get error: {}", e.getMessage());
+                                        return Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                                                        .body(new com.gatewayservice.model.ErrorResponse(
+                                                                        e.getMessage())));
+                                });
+        }
+
         @GetMapping("/files/{fileId}")
         public Mono<ResponseEntity<Object>> getFile(
                         @RequestHeader("X-User-Id") String userId,
@@ -70,6 +148,7 @@ public class FileController {
         @PutMapping("/files/{fileId}")
         public Mono<ResponseEntity<Object>> updateFile(
                         @RequestHeader("X-User-Id") String userId,
+                        @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
                         @PathVariable String fileId,
                         @RequestBody Map<String, Object> requestBody) {
                 log.info("Update file request for fileId: {}, userId: {}", fileId, userId);
@@ -81,7 +160,7 @@ public class FileController {
                 Number versionObj = (Number) requestBody.get("version");
                 Integer version = versionObj != null ? versionObj.intValue() : null;
 
-                return fileServiceClient.updateFile(fileId, userId, name, size, hash, version)
+                return fileServiceClient.updateFile(fileId, userId, name, size, hash, version, idempotencyKey)
                                 .map(response -> ResponseEntity.ok((Object) convertFileMetadataToMap(response)))
                                 .onErrorResume(e -> {
                                         log.error("Update file error: {}", e.getMessage());
@@ -112,16 +191,23 @@ public class FileController {
                         @RequestParam(required = false) String path,
                         @RequestParam(required = false) String parentFolderId,
                         @RequestParam(required = false) String search,
+                        @RequestParam(required = false) String mimeType,
+                        @RequestParam(required = false) String modifiedAfter,
+                        @RequestParam(required = false) String modifiedBefore,
                         @RequestParam(required = false, defaultValue = "50") int limit,
-                        @RequestParam(required = false, defaultValue = "0") int offset) {
+                        @RequestParam(required = false, defaultValue = "0") int offset,
+                        @RequestParam(required = false) String cursor,
+                        @RequestParam(required = false, defaultValue = "false") boolean includeTotal) {
                 log.info("List files request for userId: {}", userId);
-                return fileServiceClient.listFiles(userId, path, parentFolderId, search, limit, offset)
+                return fileServiceClient.listFiles(userId, path, parentFolderId, search, mimeType,
+                                modifiedAfter, modifiedBefore, limit, offset, cursor, includeTotal)
                                 .map(response -> {
                                         Map<String, Object> result = new java.util.HashMap<>();
                                         result.put("files", response.getFilesList().stream()
                                                         .map(this::convertFileMetadataToMap)
                                                         .collect(java.util.stream.Collectors.toList()));
                                         result.put("total", response.getTotal());
+                                        putCursorPage(result, response, cursor);
                                         return ResponseEntity.ok((Object) result);
                                 })
                                 .onErrorResume(e -> {
@@ -136,15 +222,18 @@ public class FileController {
         public Mono<ResponseEntity<Object>> listTrash(
                         @RequestHeader("X-User-Id") String userId,
                         @RequestParam(required = false, defaultValue = "50") int limit,
-                        @RequestParam(required = false, defaultValue = "0") int offset) {
+                        @RequestParam(required = false, defaultValue = "0") int offset,
+                        @RequestParam(required = false) String cursor,
+                        @RequestParam(required = false, defaultValue = "false") boolean includeTotal) {
                 log.info("List trash request for userId: {}", userId);
-                return fileServiceClient.listTrash(userId, limit, offset)
+                return fileServiceClient.listTrash(userId, limit, offset, cursor, includeTotal)
                                 .map(response -> {
                                         Map<String, Object> result = new java.util.HashMap<>();
                                         result.put("files", response.getFilesList().stream()
                                                         .map(this::convertFileMetadataToMap)
                                                         .collect(java.util.stream.Collectors.toList()));
                                         result.put("total", response.getTotal());
+                                        putCursorPage(result, response, cursor);
                                         return ResponseEntity.ok((Object) result);
                                 })
                                 .onErrorResume(e -> {
@@ -155,6 +244,39 @@ public class FileController {
                                 });
         }
 
+        @GetMapping("/files/changes")
+        public Mono<ResponseEntity<Object>> getChangesSince(
+                        @RequestHeader("X-User-Id") String userId,
+                        @RequestParam(required = false, defaultValue = "0") long cursor,
+                        @RequestParam(required = false, defaultValue = "50") int limit) {
+                log.info("Get changes request for userId: {}, cursor: {}", userId, cursor);
+                return fileServiceClient.getChangesSince(userId, cursor, limit)
+                                .map(response -> {
+                                        Map<String, Object> result = new java.util.HashMap<>();
+                                        result.put("changes", response.getChangesList().stream().map(c -> {
+                                                Map<String, Object> cm = new java.util.HashMap<>();
+                                                cm.put("seq", c.getSeq());
+                                                cm.put("fileId", c.getFileId());
+                                                cm.put("changeType", c.getChangeType());
+                                                cm.put("changedAt", c.getChangedAt());
+                                                if (c.hasFile()) {
+                                                        cm.put("file", convertFileMetadataToMap(c.getFile()));
+                                                }
+                                                return cm;
+                                        }).collect(java.util.stream.Collectors.toList()));
+                                        result.put("cursor", response.getCursor());
+                                        result.put("hasMore", response.getHasMore());
+                                        result.put("resetRequired", response.getResetRequired());
+                                        return ResponseEntity.ok((Object) result);
+                                })
+                                .onErrorResume(e -> {
+                                        log.error("Get changes error: {}", e.getMessage());
+                                        return Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                                                        .body(new com.gatewayservice.model.ErrorResponse(
+                                                                        e.getMessage())));
+                                });
+        }
+
         @PostMapping("/files/{fileId}/restore")
         public Mono<ResponseEntity<Object>> restoreFile(
                         @RequestHeader("X-User-Id") String userId,
@@ -175,7 +297,7 @@ public class FileController {
                         @RequestHeader("X-User-Id") String userId) {
                 log.info("Empty trash request for userId: {}", userId);
                 return fileServiceClient.emptyTrash(userId)
-                                .thenReturn(ResponseEntity.accepted().build())
+                                .map(job -> ResponseEntity.accepted().body((Object) convertEmptyTrashJobToMap(job)))
                                 .onErrorResume(e -> {
                                         log.error("Empty trash error: {}", e.getMessage());
                                         return Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -184,9 +306,26 @@ public class FileController {
                                 });
         }
 
+        @GetMapping("/files/trash/jobs/{jobId}")
+        public Mono<ResponseEntity<Object>> getEmptyTrashJob(
+                        @RequestHeader("X-User-Id") String userId,
+                        @PathVariable String jobId) {
+                return fileServiceClient.getEmptyTrashJob(jobId, userId)
+                                .map(job -> ResponseEntity.ok((Object) convertEmptyTrashJobToMap(job)))
+                                .onErrorResume(e -> {
+                                        log.error("Get empty trash job error: {}", e.getMessage());
+                                        HttpStatus status = e.getMessage().contains("not found") ? HttpStatus.NOT_FOUND
+                                                        : HttpStatus.INTERNAL_SERVER_ERROR;
+                                        return Mono.just(ResponseEntity.status(status)
+                                                        .body(new com.gatewayservice.model.ErrorResponse(
+                                                                        e.getMessage())));
+                                });
+        }
+
         @PostMapping("/files/{fileId}/share")
         public Mono<ResponseEntity<Object>> shareFile(
                         @RequestHeader("X-User-Id") String ownerId,
+                        @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
                         @PathVariable String fileId,
                         @RequestBody Map<String, Object> requestBody) {
                 log.info("Share file request for fileId: {}, ownerId: {}", fileId, ownerId);
@@ -204,7 +343,8 @@ public class FileController {
                 }
 
                 return targetUserIdMono.flatMap(
-                                targetUserId -> fileServiceClient.shareFile(fileId, ownerId, targetUserId, permission)
+                                targetUserId -> fileServiceClient.shareFile(fileId, ownerId, targetUserId, permission,
+                                                idempotencyKey)
                                                 .map(response -> {
                                                         Map<String, Object> result = new java.util.HashMap<>();
                                                         result.put("shareId", response.getShareId());
@@ -270,6 +410,59 @@ public class FileController {
                                 });
         }
 
+        @PostMapping("/files/{fileId}/chunked/negotiate")
+        public Mono<ResponseEntity<Object>> negotiateChunkedUpload(
+                        @RequestHeader("X-User-Id") String userId,
+                        @PathVariable String fileId,
+                        @RequestBody Map<String, Object> requestBody) {
+                return fileServiceClient.negotiateChunkedUpload(toChunkedUploadRequest(fileId, userId, requestBody))
+                                .map(response -> {
+                                        Map<String, Object> result = new java.util.HashMap<>();
+                                        result.put("missingHashes", response.getMissingHashesList());
+                                        result.put("uploadUrls", response.getUploadUrlsMap());
+                                        result.put("missingBytes", response.getMissingBytes());
+                                        result.put("totalChunks", response.getTotalChunks());
+                                        return ResponseEntity.ok((Object) result);
+                                })
+                                .onErrorResume(this::chunkedErrorResponse);
+        }
+
+        @PostMapping("/files/{fileId}/chunked/commit")
+        public Mono<ResponseEntity<Object>> commitChunkedVersion(
+                        @RequestHeader("X-User-Id") String userId,
+                        @PathVariable String fileId,
+                        @RequestBody Map<String, Object> requestBody) {
+                log.info("Commit chunked version request for fileId: {}, userId: {}", fileId, userId);
+                return fileServiceClient.commitChunkedVersion(toChunkedUploadRequest(fileId, userId, requestBody))
+                                .map(response -> ResponseEntity.ok((Object) convertFileMetadataToMap(response)))
+                                .onErrorResume(this::chunkedErrorResponse);
+        }
+
+        @GetMapping("/files/{fileId}/chunked/manifest")
+        public Mono<ResponseEntity<Object>> getChunkManifest(
+                        @RequestHeader("X-User-Id") String userId,
+                        @PathVariable String fileId,
+                        @RequestParam(required = false) Integer version) {
+                return fileServiceClient.getChunkManifest(fileId, userId, version)
+                                .map(response -> {
+                                        Map<String, Object> result = new java.util.HashMap<>();
+                                        result.put("fileId", response.getFileId());
+                                        result.put("version", response.getVersion());
+                                        result.put("size", response.getSize());
+                                        result.put("hash", response.getHash());
+                                        result.put("chunks", response.getChunksList().stream().map(c -> {
+                                                Map<String, Object> cm = new java.util.HashMap<>();
+                                                cm.put("hash", c.getHash());
+                                                cm.put("size", c.getSize());
+                                                cm.put("offset", c.getOffset());
+                                                cm.put("downloadUrl", c.getDownloadUrl());
+                                                return cm;
+                                        }).collect(java.util.stream.Collectors.toList()));
+                                        return ResponseEntity.ok((Object) result);
+                                })
+                                .onErrorResume(this::chunkedErrorResponse);
+        }
+
         @GetMapping("/files/{fileId}/permission")
         public Mono<ResponseEntity<Object>> checkPermission(
                         @RequestHeader("X-User-Id") String userId,
@@ -318,9 +511,12 @@ public class FileController {
 
         @GetMapping("/files/shared-with-me")
         public Mono<ResponseEntity<Object>> listSharedWithMe(
-                        @RequestHeader("X-User-Id") String userId) {
+                        @RequestHeader("X-User-Id") String userId,
+                        @RequestParam(required = false, defaultValue = "50") int limit,
+                        @RequestParam(required = false) String cursor,
+                        @RequestParam(required = false, defaultValue = "false") boolean includeTotal) {
                 log.info("List shared with me request for userId: {}", userId);
-                return fileServiceClient.listSharedWithMe(userId)
+                return fileServiceClient.listSharedWithMe(userId, limit, cursor, includeTotal)
                                 .map(response -> {
                                         Map<String, Object> result = new java.util.HashMap<>();
                                         // Return as 'shares' to match frontend expectations
@@ -349,6 +545,7 @@ public class FileController {
                                                         })
                                                         .collect(java.util.stream.Collectors.toList()));
                                         result.put("total", response.getTotal());
+                                        putCursorPage(result, response, cursor);
                                         return ResponseEntity.ok((Object) result);
                                 })
                                 .onErrorResume(e -> {
@@ -511,6 +708,7 @@ public class FileController {
         @PostMapping("/folders")
         public Mono<ResponseEntity<Object>> createFolder(
                         @RequestHeader("X-User-Id") String userId,
+                        @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
                         @RequestBody Map<String, Object> requestBody) {
                 log.info("Create folder request for userId: {}", userId);
 
@@ -519,7 +717,8 @@ public class FileController {
                 String parentFolderId = (String) requestBody.get("parentFolderId");
 
                 // Папка - это файл с флагом isFolder=true и нулевым размером
-                return fileServiceClient.createFile(userId, name, path, 0, "inode/directory", "", true, parentFolderId)
+                return fileServiceClient.createFile(userId, name, path, 0, "inode/directory", "", true, parentFolderId,
+                                idempotencyKey)
                                 .map(response -> ResponseEntity.ok((Object) convertFileMetadataToMap(response)))
                                 .onErrorResume(e -> {
                                         log.error("Create folder error: {}", e.getMessage());
@@ -539,9 +738,10 @@ public class FileController {
         @PutMapping("/folders/{folderId}")
         public Mono<ResponseEntity<Object>> updateFolder(
                         @RequestHeader("X-User-Id") String userId,
+                        @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
                         @PathVariable String folderId,
                         @RequestBody Map<String, Object> requestBody) {
-                return updateFile(userId, folderId, requestBody);
+                return updateFile(userId, idempotencyKey, folderId, requestBody);
         }
 
         @DeleteMapping("/folders/{folderId}")
@@ -551,6 +751,49 @@ public class FileController {
                 return deleteFile(userId, folderId);
         }
 
+        /**
+         * Поля keyset-пагинации (только если клиент запросил постраничный обход по курсору)
+         */
+        private void putCursorPage(Map<String, Object> result, com.fileservice.grpc.FileListResponse response,
+                        String cursor) {
+                if (cursor == null) {
+                        return;
+                }
+                result.put("hasMore", response.getHasMore());
+                if (response.hasNextCursor()) {
+                        result.put("nextCursor", response.getNextCursor());
+                }
+        }
+
+        private com.fileservice.grpc.ChunkedUploadRequest toChunkedUploadRequest(String fileId, String userId,
+                        Map<String, Object> requestBody) {
+                @SuppressWarnings("unchecked")
+                java.util.List<Map<String, Object>> chunks = (java.util.List<Map<String, Object>>) requestBody
+                                .getOrDefault("chunks", java.util.List.of());
+                return com.fileservice.grpc.ChunkedUploadRequest.newBuilder()
+                                .setFileId(fileId)
+                                .setUserId(userId)
+                                .setSize(((Number) requestBody.getOrDefault("size", 0)).longValue())
+                                .setHash(requestBody.get("hash") != null ? (String) requestBody.get("hash") : "")
+                                .addAllChunks(chunks.stream()
+                                                .map(chunk -> com.fileservice.grpc.ChunkRef.newBuilder()
+                                                                .setHash((String) chunk.get("hash"))
+                                                                .setSize(((Number) chunk.get("size")).intValue())
+                                                                .build())
+                                                .toList())
+                                .build();
+        }
+
+        private Mono<ResponseEntity<Object>> chunkedErrorResponse(Throwable e) {
+                log.error("Chunked version error: {}", e.getMessage());
+                HttpStatus status = e.getMessage().contains("INVALID_ARGUMENT") ? HttpStatus.BAD_REQUEST
+                                : e.getMessage().contains("PERMISSION_DENIED") ? HttpStatus.FORBIDDEN
+                                : e.getMessage().contains("not found") ? HttpStatus.NOT_FOUND
+                                : HttpStatus.INTERNAL_SERVER_ERROR;
+                return Mono.just(ResponseEntity.status(status)
+                                .body(new com.gatewayservice.model.ErrorResponse(e.getMessage())));
+        }
+
         private Map<String, Object> convertFileMetadataToMap(com.fileservice.grpc.FileMetadata response) {
                 Map<String, Object> map = new java.util.HashMap<>();
                 map.put("id", response.getId());
@@ -566,6 +809,30 @@ public class FileController {
                 map.put("createdBy", response.getCreatedBy());
                 map.put("uploadUrl", response.getUploadUrl());
                 map.put("downloadUrl", response.getDownloadUrl());
+                map.put("isChunked", response.getIsChunked());
+                if (response.hasFolderStats()) {
+                        Map<String, Object> stats = new java.util.HashMap<>();
+                        stats.put("totalSize", response.getFolderStats().getTotalSize());
+                        stats.put("fileCount", response.getFolderStats().getFileCount());
+                        stats.put("folderCount", response.getFolderStats().getFolderCount());
+                        stats.put("lastModifiedAt", response.getFolderStats().getLastModifiedAt());
+                        map.put("folderStats", stats);
+                }
+                return map;
+        }
+
+        private Map<String, Object> convertEmptyTrashJobToMap(com.fileservice.grpc.EmptyTrashJobResponse job) {
+                Map<String, Object> map = new java.util.HashMap<>();
+                map.put("jobId", job.getJobId());
+                map.put("status", job.getStatus());
+                map.put("totalItems", job.getTotalItems());
+                map.put("processedItems", job.getProcessedItems());
+                map.put("failedItems", job.getFailedItems());
+                map.put("releasedBytes", job.getReleasedBytes());
+                map.put("createdAt", job.getCreatedAt());
+                if (job.hasCompletedAt()) {
+                        map.put("completedAt", job.getCompletedAt());
+                }
                 return map;
         }
 }
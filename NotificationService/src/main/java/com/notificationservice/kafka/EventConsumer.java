@@ -5,6 +5,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.notificationservice.kafka.event.FileEvent;
 import com.notificationservice.kafka.event.UserEvent;
 import com.notificationservice.service.NotificationService;
+import com.notificationservice.service.ProcessedEventService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.kafka.annotation.KafkaListener;
@@ -12,6 +13,7 @@ import org.springframework.stereotype.Component;
 import reactor.core.publisher.Mono;
 
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
@@ -21,6 +23,7 @@ import java.util.UUID;
 public class EventConsumer {
 
         private final NotificationService notificationService;
+        private final ProcessedEventService processedEventService;
         private final ObjectMapper objectMapper;
 
         @KafkaListener(topics = "file-events", groupId = "notification-service-group")
@@ -28,7 +31,13 @@ public class EventConsumer {
                 try {
                         FileEvent event = objectMapper.readValue(eventJson, FileEvent.class);
                         log.debug("Received file event: {}", event);
-                        processFileEvent(event);
+                        // Повторно доставленное событие (outbox at-least-once) пропускается.
+                        // Отметка ставится до отправки уведомлений: при сбое уведомление теряется, а не дублируется
+                        if (Boolean.TRUE.equals(processedEventService.markProcessed(event.getEventId()).block())) {
+                                processFileEvent(event);
+                        } else {
+                                log.debug("Skipping duplicate file event: {}", event.getEventId());
+                        }
                 } catch (JsonProcessingException e) {
                         log.error("Error parsing file event: {}", eventJson, e);
                 }
@@ -57,6 +66,11 @@ public class EventConsumer {
                                         event.getFileId(), "FILE", event.getMetadata(), null)
                                         .subscribe();
 
+                        case "file.batch_uploaded" -> notificationService.sendNotification(ownerId, "FILE_UPLOADED",
+                                        "Файлы загружены", "Загружено элементов: " + itemCountOf(event), "normal",
+                                        event.getFileId(), "FILE", event.getMetadata(), null)
+                                        .subscribe();
+
                         case "file.version_uploaded" ->
                                 notificationService.sendNotification(ownerId, "FILE_VERSION_UPLOADED",
                                                 "Новая версия", "Загружена новая версия файла " + fileName, "normal",
@@ -126,9 +140,83 @@ public class EventConsumer {
                                         "Файл " + fileName + " был восстановлен из корзины", "normal",
                                         event.getFileId(), "FILE", event.getMetadata(), null)
                                         .subscribe();
+
+                        // Одно событие на всех получателей расшариваний файла
+                        case "file.share_fanout" -> processShareFanout(event, fileName, oldName);
+
+                        // Итоговые события по поддереву папки (одно событие на всю папку)
+                        case "folder.deleted" -> notificationService.sendNotification(ownerId, "FOLDER_DELETED",
+                                        "Папка перемещена в корзину",
+                                        "Папка " + fileName + " (" + itemCountOf(event) + " эл.) перемещена в корзину",
+                                        "normal",
+                                        event.getFileId(), "FOLDER", event.getMetadata(), null)
+                                        .subscribe();
+
+                        case "folder.hard_deleted" -> notificationService
+                                        .sendNotification(ownerId, "FOLDER_PERMANENTLY_DELETED",
+                                                        "Папка удалена навсегда",
+                                                        "Папка " + fileName + " (" + itemCountOf(event)
+                                                                        + " эл.) удалена навсегда",
+                                                        "normal",
+                                                        event.getFileId(), "FOLDER", event.getMetadata(), null)
+                                        .subscribe();
+
+                        case "folder.restored" -> notificationService.sendNotification(ownerId, "FOLDER_RESTORED",
+                                        "Папка восстановлена",
+                                        "Папка " + fileName + " (" + itemCountOf(event)
+                                                        + " эл.) восстановлена из корзины",
+                                        "normal",
+                                        event.getFileId(), "FOLDER", event.getMetadata(), null)
+                                        .subscribe();
                 }
         }
 
+        /**
+         * Разворачивает file.share_fanout: исходный тип события в metadata.fanoutType,
+         * получатели в recipientIds; уведомления вставляются пачками
+         */
+        private void processShareFanout(FileEvent event, String fileName, String oldName) {
+                List<UUID> recipients = event.getRecipientIds();
+                if (recipients == null || recipients.isEmpty()) {
+                        return;
+                }
+
+                String fanoutType = event.getMetadata().getOrDefault("fanoutType", "");
+                switch (fanoutType) {
+                        case "file.uploaded" -> notificationService.sendNotificationToMany(recipients, "FILE_UPLOADED",
+                                        "Файл загружен", "Загружен файл " + fileName, "normal",
+                                        event.getFileId(), "FILE", event.getMetadata(), null)
+                                        .subscribe();
+
+                        case "file.version_uploaded" -> notificationService.sendNotificationToMany(recipients,
+                                        "FILE_VERSION_UPLOADED",
+                                        "Новая версия", "Загружена новая версия файла " + fileName, "normal",
+                                        event.getFileId(), "FILE", event.getMetadata(), null)
+                                        .subscribe();
+
+                        case "file.renamed" -> notificationService.sendNotificationToMany(recipients, "FILE_RENAMED",
+                                        "Файл переименован",
+                                        String.format("Файл %s был переименован в %s",
+                                                        oldName != null ? oldName : "Unknown", fileName),
+                                        "normal",
+                                        event.getFileId(), "FILE", event.getMetadata(), null)
+                                        .subscribe();
+
+                        case "file.unshared" -> notificationService.sendNotificationToMany(recipients, "FILE_UNSHARED",
+                                        "Доступ отозван",
+                                        "Доступ к файлу " + fileName + " был отозван", "normal",
+                                        event.getFileId(), "FILE", event.getMetadata(), null)
+                                        .subscribe();
+
+                        default -> log.debug("Skipping share fan-out of type {} for file {}",
+                                        fanoutType, event.getFileId());
+                }
+        }
+
+        private String itemCountOf(FileEvent event) {
+                return event.getMetadata().getOrDefault("itemCount", "0");
+        }
+
         private void processUserEvent(UserEvent event) {
                 String type = event.getEventType();
                 UUID userId = event.getUserId();
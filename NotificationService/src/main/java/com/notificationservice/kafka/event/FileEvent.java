@@ -5,6 +5,7 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
@@ -21,4 +22,5 @@ public class FileEvent {
     private Integer version;
     private Map<String, String> metadata; // oldName, newName, sharedWithUserId, etc.
     private Object payload;
+    private List<UUID> recipientIds; // file.share_fanout: получатели, разворачиваются на нашей стороне
 }
@@ -1,6 +1,7 @@
 package com.notificationservice.repository;
 
 import com.notificationservice.model.domain.Notification;
+import io.r2dbc.postgresql.codec.Json;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.r2dbc.repository.Query;
 import org.springframework.data.repository.reactive.ReactiveSortingRepository;
@@ -8,6 +9,7 @@ import org.springframework.stereotype.Repository;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.time.LocalDateTime;
 import java.util.UUID;
 
 @Repository
@@ -27,6 +29,18 @@ public interface NotificationRepository extends ReactiveSortingRepository<Notifi
 
     Mono<Notification> save(Notification notification);
 
+    /**
+     * Одна вставка на пачку получателей (fan-out события расшариваний)
+     */
+    @Query("INSERT INTO notifications (user_id, notification_type, title, message, priority, data, " +
+            "resource_id, resource_type, is_read, created_at, expires_at) " +
+            "SELECT recipient, :type, :title, :message, :priority, :data, :resourceId, :resourceType, false, " +
+            ":createdAt, :expiresAt FROM unnest(:userIds) AS recipient " +
+            "RETURNING *")
+    Flux<Notification> insertForRecipients(UUID[] userIds, String type, String title, String message,
+            String priority, Json data, UUID resourceId, String resourceType,
+            LocalDateTime createdAt, LocalDateTime expiresAt);
+
     @org.springframework.data.r2dbc.repository.Modifying
     @Query("UPDATE notifications SET is_read = true, read_at = CURRENT_TIMESTAMP WHERE user_id = :userId AND is_read = false")
     Mono<Void> markAllAsReadForUser(UUID userId);
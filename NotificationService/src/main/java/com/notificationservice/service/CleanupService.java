@@ -2,16 +2,23 @@ package com.notificationservice.service;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class CleanupService {
 
     private final R2dbcEntityTemplate entityTemplate;
+    private final ProcessedEventService processedEventService;
+
+    @Value("${notification.processed-events.retention:7d}")
+    private Duration processedEventsRetention;
 
     @Scheduled(cron = "0 0 3 * * *") // Every day at 3 AM
     public void cleanupOldNotifications() {
@@ -24,5 +31,10 @@ public class CleanupService {
                 .subscribe(
                         count -> log.info("Cleanup completed successfully"),
                         error -> log.error("Error during scheduled cleanup: {}", error.getMessage()));
+
+        processedEventService.purgeOlderThan(processedEventsRetention)
+                .subscribe(
+                        count -> log.info("Purged {} processed event ids", count),
+                        error -> log.error("Error purging processed event ids: {}", error.getMessage()));
     }
 }
@@ -13,6 +13,9 @@ public interface NotificationService {
     Mono<Void> sendNotification(UUID userId, String type, String title, String message, String priority,
             UUID resourceId, String resourceType, Map<String, String> data, List<String> channels);
 
+    Mono<Void> sendNotificationToMany(List<UUID> userIds, String type, String title, String message,
+            String priority, UUID resourceId, String resourceType, Map<String, String> data, List<String> channels);
+
     Mono<Boolean> exists(UUID userId, UUID resourceId, String type);
 
     Flux<Notification> getNotifications(UUID userId, boolean unreadOnly, String type, int limit, int offset);
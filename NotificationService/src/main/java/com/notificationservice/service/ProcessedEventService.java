@@ -0,0 +1,51 @@
+package com.notificationservice.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+/**
+ * Дедупликация событий Kafka по eventId. Outbox FileService доставляет события at-least-once:
+ * после сбоя между отправкой и отметкой доставки пачка уходит повторно
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ProcessedEventService {
+
+    private final R2dbcEntityTemplate entityTemplate;
+
+    /**
+     * Отмечает событие обработанным
+     *
+     * @return true, если событие встречается впервые; события без eventId всегда обрабатываются
+     */
+    public Mono<Boolean> markProcessed(String eventId) {
+        if (eventId == null || eventId.isEmpty()) {
+            return Mono.just(true);
+        }
+        return entityTemplate.getDatabaseClient()
+                .sql("INSERT INTO processed_events (event_id) VALUES (:eventId) ON CONFLICT DO NOTHING")
+                .bind("eventId", eventId)
+                .fetch()
+                .rowsUpdated()
+                .map(inserted -> inserted > 0);
+    }
+
+    /**
+     * Удаление отметок старше retention: повторная доставка возможна только в пределах
+     * хранения outbox, дальше отметки не нужны
+     */
+    public Mono<Long> purgeOlderThan(Duration retention) {
+        return entityTemplate.getDatabaseClient()
+                .sql("DELETE FROM processed_events WHERE processed_at < :cutoff")
+                .bind("cutoff", LocalDateTime.now().minus(retention))
+                .fetch()
+                .rowsUpdated();
+    }
+}
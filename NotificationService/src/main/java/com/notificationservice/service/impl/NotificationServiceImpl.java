@@ -26,6 +26,9 @@ import java.util.UUID;
 @Slf4j
 public class NotificationServiceImpl implements NotificationService {
 
+    private static final int RECIPIENT_BATCH_SIZE = 500;
+    private static final int DELIVERY_CONCURRENCY = 32;
+
     private final NotificationRepository notificationRepository;
     private final NotificationPreferenceRepository preferenceRepository;
     private final DeliveryService deliveryService;
@@ -58,6 +61,32 @@ public class NotificationServiceImpl implements NotificationService {
                 });
     }
 
+    @Override
+    public Mono<Void> sendNotificationToMany(List<UUID> userIds, String type, String title, String message,
+            String priority, UUID resourceId, String resourceType, Map<String, String> data, List<String> channels) {
+        if (userIds.isEmpty()) {
+            return Mono.empty();
+        }
+
+        Json json = data != null ? Json.of(serializeMap(data)) : null;
+        LocalDateTime now = LocalDateTime.now();
+
+        // Пачки получателей вставляются одним INSERT ... SELECT FROM unnest, доставка - по каждому
+        return Flux.fromIterable(userIds)
+                .distinct()
+                .buffer(RECIPIENT_BATCH_SIZE)
+                .concatMap(batch -> notificationRepository.insertForRecipients(batch.toArray(new UUID[0]),
+                        type, title, message, priority, json, resourceId, resourceType, now, now.plusDays(90)))
+                .flatMap(saved -> deliveryService.deliver(saved, channels)
+                        .onErrorResume(e -> Mono.empty()), DELIVERY_CONCURRENCY)
+                .then()
+                .onErrorResume(e -> {
+                    log.error("Failed to process fan-out notification {} for {} users: {}",
+                            type, userIds.size(), e.getMessage());
+                    return Mono.empty();
+                });
+    }
+
     @Override
     public Mono<Boolean> exists(UUID userId, UUID resourceId, String type) {
         return notificationRepository.existsByUserIdAndResourceIdAndNotificationType(userId, resourceId, type);
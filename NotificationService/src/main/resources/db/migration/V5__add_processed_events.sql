@@ -0,0 +1,8 @@
+-- Event ids already handled by EventConsumer (deduplication of at-least-once delivery from the FileService outbox)
+CREATE TABLE IF NOT EXISTS processed_events (
+    event_id VARCHAR(64) PRIMARY KEY,
+    processed_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+-- Index for purging old entries
+CREATE INDEX IF NOT EXISTS idx_processed_events_processed_at ON processed_events(processed_at);
@@ -3,6 +3,7 @@ package grpc
 import (
 	"context"
 	"fmt"
+	"time"
 
 	"github.com/PaPaSmUrFiK/FileSyncService-/StorageService/internal/service"
 	storagev1 "github.com/PaPaSmUrFiK/FileSyncService-/filesync-internal-contracts/gen/go/filesync/storage/v1"
@@ -32,6 +33,28 @@ func (h *StorageHandler) GetUploadUrl(ctx context.Context, req *storagev1.Upload
 	}, nil
 }
 
+func (h *StorageHandler) GetUploadUrls(ctx context.Context, req *storagev1.UploadUrlsRequest) (*storagev1.UploadUrlsResponse, error) {
+	const op = "grpc.StorageHandler.GetUploadUrls"
+
+	files := make([]service.UploadURLRequest, len(req.Files))
+	for i, f := range req.Files {
+		files[i] = service.UploadURLRequest{
+			FileID:   f.FileId,
+			Version:  f.Version,
+			FileName: f.FileName,
+			Size:     f.FileSize,
+		}
+	}
+	urls, err := h.service.GetUploadUrls(ctx, files)
+	if err != nil {
+		return nil, fmt.Errorf("%s: %w", op, err)
+	}
+	return &storagev1.UploadUrlsResponse{
+		Urls:      urls,
+		ExpiresIn: int64(service.UploadURLExpiry / time.Second),
+	}, nil
+}
+
 func (h *StorageHandler) GetDownloadUrl(ctx context.Context, req *storagev1.DownloadUrlRequest) (*storagev1.UrlResponse, error) {
 	const op = "grpc.StorageHandler.GetDownloadUrl"
 
@@ -60,13 +83,21 @@ func (h *StorageHandler) DeleteFile(ctx context.Context, req *storagev1.DeleteFi
 		v := req.GetVersion()
 		version = &v
 	}
-	err := h.service.DeleteFile(ctx, req.FileId, version)
+	err := h.service.DeleteFile(ctx, req.FileId, version, service.NewPathSet(req.RetainedStoragePaths))
 	if err != nil {
 		return nil, fmt.Errorf("%s: %w", op, err)
 	}
 	return &storagev1.EmptyResponse{}, nil
 }
 
+func (h *StorageHandler) DeleteFiles(ctx context.Context, req *storagev1.DeleteFilesRequest) (*storagev1.DeleteFilesResponse, error) {
+	deleted, failed := h.service.DeleteFiles(ctx, req.FileIds, service.NewPathSet(req.RetainedStoragePaths))
+	return &storagev1.DeleteFilesResponse{
+		DeletedFileIds: deleted,
+		FailedFileIds:  failed,
+	}, nil
+}
+
 func (h *StorageHandler) CopyFile(ctx context.Context, req *storagev1.CopyFileRequest) (*storagev1.EmptyResponse, error) {
 	const op = "grpc.StorageHandler.CopyFile"
 
@@ -102,3 +133,35 @@ func (h *StorageHandler) SaveVersionMetadata(ctx context.Context, req *storagev1
 	}
 	return &storagev1.EmptyResponse{}, nil
 }
+
+func (h *StorageHandler) GetChunkUrls(ctx context.Context, req *storagev1.ChunkUrlsRequest) (*storagev1.ChunkUrlsResponse, error) {
+	const op = "grpc.StorageHandler.GetChunkUrls"
+
+	urls, err := h.service.GetChunkUrls(ctx, req.Namespace, req.ChunkHashes, req.Method)
+	if err != nil {
+		return nil, fmt.Errorf("%s: %w", op, err)
+	}
+	return &storagev1.ChunkUrlsResponse{
+		Urls:      urls,
+		ExpiresIn: int64(service.ChunkURLExpiry / time.Second),
+	}, nil
+}
+
+func (h *StorageHandler) StatChunks(ctx context.Context, req *storagev1.StatChunksRequest) (*storagev1.StatChunksResponse, error) {
+	const op = "grpc.StorageHandler.StatChunks"
+
+	sizes, err := h.service.StatChunks(ctx, req.Namespace, req.ChunkHashes)
+	if err != nil {
+		return nil, fmt.Errorf("%s: %w", op, err)
+	}
+	return &storagev1.StatChunksResponse{Sizes: sizes}, nil
+}
+
+func (h *StorageHandler) DeleteChunks(ctx context.Context, req *storagev1.DeleteChunksRequest) (*storagev1.EmptyResponse, error) {
+	const op = "grpc.StorageHandler.DeleteChunks"
+
+	if err := h.service.DeleteChunks(ctx, req.Namespace, req.ChunkHashes); err != nil {
+		return nil, fmt.Errorf("%s: %w", op, err)
+	}
+	return &storagev1.EmptyResponse{}, nil
+}
@@ -121,3 +121,16 @@ func (r *storageRepo) DeleteAllVersions(ctx context.Context, fileID uuid.UUID) e
 	}
 	return nil
 }
+
+// IsPathReferenced сообщает, ссылается ли на объект хотя бы одна версия (дедупликация в FileService)
+func (r *storageRepo) IsPathReferenced(ctx context.Context, storagePath string) (bool, error) {
+	const op = "repository.postgres.IsPathReferenced"
+
+	var referenced bool
+	err := r.db.GetContext(ctx, &referenced,
+		"SELECT EXISTS (SELECT 1 FROM storage_versions WHERE storage_path = $1)", storagePath)
+	if err != nil {
+		return false, fmt.Errorf("%s: ошибка при проверке ссылок на объект: %w", op, err)
+	}
+	return referenced, nil
+}
@@ -16,4 +16,5 @@ type StorageRepository interface {
 	GetVersion(ctx context.Context, fileID uuid.UUID, version int32) (*domain.StorageVersion, error)
 	DeleteVersion(ctx context.Context, fileID uuid.UUID, version int32) error
 	DeleteAllVersions(ctx context.Context, fileID uuid.UUID) error
+	IsPathReferenced(ctx context.Context, storagePath string) (bool, error)
 }
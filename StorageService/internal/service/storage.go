@@ -2,7 +2,11 @@ package service
 
 import (
 	"context"
+	"encoding/base64"
+	"encoding/hex"
 	"fmt"
+	"log/slog"
+	"sync"
 	"time"
 
 	"github.com/PaPaSmUrFiK/FileSyncService-/StorageService/internal/domain"
@@ -31,13 +35,67 @@ func (s *StorageService) GetUploadUrl(ctx context.Context, fileID string, versio
 
 	// Используем стабильный путь, который можно восстановить в ConfirmUpload
 	objectName := fmt.Sprintf("files/%s/v%d/data", fileID, version)
-	u, err := s.storageClient.GetPresignedUploadURL(ctx, objectName, 1*time.Hour)
+	u, err := s.storageClient.GetPresignedUploadURL(ctx, objectName, UploadURLExpiry)
 	if err != nil {
 		return "", fmt.Errorf("%s: не удалось получить URL для загрузки: %w", op, err)
 	}
 	return u.String(), nil
 }
 
+// UploadURLExpiry - время жизни presigned URL загрузки файла
+const UploadURLExpiry = 1 * time.Hour
+
+// uploadUrlsParallelism ограничивает число URL, подписываемых одновременно в GetUploadUrls
+const uploadUrlsParallelism = 16
+
+// UploadURLRequest - файл пачки GetUploadUrls
+type UploadURLRequest struct {
+	FileID   string
+	Version  int32
+	FileName string
+	Size     int64
+}
+
+// GetUploadUrls выдает presigned URL загрузки для пачки файлов (ID файла -> URL).
+// Ошибка по любому файлу отменяет всю пачку: вызывающий повторяет ее целиком
+func (s *StorageService) GetUploadUrls(ctx context.Context, files []UploadURLRequest) (map[string]string, error) {
+	const op = "service.storage.GetUploadUrls"
+
+	var (
+		mu       sync.Mutex
+		wg       sync.WaitGroup
+		firstErr error
+	)
+	urls := make(map[string]string, len(files))
+	sem := make(chan struct{}, uploadUrlsParallelism)
+
+	for _, f := range files {
+		sem <- struct{}{}
+		wg.Add(1)
+		go func(f UploadURLRequest) {
+			defer wg.Done()
+			defer func() { <-sem }()
+
+			u, err := s.GetUploadUrl(ctx, f.FileID, f.Version, f.FileName, f.Size)
+			mu.Lock()
+			defer mu.Unlock()
+			if err != nil {
+				if firstErr == nil {
+					firstErr = err
+				}
+				return
+			}
+			urls[f.FileID] = u
+		}(f)
+	}
+	wg.Wait()
+
+	if firstErr != nil {
+		return nil, fmt.Errorf("%s: %w", op, firstErr)
+	}
+	return urls, nil
+}
+
 func (s *StorageService) GetDownloadUrl(ctx context.Context, fileID string, version *int32, fileName string) (string, error) {
 	const op = "service.storage.GetDownloadUrl"
 
@@ -145,7 +203,25 @@ func (s *StorageService) SaveVersionMetadata(ctx context.Context, fileID string,
 	return nil
 }
 
-func (s *StorageService) DeleteFile(ctx context.Context, fileID string, version *int32) error {
+// PathSet - пути объектов, которые нельзя удалять: FileService сообщает пути,
+// на которые в content_blobs остались ссылки (счетчик там - единственный источник истины)
+type PathSet map[string]struct{}
+
+func NewPathSet(paths []string) PathSet {
+	set := make(PathSet, len(paths))
+	for _, p := range paths {
+		set[p] = struct{}{}
+	}
+	return set
+}
+
+func (p PathSet) Contains(path string) bool {
+	_, ok := p[path]
+	return ok
+}
+
+// DeleteFile удаляет метаданные версии (или всех версий) и объекты, кроме путей из retained
+func (s *StorageService) DeleteFile(ctx context.Context, fileID string, version *int32, retained PathSet) error {
 	const op = "service.storage.DeleteFile"
 
 	uid, err := uuid.Parse(fileID)
@@ -153,33 +229,35 @@ func (s *StorageService) DeleteFile(ctx context.Context, fileID string, version
 		return fmt.Errorf("%s: неверный ID файла: %w", op, err)
 	}
 
+	// Сначала удаляются метаданные версий, затем объекты, на которые больше никто не ссылается:
+	// один объект может принадлежать нескольким файлам/версиям (дедупликация, восстановление версии)
 	if version != nil {
 		v, err := s.repo.GetVersion(ctx, uid, *version)
 		if err != nil {
 			return fmt.Errorf("%s: %w", op, err)
 		}
 		if v != nil {
-			if err := s.storageClient.DeleteObject(ctx, v.StoragePath); err != nil {
-				return fmt.Errorf("%s: не удалось удалить объект из хранилища: %w", op, err)
-			}
 			if err := s.repo.DeleteVersion(ctx, uid, *version); err != nil {
 				return fmt.Errorf("%s: %w", op, err)
 			}
+			if err := s.deleteObjectIfUnreferenced(ctx, v.StoragePath, retained); err != nil {
+				return fmt.Errorf("%s: не удалось удалить объект из хранилища: %w", op, err)
+			}
 		}
 	} else {
 		versions, err := s.repo.GetVersionsByFileID(ctx, uid)
 		if err != nil {
 			return fmt.Errorf("%s: %w", op, err)
 		}
-		for _, v := range versions {
-			_ = s.storageClient.DeleteObject(ctx, v.StoragePath)
-		}
 		if err := s.repo.DeleteAllVersions(ctx, uid); err != nil {
 			return fmt.Errorf("%s: %w", op, err)
 		}
 		if err := s.repo.DeleteMapping(ctx, uid); err != nil {
 			return fmt.Errorf("%s: %w", op, err)
 		}
+		for _, v := range versions {
+			_ = s.deleteObjectIfUnreferenced(ctx, v.StoragePath, retained)
+		}
 	}
 
 	// Publish event
@@ -194,6 +272,62 @@ func (s *StorageService) DeleteFile(ctx context.Context, fileID string, version
 	return s.producer.PublishEvent(ctx, event)
 }
 
+// deleteFilesParallelism ограничивает число файлов, удаляемых одновременно в DeleteFiles
+const deleteFilesParallelism = 16
+
+// DeleteFiles удаляет пачку файлов (все версии) с ограниченным параллелизмом.
+// Ошибка по одному файлу не прерывает пачку: возвращаются списки удаленных и неудаленных ID
+func (s *StorageService) DeleteFiles(ctx context.Context, fileIDs []string, retained PathSet) (deleted []string, failed []string) {
+	const op = "service.storage.DeleteFiles"
+
+	results := make([]error, len(fileIDs))
+	sem := make(chan struct{}, deleteFilesParallelism)
+	var wg sync.WaitGroup
+
+	for i, fileID := range fileIDs {
+		if ctx.Err() != nil {
+			results[i] = ctx.Err()
+			continue
+		}
+		sem <- struct{}{}
+		wg.Add(1)
+		go func(i int, fileID string) {
+			defer wg.Done()
+			defer func() { <-sem }()
+			results[i] = s.DeleteFile(ctx, fileID, nil, retained)
+		}(i, fileID)
+	}
+	wg.Wait()
+
+	for i, fileID := range fileIDs {
+		if results[i] != nil {
+			failed = append(failed, fileID)
+			slog.Warn("не удалось удалить файл", slog.String("op", op),
+				slog.String("file_id", fileID), slog.Any("error", results[i]))
+			continue
+		}
+		deleted = append(deleted, fileID)
+	}
+	return deleted, failed
+}
+
+// deleteObjectIfUnreferenced удаляет объект, если FileService не удерживает путь (retained).
+// Собственная проверка метаданных версий остается для путей без учета в content_blobs
+// (загруженных до дедупликации)
+func (s *StorageService) deleteObjectIfUnreferenced(ctx context.Context, storagePath string, retained PathSet) error {
+	if retained.Contains(storagePath) {
+		return nil
+	}
+	referenced, err := s.repo.IsPathReferenced(ctx, storagePath)
+	if err != nil {
+		return err
+	}
+	if referenced {
+		return nil
+	}
+	return s.storageClient.DeleteObject(ctx, storagePath)
+}
+
 func (s *StorageService) CopyFile(ctx context.Context, srcFileID, destFileID string) error {
 	const op = "service.storage.CopyFile"
 
@@ -217,3 +351,170 @@ func (s *StorageService) CopyFile(ctx context.Context, srcFileID, destFileID str
 
 	return s.ConfirmUpload(ctx, destFileID, 1, mapping.Hash, mapping.Size, destObjectName, mapping.Bucket)
 }
+
+// chunkParallelism ограничивает число одновременных запросов к хранилищу при работе с фрагментами
+const chunkParallelism = 16
+
+// ChunkURLExpiry - время жизни presigned URL фрагментов
+const ChunkURLExpiry = 1 * time.Hour
+
+// chunkObjectName - ключ фрагмента по его SHA-256: одинаковое содержимое хранится один раз
+// в пределах пространства имен. Пустое пространство - общее для всех пользователей,
+// иначе это UUID владельца (chunks/u/{namespace}/...), и чужие фрагменты в нем недоступны
+func chunkObjectName(namespace, hash string) (string, error) {
+	if len(hash) != 64 {
+		return "", fmt.Errorf("неверный хеш фрагмента: %q", hash)
+	}
+	if _, err := hex.DecodeString(hash); err != nil {
+		return "", fmt.Errorf("неверный хеш фрагмента: %q", hash)
+	}
+	if namespace == "" {
+		return fmt.Sprintf("chunks/%s/%s", hash[:2], hash), nil
+	}
+	if _, err := uuid.Parse(namespace); err != nil {
+		return "", fmt.Errorf("неверное пространство имен фрагментов: %q", namespace)
+	}
+	return fmt.Sprintf("chunks/u/%s/%s/%s", namespace, hash[:2], hash), nil
+}
+
+// chunkChecksum - SHA-256 фрагмента в формате заголовка x-amz-checksum-sha256 (base64)
+func chunkChecksum(hash string) string {
+	sum, _ := hex.DecodeString(hash)
+	return base64.StdEncoding.EncodeToString(sum)
+}
+
+// GetChunkUrls выдает presigned URL загрузки (PUT) или скачивания (GET) для каждого фрагмента.
+// PUT подписан с контрольной суммой: под ключом хеша нельзя сохранить другое содержимое
+func (s *StorageService) GetChunkUrls(ctx context.Context, namespace string, hashes []string, method string) (map[string]string, error) {
+	const op = "service.storage.GetChunkUrls"
+
+	urls := make(map[string]string, len(hashes))
+	for _, hash := range hashes {
+		objectName, err := chunkObjectName(namespace, hash)
+		if err != nil {
+			return nil, fmt.Errorf("%s: %w", op, err)
+		}
+
+		switch method {
+		case "PUT":
+			u, err := s.storageClient.GetPresignedChecksumUploadURL(ctx, objectName, chunkChecksum(hash), ChunkURLExpiry)
+			if err != nil {
+				return nil, fmt.Errorf("%s: %w", op, err)
+			}
+			urls[hash] = u.String()
+		case "GET":
+			u, err := s.storageClient.GetPresignedDownloadURL(ctx, objectName, "", ChunkURLExpiry)
+			if err != nil {
+				return nil, fmt.Errorf("%s: %w", op, err)
+			}
+			urls[hash] = u.String()
+		default:
+			return nil, fmt.Errorf("%s: неподдерживаемый метод %q", op, method)
+		}
+	}
+	return urls, nil
+}
+
+// StatChunks возвращает размеры фрагментов, которые есть в хранилище и чей сохраненный SHA-256
+// совпадает с хешем. Объект без контрольной суммы или с другой считается отсутствующим
+func (s *StorageService) StatChunks(ctx context.Context, namespace string, hashes []string) (map[string]int64, error) {
+	const op = "service.storage.StatChunks"
+
+	objectNames := make([]string, len(hashes))
+	for i, hash := range hashes {
+		objectName, err := chunkObjectName(namespace, hash)
+		if err != nil {
+			return nil, fmt.Errorf("%s: %w", op, err)
+		}
+		objectNames[i] = objectName
+	}
+
+	var (
+		mu       sync.Mutex
+		wg       sync.WaitGroup
+		firstErr error
+	)
+	sizes := make(map[string]int64, len(hashes))
+	sem := make(chan struct{}, chunkParallelism)
+
+	for i, hash := range hashes {
+		sem <- struct{}{}
+		wg.Add(1)
+		go func(hash, objectName string) {
+			defer wg.Done()
+			defer func() { <-sem }()
+
+			size, checksum, found, err := s.storageClient.StatObjectChecksum(ctx, objectName)
+			mu.Lock()
+			defer mu.Unlock()
+			if err != nil {
+				if firstErr == nil {
+					firstErr = err
+				}
+				return
+			}
+			if !found {
+				return
+			}
+			if checksum != chunkChecksum(hash) {
+				slog.Warn("контрольная сумма фрагмента не совпадает с хешем", slog.String("op", op),
+					slog.String("object", objectName), slog.String("checksum", checksum))
+				return
+			}
+			sizes[hash] = size
+		}(hash, objectNames[i])
+	}
+	wg.Wait()
+
+	if firstErr != nil {
+		return nil, fmt.Errorf("%s: %w", op, firstErr)
+	}
+	return sizes, nil
+}
+
+// DeleteChunks удаляет объекты фрагментов. Решение о том, что на фрагмент больше никто
+// не ссылается, принимает FileService (индекс фрагментов и манифесты версий)
+func (s *StorageService) DeleteChunks(ctx context.Context, namespace string, hashes []string) error {
+	const op = "service.storage.DeleteChunks"
+
+	// Все ключи проверяются до первого удаления: ошибка в запросе не должна оставлять
+	// удаления, продолжающиеся после ответа
+	objectNames := make([]string, len(hashes))
+	for i, hash := range hashes {
+		objectName, err := chunkObjectName(namespace, hash)
+		if err != nil {
+			return fmt.Errorf("%s: %w", op, err)
+		}
+		objectNames[i] = objectName
+	}
+
+	var (
+		mu       sync.Mutex
+		wg       sync.WaitGroup
+		firstErr error
+	)
+	sem := make(chan struct{}, chunkParallelism)
+
+	for _, objectName := range objectNames {
+		sem <- struct{}{}
+		wg.Add(1)
+		go func(objectName string) {
+			defer wg.Done()
+			defer func() { <-sem }()
+
+			if err := s.storageClient.DeleteObject(ctx, objectName); err != nil {
+				mu.Lock()
+				if firstErr == nil {
+					firstErr = err
+				}
+				mu.Unlock()
+			}
+		}(objectName)
+	}
+	wg.Wait()
+
+	if firstErr != nil {
+		return fmt.Errorf("%s: %w", op, firstErr)
+	}
+	return nil
+}
@@ -160,3 +160,47 @@ func (c *Client) CopyObject(ctx context.Context, srcKey, destKey string) error {
 	}
 	return nil
 }
+
+// StatObject возвращает размер объекта; found = false, если объекта нет
+func (c *Client) StatObject(ctx context.Context, objectName string) (size int64, found bool, err error) {
+	const op = "storage.minio.StatObject"
+
+	info, err := c.minioClient.StatObject(ctx, c.bucket, objectName, minio.StatObjectOptions{})
+	if err != nil {
+		if minio.ToErrorResponse(err).Code == "NoSuchKey" {
+			return 0, false, nil
+		}
+		return 0, false, fmt.Errorf("%s: не удалось получить сведения об объекте: %w", op, err)
+	}
+	return info.Size, true, nil
+}
+
+// GetPresignedChecksumUploadURL - presigned PUT, подписанный вместе с заголовком x-amz-checksum-sha256.
+// Клиент обязан отправить этот заголовок с тем же значением, а хранилище отклоняет загрузку,
+// если SHA-256 тела с ним не совпадает
+func (c *Client) GetPresignedChecksumUploadURL(ctx context.Context, objectName, checksumSHA256 string, expires time.Duration) (*url.URL, error) {
+	const op = "storage.minio.GetPresignedChecksumUploadURL"
+
+	headers := http.Header{}
+	headers.Set("X-Amz-Checksum-Sha256", checksumSHA256)
+	presignedURL, err := c.minioClient.PresignHeader(ctx, http.MethodPut, c.bucket, objectName, expires, nil, headers)
+	if err != nil {
+		return nil, fmt.Errorf("%s: не удалось сгенерировать URL: %w", op, err)
+	}
+	return presignedURL, nil
+}
+
+// StatObjectChecksum возвращает размер объекта и сохраненный при загрузке SHA-256 (base64,
+// пустой, если загрузка шла без контрольной суммы); found = false, если объекта нет
+func (c *Client) StatObjectChecksum(ctx context.Context, objectName string) (size int64, checksumSHA256 string, found bool, err error) {
+	const op = "storage.minio.StatObjectChecksum"
+
+	info, err := c.minioClient.StatObject(ctx, c.bucket, objectName, minio.StatObjectOptions{Checksum: true})
+	if err != nil {
+		if minio.ToErrorResponse(err).Code == "NoSuchKey" {
+			return 0, "", false, nil
+		}
+		return 0, "", false, fmt.Errorf("%s: не удалось получить сведения об объекте: %w", op, err)
+	}
+	return info.Size, info.ChecksumSHA256, true, nil
+}
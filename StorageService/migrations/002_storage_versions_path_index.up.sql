@@ -0,0 +1,4 @@
+-- migrations/002_storage_versions_path_index.sql
+
+-- Проверка, ссылается ли еще какая-либо версия на объект, перед его удалением
+CREATE INDEX IF NOT EXISTS idx_storage_versions_storage_path ON storage_versions(storage_path);
@@ -6,6 +6,8 @@ import com.filesync.userservice.model.domain.UserQuota;
 import com.filesync.userservice.model.domain.UserSettings;
 import com.filesync.userservice.repository.UserQuotaRepository;
 import com.filesync.userservice.service.StatisticsService;
+import com.filesync.userservice.service.StorageLeaseGrant;
+import com.filesync.userservice.service.StorageUsageChange;
 import com.filesync.userservice.service.UserService;
 import com.filesync.userservice.service.integration.AuthServiceClient;
 import io.grpc.Status;
@@ -18,6 +20,8 @@ import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Sort;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Duration;
+import java.time.ZoneId;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -28,6 +32,10 @@ import java.util.stream.Collectors;
 @Slf4j
 public class UserGrpcService extends UserServiceGrpc.UserServiceImplBase {
 
+    private static final int DEFAULT_LEASE_TTL_SECONDS = 60;
+    private static final int MAX_LEASE_TTL_SECONDS = 600;
+    private static final int MAX_USERS_PER_BATCH = 1000;
+
     private final UserService userService;
     private final StatisticsService statisticsService;
     private final AuthServiceClient authServiceClient;
@@ -60,6 +68,47 @@ public class UserGrpcService extends UserServiceGrpc.UserServiceImplBase {
         }
     }
 
+    /**
+     * Краткие профили набора пользователей одним запросом к БД.
+     * Роли из AuthService не запрашиваются; отсутствующие id просто не попадают в ответ
+     */
+    @Override
+    public void getUsersByIds(GetUsersByIdsRequest request, StreamObserver<GetUsersByIdsResponse> responseObserver) {
+        try {
+            List<UUID> ids = request.getIdsList().stream()
+                    .map(UUID::fromString)
+                    .distinct()
+                    .toList();
+            if (ids.size() > MAX_USERS_PER_BATCH) {
+                throw new IllegalArgumentException("Too many ids: " + ids.size() + " (max " + MAX_USERS_PER_BATCH + ")");
+            }
+
+            GetUsersByIdsResponse.Builder response = GetUsersByIdsResponse.newBuilder();
+            if (!ids.isEmpty()) {
+                for (User user : userService.getUsersByIds(ids)) {
+                    response.addUsers(UserSummary.newBuilder()
+                            .setId(user.getId().toString())
+                            .setEmail(user.getEmail() != null ? user.getEmail() : "")
+                            .setName(user.getName() != null ? user.getName() : "")
+                            .setAvatarUrl(user.getAvatarUrl() != null ? user.getAvatarUrl() : "")
+                            .build());
+                }
+            }
+            responseObserver.onNext(response.build());
+            responseObserver.onCompleted();
+        } catch (IllegalArgumentException e) {
+            log.error("Invalid getUsersByIds request: {}", e.getMessage());
+            responseObserver.onError(Status.INVALID_ARGUMENT
+                    .withDescription(e.getMessage())
+                    .asRuntimeException());
+        } catch (Exception e) {
+            log.error("Error in getUsersByIds: {}", e.getMessage(), e);
+            responseObserver.onError(Status.INTERNAL
+                    .withDescription("Internal error getting users: " + e.getMessage())
+                    .asRuntimeException());
+        }
+    }
+
     @Override
     public void updateUser(UpdateUserRequest request, StreamObserver<UserResponse> responseObserver) {
         try {
@@ -225,6 +274,71 @@ public class UserGrpcService extends UserServiceGrpc.UserServiceImplBase {
         }
     }
 
+    @Override
+    public void acquireStorageLease(AcquireStorageLeaseRequest request,
+            StreamObserver<StorageLeaseResponse> responseObserver) {
+        try {
+            UUID userId = UUID.fromString(request.getUserId());
+            if (request.getHolderId().isBlank() || request.getMinBytes() < 0 || request.getRequestedBytes() < 0) {
+                throw new IllegalArgumentException("holder_id is required and sizes must be non-negative");
+            }
+            int ttlSeconds = request.getTtlSeconds() > 0
+                    ? Math.min(request.getTtlSeconds(), MAX_LEASE_TTL_SECONDS)
+                    : DEFAULT_LEASE_TTL_SECONDS;
+
+            StorageLeaseGrant grant = userService.acquireStorageLease(userId, request.getHolderId(),
+                    request.getMinBytes(), request.getRequestedBytes(), Duration.ofSeconds(ttlSeconds));
+
+            responseObserver.onNext(StorageLeaseResponse.newBuilder()
+                    .setGranted(grant.granted())
+                    .setGrantedBytes(grant.grantedBytes())
+                    .setLeaseBytes(grant.leaseBytes())
+                    .setExpiresAt(grant.expiresAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli())
+                    .setStorageUsed(grant.storageUsed())
+                    .setStorageQuota(grant.storageQuota())
+                    .setMaxFileSize(grant.maxFileSize())
+                    .build());
+            responseObserver.onCompleted();
+        } catch (IllegalArgumentException e) {
+            log.error("Invalid acquireStorageLease request for user {}: {}", request.getUserId(), e.getMessage());
+            responseObserver.onError(Status.INVALID_ARGUMENT
+                    .withDescription(e.getMessage())
+                    .asRuntimeException());
+        } catch (Exception e) {
+            log.error("Error acquiring storage lease for user {}: {}", request.getUserId(), e.getMessage(), e);
+            responseObserver.onError(Status.INTERNAL
+                    .withDescription("Internal error acquiring storage lease: " + e.getMessage())
+                    .asRuntimeException());
+        }
+    }
+
+    @Override
+    public void reportStorageUsage(ReportStorageUsageRequest request,
+            StreamObserver<EmptyResponse> responseObserver) {
+        try {
+            List<StorageUsageChange> deltas = request.getDeltasList().stream()
+                    .map(delta -> new StorageUsageChange(
+                            UUID.fromString(delta.getUserId()),
+                            delta.getUsedDelta(),
+                            delta.getConsumedLeaseBytes(),
+                            delta.getReleaseLease()))
+                    .toList();
+            userService.reportStorageUsage(request.getHolderId(), deltas);
+            responseObserver.onNext(EmptyResponse.newBuilder().build());
+            responseObserver.onCompleted();
+        } catch (IllegalArgumentException e) {
+            log.error("Invalid user ID in reportStorageUsage: {}", e.getMessage());
+            responseObserver.onError(Status.INVALID_ARGUMENT
+                    .withDescription("Invalid user ID format")
+                    .asRuntimeException());
+        } catch (Exception e) {
+            log.error("Error applying storage usage from holder {}: {}", request.getHolderId(), e.getMessage(), e);
+            responseObserver.onError(Status.INTERNAL
+                    .withDescription("Internal error applying storage usage: " + e.getMessage())
+                    .asRuntimeException());
+        }
+    }
+
     // --- Admin Operations ---
 
     @Override
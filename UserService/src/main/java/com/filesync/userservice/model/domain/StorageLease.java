@@ -0,0 +1,54 @@
+package com.filesync.userservice.model.domain;
+
+import jakarta.persistence.*;
+import lombok.*;
+import org.hibernate.annotations.CreationTimestamp;
+import org.hibernate.annotations.UpdateTimestamp;
+import org.hibernate.annotations.UuidGenerator;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Часть квоты пользователя, зарезервированная экземпляром FileService (holder).
+ * Экземпляр расходует ее локально и периодически отчитывается о потраченных байтах
+ */
+@Entity
+@Table(name = "storage_leases")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class StorageLease {
+
+    @Id
+    @GeneratedValue
+    @UuidGenerator
+    private UUID id;
+
+    @Column(name = "user_id", nullable = false)
+    private UUID userId;
+
+    @Column(name = "holder_id", nullable = false, length = 100)
+    private String holderId;
+
+    @Column(name = "reserved_bytes", nullable = false)
+    @Builder.Default
+    private Long reservedBytes = 0L;
+
+    @Column(name = "expires_at", nullable = false)
+    private LocalDateTime expiresAt;
+
+    @CreationTimestamp
+    @Column(name = "created_at", nullable = false, updatable = false)
+    private LocalDateTime createdAt;
+
+    @UpdateTimestamp
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt;
+
+    public boolean isActive(LocalDateTime now) {
+        return expiresAt.isAfter(now);
+    }
+}
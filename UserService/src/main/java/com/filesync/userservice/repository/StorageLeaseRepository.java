@@ -0,0 +1,30 @@
+package com.filesync.userservice.repository;
+
+import com.filesync.userservice.model.domain.StorageLease;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+import java.util.UUID;
+
+@Repository
+public interface StorageLeaseRepository extends JpaRepository<StorageLease, UUID> {
+
+    Optional<StorageLease> findByUserIdAndHolderId(UUID userId, String holderId);
+
+    @Query("SELECT COALESCE(SUM(l.reservedBytes), 0) FROM StorageLease l " +
+            "WHERE l.userId = :userId AND l.holderId <> :holderId AND l.expiresAt > :now")
+    long sumActiveReservedByOthers(@Param("userId") UUID userId,
+            @Param("holderId") String holderId,
+            @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Query("DELETE FROM StorageLease l WHERE l.userId = :userId AND l.expiresAt <= :now")
+    int deleteExpiredForUser(@Param("userId") UUID userId, @Param("now") LocalDateTime now);
+
+    void deleteByUserIdAndHolderId(UUID userId, String holderId);
+}
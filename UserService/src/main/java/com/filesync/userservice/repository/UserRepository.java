@@ -1,9 +1,12 @@
 package com.filesync.userservice.repository;
 
 import com.filesync.userservice.model.domain.User;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
@@ -21,6 +24,17 @@ public interface UserRepository extends JpaRepository<User, UUID> {
 
         long countByIsBlocked(Boolean isBlocked);
 
+        // Блокировка строки пользователя на время выдачи аренды квоты
+        @Lock(LockModeType.PESSIMISTIC_WRITE)
+        @Query("SELECT u FROM User u WHERE u.id = :id")
+        java.util.Optional<User> findByIdForUpdate(@Param("id") UUID id);
+
+        // Атомарное изменение занятого места (без read-modify-write)
+        @Modifying
+        @Query(value = "UPDATE users SET storage_used = GREATEST(storage_used + :delta, 0), " +
+                        "updated_at = CURRENT_TIMESTAMP WHERE id = :id", nativeQuery = true)
+        int addStorageUsed(@Param("id") UUID id, @Param("delta") long delta);
+
         // Dynamic stats queries
 
         @Query("SELECT COUNT(u) FROM User u WHERE u.createdAt <= :date")
@@ -0,0 +1,21 @@
+package com.filesync.userservice.service;
+
+import java.time.LocalDateTime;
+
+/**
+ * Результат запроса аренды квоты
+ *
+ * @param granted      выдано ли не меньше запрошенного минимума
+ * @param grantedBytes сколько байт добавлено к аренде этим запросом
+ * @param leaseBytes   общий остаток аренды держателя после запроса
+ * @param expiresAt    срок действия аренды
+ */
+public record StorageLeaseGrant(
+        boolean granted,
+        long grantedBytes,
+        long leaseBytes,
+        LocalDateTime expiresAt,
+        long storageUsed,
+        long storageQuota,
+        long maxFileSize) {
+}
@@ -0,0 +1,17 @@
+package com.filesync.userservice.service;
+
+import java.util.UUID;
+
+/**
+ * Накопленное изменение занятого места пользователя от держателя аренды
+ *
+ * @param usedDelta          изменение storage_used (отрицательное при удалении)
+ * @param consumedLeaseBytes сколько байт аренды израсходовано (переносится в storage_used)
+ * @param releaseLease       вернуть неизрасходованный остаток аренды
+ */
+public record StorageUsageChange(
+        UUID userId,
+        long usedDelta,
+        long consumedLeaseBytes,
+        boolean releaseLease) {
+}
@@ -29,6 +29,11 @@ public interface UserService {
 
     void updateStorageUsed(UUID userId, long delta);
 
+    StorageLeaseGrant acquireStorageLease(UUID userId, String holderId, long minBytes, long requestedBytes,
+            java.time.Duration ttl);
+
+    void reportStorageUsage(String holderId, java.util.List<StorageUsageChange> deltas);
+
     // Admin
     Page<User> listUsers(String search, String plan, Pageable pageable);
 
@@ -1,13 +1,17 @@
 package com.filesync.userservice.service.impl;
 
 import com.filesync.userservice.model.domain.AdminAction;
+import com.filesync.userservice.model.domain.StorageLease;
 import com.filesync.userservice.model.domain.User;
 import com.filesync.userservice.model.domain.UserQuota;
 import com.filesync.userservice.model.domain.UserSettings;
 import com.filesync.userservice.repository.AdminActionRepository;
+import com.filesync.userservice.repository.StorageLeaseRepository;
 import com.filesync.userservice.repository.UserQuotaRepository;
 import com.filesync.userservice.repository.UserRepository;
 import com.filesync.userservice.repository.UserSettingsRepository;
+import com.filesync.userservice.service.StorageLeaseGrant;
+import com.filesync.userservice.service.StorageUsageChange;
 import com.filesync.userservice.service.UserService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -16,7 +20,9 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.List;
 import java.util.UUID;
 
 @Service
@@ -28,6 +34,7 @@ public class UserServiceImpl implements UserService {
     private final UserSettingsRepository userSettingsRepository;
     private final UserQuotaRepository userQuotaRepository;
     private final AdminActionRepository adminActionRepository;
+    private final StorageLeaseRepository storageLeaseRepository;
     private final com.filesync.userservice.service.integration.AuthServiceClient authServiceClient;
     private final com.filesync.userservice.event.UserEventPublisher eventPublisher;
 
@@ -119,7 +126,25 @@ public class UserServiceImpl implements UserService {
             user.setName(name);
         if (avatarUrl != null)
             user.setAvatarUrl(avatarUrl);
-        return userRepository.save(user);
+        User saved = userRepository.save(user);
+        publishUserUpdatedEvent(userId);
+        return saved;
+    }
+
+    /**
+     * Сигнал потребителям, кэширующим профиль (имя, аватар), что его нужно перечитать
+     */
+    private void publishUserUpdatedEvent(UUID userId) {
+        try {
+            eventPublisher.publish(com.filesync.userservice.event.UserEvent.builder()
+                    .eventId(UUID.randomUUID().toString())
+                    .eventType("user.updated")
+                    .userId(userId)
+                    .timestamp(LocalDateTime.now())
+                    .build());
+        } catch (Exception e) {
+            log.error("Failed to publish user.updated event: {}", e.getMessage());
+        }
     }
 
     @Override
@@ -238,6 +263,73 @@ public class UserServiceImpl implements UserService {
         userRepository.save(user);
     }
 
+    @Override
+    @Transactional
+    public StorageLeaseGrant acquireStorageLease(UUID userId, String holderId, long minBytes, long requestedBytes,
+            Duration ttl) {
+        if (!userRepository.existsById(userId)) {
+            // Как и в checkQuota: профиль создается при первом обращении FileService
+            createUser(userId, "user-" + userId + "@example.com", "User");
+        }
+
+        // Блокировка строки пользователя сериализует выдачу аренд одному пользователю
+        User user = userRepository.findByIdForUpdate(userId)
+                .orElseThrow(() -> new RuntimeException("User not found: " + userId));
+        LocalDateTime now = LocalDateTime.now();
+        storageLeaseRepository.deleteExpiredForUser(userId, now);
+
+        StorageLease lease = storageLeaseRepository.findByUserIdAndHolderId(userId, holderId)
+                .orElseGet(() -> StorageLease.builder()
+                        .userId(userId)
+                        .holderId(holderId)
+                        .build());
+
+        long reservedByOthers = storageLeaseRepository.sumActiveReservedByOthers(userId, holderId, now);
+        long free = user.getStorageQuota() - user.getStorageUsed() - reservedByOthers - lease.getReservedBytes();
+        long grant = Math.min(Math.max(requestedBytes, minBytes), Math.max(free, 0L));
+        boolean granted = grant >= minBytes;
+        if (!granted) {
+            grant = 0L;
+        }
+
+        lease.setReservedBytes(lease.getReservedBytes() + grant);
+        lease.setExpiresAt(now.plus(ttl));
+        if (lease.getReservedBytes() > 0 || lease.getId() != null) {
+            lease = storageLeaseRepository.save(lease);
+        }
+
+        long maxFileSize = userQuotaRepository.findByUserId(userId)
+                .map(UserQuota::getMaxFileSize)
+                .orElse(104857600L); // Default 100MB
+
+        log.debug("Storage lease for user {} holder {}: min={}, requested={}, granted={}, leaseBytes={}",
+                userId, holderId, minBytes, requestedBytes, grant, lease.getReservedBytes());
+
+        return new StorageLeaseGrant(granted, grant, lease.getReservedBytes(), lease.getExpiresAt(),
+                user.getStorageUsed(), user.getStorageQuota(), maxFileSize);
+    }
+
+    @Override
+    @Transactional
+    public void reportStorageUsage(String holderId, List<StorageUsageChange> deltas) {
+        for (StorageUsageChange delta : deltas) {
+            if (delta.usedDelta() != 0 && userRepository.addStorageUsed(delta.userId(), delta.usedDelta()) == 0) {
+                log.warn("Storage usage reported for unknown user {}", delta.userId());
+                continue;
+            }
+
+            if (delta.releaseLease()) {
+                storageLeaseRepository.deleteByUserIdAndHolderId(delta.userId(), holderId);
+            } else if (delta.consumedLeaseBytes() > 0) {
+                // Израсходованные байты уже учтены в storage_used - убираем их из аренды
+                storageLeaseRepository.findByUserIdAndHolderId(delta.userId(), holderId)
+                        .ifPresent(lease -> lease.setReservedBytes(
+                                Math.max(lease.getReservedBytes() - delta.consumedLeaseBytes(), 0L)));
+            }
+        }
+        log.debug("Applied {} storage usage deltas from holder {}", deltas.size(), holderId);
+    }
+
     @Override
     public Page<User> listUsers(String search, String plan, Pageable pageable) {
         String searchParam = (search != null && !search.isEmpty()) ? "%" + search.toLowerCase() + "%" : null;
@@ -285,6 +377,7 @@ public class UserServiceImpl implements UserService {
     }
 
     @Override
+    @Transactional(readOnly = true)
     public java.util.List<User> getUsersByIds(java.util.List<UUID> ids) {
         return userRepository.findAllById(ids);
     }
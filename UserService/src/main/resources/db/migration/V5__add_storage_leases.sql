@@ -0,0 +1,30 @@
+-- ============================================================
+-- Migration V5: Storage leases for FileService instances
+-- ============================================================
+-- Changes:
+-- 1. Add storage_leases: bytes of quota reserved by a FileService instance
+--    (holder) for a user and spent locally without a round trip per upload
+-- 2. One lease per (user, holder); expired leases free their bytes
+-- ============================================================
+-- Free space for a new grant = storage_quota - storage_used
+--                              - SUM(active leases of the user).
+-- Consumed bytes are moved from the lease into storage_used by
+-- ReportStorageUsage batches.
+-- ============================================================
+
+CREATE TABLE IF NOT EXISTS storage_leases (
+    id UUID PRIMARY KEY DEFAULT gen_random_uuid(),
+    user_id UUID NOT NULL REFERENCES users(id) ON DELETE CASCADE,
+    holder_id VARCHAR(100) NOT NULL,
+    reserved_bytes BIGINT NOT NULL DEFAULT 0,
+    expires_at TIMESTAMP NOT NULL,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+
+    CONSTRAINT uq_storage_leases_user_holder UNIQUE (user_id, holder_id),
+    CONSTRAINT check_storage_leases_reserved CHECK (reserved_bytes >= 0)
+);
+
+CREATE INDEX IF NOT EXISTS idx_storage_leases_expires_at ON storage_leases(expires_at);
+
+COMMENT ON TABLE storage_leases IS 'Quota reserved by FileService instances and spent locally';
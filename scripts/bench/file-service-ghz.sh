@@ -0,0 +1,70 @@
+#!/bin/bash
+set -euo pipefail
+
+# Нагрузочный прогон FileService через ghz (https://ghz.sh): GetFile и ListFiles при заданном
+# числе одновременных запросов. Сравнение режимов исполнения:
+#   1. FileService с VIRTUAL_THREADS_ENABLED=false  -> ./file-service-ghz.sh platform
+#   2. FileService с VIRTUAL_THREADS_ENABLED=true   -> ./file-service-ghz.sh virtual
+# Отчеты (JSON ghz) пишутся в $OUT_DIR/<режим>-<rpc>.json; сводка - в stdout.
+# Во время прогона стоит смотреть метрики file.executor.active / file.executor.waiting
+# и hikaricp_connections_pending (/actuator/prometheus): ожидание должно копиться в семафоре
+# обработчиков, а не в пуле соединений.
+#
+# Переменные окружения:
+#   TARGET       адрес gRPC FileService            (по умолчанию localhost:9093)
+#   USER_ID      владелец тестовых файлов          (обязательно)
+#   FILE_ID      файл этого пользователя для GetFile (обязательно)
+#   CONCURRENCY  одновременных запросов            (по умолчанию 5000)
+#   TOTAL        всего запросов на RPC              (по умолчанию 200000)
+#   CONNECTIONS  HTTP/2-соединений ghz              (по умолчанию 50)
+#   OUT_DIR      каталог отчетов                    (по умолчанию ./bench-results)
+
+MODE="${1:?Укажите режим: platform или virtual}"
+TARGET="${TARGET:-localhost:9093}"
+USER_ID="${USER_ID:?Задайте USER_ID}"
+FILE_ID="${FILE_ID:?Задайте FILE_ID}"
+CONCURRENCY="${CONCURRENCY:-5000}"
+TOTAL="${TOTAL:-200000}"
+CONNECTIONS="${CONNECTIONS:-50}"
+OUT_DIR="${OUT_DIR:-./bench-results}"
+
+SCRIPT_DIR="$(cd "$(dirname "${BASH_SOURCE[0]}")" && pwd)"
+PROTO_DIR="$SCRIPT_DIR/../../FIleService/src/main/proto"
+
+command -v ghz >/dev/null || { echo "ghz не найден: https://ghz.sh/docs/install" >&2; exit 1; }
+mkdir -p "$OUT_DIR/warmup"
+
+run() {
+    local rpc="$1" data="$2"
+    local report="$OUT_DIR/$MODE-$rpc.json"
+
+    echo "== $MODE: file.FileService/$rpc, concurrency=$CONCURRENCY, total=$TOTAL"
+    ghz --insecure \
+        --proto "$PROTO_DIR/file.proto" \
+        --import-paths "$PROTO_DIR" \
+        --call "file.FileService/$rpc" \
+        --data "$data" \
+        --concurrency "$CONCURRENCY" \
+        --total "$TOTAL" \
+        --connections "$CONNECTIONS" \
+        --timeout 30s \
+        --format json \
+        --output "$report" \
+        "$TARGET"
+
+    # RPS, перцентили задержки и распределение статусов из отчета
+    if command -v jq >/dev/null; then
+        jq -r '"rps=\(.rps | floor) p50=\(.latencyDistribution[] | select(.percentage == 50) | .latency / 1e6)ms " +
+               "p99=\(.latencyDistribution[] | select(.percentage == 99) | .latency / 1e6)ms " +
+               "statuses=\(.statusCodeDistribution)"' "$report"
+    else
+        echo "отчет: $report"
+    fi
+}
+
+# Прогрев: JIT и пулы соединений до замера
+CONCURRENCY=100 TOTAL=5000 OUT_DIR="$OUT_DIR/warmup" run GetFile \
+    "{\"file_id\":\"$FILE_ID\",\"user_id\":\"$USER_ID\"}" >/dev/null
+
+run GetFile "{\"file_id\":\"$FILE_ID\",\"user_id\":\"$USER_ID\"}"
+run ListFiles "{\"user_id\":\"$USER_ID\",\"limit\":50}"